@@ -0,0 +1,686 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.ja.mecab.dict.MecabWorkDictionary;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 文単位の解析結果の永続キャッシュ
+ *
+ * <p>再index時に変更のない文のMecabの解析を省略する為、文毎の形態素
+ * (文内の位置, 文字長, 品詞ID, 形態素種別, コスト, 素性情報, 位置の長さ)をファイルに追記して保持する。
+ * キーは文の内容のハッシュ値と解析設定(辞書の版を含む)で、文の内容もレコードに保持して照合する。
+ *
+ * <p>解析設定毎にファイルを分け、辞書ファイルが更新された場合は以前の版のファイルを削除する。
+ * ファイルは{@link #SEGMENT_BYTES}単位でメモリマップし、レコードはセグメントを跨がない。
+ * 上限サイズを超えた場合は、有効なレコードを新しいものから上限の半分まで残してファイルを再作成(compaction)する。
+ * Java 8ではメモリマップを明示的に解放できない為、再作成前のマップはGCで解放される。
+ *
+ * <pre>
+ * ヘッダ: magic(int) 形式の版(int) 解析設定の文字長(int) 解析設定(char[])
+ * レコード: byte長(int) CRC32(int) ハッシュ値(long) 文字長(int) 文(char[]) 形態素数(int)
+ *          形態素毎に 位置(int) 文字長(int) 品詞ID(int) 形態素種別(int) 累積コスト(long) 単語生起コスト(short)
+ *          位置の長さ(int) 素性情報の文字長(int, 無い場合は-1) 素性情報(char[])
+ * </pre>
+ * byte長はレコードの書き込み後に設定し、0はファイルの終わり、-1は次のセグメントへの移動を示す。
+ */
+public final class MecabAnalysisCache {
+
+  private static final Logger logger = LogManager.getLogger(MecabAnalysisCache.class);
+
+  /** デフォルトのファイルあたりの上限サイズ */
+  public static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+  /** メモリマップの単位 */
+  static final int SEGMENT_BYTES = 1 << 26;
+  /** キャッシュする最小の文字数(短い文は解析の方が速い) */
+  static final int MIN_SENTENCE_CHARS = 4;
+
+  private static final int MAGIC = 0x4d434143;
+  private static final int FORMAT_VERSION = 1;
+  private static final String SUFFIX = ".mcache";
+  /** 次のセグメントへの移動 */
+  private static final int SKIP = -1;
+  private static final int RECORD_HEADER_BYTES = 4 + 4 + 8 + 4;
+  private static final int TOKEN_BYTES = 4 + 4 + 4 + 4 + 8 + 2 + 4 + 4;
+
+  private static volatile Path directory = null;
+  private static volatile long maxBytes = DEFAULT_MAX_BYTES;
+  private static final ConcurrentMap<String, Store> STORES = new ConcurrentHashMap<>();
+
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+  private static final LongAdder WRITES = new LongAdder();
+  private static final LongAdder COMPACTIONS = new LongAdder();
+  /** 辞書の更新により削除したファイルの数 */
+  private static final LongAdder INVALIDATIONS = new LongAdder();
+  private static final LongAdder ERRORS = new LongAdder();
+
+  private MecabAnalysisCache() {
+  }
+
+  /**
+   * キャッシュを設定する
+   *
+   * @param dir ファイルを作成するディレクトリ(nullの場合はキャッシュしない)
+   * @param max ファイルあたりの上限サイズ
+   */
+  public static synchronized void configure(Path dir, long max) {
+    if (dir != null && max < 2L * SEGMENT_BYTES) {
+      throw new IllegalArgumentException("analysis cache size must be >= " + (2L * SEGMENT_BYTES) + " bytes: " + max);
+    }
+    close();
+    maxBytes = max;
+    directory = dir;
+  }
+
+  /** キャッシュが有効か */
+  public static boolean isEnabled() {
+    return directory != null;
+  }
+
+  /**
+   * 全てのファイルを閉じる
+   */
+  public static synchronized void close() {
+    directory = null;
+    for (Store store : STORES.values()) {
+      store.close();
+    }
+    STORES.clear();
+  }
+
+  /**
+   * 解析設定のキャッシュを取得する
+   *
+   * @param analysisKey 解析設定(辞書の版を除く)
+   * @param version 辞書ファイルの版
+   * @return  キャッシュ(無効な場合・ファイルを使用できない場合はnull)
+   */
+  static Store store(String analysisKey, long version) {
+    Path dir = directory;
+    if (dir == null) {
+      return null;
+    }
+    String key = analysisKey + " version=" + version;
+    Store store = STORES.get(key);
+    if (store == null) {
+      store = STORES.computeIfAbsent(key, k -> Store.open(dir, analysisKey, version, maxBytes));
+    }
+    return store.isOpen() ? store : null;
+  }
+
+  /**
+   * 文の終了位置
+   *
+   * <p>句点・感嘆符・疑問符・改行の後(続く閉じ括弧・空白を含む)を文の区切りとする。
+   *
+   * @param text  入力文字列
+   * @param begin 開始位置
+   * @param end   終了位置
+   * @return  文の終了位置
+   */
+  static int sentenceEnd(char[] text, int begin, int end) {
+    int pos = begin;
+    while (pos < end) {
+      switch (text[pos++]) {
+        case '。':
+        case '．':
+        case '！':
+        case '？':
+        case '!':
+        case '?':
+        case '\n':
+          while (pos < end && isSentenceTail(text[pos])) {
+            pos++;
+          }
+          return pos;
+        default:
+          break;
+      }
+    }
+    return end;
+  }
+
+  private static boolean isSentenceTail(char ch) {
+    switch (ch) {
+      case '。':
+      case '．':
+      case '！':
+      case '？':
+      case '!':
+      case '?':
+      case '」':
+      case '』':
+      case '）':
+      case ')':
+      case '\r':
+      case '\n':
+      case ' ':
+      case '　':
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** 文字列のハッシュ値(FNV-1a) */
+  static long hash(char[] text, int begin, int end) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = begin; i < end; i++) {
+      hash ^= text[i];
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * 統計情報の取得
+   *
+   * @return  項目名と値
+   */
+  public static Map<String, Object> snapshot() {
+    long entries = 0;
+    long bytes = 0;
+    int files = 0;
+    for (Store store : STORES.values()) {
+      if (store.isOpen()) {
+        files++;
+        entries += store.entries();
+        bytes += store.size();
+      }
+    }
+    Map<String, Object> stats = new TreeMap<>();
+    stats.put("enabled", directory != null);
+    stats.put("files", (long) files);
+    stats.put("entries", entries);
+    stats.put("size_in_bytes", bytes);
+    stats.put("hits", HITS.sum());
+    stats.put("misses", MISSES.sum());
+    stats.put("writes", WRITES.sum());
+    stats.put("compactions", COMPACTIONS.sum());
+    stats.put("invalidations", INVALIDATIONS.sum());
+    stats.put("errors", ERRORS.sum());
+    return stats;
+  }
+
+  private static <T> T privileged(PrivilegedExceptionAction<T> action) throws IOException {
+    try {
+      return AccessController.doPrivileged(action);
+    } catch (PrivilegedActionException e) {
+      throw (IOException) e.getException();
+    }
+  }
+
+  /**
+   * キャッシュから読み込んだ形態素の登録先
+   */
+  interface Sink {
+    /**
+     * 形態素を登録する
+     *
+     * @param offset  入力文字列の位置
+     * @param length  文字長
+     * @param posid 品詞ID
+     * @param stat  形態素種別
+     * @param cost  累積コスト
+     * @param wcost 単語生起コスト
+     * @param feature 素性情報(代替処理の場合はnull)
+     * @param positionLength  位置の長さ(0:分割元の形態素ではない)
+     */
+    void add(int offset, int length, int posid, int stat, long cost, short wcost, String feature, int positionLength);
+  }
+
+  /**
+   * 解析設定毎のファイル
+   */
+  static final class Store {
+    private final Path path;
+    private final String key;
+    private final long limit;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private int headerBytes;
+    /** 追記位置 */
+    private long end;
+    /** ハッシュ値とレコードの位置 */
+    private Map<Long, Long> index = new HashMap<>();
+    private boolean open;
+
+    private Store(Path path, String key, long limit) {
+      this.path = path;
+      this.key = key;
+      this.limit = limit;
+    }
+
+    /**
+     * ファイルを開く(同じ解析設定の以前の版のファイルは削除する)
+     */
+    static Store open(Path dir, String analysisKey, long version, long limit) {
+      long keyHash = hash(analysisKey.toCharArray(), 0, analysisKey.length());
+      String prefix = String.format(Locale.ROOT, "%016x-", keyHash);
+      String name = prefix + Long.toHexString(version) + SUFFIX;
+      Store store = new Store(dir.resolve(name), analysisKey + " version=" + version, limit);
+      try {
+        privileged(() -> {
+          Files.createDirectories(dir);
+          try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + SUFFIX)) {
+            for (Path file : files) {
+              if (!file.getFileName().toString().equals(name)) {
+                Files.deleteIfExists(file);
+                INVALIDATIONS.increment();
+              }
+            }
+          }
+          store.load();
+          return null;
+        });
+      } catch (IOException | RuntimeException e) {
+        ERRORS.increment();
+        logger.warn("mecab analysis cache [" + store.path + "] is disabled", e);
+        store.close();
+      }
+      return store;
+    }
+
+    boolean isOpen() {
+      return this.open;
+    }
+
+    /** 有効なレコードの数 */
+    int entries() {
+      this.lock.readLock().lock();
+      try {
+        return this.index.size();
+      } finally {
+        this.lock.readLock().unlock();
+      }
+    }
+
+    /** ファイルの使用範囲のbyte長 */
+    long size() {
+      return this.end;
+    }
+
+    /**
+     * ファイルを読み込み、レコードの索引を作成する
+     */
+    private void load() throws IOException {
+      this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      this.headerBytes = 12 + 2 * this.key.length();
+      if (this.channel.size() == 0 || !readHeader()) {
+        this.channel.truncate(0);
+        this.segments = new MappedByteBuffer[0];
+        writeHeader();
+        this.end = this.headerBytes;
+      } else {
+        scan();
+      }
+      this.open = true;
+    }
+
+    private boolean readHeader() throws IOException {
+      ByteBuffer segment = segment(0);
+      if (segment.getInt(0) != MAGIC || segment.getInt(4) != FORMAT_VERSION
+          || segment.getInt(8) != this.key.length()) {
+        return false;
+      }
+      for (int i = 0; i < this.key.length(); i++) {
+        if (segment.getChar(12 + 2 * i) != this.key.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void writeHeader() throws IOException {
+      ByteBuffer segment = segment(0);
+      segment.putInt(0, MAGIC);
+      segment.putInt(4, FORMAT_VERSION);
+      segment.putInt(8, this.key.length());
+      for (int i = 0; i < this.key.length(); i++) {
+        segment.putChar(12 + 2 * i, this.key.charAt(i));
+      }
+    }
+
+    /**
+     * レコードを走査して索引を作成する(CRCが一致しないレコード以降は使用しない)
+     */
+    private void scan() throws IOException {
+      long segmentCount = (this.channel.size() + SEGMENT_BYTES - 1) / SEGMENT_BYTES;
+      long pos = this.headerBytes;
+      CRC32 crc = new CRC32();
+      while (pos / SEGMENT_BYTES < segmentCount) {
+        ByteBuffer segment = segment((int) (pos / SEGMENT_BYTES));
+        int off = (int) (pos % SEGMENT_BYTES);
+        int bytes = SEGMENT_BYTES - off >= 4 ? segment.getInt(off) : SKIP;
+        if (bytes == SKIP) {
+          pos = (pos / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+          continue;
+        }
+        if (bytes < RECORD_HEADER_BYTES + 4 || bytes > SEGMENT_BYTES - off
+            || segment.getInt(off + 4) != crc(crc, segment, off, bytes)) {
+          break;
+        }
+        this.index.put(segment.getLong(off + 8), pos);
+        pos += bytes;
+      }
+      this.end = pos;
+    }
+
+    private static int crc(CRC32 crc, ByteBuffer segment, int off, int bytes) {
+      ByteBuffer data = segment.duplicate();
+      data.position(off + 8).limit(off + bytes);
+      crc.reset();
+      crc.update(data);
+      return (int) crc.getValue();
+    }
+
+    /**
+     * セグメントを取得する(存在しない場合はファイルを拡張してマップする)
+     */
+    private MappedByteBuffer segment(int number) throws IOException {
+      if (number >= this.segments.length) {
+        this.segments = Arrays.copyOf(this.segments, number + 1);
+      }
+      MappedByteBuffer segment = this.segments[number];
+      if (segment == null) {
+        segment = this.channel.map(FileChannel.MapMode.READ_WRITE, (long) number * SEGMENT_BYTES, SEGMENT_BYTES);
+        this.segments[number] = segment;
+      }
+      return segment;
+    }
+
+    /**
+     * 文の解析結果を読み込む
+     *
+     * @param text  入力文字列
+     * @param begin 文の開始位置
+     * @param end   文の終了位置
+     * @param sink  形態素の登録先
+     * @return  true:解析結果あり/false:解析結果なし
+     */
+    boolean replay(char[] text, int begin, int end, Sink sink) {
+      long hash = hash(text, begin, end);
+      this.lock.readLock().lock();
+      try {
+        Long pos = this.open ? this.index.get(hash) : null;
+        if (pos == null || !matches(pos, text, begin, end)) {
+          MISSES.increment();
+          return false;
+        }
+        ByteBuffer segment = this.segments[(int) (pos / SEGMENT_BYTES)];
+        int p = (int) (pos % SEGMENT_BYTES) + RECORD_HEADER_BYTES + 2 * (end - begin);
+        int count = segment.getInt(p);
+        p += 4;
+        for (int i = 0; i < count; i++) {
+          int offset = segment.getInt(p);
+          int length = segment.getInt(p + 4);
+          int posid = segment.getInt(p + 8);
+          int stat = segment.getInt(p + 12);
+          long cost = segment.getLong(p + 16);
+          short wcost = segment.getShort(p + 24);
+          int positionLength = segment.getInt(p + 26);
+          int featureLength = segment.getInt(p + 30);
+          p += TOKEN_BYTES;
+          String feature = null;
+          if (featureLength >= 0) {
+            char[] chars = new char[featureLength];
+            for (int c = 0; c < featureLength; c++) {
+              chars[c] = segment.getChar(p);
+              p += 2;
+            }
+            feature = new String(chars);
+          }
+          sink.add(begin + offset, length, posid, stat, cost, wcost, feature, positionLength);
+        }
+        HITS.increment();
+        return true;
+      } finally {
+        this.lock.readLock().unlock();
+      }
+    }
+
+    private boolean matches(long pos, char[] text, int begin, int end) {
+      ByteBuffer segment = this.segments[(int) (pos / SEGMENT_BYTES)];
+      int off = (int) (pos % SEGMENT_BYTES);
+      if (segment.getInt(off + 16) != end - begin) {
+        return false;
+      }
+      int p = off + RECORD_HEADER_BYTES;
+      for (int i = begin; i < end; i++, p += 2) {
+        if (segment.getChar(p) != text[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * 文の解析結果を追記する
+     *
+     * @param text  入力文字列
+     * @param begin 文の開始位置
+     * @param end   文の終了位置
+     * @param dictionary  解析結果のwork辞書
+     * @param fromId  文の最初の形態素の単語ID
+     * @param positionLengths 単語ID毎の位置の長さ
+     */
+    void put(char[] text, int begin, int end, MecabWorkDictionary dictionary, int fromId, int[] positionLengths) {
+      int toId = dictionary.size();
+      long size = RECORD_HEADER_BYTES + 2L * (end - begin) + 4;
+      for (int id = fromId; id < toId; id++) {
+        String feature = dictionary.getFeature(id);
+        size += TOKEN_BYTES + (feature == null ? 0 : 2L * feature.length());
+      }
+      if (size > SEGMENT_BYTES - this.headerBytes) {
+        return;
+      }
+      int bytes = (int) size;
+      long hash = hash(text, begin, end);
+      this.lock.writeLock().lock();
+      try {
+        if (!this.open) {
+          return;
+        }
+        Long previous = this.index.get(hash);
+        if (previous != null && matches(previous, text, begin, end)) {
+          // 他のスレッドが追記済み
+          return;
+        }
+        long pos = reserve(bytes);
+        ByteBuffer segment = segment((int) (pos / SEGMENT_BYTES));
+        int off = (int) (pos % SEGMENT_BYTES);
+        segment.putLong(off + 8, hash);
+        segment.putInt(off + 16, end - begin);
+        int p = off + RECORD_HEADER_BYTES;
+        for (int i = begin; i < end; i++, p += 2) {
+          segment.putChar(p, text[i]);
+        }
+        segment.putInt(p, toId - fromId);
+        p += 4;
+        for (int id = fromId; id < toId; id++) {
+          String feature = dictionary.getFeature(id);
+          segment.putInt(p, dictionary.getOffset(id) - begin);
+          segment.putInt(p + 4, dictionary.getLength(id));
+          segment.putInt(p + 8, dictionary.getPosId(id));
+          segment.putInt(p + 12, dictionary.getStat(id));
+          segment.putLong(p + 16, dictionary.getCost(id));
+          segment.putShort(p + 24, (short) dictionary.getWordCost(id));
+          segment.putInt(p + 26, positionLengths[id]);
+          segment.putInt(p + 30, feature == null ? -1 : feature.length());
+          p += TOKEN_BYTES;
+          if (feature != null) {
+            for (int c = 0; c < feature.length(); c++, p += 2) {
+              segment.putChar(p, feature.charAt(c));
+            }
+          }
+        }
+        segment.putInt(off + 4, crc(new CRC32(), segment, off, bytes));
+        // byte長の設定でレコードを有効とする
+        segment.putInt(off, bytes);
+        this.index.put(hash, pos);
+        this.end = pos + bytes;
+        WRITES.increment();
+      } catch (IOException | UncheckedIOException e) {
+        ERRORS.increment();
+        logger.warn("failed to write mecab analysis cache [" + this.path + "], disabling it", e);
+        close();
+      } finally {
+        this.lock.writeLock().unlock();
+      }
+    }
+
+    /**
+     * 追記位置を確保する(上限サイズを超える場合はcompactionを行う)
+     */
+    private long reserve(int bytes) throws IOException {
+      long pos = nextPosition(this.end, bytes);
+      if (pos + bytes > this.limit) {
+        compact();
+        pos = nextPosition(this.end, bytes);
+      }
+      if (pos != this.end) {
+        // セグメントの残りは使用しない
+        ByteBuffer segment = segment((int) (this.end / SEGMENT_BYTES));
+        int off = (int) (this.end % SEGMENT_BYTES);
+        if (SEGMENT_BYTES - off >= 4) {
+          segment.putInt(off, SKIP);
+        }
+      }
+      return pos;
+    }
+
+    private static long nextPosition(long pos, int bytes) {
+      if (pos % SEGMENT_BYTES + bytes > SEGMENT_BYTES) {
+        return (pos / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+      }
+      return pos;
+    }
+
+    /**
+     * 有効なレコードを新しいものから上限の半分まで残してファイルを再作成する
+     */
+    private void compact() throws IOException {
+      long[] positions = new long[this.index.size()];
+      int count = 0;
+      for (Long pos : this.index.values()) {
+        positions[count++] = pos;
+      }
+      Arrays.sort(positions);
+      long kept = 0;
+      int first = count;
+      while (first > 0) {
+        long pos = positions[first - 1];
+        int bytes = this.segments[(int) (pos / SEGMENT_BYTES)].getInt((int) (pos % SEGMENT_BYTES));
+        if (kept + bytes > this.limit / 2) {
+          break;
+        }
+        kept += bytes;
+        first--;
+      }
+      Path tmp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+      MappedByteBuffer[] oldSegments = this.segments;
+      FileChannel oldChannel = this.channel;
+      privileged(() -> {
+        Files.deleteIfExists(tmp);
+        this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        return null;
+      });
+      this.segments = new MappedByteBuffer[0];
+      this.index = new HashMap<>();
+      writeHeader();
+      this.end = this.headerBytes;
+      for (int i = first; i < count; i++) {
+        ByteBuffer source = oldSegments[(int) (positions[i] / SEGMENT_BYTES)].duplicate();
+        int off = (int) (positions[i] % SEGMENT_BYTES);
+        int bytes = source.getInt(off);
+        long pos = nextPosition(this.end, bytes);
+        if (pos != this.end && SEGMENT_BYTES - this.end % SEGMENT_BYTES >= 4) {
+          segment((int) (this.end / SEGMENT_BYTES)).putInt((int) (this.end % SEGMENT_BYTES), SKIP);
+        }
+        source.position(off).limit(off + bytes);
+        ByteBuffer target = segment((int) (pos / SEGMENT_BYTES)).duplicate();
+        target.position((int) (pos % SEGMENT_BYTES));
+        target.put(source);
+        this.index.put(source.getLong(off + 8), pos);
+        this.end = pos + bytes;
+      }
+      privileged(() -> {
+        oldChannel.close();
+        Files.move(tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return null;
+      });
+      COMPACTIONS.increment();
+    }
+
+    /**
+     * ファイルを閉じる(以降は使用しない)
+     */
+    void close() {
+      this.lock.writeLock().lock();
+      try {
+        this.open = false;
+        this.index = new HashMap<>();
+        this.segments = new MappedByteBuffer[0];
+        if (this.channel != null) {
+          try {
+            privileged(() -> {
+              this.channel.close();
+              return null;
+            });
+          } catch (IOException e) {
+            logger.debug("failed to close mecab analysis cache [" + this.path + "]", e);
+          }
+        }
+      } finally {
+        this.lock.writeLock().unlock();
+      }
+    }
+  }
+}
@@ -22,17 +22,22 @@ import org.apache.lucene.analysis.LowerCaseFilter;
 import org.apache.lucene.analysis.StopFilter;
 import org.apache.lucene.analysis.StopwordAnalyzerBase;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.cjk.CJKWidthFilter;
-import org.apache.lucene.analysis.ja.JapaneseBaseFormFilter;
 import org.apache.lucene.analysis.ja.JapaneseKatakanaStemFilter;
-import org.apache.lucene.analysis.ja.JapanesePartOfSpeechStopFilter;
 import org.apache.lucene.analysis.ja.JapaneseTokenizer;
 import org.apache.lucene.analysis.ja.JapaneseTokenizer.Mode;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * Analyzer for Mecab that uses morphological analysis.
@@ -41,13 +46,25 @@ import java.util.Set;
  * @see org.apache.lucene.analysis.ja.JapaneseAnalyzer
  * @see MecabTokenizer
  */
-public class MecabAnalyzer extends StopwordAnalyzerBase {
+public class MecabAnalyzer extends StopwordAnalyzerBase implements Accountable {
   private final Mode mode;
   private final Set<String> stoptags;
   
   private final String userDict;
   private final String dictPath;
   private final boolean discardPunctuation;
+  private final MecabLimits limits;
+  private boolean formattedParse = false;
+  private MecabTokenizer.Engine engine = MecabTokenizer.Engine.NATIVE;
+  private boolean scriptRouting = false;
+  private MecabNormalization normalization = MecabNormalization.NONE;
+  private boolean sharedParse = true;
+  private boolean analysisCache = true;
+  private boolean fusedFilter = false;
+  private String memoryOwner = null;
+  /** 作成したTokenizer(スレッド毎に再利用される) */
+  private final Set<MecabTokenizer> tokenizers = Collections.synchronizedSet(
+      Collections.newSetFromMap(new WeakHashMap<MecabTokenizer, Boolean>()));
   
   public MecabAnalyzer() {
     this(null, null, true, 
@@ -62,14 +79,143 @@ public class MecabAnalyzer extends StopwordAnalyzerBase {
           boolean discardPunctuation, 
           Mode mode, CharArraySet stopwords, 
           Set<String> stoptags) {
+    this(dictPath, userDict, discardPunctuation, mode, stopwords, stoptags, MecabLimits.UNLIMITED);
+  }
+
+  public MecabAnalyzer(
+          String dictPath, 
+          String userDict, 
+          boolean discardPunctuation, 
+          Mode mode, CharArraySet stopwords, 
+          Set<String> stoptags,
+          MecabLimits limits) {
     super(stopwords);
     this.dictPath = dictPath;
     this.userDict = userDict;
     this.mode = mode;
     this.stoptags = stoptags;
     this.discardPunctuation = discardPunctuation;
+    this.limits = limits;
   }
   
+  /**
+   * 解析結果の取得方法を設定する
+   *
+   * @param formattedParse  true:書式化した解析結果を1回の呼び出しで取得/false:Node毎に取得
+   * @see MecabTokenizer#setFormattedParse(boolean)
+   */
+  public void setFormattedParse(boolean formattedParse) {
+    this.formattedParse = formattedParse;
+  }
+
+  /**
+   * 形態素解析の実行エンジンを設定する
+   *
+   * @param engine  形態素解析の実行エンジン
+   */
+  public void setEngine(MecabTokenizer.Engine engine) {
+    this.engine = engine;
+  }
+
+  /**
+   * 文字種による振り分けを設定する
+   *
+   * @param scriptRouting  true:日本語の範囲のみMecabで解析する/false:全てMecabで解析する
+   * @see MecabTokenizer#setScriptRouting(boolean)
+   */
+  public void setScriptRouting(boolean scriptRouting) {
+    this.scriptRouting = scriptRouting;
+  }
+
+  /**
+   * 入力の正規化を設定する
+   *
+   * @param normalization 入力の正規化
+   * @see MecabTokenizer#setNormalization(MecabNormalization)
+   */
+  public void setNormalization(MecabNormalization normalization) {
+    this.normalization = normalization;
+  }
+
+  /**
+   * 解析結果の共有を設定する
+   *
+   * @param sharedParse  true:同じ解析設定のTokenizer間で解析結果を共有する/false:Tokenizer毎に解析する
+   * @see MecabTokenizer#setSharedParse(boolean)
+   */
+  public void setSharedParse(boolean sharedParse) {
+    this.sharedParse = sharedParse;
+  }
+
+  /**
+   * 文単位の解析結果の永続キャッシュの使用を設定する
+   *
+   * @param analysisCache  true:nodeのキャッシュが有効な場合に使用する/false:使用しない
+   * @see MecabTokenizer#setAnalysisCache(boolean)
+   */
+  public void setAnalysisCache(boolean analysisCache) {
+    this.analysisCache = analysisCache;
+  }
+
+  /**
+   * Filterの構成を設定する
+   *
+   * @param fusedFilter  true:{@link MecabFusedFilter}で1回で処理/false:Filterを個別に適用
+   */
+  public void setFusedFilter(boolean fusedFilter) {
+    this.fusedFilter = fusedFilter;
+  }
+
+  /**
+   * 使用量を計上する所有者を設定する
+   *
+   * @param memoryOwner 所有者(index名)
+   * @see MecabTokenizer#setMemoryOwner(String)
+   */
+  public void setMemoryOwner(String memoryOwner) {
+    this.memoryOwner = memoryOwner;
+  }
+
+  /**
+   * 使用量の見積もり(作成したTokenizerの合計)
+   */
+  @Override
+  public long ramBytesUsed() {
+    long bytes = 0;
+    for (MecabTokenizer tokenizer : snapshotTokenizers()) {
+      bytes += tokenizer.ramBytesUsed();
+    }
+    return bytes;
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    List<Accountable> resources = new ArrayList<>();
+    for (MecabTokenizer tokenizer : snapshotTokenizers()) {
+      resources.add(Accountables.namedAccountable("tokenizer", tokenizer));
+    }
+    return resources;
+  }
+
+  /**
+   * 作成したTokenizerのnativeリソースを解放する
+   *
+   * <p>他のスレッドで解析中のTokenizerは、解析結果の破棄後に解放する(以降の解析は行えない)。
+   */
+  @Override
+  public void close() {
+    super.close();
+    for (MecabTokenizer tokenizer : snapshotTokenizers()) {
+      tokenizer.release();
+    }
+  }
+
+  private List<MecabTokenizer> snapshotTokenizers() {
+    synchronized (this.tokenizers) {
+      return new ArrayList<>(this.tokenizers);
+    }
+  }
+
   public static CharArraySet getDefaultStopSet(){
     return DefaultSetHolder.DEFAULT_STOP_SET;
   }
@@ -104,9 +250,23 @@ public class MecabAnalyzer extends StopwordAnalyzerBase {
   
   @Override
   protected TokenStreamComponents createComponents(String fieldName) {
-    Tokenizer tokenizer = new MecabTokenizer(dictPath, userDict, discardPunctuation, mode);
-    TokenStream stream = new JapaneseBaseFormFilter(tokenizer);
-    stream = new JapanesePartOfSpeechStopFilter(stream, stoptags);
+    MecabTokenizer tokenizer = new MecabTokenizer(dictPath, userDict, discardPunctuation, mode, engine);
+    tokenizer.setLimits(limits);
+    tokenizer.setFormattedParse(formattedParse);
+    tokenizer.setScriptRouting(scriptRouting);
+    tokenizer.setNormalization(normalization);
+    tokenizer.setSharedParse(sharedParse);
+    tokenizer.setAnalysisCache(analysisCache);
+    if (memoryOwner != null) {
+      tokenizer.setMemoryOwner(memoryOwner);
+    }
+    tokenizer.setFieldName(fieldName);
+    tokenizers.add(tokenizer);
+    if (fusedFilter) {
+      return new TokenStreamComponents(tokenizer, new MecabFusedFilter(tokenizer, stoptags, stopwords));
+    }
+    TokenStream stream = new MecabBaseFormFilter(tokenizer);
+    stream = new MecabPartOfSpeechStopFilter(stream, stoptags);
     stream = new CJKWidthFilter(stream);
     stream = new StopFilter(stream, stopwords);
     stream = new JapaneseKatakanaStemFilter(stream);
@@ -114,6 +274,16 @@ public class MecabAnalyzer extends StopwordAnalyzerBase {
     return new TokenStreamComponents(tokenizer, stream);
   }
 
+  @Override
+  protected Reader initReader(String fieldName, Reader reader) {
+    // Tokenizerはスレッド毎に全てのfieldで再利用する為、解析するfield名を設定する
+    TokenStreamComponents components = getReuseStrategy().getReusableComponents(this, fieldName);
+    if (components != null && components.getTokenizer() instanceof MecabTokenizer) {
+      ((MecabTokenizer) components.getTokenizer()).setFieldName(fieldName);
+    }
+    return super.initReader(fieldName, reader);
+  }
+
   @Override
   protected TokenStream normalize(String fieldName, TokenStream in) {
     TokenStream result = new CJKWidthFilter(in);
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttribute;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+
+import java.io.IOException;
+
+/**
+ * 表層形を原形に置き換えるFilter
+ *
+ * <p>{@link org.apache.lucene.analysis.ja.JapaneseBaseFormFilter}と同等の処理を、
+ * {@link MecabFeatureAttribute}の素性情報から直接行う。
+ * 原形が無い("*")形態素及びKeywordの場合は置き換えない。
+ *
+ * @author matsu
+ */
+public final class MecabBaseFormFilter extends TokenFilter {
+
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final MecabFeatureAttribute featureAtt = addAttribute(MecabFeatureAttribute.class);
+  private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+
+  /**
+   * コンストラクタ
+   *
+   * @param input 入力
+   */
+  public MecabBaseFormFilter(TokenStream input) {
+    super(input);
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    if (!input.incrementToken()) {
+      return false;
+    }
+    if (!this.keywordAtt.isKeyword()) {
+      int column = this.featureAtt.getBaseFormColumn();
+      if (column >= 0) {
+        this.termAtt.copyBuffer(this.featureAtt.getFeatureBuffer(),
+            this.featureAtt.getFeatureOffset(column), this.featureAtt.getFeatureLength(column));
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * node全体のMecab解析(latticeの解析とTokenの作成)の同時実行数の上限
+ *
+ * <p>解析は呼び出し元のスレッドで行い、上限を超える場合は待機する。
+ * 待機中は検索時の解析を索引時の解析より優先し、同じ種別の中では到着順とする。
+ * 種別は解析するスレッドの名前(elasticsearchのthread pool名)で判定する。
+ * 上限が0以下の場合は無効とし、待機・計数を行わない。
+ */
+public final class MecabConcurrency {
+
+  /** 待機の種別(優先度順) */
+  public enum Lane {
+    /** 検索時の解析(search, analyze thread pool) */
+    SEARCH,
+    /** 索引時その他の解析 */
+    INDEX;
+  }
+
+  /** 検索時の解析とするthread pool名 */
+  private static final String[] SEARCH_THREAD_POOLS = {"[search]", "[analyze]"};
+
+  private static final ReentrantLock LOCK = new ReentrantLock();
+  /** 種別毎の待機 */
+  private static final Condition[] READY = {LOCK.newCondition(), LOCK.newCondition()};
+
+  /** 同時実行数の上限(0以下は無効) */
+  private static volatile int size = 0;
+  /** 待機数の上限(負の値は無制限) */
+  private static volatile int queueSize = -1;
+
+  // 以下はLOCKで保護する
+  /** 実行中の数 */
+  private static int active = 0;
+  /** 種別毎の待機数 */
+  private static final int[] WAITING = new int[2];
+  /** 種別毎の次の待機順 */
+  private static final long[] TAIL = new long[2];
+  /** 種別毎の先頭の待機順 */
+  private static final long[] HEAD = new long[2];
+  /** 種別毎の最大待機数 */
+  private static final int[] MAX_WAITING = new int[2];
+  /** 種別毎の実行数 */
+  private static final long[] ACQUIRED = new long[2];
+  /** 種別毎の待機した数 */
+  private static final long[] WAITED = new long[2];
+  /** 種別毎の待機時間の合計(ns) */
+  private static final long[] WAIT_NANOS = new long[2];
+  /** 種別毎の拒否した数 */
+  private static final long[] REJECTED = new long[2];
+
+  private MecabConcurrency() {
+  }
+
+  /**
+   * 上限を設定する
+   *
+   * @param maxActive 同時実行数の上限(0は無効)
+   * @param maxQueued 待機数の上限(-1は無制限)
+   */
+  public static void configure(int maxActive, int maxQueued) {
+    if (maxActive < 0) {
+      throw new IllegalArgumentException("size must be >= 0: " + maxActive);
+    }
+    if (maxQueued < -1) {
+      throw new IllegalArgumentException("queue_size must be >= -1: " + maxQueued);
+    }
+    LOCK.lock();
+    try {
+      size = maxActive;
+      queueSize = maxQueued;
+      // 上限の拡大・無効化で実行可能になった待機を再開する
+      for (Condition ready : READY) {
+        ready.signalAll();
+      }
+    } finally {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * 現在のスレッドの解析の種別
+   */
+  static Lane lane() {
+    String name = Thread.currentThread().getName();
+    for (String pool : SEARCH_THREAD_POOLS) {
+      if (name.contains(pool)) {
+        return Lane.SEARCH;
+      }
+    }
+    return Lane.INDEX;
+  }
+
+  /**
+   * 実行を開始する(上限を超える場合は待機する)
+   *
+   * <p>Tokenizer以外でMecabを使用する処理も同じ上限で実行する場合に使用する。
+   *
+   * @return  true:計数した(終了時に{@link #release()}を呼び出す)/false:無効
+   * @throws IOException  待機数の上限を超える
+   */
+  public static boolean acquire() throws IOException {
+    if (size <= 0) {
+      return false;
+    }
+    int lane = lane().ordinal();
+    LOCK.lock();
+    try {
+      if (size <= 0) {
+        return false;
+      }
+      if (canRun(lane, -1)) {
+        active++;
+        ACQUIRED[lane]++;
+        return true;
+      }
+      int queued = WAITING[0] + WAITING[1];
+      int maxQueued = queueSize;
+      if (maxQueued >= 0 && queued >= maxQueued) {
+        REJECTED[lane]++;
+        throw new IOException("mecab analysis queue is full: " + queued + " waiting, queue_size is " + maxQueued
+            + ", size is " + size);
+      }
+      long ticket = TAIL[lane]++;
+      WAITING[lane]++;
+      MAX_WAITING[lane] = Math.max(MAX_WAITING[lane], WAITING[lane]);
+      long started = System.nanoTime();
+      // 解析中のTokenizerの状態を保つ為、割り込みでは中断しない
+      while (size > 0 && !canRun(lane, ticket)) {
+        READY[lane].awaitUninterruptibly();
+      }
+      WAITING[lane]--;
+      HEAD[lane]++;
+      WAITED[lane]++;
+      WAIT_NANOS[lane] += System.nanoTime() - started;
+      // 上限の無効化で再開した場合も計数し、release()と対にする
+      active++;
+      ACQUIRED[lane]++;
+      signalNext();
+      return true;
+    } finally {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * 実行を終了する({@link #acquire()}がtrueの場合のみ)
+   */
+  public static void release() {
+    LOCK.lock();
+    try {
+      active--;
+      signalNext();
+    } finally {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * 実行可能か(LOCKの保持中に呼び出す)
+   *
+   * @param lane  種別
+   * @param ticket  待機順(待機していない場合は-1)
+   */
+  private static boolean canRun(int lane, long ticket) {
+    if (active >= size) {
+      return false;
+    }
+    // 同じ種別の先頭のみ(待機していない場合は待機が無い場合のみ)
+    if (ticket < 0 ? WAITING[lane] > 0 : HEAD[lane] != ticket) {
+      return false;
+    }
+    // 優先度の高い種別の待機が無い
+    for (int i = 0; i < lane; i++) {
+      if (WAITING[i] > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 次に実行する種別の待機を再開する(LOCKの保持中に呼び出す)
+   */
+  private static void signalNext() {
+    if (size > 0 && active >= size) {
+      return;
+    }
+    for (int i = 0; i < WAITING.length; i++) {
+      if (WAITING[i] > 0) {
+        // 待機順で先頭を判定する為、同じ種別の全ての待機を再開する
+        READY[i].signalAll();
+        return;
+      }
+    }
+  }
+
+  /**
+   * 統計情報の取得
+   *
+   * @return  項目名と値(lanes:種別毎の待機数, 最大待機数, 実行数, 待機した数, 待機時間, 拒否した数)
+   */
+  public static Map<String, Object> snapshot() {
+    Map<String, Object> stats = new TreeMap<>();
+    LOCK.lock();
+    try {
+      stats.put("size", size);
+      stats.put("queue_size", queueSize);
+      stats.put("active", active);
+      Map<String, Object> lanes = new TreeMap<>();
+      for (Lane lane : Lane.values()) {
+        int i = lane.ordinal();
+        Map<String, Object> laneStats = new TreeMap<>();
+        laneStats.put("queue", WAITING[i]);
+        laneStats.put("largest_queue", MAX_WAITING[i]);
+        laneStats.put("total", ACQUIRED[i]);
+        laneStats.put("waited", WAITED[i]);
+        laneStats.put("wait_time_in_millis", TimeUnit.NANOSECONDS.toMillis(WAIT_NANOS[i]));
+        laneStats.put("rejected", REJECTED[i]);
+        lanes.put(lane.name().toLowerCase(Locale.ROOT), laneStats);
+      }
+      stats.put("lanes", lanes);
+    } finally {
+      LOCK.unlock();
+    }
+    return stats;
+  }
+}
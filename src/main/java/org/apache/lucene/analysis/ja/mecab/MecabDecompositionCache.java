@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SEARCH/EXTENDEDモードの複合語の分割結果のnode全体のキャッシュ
+ *
+ * <p>複合語の表層形と分割の種類(SEARCH:辞書の形態素/EXTENDED:未知語の1-gram)から、
+ * 選択した分割の各形態素(文字長, 品詞ID, 単語コスト, 素性情報)を保持する。
+ * 分割の探索は複合語の開始位置の形態素から行い、前後の形態素の影響を受けない為、
+ * 複合語の範囲を超える候補を探索した場合を除き、表層形が同じであれば結果は同じとなる。
+ *
+ * <p>キャッシュは辞書毎に区分し、辞書ファイルが更新された(サイズ・更新日時が変わった)辞書のTokenizerの作成時に、
+ * その辞書の分割結果を破棄する。
+ * 上限件数を超えた場合は最も古く参照された分割結果から破棄する。
+ */
+public final class MecabDecompositionCache {
+
+  /** デフォルトの上限件数 */
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  /** 排他の単位 */
+  private static final int SEGMENTS = 16;
+
+  /** 1件あたりの使用量(Key, 分割結果及びLinkedHashMapのEntry) */
+  private static final long ENTRY_BYTES = RamUsageEstimator.shallowSizeOfInstance(Key.class)
+      + RamUsageEstimator.shallowSizeOfInstance(Decomposition.class)
+      + RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 6 * RamUsageEstimator.NUM_BYTES_OBJECT_REF + 4;
+
+  /** 分割されない形態素 */
+  static final Decomposition NONE = new Decomposition(new int[0], new int[0], new short[0], new String[0]);
+
+  @SuppressWarnings("unchecked")
+  private static final LinkedHashMap<Key, Decomposition>[] CACHE = new LinkedHashMap[SEGMENTS];
+  static {
+    for (int i = 0; i < SEGMENTS; i++) {
+      CACHE[i] = new LinkedHashMap<>(16, 0.75f, true);
+    }
+  }
+
+  /** 辞書毎の区分 */
+  private static final ConcurrentMap<String, Partition> PARTITIONS = new ConcurrentHashMap<>();
+  private static final AtomicInteger NEXT_PARTITION = new AtomicInteger();
+
+  private static volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+  /** キャッシュの分割結果がlatticeに存在しなかった数 */
+  private static final LongAdder STALE = new LongAdder();
+  private static final LongAdder EVICTIONS = new LongAdder();
+  private static final LongAdder INVALIDATIONS = new LongAdder();
+  private static final AtomicLong BYTES = new AtomicLong();
+
+  private MecabDecompositionCache() {
+  }
+
+  /**
+   * 上限件数を設定する
+   *
+   * @param entries 上限件数(0の場合はキャッシュしない)
+   */
+  public static void setMaxEntries(int entries) {
+    if (entries < 0) {
+      throw new IllegalArgumentException("max entries must be >= 0: " + entries);
+    }
+    maxEntries = entries;
+    for (LinkedHashMap<Key, Decomposition> segment : CACHE) {
+      synchronized (segment) {
+        evict(segment, segmentLimit());
+      }
+    }
+  }
+
+  /** 上限件数 */
+  public static int getMaxEntries() {
+    return maxEntries;
+  }
+
+  private static int segmentLimit() {
+    int max = maxEntries;
+    return max == 0 ? 0 : Math.max(1, (max + SEGMENTS - 1) / SEGMENTS);
+  }
+
+  /**
+   * 辞書の区分を取得する
+   *
+   * <p>同じ辞書で版が異なる場合は、以前の版の分割結果を破棄する。
+   *
+   * @param dictionary  辞書の識別名
+   * @param version 辞書ファイルの版
+   * @return  区分
+   */
+  static Partition partition(String dictionary, long version) {
+    Partition current = PARTITIONS.get(dictionary);
+    if (current != null && current.version == version) {
+      return current;
+    }
+    Partition created = new Partition(NEXT_PARTITION.incrementAndGet(), version);
+    Partition[] replaced = new Partition[1];
+    Partition partition = PARTITIONS.compute(dictionary, (key, value) -> {
+      if (value != null && value.version == version) {
+        return value;
+      }
+      replaced[0] = value;
+      return created;
+    });
+    if (replaced[0] != null) {
+      INVALIDATIONS.increment();
+      removePartition(replaced[0].id);
+    }
+    return partition;
+  }
+
+  /**
+   * 全ての分割結果を破棄する
+   */
+  public static void clear() {
+    for (LinkedHashMap<Key, Decomposition> segment : CACHE) {
+      synchronized (segment) {
+        for (Map.Entry<Key, Decomposition> entry : segment.entrySet()) {
+          BYTES.addAndGet(-bytes(entry.getKey(), entry.getValue()));
+        }
+        segment.clear();
+      }
+    }
+    INVALIDATIONS.increment();
+  }
+
+  private static void removePartition(int id) {
+    for (LinkedHashMap<Key, Decomposition> segment : CACHE) {
+      synchronized (segment) {
+        for (Iterator<Map.Entry<Key, Decomposition>> it = segment.entrySet().iterator(); it.hasNext();) {
+          Map.Entry<Key, Decomposition> entry = it.next();
+          if (entry.getKey().partition == id) {
+            BYTES.addAndGet(-bytes(entry.getKey(), entry.getValue()));
+            it.remove();
+          }
+        }
+      }
+    }
+  }
+
+  private static void evict(LinkedHashMap<Key, Decomposition> segment, int limit) {
+    for (Iterator<Map.Entry<Key, Decomposition>> it = segment.entrySet().iterator();
+        segment.size() > limit && it.hasNext();) {
+      Map.Entry<Key, Decomposition> entry = it.next();
+      BYTES.addAndGet(-bytes(entry.getKey(), entry.getValue()));
+      it.remove();
+      EVICTIONS.increment();
+    }
+  }
+
+  private static long bytes(Key key, Decomposition value) {
+    long bytes = ENTRY_BYTES + 2L * key.surface.length()
+        + value.lengths.length * (RamUsageEstimator.NUM_BYTES_INT * 2L + RamUsageEstimator.NUM_BYTES_SHORT
+            + RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+    for (String feature : value.features) {
+      bytes += 2L * feature.length();
+    }
+    return bytes;
+  }
+
+  private static LinkedHashMap<Key, Decomposition> segment(Key key) {
+    return CACHE[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+  }
+
+  /**
+   * 統計情報の取得
+   *
+   * @return  項目名と値
+   */
+  public static Map<String, Object> snapshot() {
+    long entries = 0;
+    for (LinkedHashMap<Key, Decomposition> segment : CACHE) {
+      synchronized (segment) {
+        entries += segment.size();
+      }
+    }
+    long hits = HITS.sum();
+    long misses = MISSES.sum();
+    Map<String, Object> stats = new TreeMap<>();
+    stats.put("max_entries", (long) maxEntries);
+    stats.put("entries", entries);
+    stats.put("size_in_bytes", BYTES.get());
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("hit_ratio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+    stats.put("stale", STALE.sum());
+    stats.put("evictions", EVICTIONS.sum());
+    stats.put("invalidations", INVALIDATIONS.sum());
+    return stats;
+  }
+
+  /**
+   * 辞書毎の区分
+   */
+  static final class Partition {
+    private final int id;
+    private final long version;
+
+    private Partition(int id, long version) {
+      this.id = id;
+      this.version = version;
+    }
+
+    /**
+     * 分割結果を取得する
+     *
+     * @param unknown true:未知語の1-gramの分割/false:辞書の形態素の分割
+     * @param surface 複合語の表層形
+     * @return  分割結果(分割されない場合は{@link MecabDecompositionCache#NONE})。キャッシュにない場合はnull
+     */
+    Decomposition get(boolean unknown, String surface) {
+      if (maxEntries == 0) {
+        return null;
+      }
+      Key key = new Key(this.id, unknown, surface);
+      LinkedHashMap<Key, Decomposition> segment = segment(key);
+      Decomposition value;
+      synchronized (segment) {
+        value = segment.get(key);
+      }
+      if (value == null) {
+        MISSES.increment();
+      } else {
+        HITS.increment();
+      }
+      return value;
+    }
+
+    /**
+     * 分割結果を登録する
+     *
+     * @param unknown true:未知語の1-gramの分割/false:辞書の形態素の分割
+     * @param surface 複合語の表層形
+     * @param value 分割結果
+     */
+    void put(boolean unknown, String surface, Decomposition value) {
+      int limit = segmentLimit();
+      if (limit == 0) {
+        return;
+      }
+      Key key = new Key(this.id, unknown, surface);
+      LinkedHashMap<Key, Decomposition> segment = segment(key);
+      synchronized (segment) {
+        Decomposition previous = segment.put(key, value);
+        if (previous != null) {
+          BYTES.addAndGet(-bytes(key, previous));
+        }
+        BYTES.addAndGet(bytes(key, value));
+        evict(segment, limit);
+      }
+    }
+
+    /**
+     * キャッシュの分割結果がlatticeに存在しなかった(辞書と一致しない)場合に破棄する
+     *
+     * @param unknown true:未知語の1-gramの分割/false:辞書の形態素の分割
+     * @param surface 複合語の表層形
+     */
+    void invalidate(boolean unknown, String surface) {
+      STALE.increment();
+      Key key = new Key(this.id, unknown, surface);
+      LinkedHashMap<Key, Decomposition> segment = segment(key);
+      synchronized (segment) {
+        Decomposition previous = segment.remove(key);
+        if (previous != null) {
+          BYTES.addAndGet(-bytes(key, previous));
+        }
+      }
+    }
+  }
+
+  /**
+   * キャッシュのキー
+   */
+  private static final class Key {
+    private final int partition;
+    private final boolean unknown;
+    private final String surface;
+    private final int hash;
+
+    private Key(int partition, boolean unknown, String surface) {
+      this.partition = partition;
+      this.unknown = unknown;
+      this.surface = surface;
+      this.hash = (31 * partition + (unknown ? 1 : 0)) * 31 + surface.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return this.partition == other.partition && this.unknown == other.unknown
+          && this.surface.equals(other.surface);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+  }
+
+  /**
+   * 選択した分割(先頭からの形態素の並び)
+   */
+  static final class Decomposition {
+    /** 形態素の文字長 */
+    final int[] lengths;
+    /** 品詞ID */
+    final int[] posids;
+    /** 単語コスト */
+    final short[] wcosts;
+    /** 素性情報 */
+    final String[] features;
+
+    Decomposition(int[] lengths, int[] posids, short[] wcosts, String[] features) {
+      this.lengths = lengths;
+      this.posids = posids;
+      this.wcosts = wcosts;
+      this.features = features;
+    }
+
+    /** 形態素の数 */
+    int size() {
+      return this.lengths.length;
+    }
+  }
+}
@@ -0,0 +1,420 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 解析の詳細(lattice, 最適解, SEARCH/EXTENDEDモードの分割候補, 処理毎の時間)の記録
+ *
+ * <p>{@link MecabTokenizer#setExplain(MecabExplain)}で設定し、1文書の解析を記録する。
+ * 記録中は書式化した解析結果の取得・複合語の分割結果のキャッシュを使用せず、全ての形態素をlatticeから取得して探索する。
+ * latticeの参照回数はnative版ではnative呼び出しの回数となる。
+ * 診断用であり、index時の解析では使用しない。
+ */
+public final class MecabExplain {
+
+  /** 分割対象の形態素毎に記録する候補の最大数 */
+  public static final int MAX_CANDIDATES = 1000;
+
+  /** スレッド毎の割り当て量の取得(com.sun.management.ThreadMXBean。使用できない場合はnull) */
+  private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+  /** 解析したlattice */
+  private final List<Map<String, Object>> lattices = new ArrayList<>();
+  /** 解析中のlatticeの最適解 */
+  private List<Map<String, Object>> bestPath = null;
+  /** 解析中のlatticeの分割 */
+  private List<Map<String, Object>> decompositions = null;
+  /** 探索中の分割 */
+  private Map<String, Object> decomposition = null;
+  /** 探索中の分割の候補 */
+  private List<Map<String, Object>> candidates = null;
+  /** 記録しなかった候補の数 */
+  private int truncated = 0;
+
+  /** latticeの参照回数 */
+  private long latticeCalls = 0;
+  /** 解析開始時の割り当て量 */
+  private long allocatedAtStart = -1;
+  /** 処理毎の時間 */
+  private final Map<String, Object> timings = new LinkedHashMap<>();
+  /** 解析中の割り当て量(取得できない場合は-1) */
+  private long allocatedBytes = -1;
+
+  /**
+   * 解析を開始する
+   */
+  void start() {
+    this.allocatedAtStart = allocatedBytes();
+  }
+
+  /**
+   * 解析を終了する
+   *
+   * @param read  入力の読み込み時間(ns)
+   * @param parse mecabの解析時間(ns)
+   * @param decomposition SEARCH/EXTENDEDモードの分割時間(ns)
+   * @param features  素性情報の解析時間(ns)
+   * @param total 解析時間(ns)
+   */
+  void finish(long read, long parse, long decomposition, long features, long total) {
+    long allocated = allocatedBytes();
+    this.allocatedBytes = allocated < 0 || this.allocatedAtStart < 0 ? -1 : allocated - this.allocatedAtStart;
+    this.timings.put("read_nanos", read);
+    this.timings.put("parse_nanos", parse);
+    this.timings.put("decomposition_nanos", decomposition);
+    this.timings.put("feature_nanos", features);
+    this.timings.put("total_nanos", total);
+  }
+
+  /**
+   * latticeの参照を計数する
+   */
+  <N, P> MecabLattice<N, P> wrap(MecabLattice<N, P> lattice) {
+    return new CountingLattice<>(lattice);
+  }
+
+  /**
+   * latticeの解析を開始する
+   *
+   * @param text  入力文字列
+   * @param begin 開始位置
+   * @param end   終了位置
+   */
+  void lattice(char[] text, int begin, int end) {
+    Map<String, Object> lattice = new LinkedHashMap<>();
+    lattice.put("start_offset", begin);
+    lattice.put("end_offset", end);
+    lattice.put("text", new String(text, begin, end - begin));
+    this.bestPath = new ArrayList<>();
+    this.decompositions = new ArrayList<>();
+    lattice.put("best_path", this.bestPath);
+    lattice.put("decompositions", this.decompositions);
+    this.lattices.add(lattice);
+  }
+
+  /**
+   * 最適解のNodeを記録する
+   *
+   * @param lattice 解析結果
+   * @param node  Node
+   * @param begin 開始位置
+   * @param length  文字長
+   */
+  <N, P> void bestNode(MecabLattice<N, P> lattice, N node, int begin, int length) {
+    Map<String, Object> entry = node(unwrap(lattice), node);
+    entry.put("start_offset", begin);
+    entry.put("end_offset", begin + length);
+    this.bestPath.add(entry);
+  }
+
+  /**
+   * 分割候補の探索を開始する
+   *
+   * @param surface 表層形
+   * @param begin 開始位置
+   * @param unknown 未知語の1-gramへの分割か
+   */
+  void startDecomposition(String surface, int begin, boolean unknown) {
+    this.decomposition = new LinkedHashMap<>();
+    this.decomposition.put("surface", surface);
+    this.decomposition.put("start_offset", begin);
+    this.decomposition.put("type", unknown ? "unknown_unigram" : "search");
+    this.candidates = new ArrayList<>();
+    this.truncated = 0;
+    this.decomposition.put("candidates", this.candidates);
+    this.decompositions.add(this.decomposition);
+  }
+
+  /**
+   * 探索した候補を記録する
+   *
+   * @param lattice 解析結果
+   * @param node  候補のNode
+   * @param depth 候補の連結数(1以上)
+   * @param connectionCost  連接コスト
+   * @param totalCost ここまでのコスト＋単語コスト
+   */
+  <N, P> void candidate(MecabLattice<N, P> lattice, N node, int depth, int connectionCost, int totalCost) {
+    if (this.candidates.size() >= MAX_CANDIDATES) {
+      this.truncated++;
+      return;
+    }
+    Map<String, Object> entry = node(unwrap(lattice), node);
+    entry.put("depth", depth);
+    entry.put("connection_cost", connectionCost);
+    entry.put("total_cost", totalCost);
+    this.candidates.add(entry);
+  }
+
+  /**
+   * 直前の候補で最小コストを更新したことを記録する
+   */
+  void minimum() {
+    if (this.truncated == 0 && !this.candidates.isEmpty()) {
+      this.candidates.get(this.candidates.size() - 1).put("minimum", true);
+    }
+  }
+
+  /**
+   * 分割候補の探索を終了する
+   *
+   * @param lattice 解析結果
+   * @param chosen  選択した分割(分割しない場合はnull)
+   * @param cost  選択した分割のコスト
+   * @param aborted 探索上限による打ち切り
+   * @param overshoot 対象文字長を超える候補の探索
+   */
+  <N, P> void endDecomposition(MecabLattice<N, P> lattice, List<N> chosen, int cost, boolean aborted,
+      boolean overshoot) {
+    List<String> surfaces = new ArrayList<>();
+    if (chosen != null && !aborted) {
+      MecabLattice<N, P> target = unwrap(lattice);
+      for (N node : chosen) {
+        surfaces.add(target.surface(node));
+      }
+      this.decomposition.put("cost", cost);
+    }
+    this.decomposition.put("chosen", surfaces);
+    this.decomposition.put("aborted", aborted);
+    this.decomposition.put("overshoot", overshoot);
+    this.decomposition.put("truncated_candidates", this.truncated);
+    this.decomposition = null;
+    this.candidates = null;
+  }
+
+  /**
+   * 記録した内容
+   *
+   * @return  lattices, timings, lattice_calls, allocated_bytes
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("timings", this.timings);
+    map.put("lattice_calls", this.latticeCalls);
+    map.put("allocated_bytes", this.allocatedBytes);
+    map.put("lattices", this.lattices);
+    return map;
+  }
+
+  private static <N, P> Map<String, Object> node(MecabLattice<N, P> lattice, N node) {
+    Map<String, Object> entry = new LinkedHashMap<>();
+    entry.put("surface", lattice.surface(node));
+    entry.put("stat", stat(lattice.stat(node)));
+    entry.put("posid", lattice.posid(node));
+    entry.put("word_cost", (int) lattice.wcost(node));
+    entry.put("cost", lattice.cost(node));
+    entry.put("feature", lattice.feature(node));
+    return entry;
+  }
+
+  private static String stat(int stat) {
+    switch (stat) {
+      case MecabLattice.NOR_NODE:
+        return "normal";
+      case MecabLattice.UNK_NODE:
+        return "unknown";
+      case MecabLattice.BOS_NODE:
+        return "bos";
+      case MecabLattice.EOS_NODE:
+        return "eos";
+      default:
+        return Integer.toString(stat);
+    }
+  }
+
+  /**
+   * 記録用の参照は計数しない
+   */
+  private static <N, P> MecabLattice<N, P> unwrap(MecabLattice<N, P> lattice) {
+    return lattice instanceof CountingLattice ? ((CountingLattice<N, P>) lattice).lattice : lattice;
+  }
+
+  private static Method allocatedBytesMethod() {
+    try {
+      Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (!type.isInstance(bean)) {
+        return null;
+      }
+      Method method = type.getMethod("getThreadAllocatedBytes", long.class);
+      method.invoke(bean, Thread.currentThread().getId());
+      return method;
+    } catch (Exception | LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * 現在のスレッドの割り当て量
+   *
+   * @return  取得できない場合は-1
+   */
+  private static long allocatedBytes() {
+    if (ALLOCATED_BYTES == null) {
+      return -1;
+    }
+    try {
+      return (Long) ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * latticeの参照回数を計数する
+   */
+  private final class CountingLattice<N, P> extends MecabLattice<N, P> {
+    private final MecabLattice<N, P> lattice;
+
+    CountingLattice(MecabLattice<N, P> lattice) {
+      this.lattice = lattice;
+    }
+
+    @Override
+    void parse(String sentence, boolean nbest) throws IOException {
+      latticeCalls++;
+      lattice.parse(sentence, nbest);
+    }
+
+    @Override
+    N bosNode() {
+      latticeCalls++;
+      return lattice.bosNode();
+    }
+
+    @Override
+    N next(N node) {
+      latticeCalls++;
+      return lattice.next(node);
+    }
+
+    @Override
+    N bnext(N node) {
+      latticeCalls++;
+      return lattice.bnext(node);
+    }
+
+    @Override
+    P rpath(N node) {
+      latticeCalls++;
+      return lattice.rpath(node);
+    }
+
+    @Override
+    P rnext(P path) {
+      latticeCalls++;
+      return lattice.rnext(path);
+    }
+
+    @Override
+    N rnode(P path) {
+      latticeCalls++;
+      return lattice.rnode(path);
+    }
+
+    @Override
+    int pathCost(P path) {
+      latticeCalls++;
+      return lattice.pathCost(path);
+    }
+
+    @Override
+    int stat(N node) {
+      latticeCalls++;
+      return lattice.stat(node);
+    }
+
+    @Override
+    String surface(N node) {
+      latticeCalls++;
+      return lattice.surface(node);
+    }
+
+    @Override
+    int surfaceLength(N node) {
+      latticeCalls++;
+      return lattice.surfaceLength(node);
+    }
+
+    @Override
+    int length(N node) {
+      latticeCalls++;
+      return lattice.length(node);
+    }
+
+    @Override
+    int rlength(N node) {
+      latticeCalls++;
+      return lattice.rlength(node);
+    }
+
+    @Override
+    long id(N node) {
+      latticeCalls++;
+      return lattice.id(node);
+    }
+
+    @Override
+    int posid(N node) {
+      latticeCalls++;
+      return lattice.posid(node);
+    }
+
+    @Override
+    long cost(N node) {
+      latticeCalls++;
+      return lattice.cost(node);
+    }
+
+    @Override
+    short wcost(N node) {
+      latticeCalls++;
+      return lattice.wcost(node);
+    }
+
+    @Override
+    String feature(N node) {
+      latticeCalls++;
+      return lattice.feature(node);
+    }
+
+    @Override
+    void clear() {
+      lattice.clear();
+    }
+
+    @Override
+    public void close() {
+      // Tokenizerのlatticeは解放しない
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return lattice.ramBytesUsed();
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JDK Flight Recorderのイベント(文書毎の解析)
+ *
+ * <p>ビルド対象のJavaバージョンではjdk.jfrを直接参照できない為、
+ * 起動時にreflectionで動的なイベント型(jdk.jfr.EventFactory)を登録する。
+ * jdk.jfrが無いJVM(Java 8等)では何もしない。
+ * 記録していない場合は{@link #begin()}がイベントの有効判定のみを行い、nullを返す。
+ */
+final class MecabFlightRecorder {
+
+  /** イベント名 */
+  static final String EVENT_NAME = "org.elasticsearch.mecab.Tokenize";
+
+  /** イベントの項目(名前, 型, ラベル, 期間の項目か) */
+  private static final Object[][] FIELDS = {
+      {"index", String.class, "Index", false},
+      {"mode", String.class, "Mode", false},
+      {"inputLength", int.class, "Input Length", false},
+      {"tokenCount", int.class, "Token Count", false},
+      {"readDuration", long.class, "Read Input", true},
+      {"parseDuration", long.class, "Mecab Parse", true},
+      {"decompositionDuration", long.class, "Search Decomposition", true},
+      {"featureDuration", long.class, "Feature Parsing", true},
+      {"downstreamDuration", long.class, "Downstream", true}
+  };
+
+  /** 使用不可の理由(使用可能な場合はnull) */
+  private static final String UNAVAILABLE_REASON;
+
+  private static final MethodHandle IS_ENABLED;
+  private static final MethodHandle NEW_EVENT;
+  private static final MethodHandle BEGIN;
+  private static final MethodHandle END;
+  private static final MethodHandle SHOULD_COMMIT;
+  private static final MethodHandle SET;
+  private static final MethodHandle COMMIT;
+
+  static {
+    Binder binder = AccessController.doPrivileged((PrivilegedAction<Binder>) Binder::new);
+    UNAVAILABLE_REASON = binder.failure;
+    IS_ENABLED = binder.handles[0];
+    NEW_EVENT = binder.handles[1];
+    BEGIN = binder.handles[2];
+    END = binder.handles[3];
+    SHOULD_COMMIT = binder.handles[4];
+    SET = binder.handles[5];
+    COMMIT = binder.handles[6];
+  }
+
+  private MecabFlightRecorder() {
+  }
+
+  /**
+   * イベントを登録したか(jdk.jfrが使用可能か)
+   */
+  static boolean isAvailable() {
+    return UNAVAILABLE_REASON == null;
+  }
+
+  /**
+   * 使用不可の理由
+   */
+  static String unavailableReason() {
+    return UNAVAILABLE_REASON;
+  }
+
+  /**
+   * イベントを開始する
+   *
+   * @return  イベント(記録していない場合はnull)
+   */
+  static Object begin() {
+    if (UNAVAILABLE_REASON != null) {
+      return null;
+    }
+    try {
+      if (!(boolean) IS_ENABLED.invokeExact()) {
+        return null;
+      }
+      Object event = (Object) NEW_EVENT.invokeExact();
+      BEGIN.invokeExact(event);
+      return event;
+    } catch (Throwable t) {
+      return null;
+    }
+  }
+
+  /**
+   * イベントを終了し、閾値を超える場合は記録する
+   *
+   * @param event {@link #begin()}のイベント
+   * @param index index名(不明な場合はnull)
+   * @param mode  動作モード
+   * @param inputLength 入力の文字長
+   * @param tokenCount  Tokenの数
+   * @param read  入力の読み込み時間(ns)
+   * @param parse mecabの解析時間(ns)
+   * @param decomposition SEARCH/EXTENDEDモードの分割時間(ns)
+   * @param feature 素性情報の解析時間(ns)
+   * @param downstream  Tokenの取得側(Filter等)の処理時間(素性情報の解析を除く。ns)
+   */
+  static void commit(Object event, String index, String mode, int inputLength, int tokenCount,
+      long read, long parse, long decomposition, long feature, long downstream) {
+    try {
+      END.invokeExact(event);
+      if (!(boolean) SHOULD_COMMIT.invokeExact(event)) {
+        return;
+      }
+      Object[] values = {index, mode, inputLength, tokenCount, read, parse, decomposition, feature, downstream};
+      for (int i = 0; i < values.length; i++) {
+        SET.invokeExact(event, i, values[i]);
+      }
+      COMMIT.invokeExact(event);
+    } catch (Throwable t) {
+      // 記録に失敗した場合も解析は継続する
+    }
+  }
+
+  /**
+   * イベント型の登録とMethodHandleの作成
+   */
+  private static final class Binder {
+    final MethodHandle[] handles = new MethodHandle[7];
+    String failure = null;
+
+    Binder() {
+      try {
+        bind();
+      } catch (Throwable t) {
+        failure = t.toString();
+        Arrays.fill(handles, null);
+      }
+    }
+
+    private void bind() throws Throwable {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> elementClass = Class.forName("jdk.jfr.AnnotationElement");
+      Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+      Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+      Class<?> eventClass = Class.forName("jdk.jfr.Event");
+      Class<?> typeClass = Class.forName("jdk.jfr.EventType");
+      Constructor<?> element = elementClass.getConstructor(Class.class, Object.class);
+      Constructor<?> descriptor = descriptorClass.getConstructor(Class.class, String.class, List.class);
+
+      List<Object> eventAnnotations = new ArrayList<>();
+      eventAnnotations.add(element.newInstance(annotation("jdk.jfr.Name"), EVENT_NAME));
+      eventAnnotations.add(element.newInstance(annotation("jdk.jfr.Label"), "Mecab Tokenize"));
+      eventAnnotations.add(element.newInstance(annotation("jdk.jfr.Category"), new String[]{"Elasticsearch", "Mecab"}));
+      eventAnnotations.add(element.newInstance(annotation("jdk.jfr.Description"),
+          "Analysis of one document by MecabTokenizer, from reset() to end()"));
+      eventAnnotations.add(element.newInstance(annotation("jdk.jfr.StackTrace"), false));
+
+      List<Object> fields = new ArrayList<>();
+      for (Object[] field : FIELDS) {
+        List<Object> annotations = new ArrayList<>();
+        annotations.add(element.newInstance(annotation("jdk.jfr.Label"), field[2]));
+        if ((Boolean) field[3]) {
+          annotations.add(element.newInstance(annotation("jdk.jfr.Timespan"), "NANOSECONDS"));
+        }
+        fields.add(descriptor.newInstance(field[1], field[0], Collections.unmodifiableList(annotations)));
+      }
+      Object factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+      Object type = factoryClass.getMethod("getEventType").invoke(factory);
+
+      MethodType object = MethodType.methodType(Object.class);
+      handles[0] = lookup.unreflect(typeClass.getMethod("isEnabled")).bindTo(type)
+          .asType(MethodType.methodType(boolean.class));
+      handles[1] = lookup.unreflect(factoryClass.getMethod("newEvent")).bindTo(factory).asType(object);
+      handles[2] = lookup.unreflect(eventClass.getMethod("begin"))
+          .asType(MethodType.methodType(void.class, Object.class));
+      handles[3] = lookup.unreflect(eventClass.getMethod("end"))
+          .asType(MethodType.methodType(void.class, Object.class));
+      handles[4] = lookup.unreflect(eventClass.getMethod("shouldCommit"))
+          .asType(MethodType.methodType(boolean.class, Object.class));
+      handles[5] = lookup.unreflect(eventClass.getMethod("set", int.class, Object.class))
+          .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+      handles[6] = lookup.unreflect(eventClass.getMethod("commit"))
+          .asType(MethodType.methodType(void.class, Object.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+      return (Class<? extends Annotation>) Class.forName(name);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.CharacterUtils;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.ja.JapaneseKatakanaStemFilter;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttribute;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * {@link MecabAnalyzer}のFilterを1つにまとめたFilter
+ *
+ * <p>以下のFilterを順に適用した場合と同じ結果を、1回のincrementToken()で求める。
+ * <ol>
+ * <li>{@link MecabBaseFormFilter}</li>
+ * <li>{@link MecabPartOfSpeechStopFilter}</li>
+ * <li>{@link org.apache.lucene.analysis.cjk.CJKWidthFilter}</li>
+ * <li>{@link org.apache.lucene.analysis.StopFilter}</li>
+ * <li>{@link JapaneseKatakanaStemFilter}</li>
+ * <li>{@link org.apache.lucene.analysis.LowerCaseFilter}</li>
+ * </ol>
+ * 品詞で除外するTokenは表層形を書き換えずに読み飛ばす。
+ *
+ * @author matsu
+ */
+public final class MecabFusedFilter extends TokenFilter {
+
+  /** 長音記号 */
+  private static final char PROLONGED_SOUND_MARK = 'ー';
+
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final MecabFeatureAttribute featureAtt = addAttribute(MecabFeatureAttribute.class);
+  private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+  private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+  /** 除外する品詞 */
+  private final CharArraySet stopTags;
+  /** 除外する単語 */
+  private final CharArraySet stopWords;
+  /** 長音記号を除去するカタカナの最小長 */
+  private final int minimumKatakanaLength;
+
+  /** 除外したTokenのPosition */
+  private int skippedPositions = 0;
+
+  /**
+   * コンストラクタ
+   *
+   * @param input 入力
+   * @param stopTags  除外する品詞
+   * @param stopWords 除外する単語
+   */
+  public MecabFusedFilter(TokenStream input, Set<String> stopTags, CharArraySet stopWords) {
+    this(input, stopTags, stopWords, JapaneseKatakanaStemFilter.DEFAULT_MINIMUM_LENGTH);
+  }
+
+  /**
+   * コンストラクタ
+   *
+   * @param input 入力
+   * @param stopTags  除外する品詞
+   * @param stopWords 除外する単語
+   * @param minimumKatakanaLength 長音記号を除去するカタカナの最小長
+   */
+  public MecabFusedFilter(TokenStream input, Set<String> stopTags, CharArraySet stopWords,
+      int minimumKatakanaLength) {
+    super(input);
+    this.stopTags = new CharArraySet(stopTags, false);
+    this.stopWords = stopWords;
+    this.minimumKatakanaLength = minimumKatakanaLength;
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    this.skippedPositions = 0;
+    while (input.incrementToken()) {
+      if (accept()) {
+        if (this.skippedPositions != 0) {
+          this.posIncAtt.setPositionIncrement(this.posIncAtt.getPositionIncrement() + this.skippedPositions);
+        }
+        return true;
+      }
+      this.skippedPositions += this.posIncAtt.getPositionIncrement();
+    }
+    return false;
+  }
+
+  /**
+   * 表層形を変換し、出力するTokenか判定する
+   *
+   * @return  true:出力/false:除外
+   */
+  private boolean accept() {
+    boolean keyword = this.keywordAtt.isKeyword();
+
+    // 品詞(表層形に依存しない為、先に判定)
+    int posLength = this.featureAtt.getPartOfSpeechLength();
+    if (posLength >= 0 && this.stopTags.contains(this.featureAtt.getPartOfSpeechBuffer(), 0, posLength)) {
+      return false;
+    }
+
+    // 原形
+    if (!keyword) {
+      int column = this.featureAtt.getBaseFormColumn();
+      if (column >= 0) {
+        this.termAtt.copyBuffer(this.featureAtt.getFeatureBuffer(),
+            this.featureAtt.getFeatureOffset(column), this.featureAtt.getFeatureLength(column));
+      }
+    }
+
+    // 全角英数・半角カタカナの正規化
+    char[] text = this.termAtt.buffer();
+    int length = MecabNormalization.foldWidth(text, this.termAtt.length());
+
+    // 単語
+    if (this.stopWords.contains(text, 0, length)) {
+      return false;
+    }
+
+    // カタカナの長音記号
+    if (!keyword && length >= this.minimumKatakanaLength && isKatakana(text, length)
+        && text[length - 1] == PROLONGED_SOUND_MARK) {
+      length--;
+    }
+
+    // 小文字化
+    CharacterUtils.toLowerCase(text, 0, length);
+    this.termAtt.setLength(length);
+    return true;
+  }
+
+  private static boolean isKatakana(char[] text, int length) {
+    for (int i = 0; i < length; i++) {
+      if (Character.UnicodeBlock.of(text[i]) != Character.UnicodeBlock.KATAKANA) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    this.skippedPositions = 0;
+  }
+
+  @Override
+  public void end() throws IOException {
+    super.end();
+    this.posIncAtt.setPositionIncrement(this.posIncAtt.getPositionIncrement() + this.skippedPositions);
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mecabのnativeオブジェクト(Model, Tagger, Lattice等)の生存期間の管理
+ *
+ * <p>nativeオブジェクトは参照カウントを持つ{@link Handle}で保持し、カウントが0になった時点で破棄する。
+ * 子のオブジェクト(Modelから作成したTagger, Lattice)は親の参照を保持し、子の破棄後に親の参照を解放する。
+ * java engineのメモリマップした辞書も同様に参照を管理する(破棄は共有の終了のみ)。
+ * 所有するJavaオブジェクトの{@link Owner#close()}で解放するが、
+ * 解放されずにJavaオブジェクトがGCされた場合は、次のnativeオブジェクトの作成時または統計情報の取得時に解放する
+ * (java.lang.ref.CleanerはJava 9以降の為、PhantomReferenceで同等の処理を行う)。
+ *
+ * <p>リーク検出を有効にすると作成時のスタックトレースを記録し、解放されずにGCされた場合にログ(WARN)に出力する。
+ */
+public final class MecabHandles {
+
+  private static final Logger logger = LogManager.getLogger(MecabHandles.class);
+
+  /** nativeオブジェクトの種類 */
+  public enum Kind {
+    /** mecab_model_t */
+    MODEL,
+    /** mecab_t */
+    TAGGER,
+    /** mecab_lattice_t */
+    LATTICE,
+    /** mallocした領域 */
+    BUFFER,
+    /** メモリマップした辞書(java engine) */
+    DICTIONARY;
+  }
+
+  /** 種類毎の件数 */
+  private static final Map<Kind, LongAdder> LIVE = counters();
+  private static final Map<Kind, LongAdder> CREATED = counters();
+  private static final Map<Kind, LongAdder> RELEASED = counters();
+  /** 解放されずにGCされた所有者の数 */
+  private static final LongAdder COLLECTED = new LongAdder();
+
+  /** GCされた所有者 */
+  private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+  /** 解放されていない所有者(PhantomReferenceを保持する) */
+  private static final Set<Owner> OWNERS = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+  /** リーク検出(作成時のスタックトレースを記録) */
+  private static volatile boolean leakDetection = Boolean.getBoolean("mecab.native.leak_detection");
+
+  private MecabHandles() {
+  }
+
+  private static Map<Kind, LongAdder> counters() {
+    Map<Kind, LongAdder> counters = new EnumMap<>(Kind.class);
+    for (Kind kind : Kind.values()) {
+      counters.put(kind, new LongAdder());
+    }
+    return counters;
+  }
+
+  /**
+   * 参照カウントを持つnativeオブジェクト
+   */
+  static final class Handle {
+    private final Kind kind;
+    private final Runnable destroy;
+    private final Handle parent;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private Handle(Kind kind, Runnable destroy, Handle parent) {
+      this.kind = kind;
+      this.destroy = destroy;
+      this.parent = parent;
+    }
+
+    /**
+     * 参照を追加する
+     *
+     * @return  true:追加した/false:破棄済み
+     */
+    boolean tryRetain() {
+      while (true) {
+        int count = this.refs.get();
+        if (count <= 0) {
+          return false;
+        }
+        if (this.refs.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * 参照を解放する(最後の参照の場合は破棄する)
+     */
+    void release() {
+      int count = this.refs.decrementAndGet();
+      if (count > 0) {
+        return;
+      }
+      if (count < 0) {
+        throw new IllegalStateException(this.kind + " handle is already released");
+      }
+      try {
+        this.destroy.run();
+      } finally {
+        LIVE.get(this.kind).decrement();
+        RELEASED.get(this.kind).increment();
+        if (this.parent != null) {
+          this.parent.release();
+        }
+      }
+    }
+
+    /** 破棄済みか */
+    boolean isReleased() {
+      return this.refs.get() <= 0;
+    }
+  }
+
+  /**
+   * nativeオブジェクトを登録する
+   *
+   * @param kind  種類
+   * @param destroy 破棄処理
+   * @param parent  親のオブジェクト(破棄するまで参照を保持する。無い場合はnull)
+   * @return  Handle(参照カウントは1)
+   */
+  static Handle open(Kind kind, Runnable destroy, Handle parent) {
+    drain();
+    if (parent != null && !parent.tryRetain()) {
+      // 親は作成済みの為、ここで破棄されている事はない
+      throw new IllegalStateException(parent.kind + " handle is already released");
+    }
+    CREATED.get(kind).increment();
+    LIVE.get(kind).increment();
+    return new Handle(kind, destroy, parent);
+  }
+
+  /**
+   * nativeオブジェクトを所有するJavaオブジェクトを登録する
+   *
+   * @param owner 所有者
+   * @param handles 所有するHandle(解放時に逆順で解放する)
+   * @return  解放用のOwner
+   */
+  static Owner own(Object owner, Handle... handles) {
+    Owner ref = new Owner(owner, handles, leakDetection ? new Throwable("allocated by " + Thread.currentThread().getName()) : null);
+    OWNERS.add(ref);
+    return ref;
+  }
+
+  /**
+   * nativeオブジェクトの所有者
+   *
+   * <p>所有者から参照されないよう、Handleはこのインスタンスで保持する。
+   * 使用中({@link #enter()}から{@link #exit()}まで)に{@link #close()}された場合は、使用の終了時に解放する。
+   */
+  static final class Owner extends PhantomReference<Object> {
+    private final Handle[] handles;
+    private final Throwable allocation;
+    private final String type;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /** 使用中の数(未解放の間は所有者自身の1を含む) */
+    private final AtomicInteger uses = new AtomicInteger(1);
+
+    private Owner(Object owner, Handle[] handles, Throwable allocation) {
+      super(owner, QUEUE);
+      this.handles = handles;
+      this.allocation = allocation;
+      this.type = owner.getClass().getSimpleName();
+    }
+
+    /** 解放済みか(使用中の場合は使用の終了後に解放する) */
+    boolean isClosed() {
+      return this.closed.get();
+    }
+
+    /**
+     * 使用を開始する(使用中はnativeオブジェクトを解放しない)
+     *
+     * @return  true:開始した(終了時に{@link #exit()}を呼び出す)/false:解放済み
+     */
+    boolean enter() {
+      while (true) {
+        int count = this.uses.get();
+        if (count <= 0 || this.closed.get()) {
+          return false;
+        }
+        if (this.uses.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * 使用を終了する(解放済みで最後の使用の場合は解放する)
+     */
+    void exit() {
+      if (this.uses.decrementAndGet() == 0) {
+        releaseHandles();
+      }
+    }
+
+    /**
+     * 所有するnativeオブジェクトを解放する(2回目以降は何もしない。使用中の場合は使用の終了時に解放する)
+     */
+    void close() {
+      if (!this.closed.compareAndSet(false, true)) {
+        return;
+      }
+      OWNERS.remove(this);
+      exit();
+    }
+
+    private void releaseHandles() {
+      RuntimeException failure = null;
+      for (int i = this.handles.length - 1; i >= 0; i--) {
+        try {
+          this.handles[i].release();
+        } catch (RuntimeException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /**
+   * 解放されずにGCされた所有者のnativeオブジェクトを解放する
+   */
+  static void drain() {
+    for (Reference<?> ref; (ref = QUEUE.poll()) != null;) {
+      Owner owner = (Owner) ref;
+      if (owner.isClosed()) {
+        continue;
+      }
+      COLLECTED.increment();
+      if (owner.allocation != null) {
+        logger.warn("native mecab resources of " + owner.type + " were not released before garbage collection",
+            owner.allocation);
+      }
+      try {
+        owner.close();
+      } catch (RuntimeException e) {
+        logger.warn("failed to release native mecab resources of " + owner.type, e);
+      }
+    }
+  }
+
+  /**
+   * リーク検出を設定する(設定後に作成したオブジェクトから有効)
+   *
+   * @param enabled true:作成時のスタックトレースを記録する
+   */
+  public static void setLeakDetection(boolean enabled) {
+    leakDetection = enabled;
+  }
+
+  /** リーク検出が有効か */
+  public static boolean isLeakDetection() {
+    return leakDetection;
+  }
+
+  /** 種類毎の未解放のnativeオブジェクトの数 */
+  public static long live(Kind kind) {
+    return LIVE.get(kind).sum();
+  }
+
+  /**
+   * 統計情報の取得
+   *
+   * @return  項目名と値(種類毎のlive/created/released, 解放されずにGCされた所有者の数)
+   */
+  public static Map<String, Object> snapshot() {
+    drain();
+    Map<String, Object> stats = new TreeMap<>();
+    for (Kind kind : Kind.values()) {
+      Map<String, Long> counts = new TreeMap<>();
+      counts.put("live", LIVE.get(kind).sum());
+      counts.put("created", CREATED.get(kind).sum());
+      counts.put("released", RELEASED.get(kind).sum());
+      stats.put(kind.name().toLowerCase(Locale.ROOT), counts);
+    }
+    stats.put("owners", (long) OWNERS.size());
+    stats.put("collected", COLLECTED.sum());
+    stats.put("leak_detection", leakDetection);
+    return stats;
+  }
+}
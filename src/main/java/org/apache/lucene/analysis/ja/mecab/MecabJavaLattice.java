@@ -0,0 +1,512 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.ja.mecab.dict.MecabBinaryDictionary;
+import org.apache.lucene.analysis.ja.mecab.dict.MecabCharProperty;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Java実装の形態素解析
+ *
+ * <p>Mecab 0.996の辞書引き(tokenizer.cpp)とViterbi(viterbi.cpp)を移植したもの。
+ * native版と同じ結果になるよう、文字列はJNIと同じModified UTF-8のbyte列で扱い、
+ * Nodeの連結順・同コスト時の選択もMecabに合わせている。
+ * Node/Pathはインスタンス内で再利用する為、スレッドセーフではない。
+ */
+final class MecabJavaLattice extends MecabLattice<MecabJavaLattice.JavaNode, MecabJavaLattice.JavaPath> {
+
+  /** 前方一致検索の最大件数 */
+  private static final int RESULTS_SIZE = 512;
+  /** 1回の辞書引きの最大byte長 */
+  private static final int MAX_LOOKUP_LENGTH = 65535;
+  /** 未知語の末尾の文字種判定で参照する余白 */
+  private static final int END_NODE_PADDING = 8;
+
+  /** 形態素 */
+  static final class JavaNode {
+    int id;
+    int stat;
+    /** 表層形の開始位置(byte) */
+    int begin;
+    int length;
+    int rlength;
+    int lcAttr;
+    int rcAttr;
+    int posid;
+    short wcost;
+    long cost;
+    /** 素性情報の参照先 */
+    MecabBinaryDictionary dic;
+    int token;
+    JavaNode prev;
+    JavaNode next;
+    JavaNode bnext;
+    JavaNode enext;
+    JavaPath lpath;
+    JavaPath rpath;
+  }
+
+  /** 形態素の連結 */
+  static final class JavaPath {
+    JavaNode lnode;
+    JavaNode rnode;
+    JavaPath lnext;
+    JavaPath rnext;
+    int cost;
+  }
+
+  private static final long NODE_BYTES = RamUsageEstimator.shallowSizeOfInstance(JavaNode.class)
+      + RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+  private static final long PATH_BYTES = RamUsageEstimator.shallowSizeOfInstance(JavaPath.class)
+      + RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+
+  /** 辞書一式 */
+  private final MecabJavaModel model;
+  /** 辞書の参照の所有 */
+  private final MecabHandles.Owner owner;
+
+  /** Nodeの再利用領域 */
+  private final List<JavaNode> nodes = new ArrayList<>();
+  private int nodeCount = 0;
+  /** Pathの再利用領域 */
+  private final List<JavaPath> paths = new ArrayList<>();
+  private int pathCount = 0;
+
+  /** 解析対象文字列 */
+  private final MecabSentence sentence = new MecabSentence();
+  /** 解析対象のbyte列(Modified UTF-8) */
+  private byte[] bytes = new byte[0];
+  private int byteLength = 0;
+
+  /** 位置毎の開始Node */
+  private JavaNode[] beginNodes = new JavaNode[0];
+  /** 位置毎の終了Node */
+  private JavaNode[] endNodes = new JavaNode[0];
+  private JavaNode bos = null;
+
+  /** 前方一致検索の結果 */
+  private final int[] results = new int[RESULTS_SIZE * 2];
+  /** 最後に文字種を判定した文字のbyte長 */
+  private int mblen = 0;
+
+  /**
+   * コンストラクタ
+   *
+   * @param model 辞書一式(取得した参照は{@link #close()}で解放する)
+   */
+  MecabJavaLattice(MecabJavaModel model) {
+    this.model = model;
+    this.owner = MecabHandles.own(this, model.handle);
+  }
+
+  @Override
+  void parse(String sentence, boolean nbest) throws IOException {
+    clear();
+    this.sentence.set(sentence);
+    this.bytes = this.sentence.bytes();
+    this.byteLength = this.sentence.length();
+    int len = this.byteLength;
+
+    if (this.beginNodes.length < len + END_NODE_PADDING) {
+      this.beginNodes = new JavaNode[len + END_NODE_PADDING];
+      this.endNodes = new JavaNode[len + END_NODE_PADDING];
+    } else {
+      Arrays.fill(this.beginNodes, 0, len + END_NODE_PADDING, null);
+      Arrays.fill(this.endNodes, 0, len + END_NODE_PADDING, null);
+    }
+
+    this.bos = newNode();
+    this.bos.stat = BOS_NODE;
+    this.endNodes[0] = this.bos;
+
+    for (int pos = 0; pos < len; pos++) {
+      if (this.endNodes[pos] != null) {
+        JavaNode rnode = lookup(pos);
+        this.beginNodes[pos] = rnode;
+        if (!connect(pos, rnode, nbest)) {
+          throw new IOException("too long sentence.");
+        }
+      }
+    }
+
+    JavaNode eos = newNode();
+    eos.stat = EOS_NODE;
+    eos.begin = len;
+    this.beginNodes[len] = eos;
+    for (int pos = len; pos >= 0; pos--) {
+      if (this.endNodes[pos] != null) {
+        if (!connect(pos, eos, nbest)) {
+          throw new IOException("too long sentence.");
+        }
+        break;
+      }
+    }
+
+    // 最適解の連結
+    JavaNode node = eos;
+    for (JavaNode prevNode; node.prev != null;) {
+      prevNode = node.prev;
+      prevNode.next = node;
+      node = prevNode;
+    }
+  }
+
+  /**
+   * 指定位置の文字の文字種情報を取得する(mecabのutf8_to_ucs2)
+   *
+   * <p>文字のbyte長は{@link #mblen}に設定する。
+   */
+  private int charInfo(int pos, int end) {
+    int len = end - pos;
+    int b0 = pos < this.byteLength ? this.bytes[pos] & 0xff : 0;
+    int ucs2;
+    if (b0 < 0x80) {
+      this.mblen = 1;
+      ucs2 = b0;
+    } else if (len >= 2 && (b0 & 0xe0) == 0xc0) {
+      this.mblen = 2;
+      ucs2 = ((b0 & 0x1f) << 6) | (this.bytes[pos + 1] & 0x3f);
+    } else if (len >= 3 && (b0 & 0xf0) == 0xe0) {
+      this.mblen = 3;
+      ucs2 = ((b0 & 0x0f) << 12) | ((this.bytes[pos + 1] & 0x3f) << 6) | (this.bytes[pos + 2] & 0x3f);
+    } else {
+      this.mblen = 1;
+      ucs2 = 0;
+    }
+    return this.model.property.charInfo(ucs2);
+  }
+
+  /**
+   * 指定位置から始まる形態素を辞書引きする(mecabのTokenizer::lookup)
+   *
+   * @param begin 開始位置(byte)
+   * @return  開始Nodeのリスト
+   */
+  private JavaNode lookup(int begin) {
+    int end = this.byteLength - begin >= MAX_LOOKUP_LENGTH ? begin + MAX_LOOKUP_LENGTH : this.byteLength;
+
+    // 先頭の空白を読み飛ばす
+    int cinfo = 0;
+    int begin2 = begin;
+    int c = this.model.space;
+    while (begin2 != end) {
+      cinfo = charInfo(begin2, end);
+      if (!MecabCharProperty.isKindOf(c, cinfo)) {
+        break;
+      }
+      begin2 += this.mblen;
+      c = cinfo;
+    }
+
+    JavaNode result = null;
+    for (MecabBinaryDictionary dic : this.model.dictionaries) {
+      int n = dic.commonPrefixSearch(this.bytes, begin2, end - begin2, this.results, RESULTS_SIZE);
+      for (int i = 0; i < n; i++) {
+        int value = this.results[2 * i];
+        int length = this.results[2 * i + 1];
+        int token = MecabBinaryDictionary.tokenIndex(value);
+        int size = MecabBinaryDictionary.tokenSize(value);
+        for (int j = 0; j < size; j++) {
+          JavaNode node = newNode(dic, token + j);
+          node.stat = NOR_NODE;
+          node.begin = begin2;
+          node.length = length;
+          node.rlength = begin2 - begin + length;
+          node.bnext = result;
+          result = node;
+        }
+      }
+    }
+
+    if (result != null && !MecabCharProperty.invoke(cinfo)) {
+      return result;
+    }
+
+    // 未知語処理
+    int begin3 = begin2 + this.mblen;
+    int groupBegin3 = -1;
+
+    if (begin3 > end) {
+      return addUnknown(result, cinfo, begin, begin2, begin3);
+    }
+
+    if (MecabCharProperty.group(cinfo)) {
+      int tmp = begin3;
+      int clen = 0;
+      int c2 = cinfo;
+      while (begin3 != end) {
+        int fail = charInfo(begin3, end);
+        if (!MecabCharProperty.isKindOf(c2, fail)) {
+          break;
+        }
+        begin3 += this.mblen;
+        clen++;
+        c2 = fail;
+      }
+      if (clen <= this.model.maxGroupingSize) {
+        result = addUnknown(result, cinfo, begin, begin2, begin3);
+      }
+      groupBegin3 = begin3;
+      begin3 = tmp;
+    }
+
+    for (int i = 1; i <= MecabCharProperty.length(cinfo); i++) {
+      if (begin3 > end) {
+        break;
+      }
+      if (begin3 == groupBegin3) {
+        continue;
+      }
+      result = addUnknown(result, cinfo, begin, begin2, begin3);
+      if (!MecabCharProperty.isKindOf(cinfo, charInfo(begin3, end))) {
+        break;
+      }
+      begin3 += this.mblen;
+    }
+
+    if (result == null) {
+      result = addUnknown(result, cinfo, begin, begin2, begin3);
+    }
+    return result;
+  }
+
+  /**
+   * 未知語のNodeを追加する
+   */
+  private JavaNode addUnknown(JavaNode result, int cinfo, int begin, int begin2, int begin3) {
+    int type = MecabCharProperty.defaultType(cinfo);
+    int token = this.model.unknownTokens[type];
+    int size = this.model.unknownSizes[type];
+    for (int k = 0; k < size; k++) {
+      JavaNode node = newNode(this.model.unknown, token + k);
+      node.stat = UNK_NODE;
+      node.begin = begin2;
+      node.length = begin3 - begin2;
+      node.rlength = begin3 - begin;
+      node.bnext = result;
+      result = node;
+    }
+    return result;
+  }
+
+  /**
+   * 指定位置で終わるNodeと連結する(mecabのViterbi::connect)
+   */
+  private boolean connect(int pos, JavaNode rnode, boolean allPath) {
+    for (; rnode != null; rnode = rnode.bnext) {
+      long bestCost = 2147483647L;
+      JavaNode bestNode = null;
+      for (JavaNode lnode = this.endNodes[pos]; lnode != null; lnode = lnode.enext) {
+        int lcost = this.model.connector.cost(lnode.rcAttr, rnode.lcAttr) + rnode.wcost;
+        long cost = lnode.cost + lcost;
+        if (cost < bestCost) {
+          bestNode = lnode;
+          bestCost = cost;
+        }
+        if (allPath) {
+          JavaPath path = newPath();
+          path.cost = lcost;
+          path.rnode = rnode;
+          path.lnode = lnode;
+          path.lnext = rnode.lpath;
+          rnode.lpath = path;
+          path.rnext = lnode.rpath;
+          lnode.rpath = path;
+        }
+      }
+      if (bestNode == null) {
+        return false;
+      }
+      rnode.prev = bestNode;
+      rnode.next = null;
+      rnode.cost = bestCost;
+      int x = rnode.rlength + pos;
+      rnode.enext = this.endNodes[x];
+      this.endNodes[x] = rnode;
+    }
+    return true;
+  }
+
+  private JavaNode newNode(MecabBinaryDictionary dic, int token) {
+    JavaNode node = newNode();
+    node.dic = dic;
+    node.token = token;
+    node.lcAttr = dic.lcAttr(token);
+    node.rcAttr = dic.rcAttr(token);
+    node.posid = dic.posid(token);
+    node.wcost = dic.wcost(token);
+    return node;
+  }
+
+  private JavaNode newNode() {
+    JavaNode node;
+    if (this.nodeCount < this.nodes.size()) {
+      node = this.nodes.get(this.nodeCount);
+      node.begin = 0;
+      node.length = 0;
+      node.rlength = 0;
+      node.lcAttr = 0;
+      node.rcAttr = 0;
+      node.posid = 0;
+      node.wcost = 0;
+      node.cost = 0;
+      node.dic = null;
+      node.token = 0;
+      node.prev = null;
+      node.next = null;
+      node.bnext = null;
+      node.enext = null;
+      node.lpath = null;
+      node.rpath = null;
+    } else {
+      node = new JavaNode();
+      this.nodes.add(node);
+    }
+    node.id = this.nodeCount++;
+    return node;
+  }
+
+  private JavaPath newPath() {
+    JavaPath path;
+    if (this.pathCount < this.paths.size()) {
+      path = this.paths.get(this.pathCount);
+    } else {
+      path = new JavaPath();
+      this.paths.add(path);
+    }
+    this.pathCount++;
+    return path;
+  }
+
+  @Override
+  JavaNode bosNode() {
+    return this.bos;
+  }
+
+  @Override
+  JavaNode next(JavaNode node) {
+    return node.next;
+  }
+
+  @Override
+  JavaNode bnext(JavaNode node) {
+    return node.bnext;
+  }
+
+  @Override
+  JavaPath rpath(JavaNode node) {
+    return node.rpath;
+  }
+
+  @Override
+  JavaPath rnext(JavaPath path) {
+    return path.rnext;
+  }
+
+  @Override
+  JavaNode rnode(JavaPath path) {
+    return path.rnode;
+  }
+
+  @Override
+  int pathCost(JavaPath path) {
+    return path.cost;
+  }
+
+  @Override
+  int stat(JavaNode node) {
+    return node.stat;
+  }
+
+  @Override
+  String surface(JavaNode node) {
+    return this.sentence.substring(node.begin, node.length);
+  }
+
+  @Override
+  int surfaceLength(JavaNode node) {
+    return this.sentence.charLength(node.begin, node.length);
+  }
+
+  @Override
+  int length(JavaNode node) {
+    return node.length;
+  }
+
+  @Override
+  int rlength(JavaNode node) {
+    return node.rlength;
+  }
+
+  @Override
+  long id(JavaNode node) {
+    return node.id;
+  }
+
+  @Override
+  int posid(JavaNode node) {
+    return node.posid;
+  }
+
+  @Override
+  long cost(JavaNode node) {
+    return node.cost;
+  }
+
+  @Override
+  short wcost(JavaNode node) {
+    return node.wcost;
+  }
+
+  @Override
+  String feature(JavaNode node) {
+    if (node.dic == null) {
+      return this.model.bosFeature;
+    }
+    return node.dic.feature(node.token);
+  }
+
+  /**
+   * 使用量(再利用の為に保持するNode/Pathを含む。辞書は含まない)
+   */
+  @Override
+  public long ramBytesUsed() {
+    return this.nodes.size() * NODE_BYTES + this.paths.size() * PATH_BYTES
+        + RamUsageEstimator.shallowSizeOf(this.beginNodes) + RamUsageEstimator.shallowSizeOf(this.endNodes)
+        + this.sentence.ramBytesUsed();
+  }
+
+  @Override
+  void clear() {
+    this.nodeCount = 0;
+    this.pathCount = 0;
+    this.bos = null;
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    this.owner.close();
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.ja.mecab.dict.MecabBinaryDictionary;
+import org.apache.lucene.analysis.ja.mecab.dict.MecabCharProperty;
+import org.apache.lucene.analysis.ja.mecab.dict.MecabConnector;
+import org.apache.lucene.util.Accountable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Java実装の形態素解析で使用する辞書一式
+ *
+ * <p>辞書はファイルをメモリマップして参照し、同じ辞書・ユーザ辞書の組み合わせ・辞書ファイルの版は共有する。
+ * 辞書の参照は{@link MecabHandles}で管理し、参照する解析器が無くなった辞書、
+ * 辞書ファイルの更新により古い版となった辞書は共有を止める(メモリマップは参照が無くなった後にGCで解放される)。
+ */
+final class MecabJavaModel implements Accountable {
+
+  /** 辞書を構成するファイル */
+  private static final String[] DICTIONARY_FILES = {"sys.dic", "unk.dic", "matrix.bin", "char.bin"};
+
+  /** 読み込み済みの辞書(辞書・ユーザ辞書・版毎) */
+  private static final Map<String, MecabJavaModel> MODELS = new HashMap<>();
+
+  /** mecabrcの既定の場所 */
+  private static final String[] DEFAULT_RC_PATHS = {"/usr/local/etc/mecabrc", "/etc/mecabrc"};
+
+  /** 同じ文字種をまとめる最大文字数の既定値 */
+  private static final int DEFAULT_MAX_GROUPING_SIZE = 24;
+
+  /** 検索対象の辞書(システム辞書, ユーザ辞書の順) */
+  final MecabBinaryDictionary[] dictionaries;
+  /** 未知語辞書 */
+  final MecabBinaryDictionary unknown;
+  /** 連接コスト表 */
+  final MecabConnector connector;
+  /** 文字種定義 */
+  final MecabCharProperty property;
+  /** 文字種毎の未知語の形態素情報の開始位置 */
+  final int[] unknownTokens;
+  /** 文字種毎の未知語の形態素情報の件数 */
+  final int[] unknownSizes;
+  /** 空白文字の文字種情報 */
+  final int space;
+  /** 文頭・文末の素性情報 */
+  final String bosFeature;
+  /** 同じ文字種をまとめる最大文字数 */
+  final int maxGroupingSize;
+  /** 辞書ファイルの版 */
+  final long version;
+  /** メモリマップしたファイルのサイズ */
+  private final long mappedBytes;
+  /** 共有の識別名(辞書・ユーザ辞書) */
+  private final String base;
+  /** 参照数 */
+  MecabHandles.Handle handle;
+
+  /**
+   * コンストラクタ
+   *
+   * @param dicdir  辞書のpath
+   * @param userdic ユーザ辞書ファイル(カンマ区切りで複数指定可)
+   * @param base  共有の識別名
+   * @param version 辞書ファイルの版
+   * @throws IOException  読み込み例外
+   */
+  private MecabJavaModel(Path dicdir, String userdic, String base, long version) throws IOException {
+    this.base = base;
+    this.version = version;
+    Map<String, String> dicrc = readConfig(dicdir.resolve("dicrc"));
+
+    List<MecabBinaryDictionary> dics = new ArrayList<>();
+    dics.add(open(dicdir.resolve("sys.dic")));
+    if (userdic != null) {
+      for (String file : userdic.split(",")) {
+        if (file.trim().isEmpty() == false) {
+          dics.add(open(Paths.get(file.trim())));
+        }
+      }
+    }
+    this.dictionaries = dics.toArray(new MecabBinaryDictionary[dics.size()]);
+    this.unknown = open(dicdir.resolve("unk.dic"));
+    this.connector = MecabConnector.open(dicdir.resolve("matrix.bin"));
+    this.property = MecabCharProperty.open(dicdir.resolve("char.bin"));
+
+    for (MecabBinaryDictionary dic : this.dictionaries) {
+      if (dic.getLsize() != this.connector.getLsize() || dic.getRsize() != this.connector.getRsize()) {
+        throw new IOException("context_id size mismatch between dictionary and matrix.bin");
+      }
+    }
+
+    this.unknownTokens = new int[this.property.size()];
+    this.unknownSizes = new int[this.property.size()];
+    for (int i = 0; i < this.property.size(); i++) {
+      int value = this.unknown.exactMatchSearch(this.property.name(i).getBytes(StandardCharsets.UTF_8));
+      if (value < 0) {
+        throw new IOException("cannot find UNK category: " + this.property.name(i));
+      }
+      this.unknownTokens[i] = MecabBinaryDictionary.tokenIndex(value);
+      this.unknownSizes[i] = MecabBinaryDictionary.tokenSize(value);
+    }
+
+    this.space = this.property.charInfo(0x20);
+    String bos = dicrc.get("bos-feature");
+    this.bosFeature = bos == null ? "" : bos;
+    String grouping = dicrc.get("max-grouping-size");
+    this.maxGroupingSize = grouping == null ? DEFAULT_MAX_GROUPING_SIZE : Integer.parseInt(grouping);
+    this.mappedBytes = fileBytes(dicdir, userdic);
+  }
+
+  /**
+   * 使用量(メモリマップしたファイルのサイズ(heap外)及び復号した素性情報)
+   */
+  @Override
+  public long ramBytesUsed() {
+    long bytes = this.mappedBytes + this.unknown.featureCacheBytes();
+    for (MecabBinaryDictionary dic : this.dictionaries) {
+      bytes += dic.featureCacheBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * 辞書の参照を取得する
+   *
+   * <p>辞書ファイルが更新されている場合は新しい版を読み込み、古い版の共有を止める。
+   *
+   * @param dicdir  辞書のpath(nullの場合はmecabrcのdicdir)
+   * @param userdic ユーザ辞書ファイル
+   * @return  辞書一式(呼び出し側で{@link #handle}の参照を解放する)
+   * @throws IllegalArgumentException 辞書の読み込みに失敗
+   */
+  static MecabJavaModel acquire(String dicdir, String userdic) {
+    String base = dicdir + "\u0000" + userdic;
+    long version = dictionaryVersion(dicdir, userdic);
+    String key = base + "\u0000" + version;
+    synchronized (MODELS) {
+      MecabJavaModel shared = MODELS.get(key);
+      if (shared != null && shared.handle.tryRetain()) {
+        return shared;
+      }
+      MecabJavaModel created;
+      try {
+        created = AccessController.doPrivileged((PrivilegedExceptionAction<MecabJavaModel>) () ->
+            new MecabJavaModel(dicdir == null ? defaultDicdir() : Paths.get(dicdir), userdic, base, version));
+      } catch (PrivilegedActionException e) {
+        throw new IllegalArgumentException("failed to load mecab dictionary [" + dicdir + "]: "
+            + e.getException().getMessage(), e.getException());
+      }
+      created.handle = MecabHandles.open(MecabHandles.Kind.DICTIONARY, () -> {
+        synchronized (MODELS) {
+          MODELS.remove(key, created);
+        }
+      }, null);
+      // 古い版は参照中の解析器のみが使用する
+      MODELS.values().removeIf(loaded -> loaded.base.equals(base));
+      MODELS.put(key, created);
+      return created;
+    }
+  }
+
+  /**
+   * 共有中の辞書の使用量
+   *
+   * @param dicdir  辞書のpath(nullの場合はmecabrcのdicdir)
+   * @param userdic ユーザ辞書ファイル
+   * @return  使用量(共有中の辞書が無い場合は0)
+   */
+  static long loadedBytes(String dicdir, String userdic) {
+    String base = dicdir + "\u0000" + userdic;
+    List<MecabJavaModel> models = new ArrayList<>();
+    synchronized (MODELS) {
+      for (MecabJavaModel model : MODELS.values()) {
+        if (model.base.equals(base)) {
+          models.add(model);
+        }
+      }
+    }
+    long bytes = 0;
+    for (MecabJavaModel model : models) {
+      bytes += model.ramBytesUsed();
+    }
+    return bytes;
+  }
+
+  /**
+   * 辞書のファイルサイズを取得する(Mecab(shared library)の辞書の使用量の見積もり用)
+   *
+   * @param dicdir  辞書のpath(nullの場合はmecabrcのdicdir)
+   * @param userdic ユーザ辞書ファイル
+   * @return  ファイルサイズの合計。取得できない場合は0
+   */
+  static long dictionaryBytes(String dicdir, String userdic) {
+    return AccessController.doPrivileged((PrivilegedAction<Long>) () -> {
+      try {
+        return fileBytes(dicdir == null ? defaultDicdir() : Paths.get(dicdir), userdic);
+      } catch (IOException e) {
+        return 0L;
+      }
+    });
+  }
+
+  /**
+   * 辞書ファイルの版を取得する(分割結果のキャッシュの破棄の判定用)
+   *
+   * @param dicdir  辞書のpath(nullの場合はmecabrcのdicdir)
+   * @param userdic ユーザ辞書ファイル
+   * @return  ファイルサイズ及び更新日時から算出した値。取得できない場合は0
+   */
+  static long dictionaryVersion(String dicdir, String userdic) {
+    return AccessController.doPrivileged((PrivilegedAction<Long>) () -> {
+      try {
+        long version = 0;
+        for (Path path : dictionaryFiles(dicdir == null ? defaultDicdir() : Paths.get(dicdir), userdic)) {
+          version = 31 * version + Files.size(path);
+          version = 31 * version + Files.getLastModifiedTime(path).toMillis();
+        }
+        return version;
+      } catch (IOException e) {
+        return 0L;
+      }
+    });
+  }
+
+  /**
+   * 辞書のファイルサイズの合計
+   */
+  private static long fileBytes(Path dicdir, String userdic) throws IOException {
+    long bytes = 0;
+    for (Path path : dictionaryFiles(dicdir, userdic)) {
+      bytes += Files.size(path);
+    }
+    return bytes;
+  }
+
+  /**
+   * 存在する辞書ファイル
+   */
+  private static List<Path> dictionaryFiles(Path dicdir, String userdic) {
+    List<Path> files = new ArrayList<>();
+    for (String file : DICTIONARY_FILES) {
+      Path path = dicdir.resolve(file);
+      if (Files.isRegularFile(path)) {
+        files.add(path);
+      }
+    }
+    if (userdic != null) {
+      for (String file : userdic.split(",")) {
+        Path path = Paths.get(file.trim());
+        if (file.trim().isEmpty() == false && Files.isRegularFile(path)) {
+          files.add(path);
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * 辞書ファイルを開く(UTF-8の辞書のみ)
+   */
+  private static MecabBinaryDictionary open(Path path) throws IOException {
+    MecabBinaryDictionary dic = MecabBinaryDictionary.open(path);
+    if (dic.isUtf8() == false) {
+      throw new IOException("unsupported dictionary charset [" + dic.getCharset() + "] of " + path
+          + ", the java engine supports only utf-8 dictionaries");
+    }
+    return dic;
+  }
+
+  /**
+   * mecabrcに指定された辞書のpath
+   */
+  private static Path defaultDicdir() throws IOException {
+    List<String> candidates = new ArrayList<>();
+    String env = System.getenv("MECABRC");
+    if (env != null) {
+      candidates.add(env);
+    }
+    for (String path : DEFAULT_RC_PATHS) {
+      candidates.add(path);
+    }
+    for (String candidate : candidates) {
+      Path rc = Paths.get(candidate);
+      if (Files.isRegularFile(rc)) {
+        String dicdir = readConfig(rc).get("dicdir");
+        if (dicdir == null) {
+          throw new IOException("dicdir is not specified in " + rc);
+        }
+        Path rcpath = rc.toAbsolutePath().getParent();
+        return Paths.get(dicdir.replace("$(rcpath)", rcpath == null ? "" : rcpath.toString()));
+      }
+    }
+    throw new IOException("mecabrc is not found, specify dictionary_path");
+  }
+
+  /**
+   * Mecabの設定ファイル(dicrc, mecabrc)を読み込む
+   *
+   * <p>コメントに辞書の文字コードが使われる場合がある為、byte単位で読み込み値のみUTF-8で変換する。
+   */
+  private static Map<String, String> readConfig(Path path) throws IOException {
+    Map<String, String> config = new HashMap<>();
+    if (Files.isRegularFile(path) == false) {
+      return config;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty() || line.charAt(0) == ';' || line.charAt(0) == '#') {
+          continue;
+        }
+        int eq = line.indexOf('=');
+        if (eq < 0) {
+          continue;
+        }
+        String value = line.substring(eq + 1).trim();
+        config.put(line.substring(0, eq).trim(),
+            new String(value.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8));
+      }
+    }
+    return config;
+  }
+}
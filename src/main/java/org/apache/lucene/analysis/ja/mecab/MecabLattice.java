@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.util.Accountable;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 形態素解析の実行エンジン
+ *
+ * <p>解析結果のNode/PathをMecabのlatticeと同じ構造で参照する。
+ * 長さ・位置はMecabと同じくbyte単位(JNIのModified UTF-8)で扱う。
+ *
+ * @param <N> Nodeの型
+ * @param <P> Pathの型
+ */
+abstract class MecabLattice<N, P> implements Closeable, Accountable {
+
+  /** 通常の形態素(MECAB_NOR_NODE) */
+  static final int NOR_NODE = 0;
+  /** 未知語(MECAB_UNK_NODE) */
+  static final int UNK_NODE = 1;
+  /** 文頭(MECAB_BOS_NODE) */
+  static final int BOS_NODE = 2;
+  /** 文末(MECAB_EOS_NODE) */
+  static final int EOS_NODE = 3;
+
+  /**
+   * 入力1byteあたりのlatticeの使用量の見積もり
+   *
+   * <p>mecab_node_t(112byte)が1byteあたり2個程度、mecab_path_t(40byte)がその数倍作成される事からの概算。
+   */
+  static final long BYTES_PER_INPUT_BYTE = 512;
+
+  /**
+   * latticeの使用量を見積もる
+   *
+   * @param sentenceBytes  入力のbyte長
+   * @return  見積もり(byte)
+   */
+  static long estimateBytes(int sentenceBytes) {
+    return sentenceBytes * BYTES_PER_INPUT_BYTE;
+  }
+
+  /**
+   * 形態素解析を行う
+   *
+   * @param sentence  対象文字列
+   * @param nbest 全ての連結(Path)を保持するか(SEARCHモード用)
+   * @throws IOException  解析例外
+   */
+  abstract void parse(String sentence, boolean nbest) throws IOException;
+
+  /** 文頭のNode */
+  abstract N bosNode();
+
+  /** 最適解の次のNode */
+  abstract N next(N node);
+
+  /** 同じ位置から始まる次のNode */
+  abstract N bnext(N node);
+
+  /** 右への連結 */
+  abstract P rpath(N node);
+
+  /** 同じNodeから始まる次の連結 */
+  abstract P rnext(P path);
+
+  /** 連結先のNode */
+  abstract N rnode(P path);
+
+  /** 連接コスト */
+  abstract int pathCost(P path);
+
+  /** 形態素種別 */
+  abstract int stat(N node);
+
+  /** 表層形 */
+  abstract String surface(N node);
+
+  /** 表層形の文字数 */
+  abstract int surfaceLength(N node);
+
+  /** 表層形のbyte長 */
+  abstract int length(N node);
+
+  /** 前の空白を含むbyte長 */
+  abstract int rlength(N node);
+
+  /** NodeのID */
+  abstract long id(N node);
+
+  /** 品詞ID */
+  abstract int posid(N node);
+
+  /** 累積コスト */
+  abstract long cost(N node);
+
+  /** 単語コスト */
+  abstract short wcost(N node);
+
+  /** 素性情報 */
+  abstract String feature(N node);
+
+  /**
+   * 解析結果を破棄する
+   */
+  abstract void clear();
+
+  /**
+   * 解析結果及びnativeリソースを破棄する(以降は使用できない)
+   */
+  @Override
+  public void close() {
+    clear();
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MecabTokenizerの処理量の上限
+ *
+ * <p>上限を超えた範囲は{@link Fallback}で指定した方法で処理する。
+ * 0以下の値は上限なしを表す。
+ */
+public final class MecabLimits {
+
+  /** 上限超過時の代替処理 */
+  public enum Fallback {
+    /** SEARCH/EXTENDEDの分割を行わず、NORMALモードで処理 */
+    NORMAL,
+    /** Mecabを使用せず、文字bigramに分割 */
+    BIGRAM;
+  }
+
+  /** 上限なし */
+  public static final MecabLimits UNLIMITED = new MecabLimits(0, 0, 0, Fallback.NORMAL);
+
+  /** 1回のlatticeで扱う最大文字数 */
+  private final int maxLatticeChars;
+  /** 1形態素あたりの分割候補の最大探索数 */
+  private final int maxDecompositionCandidates;
+  /** 1文書あたりの最大解析時間(ミリ秒) */
+  private final long maxAnalysisMillis;
+  /** 上限超過時の代替処理 */
+  private final Fallback fallback;
+
+  /**
+   * コンストラクタ
+   *
+   * @param maxLatticeChars 1回のlatticeで扱う最大文字数
+   * @param maxDecompositionCandidates 1形態素あたりの分割候補の最大探索数
+   * @param maxAnalysisMillis 1文書あたりの最大解析時間(ミリ秒)
+   * @param fallback 上限超過時の代替処理
+   */
+  public MecabLimits(int maxLatticeChars, int maxDecompositionCandidates, long maxAnalysisMillis, Fallback fallback) {
+    if (fallback == null) {
+      throw new IllegalArgumentException("fallback must not be null");
+    }
+    this.maxLatticeChars = maxLatticeChars;
+    this.maxDecompositionCandidates = maxDecompositionCandidates;
+    this.maxAnalysisMillis = maxAnalysisMillis;
+    this.fallback = fallback;
+  }
+
+  public int getMaxLatticeChars() {
+    return this.maxLatticeChars;
+  }
+
+  public int getMaxDecompositionCandidates() {
+    return this.maxDecompositionCandidates;
+  }
+
+  public long getMaxAnalysisMillis() {
+    return this.maxAnalysisMillis;
+  }
+
+  public Fallback getFallback() {
+    return this.fallback;
+  }
+
+  /**
+   * 解析開始時刻から打ち切り時刻を算出する
+   *
+   * @param startNanos 解析開始時刻({@link System#nanoTime()})
+   * @return 打ち切り時刻。上限なしの場合は{@link Long#MAX_VALUE}
+   */
+  long deadline(long startNanos) {
+    if (this.maxAnalysisMillis <= 0) {
+      return Long.MAX_VALUE;
+    }
+    return startNanos + TimeUnit.MILLISECONDS.toNanos(this.maxAnalysisMillis);
+  }
+
+  @Override
+  public String toString() {
+    return "MecabLimits[maxLatticeChars=" + this.maxLatticeChars
+        + ", maxDecompositionCandidates=" + this.maxDecompositionCandidates
+        + ", maxAnalysisMillis=" + this.maxAnalysisMillis
+        + ", fallback=" + this.fallback + "]";
+  }
+}
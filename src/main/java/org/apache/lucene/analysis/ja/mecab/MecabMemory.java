@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.util.Accountable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Mecab解析のnode単位のメモリ使用量と上限(circuit breaker)
+ *
+ * <p>解析前にlatticeの使用量を入力のbyte長から見積もって予約し、
+ * 予約の合計が上限を超える場合は入力を分割して解析するか、解析を拒否する。
+ * 使用量は見積もりであり、実際の使用量とは一致しない。
+ */
+public final class MecabMemory {
+
+  /** 上限超過時の処理 */
+  public enum Action {
+    /** 入力を分割して解析し、分割できない範囲は文字bigramに分割 */
+    CHUNK,
+    /** 解析を拒否する(IOException) */
+    REJECT;
+  }
+
+  /** 上限(0以下は無制限) */
+  private static volatile long limit = 0;
+  /** 上限超過時の処理 */
+  private static volatile Action action = Action.CHUNK;
+  /** 解析中のlatticeの見積もりの合計 */
+  private static final AtomicLong RESERVED = new AtomicLong();
+
+  /** Tokenizerと所有者(index名) */
+  private static final Map<MecabTokenizer, String> TOKENIZERS = new WeakHashMap<>();
+  /** スレッド毎に保持する共有の解析結果(終了したスレッドの解析結果は除かれる) */
+  private static final Map<MecabSharedParse, Boolean> SHARED_PARSES = new WeakHashMap<>();
+  /** 辞書毎の使用量 */
+  private static final ConcurrentMap<String, LongSupplier> MODELS = new ConcurrentHashMap<>();
+
+  private MecabMemory() {
+  }
+
+  /**
+   * 上限を設定する
+   *
+   * @param limitBytes  上限(byte, 0以下は無制限)
+   * @param limitAction 上限超過時の処理
+   */
+  public static void configure(long limitBytes, Action limitAction) {
+    if (limitAction == null) {
+      throw new IllegalArgumentException("action must not be null");
+    }
+    limit = limitBytes;
+    action = limitAction;
+  }
+
+  /** 上限(byte) */
+  public static long getLimit() {
+    return limit;
+  }
+
+  /** 上限超過時の処理 */
+  public static Action getAction() {
+    return action;
+  }
+
+  /**
+   * 使用量を予約する
+   *
+   * @param bytes 見積もり(byte)
+   * @return  true:予約した/false:上限を超える為予約しない
+   */
+  static boolean reserve(long bytes) {
+    while (true) {
+      long current = RESERVED.get();
+      long max = limit;
+      if (max > 0 && current + bytes > max) {
+        return false;
+      }
+      if (RESERVED.compareAndSet(current, current + bytes)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * 予約を解放する
+   *
+   * @param bytes 予約した見積もり(byte)
+   */
+  static void release(long bytes) {
+    RESERVED.addAndGet(-bytes);
+  }
+
+  /**
+   * Tokenizerを登録する
+   *
+   * @param tokenizer Tokenizer
+   * @param owner 所有者(index名)
+   */
+  static void register(MecabTokenizer tokenizer, String owner) {
+    synchronized (TOKENIZERS) {
+      TOKENIZERS.put(tokenizer, owner == null ? "" : owner);
+    }
+  }
+
+  /**
+   * スレッドの共有の解析結果を登録する
+   *
+   * @param shared  解析結果
+   */
+  static void registerSharedParse(MecabSharedParse shared) {
+    synchronized (SHARED_PARSES) {
+      SHARED_PARSES.put(shared, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * 辞書を登録する
+   *
+   * @param key 辞書の識別名
+   * @param bytes 使用量
+   */
+  static void registerModel(String key, LongSupplier bytes) {
+    MODELS.putIfAbsent(key, bytes);
+  }
+
+  /**
+   * 使用量の取得
+   *
+   * @return  項目名と値(indices:index毎のTokenizerの使用量, shared_parse_in_bytes:スレッド毎の共有の解析結果の合計,
+   *          models:辞書毎の使用量)
+   */
+  public static Map<String, Object> snapshot() {
+    Map<String, Object> stats = new TreeMap<>();
+    stats.put("limit_in_bytes", limit);
+    stats.put("action", action.name().toLowerCase(Locale.ROOT));
+    stats.put("reserved_in_bytes", RESERVED.get());
+
+    List<Map.Entry<MecabTokenizer, String>> tokenizers;
+    synchronized (TOKENIZERS) {
+      tokenizers = new ArrayList<>(TOKENIZERS.entrySet());
+    }
+    Map<String, Long> indices = new TreeMap<>();
+    for (Map.Entry<MecabTokenizer, String> entry : tokenizers) {
+      indices.merge(entry.getValue(), ramBytesUsed(entry.getKey()), Long::sum);
+    }
+    stats.put("indices", indices);
+
+    List<MecabSharedParse> sharedParses;
+    synchronized (SHARED_PARSES) {
+      sharedParses = new ArrayList<>(SHARED_PARSES.keySet());
+    }
+    long sharedParseBytes = 0;
+    for (MecabSharedParse shared : sharedParses) {
+      sharedParseBytes += ramBytesUsed(shared);
+    }
+    stats.put("shared_parse_in_bytes", sharedParseBytes);
+
+    Map<String, Long> models = new TreeMap<>();
+    for (Map.Entry<String, LongSupplier> entry : MODELS.entrySet()) {
+      models.put(entry.getKey(), entry.getValue().getAsLong());
+    }
+    stats.put("models", models);
+    return stats;
+  }
+
+  /**
+   * 他のスレッドで使用中のTokenizerの使用量(見積もりの為、同期しない)
+   */
+  private static long ramBytesUsed(Accountable accountable) {
+    try {
+      return accountable.ramBytesUsed();
+    } catch (RuntimeException e) {
+      return 0;
+    }
+  }
+}
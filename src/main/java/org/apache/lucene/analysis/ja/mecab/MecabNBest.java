@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 1回の解析(Nbestのlattice)からコストの小さい順に複数の分割を取得し、1つのToken graphとする
+ *
+ * <p>latticeの連結(rpath)からEOSまでの最小コストを求め、これを見積りとする最良優先探索で
+ * 分割(形態素の区切り位置の列)の異なる経路を最大{@code size}件取得する。
+ * 同じ区切り位置で品詞のみ異なる経路は同じ分割とし、コストの小さい経路の形態素を使用する。
+ * 実行エンジンのNbest APIを使用しない為、全ての実行エンジンで同じ結果となる。
+ * 品詞のみ異なる経路も個別に探索する為、経路の取り出し回数は分割数・文字数に比例する回数までとし、
+ * 解析時間上限を超えた場合と合わせて、それまでに取得した分割のみを使用する。
+ *
+ * <p>Token graphの位置は全ての分割の形態素の開始位置とし、各形態素の位置の長さは
+ * 終了位置以降の最初の開始位置までの位置の数とする(FlattenGraphFilter, graph queryで使用できる形式)。
+ */
+final class MecabNBest {
+
+  /** 分割1件・1文字あたりの経路の取り出し回数の上限 */
+  private static final int POLLS_PER_SEGMENTATION_CHAR = 8;
+  /** 解析時間上限を判定する経路の取り出し回数の間隔 */
+  private static final int DEADLINE_CHECK_INTERVAL = 256;
+
+  /** 取得する分割数の上限 */
+  private final int size;
+  /** 最適解のコストとの差の上限(0は無制限) */
+  private final int costMargin;
+
+  /**
+   * コンストラクタ
+   *
+   * @param size  取得する分割数の上限(2以上、{@link MecabTokenizer#MAX_NBEST_SIZE}以下)
+   * @param costMargin  最適解のコストとの差の上限(0は無制限)
+   */
+  MecabNBest(int size, int costMargin) {
+    if (size < 2 || size > MecabTokenizer.MAX_NBEST_SIZE) {
+      throw new IllegalArgumentException("nbest size must be >= 2 and <= " + MecabTokenizer.MAX_NBEST_SIZE + ": " + size);
+    }
+    if (costMargin < 0) {
+      throw new IllegalArgumentException("nbest cost must be >= 0: " + costMargin);
+    }
+    this.size = size;
+    this.costMargin = costMargin;
+  }
+
+  /**
+   * Token graphの形態素
+   */
+  static final class Segment<N> {
+    /** Node(同じ区切り位置の形態素のうち、コストの小さい経路のNode) */
+    final N node;
+    /** 開始位置(文字) */
+    final int offset;
+    /** 長さ(文字) */
+    final int length;
+    /** 位置(解析範囲内の0からの番号) */
+    int position;
+    /** 位置の長さ */
+    int positionLength;
+
+    Segment(N node, int offset, int length) {
+      this.node = node;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /** latticeのNode */
+  private static final class Vertex<N> {
+    final N node;
+    /** 表層形の開始位置(文字) */
+    final int begin;
+    /** 表層形の終了位置(文字) */
+    final int end;
+    /** 右への連結先 */
+    final List<Vertex<N>> targets = new ArrayList<>();
+    /** 右への連結コスト(右の形態素の単語コストを含む) */
+    final List<Integer> costs = new ArrayList<>();
+    /** EOSまでの最小コスト(到達できない場合はLong.MAX_VALUE) */
+    long rest = Long.MAX_VALUE;
+
+    Vertex(N node, int begin, int end) {
+      this.node = node;
+      this.begin = begin;
+      this.end = end;
+    }
+  }
+
+  /** 探索中の経路(BOSからの部分経路) */
+  private static final class Partial<N> {
+    final Vertex<N> vertex;
+    /** BOSからのコスト */
+    final long cost;
+    final Partial<N> prev;
+
+    Partial(Vertex<N> vertex, long cost, Partial<N> prev) {
+      this.vertex = vertex;
+      this.cost = cost;
+      this.prev = prev;
+    }
+
+    /** EOSまでの最小コストを加えたコスト */
+    long estimate() {
+      return this.cost + this.vertex.rest;
+    }
+  }
+
+  /**
+   * 形態素を出力するかの判定
+   */
+  interface Emitted {
+    /**
+     * @param offset  開始位置
+     * @param length  長さ
+     * @return  false:出力しない(句読点の除外時の句読点等)
+     */
+    boolean test(int offset, int length);
+  }
+
+  /**
+   * Nbestで解析したlatticeからToken graphの形態素を取得する
+   *
+   * @param lattice Nbestで解析したlattice
+   * @param spanBegin 解析範囲の開始位置
+   * @param emitted 出力する形態素か(出力しない形態素は位置を持たない)
+   * @param overDeadline  解析時間上限を超えたか(最適解の取得後に判定する)
+   * @return  形態素(位置, 終了位置の順)
+   */
+  <N, P> List<Segment<N>> segments(MecabLattice<N, P> lattice, int spanBegin, Emitted emitted,
+      BooleanSupplier overDeadline) {
+    List<Vertex<N>> vertices = vertices(lattice, spanBegin);
+    Vertex<N> bos = vertices.get(0);
+
+    // EOSまでの最小コスト(連結先は常に後に並ぶ為、逆順に求める)
+    vertices.get(vertices.size() - 1).rest = 0;
+    for (int v = vertices.size() - 2; v >= 0; v--) {
+      Vertex<N> vertex = vertices.get(v);
+      for (int i = 0; i < vertex.targets.size(); i++) {
+        long rest = vertex.targets.get(i).rest;
+        if (rest != Long.MAX_VALUE) {
+          vertex.rest = Math.min(vertex.rest, rest + vertex.costs.get(i));
+        }
+      }
+    }
+    if (bos.rest == Long.MAX_VALUE) {
+      return new ArrayList<>();
+    }
+    long limit = this.costMargin == 0 ? Long.MAX_VALUE : bos.rest + this.costMargin;
+
+    // 見積りが正確な為、EOSに到達した経路はコストの小さい順に取り出される
+    PriorityQueue<Partial<N>> queue = new PriorityQueue<>(Comparator.comparingLong(Partial::estimate));
+    queue.add(new Partial<>(bos, 0, null));
+    Set<String> segmentations = new HashSet<>();
+    Map<Long, Segment<N>> spans = new HashMap<>();
+    List<Segment<N>> segments = new ArrayList<>();
+    // 打ち切りは最適解(通常は形態素数+2回で取り出される)の取得後のみ
+    int chars = vertices.get(vertices.size() - 1).end - spanBegin;
+    long maxPolls = (long) this.size * POLLS_PER_SEGMENTATION_CHAR * (chars + 2);
+    long polls = 0;
+    while (!queue.isEmpty() && segmentations.size() < this.size) {
+      polls++;
+      if (!segmentations.isEmpty()
+          && (polls > maxPolls || (polls % DEADLINE_CHECK_INTERVAL == 0 && overDeadline.getAsBoolean()))) {
+        MecabStats.NBEST_SEARCH_LIMITS.increment();
+        break;
+      }
+      Partial<N> partial = queue.poll();
+      if (partial.estimate() > limit) {
+        break;
+      }
+      Vertex<N> vertex = partial.vertex;
+      if (lattice.stat(vertex.node) == MecabLattice.EOS_NODE) {
+        addPath(partial, emitted, segmentations, spans, segments);
+        continue;
+      }
+      for (int i = 0; i < vertex.targets.size(); i++) {
+        Vertex<N> target = vertex.targets.get(i);
+        if (target.rest != Long.MAX_VALUE) {
+          queue.add(new Partial<>(target, partial.cost + vertex.costs.get(i), partial));
+        }
+      }
+    }
+    MecabStats.NBEST_SEGMENTATIONS.add(segmentations.size());
+    return assignPositions(segments);
+  }
+
+  /**
+   * latticeのBOSから連結する全てのNodeを取得する
+   *
+   * @return  Node(BOSが先頭, EOSが最後。他は終了位置の順)
+   */
+  private static <N, P> List<Vertex<N>> vertices(MecabLattice<N, P> lattice, int spanBegin) {
+    List<Vertex<N>> vertices = new ArrayList<>();
+    // Nodeのidで識別する(native版はNodeの参照毎に異なるobjectとなる為)
+    Map<Long, Vertex<N>> found = new HashMap<>();
+    N bosNode = lattice.bosNode();
+    Vertex<N> bos = new Vertex<>(bosNode, spanBegin, spanBegin);
+    vertices.add(bos);
+    found.put(lattice.id(bosNode), bos);
+    for (int v = 0; v < vertices.size(); v++) {
+      Vertex<N> vertex = vertices.get(v);
+      for (P path = lattice.rpath(vertex.node); path != null; path = lattice.rnext(path)) {
+        N rnode = lattice.rnode(path);
+        Vertex<N> target = found.get(lattice.id(rnode));
+        if (target == null) {
+          // 空白は1文字1byteとして扱う(最適解のTokenの作成と同じ)
+          int begin = vertex.end + (lattice.rlength(rnode) - lattice.length(rnode));
+          target = new Vertex<>(rnode, begin, begin + lattice.surfaceLength(rnode));
+          vertices.add(target);
+          found.put(lattice.id(rnode), target);
+        }
+        vertex.targets.add(target);
+        vertex.costs.add(lattice.pathCost(path));
+      }
+    }
+    // 形態素の長さは1文字以上の為、連結先は連結元より終了位置が大きい(EOSは同じ終了位置の最後)
+    vertices.sort(Comparator.comparingInt((Vertex<N> vertex) -> vertex.end)
+        .thenComparingInt(vertex -> lattice.stat(vertex.node) == MecabLattice.EOS_NODE ? 1 : 0));
+    if (vertices.size() < 2 || lattice.stat(vertices.get(vertices.size() - 1).node) != MecabLattice.EOS_NODE) {
+      throw new IllegalStateException("lattice has no connection to EOS, it must be parsed with nbest");
+    }
+    return vertices;
+  }
+
+  /**
+   * EOSに到達した経路の形態素を追加する(既に取得した分割と同じ経路は除く)
+   */
+  private static <N> void addPath(Partial<N> partial, Emitted emitted,
+      Set<String> segmentations, Map<Long, Segment<N>> spans, List<Segment<N>> segments) {
+    // BOS, EOSを除く形態素(終了位置の逆順)
+    List<Vertex<N>> path = new ArrayList<>();
+    for (Partial<N> p = partial.prev; p.prev != null; p = p.prev) {
+      path.add(p.vertex);
+    }
+    StringBuilder key = new StringBuilder();
+    for (int i = path.size() - 1; i >= 0; i--) {
+      key.append(path.get(i).begin).append('-').append(path.get(i).end).append(' ');
+    }
+    if (!segmentations.add(key.toString())) {
+      return;
+    }
+    for (int i = path.size() - 1; i >= 0; i--) {
+      Vertex<N> vertex = path.get(i);
+      long span = ((long) vertex.begin << 32) | vertex.end;
+      if (!spans.containsKey(span) && emitted.test(vertex.begin, vertex.end - vertex.begin)) {
+        Segment<N> segment = new Segment<>(vertex.node, vertex.begin, vertex.end - vertex.begin);
+        spans.put(span, segment);
+        segments.add(segment);
+      }
+    }
+  }
+
+  /**
+   * 形態素の位置を設定する
+   *
+   * <p>位置は形態素の開始位置の順の番号とし、位置の長さは終了位置以降の最初の開始位置の位置までとする
+   * (最後の形態素は全ての開始位置の数まで)。
+   */
+  private static <N> List<Segment<N>> assignPositions(List<Segment<N>> segments) {
+    int[] begins = new int[segments.size()];
+    int count = 0;
+    for (Segment<N> segment : segments) {
+      begins[count++] = segment.offset;
+    }
+    Arrays.sort(begins);
+    int distinct = 0;
+    for (int i = 0; i < count; i++) {
+      if (i == 0 || begins[i] != begins[i - 1]) {
+        begins[distinct++] = begins[i];
+      }
+    }
+    for (Segment<N> segment : segments) {
+      segment.position = Arrays.binarySearch(begins, 0, distinct, segment.offset);
+      int end = Arrays.binarySearch(begins, 0, distinct, segment.offset + segment.length);
+      if (end < 0) {
+        end = -end - 1;
+      }
+      segment.positionLength = end - segment.position;
+    }
+    segments.sort(Comparator.comparingInt((Segment<N> segment) -> segment.position)
+        .thenComparingInt(segment -> segment.offset + segment.length));
+    return segments;
+  }
+
+  /**
+   * 解析設定の識別に使用する文字列
+   */
+  @Override
+  public String toString() {
+    return this.size + "," + this.costMargin;
+  }
+}
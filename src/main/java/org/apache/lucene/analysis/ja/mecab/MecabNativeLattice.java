@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import com.github.boukefalos.jlibloader.Native;
+
+import org.chasen.mecab.Lattice;
+import org.chasen.mecab.MeCabConstants;
+import org.chasen.mecab.Model;
+import org.chasen.mecab.Node;
+import org.chasen.mecab.Path;
+import org.chasen.mecab.Tagger;
+
+import java.io.IOException;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mecab(shared library)による形態素解析
+ */
+final class MecabNativeLattice extends MecabLattice<Node, Path> {
+
+  /** shared libraryの読み込み */
+  static {
+    AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+      try {
+        Native.load("org.chasen.mecab", "MeCab");
+      } catch (UnsatisfiedLinkError e) {
+        throw new UnsatisfiedLinkError(
+            "Cannot load the native code.\n"
+                + "Make sure your LD_LIBRARY_PATH contains MeCab.so path.\n" + e);
+      }
+      return null;
+    });
+  }
+
+  /** 起動引数・辞書ファイルの版毎のModel */
+  private static final Map<String, SharedModel> MODELS = new HashMap<>();
+
+  /** 起動引数・辞書ファイルの版毎に共有するModel(参照はTagger, Latticeが保持する) */
+  private static final class SharedModel {
+    final Model model;
+    MecabHandles.Handle handle;
+
+    SharedModel(Model model) {
+      this.model = model;
+    }
+  }
+
+  /** Mecabインスタンス(latticeは解析毎にclearして再利用する) */
+  private final Tagger tagger;
+  private final Lattice lattice;
+  /** nativeオブジェクトの所有 */
+  private final MecabHandles.Owner owner;
+  /** 解析後、解析結果を破棄していないか(使用中はnativeオブジェクトを解放しない) */
+  private boolean inUse = false;
+  /** latticeの使用量の見積もり(Mecabは解放した領域を再利用の為に保持する為、最大値) */
+  private long latticeBytes = 0;
+
+  /**
+   * コンストラクタ
+   *
+   * @param arg Mecabの起動引数
+   * @param version 辞書ファイルの版
+   */
+  MecabNativeLattice(String arg, long version) {
+    SharedModel shared = acquireModel(arg, version);
+    MecabHandles.Handle modelHandle = shared.handle;
+    MecabHandles.Handle taggerHandle = null;
+    try {
+      Model model = shared.model;
+      this.tagger = model.createTagger();
+      taggerHandle = MecabHandles.open(MecabHandles.Kind.TAGGER, this.tagger::delete, modelHandle);
+      this.lattice = model.createLattice();
+      MecabHandles.Handle latticeHandle = MecabHandles.open(MecabHandles.Kind.LATTICE, this.lattice::delete, modelHandle);
+      this.owner = MecabHandles.own(this, taggerHandle, latticeHandle);
+    } catch (RuntimeException | Error e) {
+      if (taggerHandle != null) {
+        taggerHandle.release();
+      }
+      throw e;
+    } finally {
+      // Modelの参照はTagger, Latticeが保持する
+      modelHandle.release();
+    }
+  }
+
+  /**
+   * 起動引数・辞書ファイルの版のModelの参照を取得する(Tagger, Latticeを作成しない)
+   *
+   * @param arg Mecabの起動引数
+   * @param version 辞書ファイルの版
+   * @return  Modelの参照(呼び出し側で解放する)
+   */
+  static MecabHandles.Handle retainModel(String arg, long version) {
+    return acquireModel(arg, version).handle;
+  }
+
+  /**
+   * 起動引数・辞書ファイルの版のModelの参照を取得する(無い場合、破棄済みの場合は作成する)
+   *
+   * <p>辞書ファイルが更新されている場合は新しい版のModelを作成し、古い版の共有を止める
+   * (古い版は参照中のTagger, Latticeの破棄後に破棄される)。
+   *
+   * @param arg Mecabの起動引数
+   * @param version 辞書ファイルの版
+   * @return  Model(呼び出し側でHandleの参照を解放する)
+   */
+  private static SharedModel acquireModel(String arg, long version) {
+    String key = arg + "\u0000" + version;
+    synchronized (MODELS) {
+      SharedModel model = MODELS.get(key);
+      if (model != null && model.handle.tryRetain()) {
+        return model;
+      }
+      SharedModel created = new SharedModel(new Model(arg));
+      created.handle = MecabHandles.open(MecabHandles.Kind.MODEL, () -> {
+        synchronized (MODELS) {
+          MODELS.remove(key, created);
+        }
+        created.model.delete();
+      }, null);
+      MODELS.keySet().removeIf(loaded -> loaded.startsWith(arg + "\u0000"));
+      MODELS.put(key, created);
+      return created;
+    }
+  }
+
+  @Override
+  void parse(String sentence, boolean nbest) throws IOException {
+    // 解析結果の破棄(clear)まではnativeオブジェクトを解放しない
+    if (!this.inUse) {
+      if (!this.owner.enter()) {
+        throw new IllegalStateException("mecab lattice is already closed");
+      }
+      this.inUse = true;
+    }
+    this.lattice.clear();
+    // MecabをNbestで形態素する(request typeは文字列の設定前に設定する)
+    this.lattice.set_request_type(nbest ? MeCabConstants.MECAB_NBEST : MeCabConstants.MECAB_ONE_BEST);
+    // 形態素対象文字列の設定
+    this.lattice.set_sentence(sentence);
+    this.latticeBytes = Math.max(this.latticeBytes,
+        estimateBytes(MecabSentence.byteLength(sentence, 0, sentence.length())));
+
+    // 形態素実行
+    if (!this.tagger.parse(this.lattice)) {
+      throw new IOException(this.lattice.what());
+    }
+  }
+
+  /**
+   * 書式化した解析結果を取得する
+   *
+   * @return  解析結果
+   * @throws IOException  書式化の例外
+   */
+  String format() throws IOException {
+    String result = this.lattice.toString();
+    if (result == null) {
+      throw new IOException(this.lattice.what());
+    }
+    return result;
+  }
+
+  /**
+   * 指定位置から始まるNode
+   *
+   * @param bytePos 開始位置(byte)
+   * @return  Node
+   */
+  Node beginNodes(int bytePos) {
+    return this.lattice.begin_nodes(bytePos);
+  }
+
+  @Override
+  Node bosNode() {
+    return this.lattice.bos_node();
+  }
+
+  @Override
+  Node next(Node node) {
+    return node.getNext();
+  }
+
+  @Override
+  Node bnext(Node node) {
+    return node.getBnext();
+  }
+
+  @Override
+  Path rpath(Node node) {
+    return node.getRpath();
+  }
+
+  @Override
+  Path rnext(Path path) {
+    return path.getRnext();
+  }
+
+  @Override
+  Node rnode(Path path) {
+    return path.getRnode();
+  }
+
+  @Override
+  int pathCost(Path path) {
+    return path.getCost();
+  }
+
+  @Override
+  int stat(Node node) {
+    return node.getStat();
+  }
+
+  @Override
+  String surface(Node node) {
+    return node.getSurface();
+  }
+
+  @Override
+  int surfaceLength(Node node) {
+    return node.getSurface().length();
+  }
+
+  @Override
+  int length(Node node) {
+    return node.getLength();
+  }
+
+  @Override
+  int rlength(Node node) {
+    return node.getRlength();
+  }
+
+  @Override
+  long id(Node node) {
+    return node.getId();
+  }
+
+  @Override
+  int posid(Node node) {
+    return node.getPosid();
+  }
+
+  @Override
+  long cost(Node node) {
+    return node.getCost();
+  }
+
+  @Override
+  short wcost(Node node) {
+    return node.getWcost();
+  }
+
+  @Override
+  String feature(Node node) {
+    return node.getFeature();
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return this.owner.isClosed() ? 0 : this.latticeBytes;
+  }
+
+  @Override
+  void clear() {
+    // Mecab後始末(解析後のみ。解析結果を破棄するまで解放されない)
+    if (this.inUse) {
+      this.inUse = false;
+      try {
+        this.lattice.clear();
+      } finally {
+        this.owner.exit();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    this.owner.close();
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.text.Normalizer;
+
+/**
+ * MecabTokenizerの入力の正規化
+ *
+ * <p>入力の読み込み時に以下を1回の走査で行い、Tokenのoffsetは元の入力の位置に補正する。
+ * <ol>
+ * <li>反復記号の展開({@link org.apache.lucene.analysis.ja.JapaneseIterationMarkCharFilter}と同じ)</li>
+ * <li>NFKC正規化、または全角英数・半角カタカナの変換({@link org.apache.lucene.analysis.cjk.CJKWidthFilter}と同じ)</li>
+ * </ol>
+ */
+public final class MecabNormalization {
+
+  /** 正規化なし */
+  public static final MecabNormalization NONE = new MecabNormalization(false, false, false, false);
+
+  /** 漢字の反復記号 */
+  private static final char KANJI_ITERATION_MARK = '々';
+  /** ひらがなの反復記号 */
+  private static final char HIRAGANA_ITERATION_MARK = 'ゝ';
+  private static final char HIRAGANA_VOICED_ITERATION_MARK = 'ゞ';
+  /** カタカナの反復記号 */
+  private static final char KATAKANA_ITERATION_MARK = 'ヽ';
+  private static final char KATAKANA_VOICED_ITERATION_MARK = 'ヾ';
+  /** 句点(反復の対象としない) */
+  private static final char FULL_STOP_PUNCTUATION = '。';
+
+  /** 半角カタカナ(0xFF65-0xFF9F)の全角変換表(CJKWidthFilterと同じ) */
+  private static final char[] KANA_NORM = new char[] {
+    0x30fb, 0x30f2, 0x30a1, 0x30a3, 0x30a5, 0x30a7, 0x30a9, 0x30e3, 0x30e5,
+    0x30e7, 0x30c3, 0x30fc, 0x30a2, 0x30a4, 0x30a6, 0x30a8, 0x30aa, 0x30ab,
+    0x30ad, 0x30af, 0x30b1, 0x30b3, 0x30b5, 0x30b7, 0x30b9, 0x30bb, 0x30bd,
+    0x30bf, 0x30c1, 0x30c4, 0x30c6, 0x30c8, 0x30ca, 0x30cb, 0x30cc, 0x30cd,
+    0x30ce, 0x30cf, 0x30d2, 0x30d5, 0x30d8, 0x30db, 0x30de, 0x30df, 0x30e0,
+    0x30e1, 0x30e2, 0x30e4, 0x30e6, 0x30e8, 0x30e9, 0x30ea, 0x30eb, 0x30ec,
+    0x30ed, 0x30ef, 0x30f3, 0x3099, 0x309A
+  };
+
+  /** 濁点の結合差分(0x30A6-0x30FD) */
+  private static final byte[] KANA_COMBINE_VOICED = new byte[] {
+    78, 0, 0, 0, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1,
+    0, 1, 0, 1, 0, 0, 1, 0, 1, 0, 1, 0, 0, 0, 0, 0, 0, 1, 0, 0, 1, 0, 0, 1,
+    0, 0, 1, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+    0, 8, 8, 8, 8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1
+  };
+
+  /** 半濁点の結合差分(0x30A6-0x30FD) */
+  private static final byte[] KANA_COMBINE_HALF_VOICED = new byte[] {
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2, 0, 0, 2, 0, 0, 2,
+    0, 0, 2, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0
+  };
+
+  /** 反復記号の濁音変換表(ひらがな:0x304B-, カタカナ:0x30AB-。JapaneseIterationMarkCharFilterと同じ) */
+  private static final char[] H2D = new char[] {
+    'が', 'が', 'ぎ', 'ぎ', 'ぐ', 'ぐ', 'げ', 'げ', 'ご', 'ご',
+    'ざ', 'ざ', 'じ', 'じ', 'ず', 'ず', 'ぜ', 'ぜ', 'ぞ', 'ぞ',
+    'だ', 'だ', 'ぢ', 'ぢ', 'っ', 'づ', 'づ', 'で', 'で', 'ど', 'ど',
+    'な', 'に', 'ぬ', 'ね', 'の',
+    'ば', 'ば', 'ぱ', 'び', 'び', 'ぴ', 'ぶ', 'ぶ', 'ぷ', 'べ', 'べ', 'ぺ', 'ぼ', 'ぼ', 'ぽ'
+  };
+  private static final char[] K2D = new char[] {
+    'ガ', 'ガ', 'ギ', 'ギ', 'グ', 'グ', 'ゲ', 'ゲ', 'ゴ', 'ゴ',
+    'ザ', 'ザ', 'ジ', 'ジ', 'ズ', 'ズ', 'ゼ', 'ゼ', 'ゾ', 'ゾ',
+    'ダ', 'ダ', 'ヂ', 'ヂ', 'ッ', 'ヅ', 'ヅ', 'デ', 'デ', 'ド', 'ド',
+    'ナ', 'ニ', 'ヌ', 'ネ', 'ノ',
+    'バ', 'バ', 'パ', 'ビ', 'ビ', 'ピ', 'ブ', 'ブ', 'プ', 'ベ', 'ベ', 'ペ', 'ボ', 'ボ', 'ポ'
+  };
+
+  /** 漢字の反復記号を展開する */
+  private final boolean normalizeKanji;
+  /** かなの反復記号を展開する */
+  private final boolean normalizeKana;
+  /** NFKC正規化 */
+  private final boolean nfkc;
+  /** 全角英数・半角カタカナの変換(NFKC正規化を行う場合は不要) */
+  private final boolean width;
+
+  /**
+   * コンストラクタ
+   *
+   * @param normalizeKanji  漢字の反復記号を展開する
+   * @param normalizeKana   かなの反復記号を展開する
+   * @param nfkc  NFKC正規化を行う
+   * @param width 全角英数・半角カタカナを変換する
+   */
+  public MecabNormalization(boolean normalizeKanji, boolean normalizeKana, boolean nfkc, boolean width) {
+    this.normalizeKanji = normalizeKanji;
+    this.normalizeKana = normalizeKana;
+    this.nfkc = nfkc;
+    this.width = width;
+  }
+
+  public boolean isNormalizeKanji() {
+    return this.normalizeKanji;
+  }
+
+  public boolean isNormalizeKana() {
+    return this.normalizeKana;
+  }
+
+  public boolean isNfkc() {
+    return this.nfkc;
+  }
+
+  public boolean isWidth() {
+    return this.width;
+  }
+
+  /** 正規化を行うか */
+  public boolean isEnabled() {
+    return this.normalizeKanji || this.normalizeKana || this.nfkc || this.width;
+  }
+
+  /**
+   * 正規化の結果(Tokenizer毎に再利用する)
+   */
+  static final class Output {
+    /** 正規化した文字列 */
+    char[] text = new char[16];
+    int length = 0;
+    /** 正規化した文字列の位置毎の元の位置(length + 1個) */
+    int[] offsets = new int[17];
+
+    private void append(char ch, int offset) {
+      if (this.length == this.text.length) {
+        this.text = ArrayUtil.grow(this.text, this.length + 1);
+      }
+      if (this.length + 1 >= this.offsets.length) {
+        this.offsets = ArrayUtil.grow(this.offsets, this.length + 2);
+      }
+      this.text[this.length] = ch;
+      this.offsets[this.length] = offset;
+      this.length++;
+    }
+
+    /** 正規化した位置から元の位置を取得する */
+    int offset(int normalized) {
+      return this.offsets[normalized];
+    }
+  }
+
+  /**
+   * 正規化を行う
+   *
+   * @param src 入力文字列(反復記号は直接展開する)
+   * @param length  入力文字列の長さ
+   * @param out 結果
+   */
+  void normalize(char[] src, int length, Output out) {
+    if (this.normalizeKanji || this.normalizeKana) {
+      expandIterationMarks(src, length);
+    }
+    out.length = 0;
+    int pos = 0;
+    while (pos < length) {
+      char ch = src[pos];
+      // 結合文字(濁点等)を含む範囲
+      int end = pos + 1;
+      while (end < length && isCombining(src[end])) {
+        end++;
+      }
+      if (this.nfkc) {
+        if (end == pos + 1 && isNfkcStable(ch)) {
+          out.append(ch, pos);
+        } else {
+          appendSegment(Normalizer.normalize(new String(src, pos, end - pos), Normalizer.Form.NFKC), pos, end, out);
+        }
+      } else if (this.width) {
+        appendWidth(src, pos, end, out);
+      } else {
+        for (int i = pos; i < end; i++) {
+          out.append(src[i], i);
+        }
+      }
+      pos = end;
+    }
+    out.offsets[out.length] = length;
+  }
+
+  /**
+   * 正規化した範囲を追加する
+   *
+   * <p>長さが変わらない場合は1文字毎に、変わる場合は範囲の先頭の位置に対応付ける。
+   */
+  private static void appendSegment(String normalized, int begin, int end, Output out) {
+    boolean sameLength = normalized.length() == end - begin;
+    for (int i = 0; i < normalized.length(); i++) {
+      out.append(normalized.charAt(i), sameLength ? begin + i : begin);
+    }
+  }
+
+  /**
+   * 全角英数・半角カタカナの変換(CJKWidthFilterと同じ)
+   */
+  private static void appendWidth(char[] src, int begin, int end, Output out) {
+    for (int i = begin; i < end; i++) {
+      char ch = src[i];
+      if (ch >= 0xFF01 && ch <= 0xFF5E) {
+        // 全角英数
+        out.append((char) (ch - 0xFEE0), i);
+      } else if (ch >= 0xFF65 && ch <= 0xFF9F) {
+        // 半角カタカナ(濁点・半濁点は直前の文字に結合する)
+        if ((ch == 0xFF9E || ch == 0xFF9F) && out.length > 0 && combine(out.text, out.length, ch)) {
+          continue;
+        }
+        out.append(KANA_NORM[ch - 0xFF65], i);
+      } else {
+        out.append(ch, i);
+      }
+    }
+  }
+
+  /**
+   * CJKWidthFilterと同じ正規化
+   *
+   * @param text  文字列(直接変換する)
+   * @param length  長さ
+   * @return  正規化後の長さ
+   */
+  static int foldWidth(char[] text, int length) {
+    for (int i = 0; i < length; i++) {
+      final char ch = text[i];
+      if (ch >= 0xFF01 && ch <= 0xFF5E) {
+        // 全角英数
+        text[i] -= 0xFEE0;
+      } else if (ch >= 0xFF65 && ch <= 0xFF9F) {
+        // 半角カタカナ
+        if ((ch == 0xFF9E || ch == 0xFF9F) && i > 0 && combine(text, i, ch)) {
+          System.arraycopy(text, i + 1, text, i, length - i - 1);
+          length--;
+          i--;
+        } else {
+          text[i] = KANA_NORM[ch - 0xFF65];
+        }
+      }
+    }
+    return length;
+  }
+
+  /**
+   * 濁点・半濁点を直前の文字に結合する
+   *
+   * @return  true:結合した
+   */
+  private static boolean combine(char[] text, int pos, char ch) {
+    final char prev = text[pos - 1];
+    if (prev >= 0x30A6 && prev <= 0x30FD) {
+      text[pos - 1] += (ch == 0xFF9F)
+          ? KANA_COMBINE_HALF_VOICED[prev - 0x30A6]
+          : KANA_COMBINE_VOICED[prev - 0x30A6];
+      return text[pos - 1] != prev;
+    }
+    return false;
+  }
+
+  /**
+   * 直前の文字と合わせて正規化する文字
+   */
+  private static boolean isCombining(char ch) {
+    if (Character.isLowSurrogate(ch) || ch == 0xFF9E || ch == 0xFF9F) {
+      return true;
+    }
+    switch (Character.getType(ch)) {
+      case Character.NON_SPACING_MARK:
+      case Character.COMBINING_SPACING_MARK:
+      case Character.ENCLOSING_MARK:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * NFKC正規化で変化しない文字(ASCII, ひらがな, カタカナ, CJK統合漢字)
+   */
+  private static boolean isNfkcStable(char ch) {
+    return ch < 0x80
+        || (ch >= 0x3041 && ch <= 0x3096)
+        || (ch >= 0x30A1 && ch <= 0x30FA)
+        || ch == 0x30FC
+        || (ch >= 0x4E00 && ch <= 0x9FFF);
+  }
+
+  /**
+   * 反復記号を展開する(JapaneseIterationMarkCharFilterと同じ規則)
+   *
+   * <p>連続する反復記号は同じ数の直前の文字を反復する。
+   * 句点、サロゲートペア及び前の反復の範囲を超えて反復する事はなく、その場合は反復記号のままとする。
+   * 展開前後で長さは変わらない。
+   */
+  private void expandIterationMarks(char[] text, int length) {
+    // 反復の範囲の終了位置と反復する文字数
+    int spanEnd = 0;
+    int spanSize = 0;
+    for (int pos = 0; pos < length; pos++) {
+      char ch = text[pos];
+      if (Character.isHighSurrogate(ch) || Character.isLowSurrogate(ch) || ch == FULL_STOP_PUNCTUATION) {
+        spanEnd = pos + 1;
+      }
+      if (!isIterationMark(ch)) {
+        continue;
+      }
+      if (pos < spanEnd) {
+        // 反復の範囲内
+        text[pos] = normalize(text[pos - spanSize], ch);
+      } else if (pos == spanEnd) {
+        // 前の範囲の直後からは反復できない
+        spanEnd++;
+      } else {
+        // 新しい反復の範囲
+        int size = 0;
+        for (int i = pos; i < length && isIterationMark(text[i]); i++) {
+          size++;
+        }
+        if (pos - size < spanEnd) {
+          size = pos - spanEnd;
+        }
+        spanSize = size;
+        spanEnd = pos + size;
+        text[pos] = normalize(text[pos - spanSize], ch);
+      }
+    }
+  }
+
+  private boolean isIterationMark(char ch) {
+    if (ch == KANJI_ITERATION_MARK) {
+      return this.normalizeKanji;
+    }
+    return this.normalizeKana && (ch == HIRAGANA_ITERATION_MARK || ch == HIRAGANA_VOICED_ITERATION_MARK
+        || ch == KATAKANA_ITERATION_MARK || ch == KATAKANA_VOICED_ITERATION_MARK);
+  }
+
+  /**
+   * 反復記号を反復する文字に変換する
+   *
+   * @param ch  反復する文字
+   * @param mark  反復記号
+   */
+  private static char normalize(char ch, char mark) {
+    switch (mark) {
+      case HIRAGANA_ITERATION_MARK:
+        return isDakuten(ch, H2D, 'か') ? (char) (ch - 1) : ch;
+      case HIRAGANA_VOICED_ITERATION_MARK:
+        return lookup(ch, H2D, 'か');
+      case KATAKANA_ITERATION_MARK:
+        return isDakuten(ch, K2D, 'カ') ? (char) (ch - 1) : ch;
+      case KATAKANA_VOICED_ITERATION_MARK:
+        return lookup(ch, K2D, 'カ');
+      default:
+        // 漢字はそのまま反復する
+        return ch;
+    }
+  }
+
+  private static char lookup(char ch, char[] map, char offset) {
+    return ch >= offset && ch < offset + map.length ? map[ch - offset] : ch;
+  }
+
+  private static boolean isDakuten(char ch, char[] map, char offset) {
+    return ch >= offset && ch < offset + map.length && ch == map[ch - offset];
+  }
+}
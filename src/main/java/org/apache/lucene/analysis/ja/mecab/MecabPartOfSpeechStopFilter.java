@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.FilteringTokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttribute;
+
+import java.util.Set;
+
+/**
+ * 指定した品詞の形態素を除外するFilter
+ *
+ * <p>{@link org.apache.lucene.analysis.ja.JapanesePartOfSpeechStopFilter}と同等の処理を、
+ * {@link MecabFeatureAttribute}の素性情報から直接行う。
+ *
+ * @author matsu
+ */
+public final class MecabPartOfSpeechStopFilter extends FilteringTokenFilter {
+
+  private final MecabFeatureAttribute featureAtt = addAttribute(MecabFeatureAttribute.class);
+
+  /** 除外する品詞 */
+  private final CharArraySet stopTags;
+
+  /**
+   * コンストラクタ
+   *
+   * @param input 入力
+   * @param stopTags  除外する品詞(品詞細分類を"-"で連結)
+   */
+  public MecabPartOfSpeechStopFilter(TokenStream input, Set<String> stopTags) {
+    super(input);
+    this.stopTags = new CharArraySet(stopTags, false);
+  }
+
+  @Override
+  protected boolean accept() {
+    // 品詞の文字列を作成せずに判定する
+    int length = this.featureAtt.getPartOfSpeechLength();
+    return length < 0 || !this.stopTags.contains(this.featureAtt.getPartOfSpeechBuffer(), 0, length);
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttribute;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * 解析済みTokenの文字列表現
+ *
+ * <p>ingest processorで解析したTokenを文書のfieldに格納し、
+ * {@link MecabPreAnalyzedTokenizer}でMecabを使用せずにindexする為の形式。
+ * 1行目はヘッダ(版と元の文字列の文字長)、2行目以降は1行1Tokenで以下の項目をタブで区切る。
+ * <pre>
+ * mecab1	元の文字列の文字長
+ * 表層形	開始位置	終了位置	位置の増分	位置の長さ[	品詞ID	形態素種別	累積コスト	単語生起コスト	素性情報]
+ * </pre>
+ * 形態素情報の項目は省略できる。各項目の'\'、タブ、改行は"\\", "\t", "\n", "\r"に置き換える。
+ */
+public final class MecabPreAnalyzedFormat {
+
+  /** 版 */
+  static final String VERSION = "mecab1";
+
+  private MecabPreAnalyzedFormat() {
+  }
+
+  /**
+   * TokenStreamの全てのTokenを文字列表現に変換する
+   *
+   * <p>TokenStreamのreset, end, closeは呼び出し側で行う。
+   *
+   * @param stream  TokenStream(reset済み)
+   * @param length  元の文字列の文字長
+   * @param features  true:形態素情報({@link MecabFeatureAttribute})を含める
+   * @return  文字列表現
+   * @throws IOException  解析に失敗した場合
+   */
+  public static String encode(TokenStream stream, int length, boolean features) throws IOException {
+    CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+    OffsetAttribute offsetAtt = stream.addAttribute(OffsetAttribute.class);
+    PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+    PositionLengthAttribute posLengthAtt = stream.addAttribute(PositionLengthAttribute.class);
+    MecabFeatureAttribute featureAtt = features && stream.hasAttribute(MecabFeatureAttribute.class)
+        ? stream.getAttribute(MecabFeatureAttribute.class) : null;
+    StringBuilder out = new StringBuilder(length * 4 + 16);
+    out.append(VERSION).append('\t').append(length).append('\n');
+    while (stream.incrementToken()) {
+      escape(out, termAtt.buffer(), 0, termAtt.length());
+      out.append('\t').append(offsetAtt.startOffset())
+          .append('\t').append(offsetAtt.endOffset())
+          .append('\t').append(posIncAtt.getPositionIncrement())
+          .append('\t').append(posLengthAtt.getPositionLength());
+      if (featureAtt != null && featureAtt.getFeature() != null) {
+        out.append('\t').append(featureAtt.getPosId())
+            .append('\t').append(featureAtt.getStat())
+            .append('\t').append(featureAtt.getCost())
+            .append('\t').append(featureAtt.getWordCost())
+            .append('\t');
+        escape(out, featureAtt.getFeature(), 0, featureAtt.getFeature().length());
+      }
+      out.append('\n');
+    }
+    return out.toString();
+  }
+
+  private static void escape(StringBuilder out, char[] text, int offset, int length) {
+    escape(out, CharBuffer.wrap(text), offset, length);
+  }
+
+  private static void escape(StringBuilder out, CharSequence text, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      char ch = text.charAt(i);
+      switch (ch) {
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        default:
+          out.append(ch);
+      }
+    }
+  }
+
+  /**
+   * 文字列表現の読み込み
+   *
+   * <p>Token毎に項目を読み込み、バッファは次のTokenで再利用する。
+   */
+  static final class Reader {
+    private final char[] text;
+    private final int end;
+    private int pos;
+    private int line = 1;
+    /** 直前の数値の項目の後に項目が続くか */
+    private boolean separated;
+
+    /** 元の文字列の文字長 */
+    private final int length;
+
+    char[] term = new char[16];
+    int termLength;
+    int startOffset;
+    int endOffset;
+    int positionIncrement;
+    int positionLength;
+    /** 形態素情報の有無 */
+    boolean hasFeature;
+    int posId;
+    int stat;
+    long cost;
+    short wordCost;
+    String feature;
+
+    private final StringBuilder column = new StringBuilder();
+
+    /**
+     * @param text  文字列表現
+     * @param end   文字列表現の文字長
+     */
+    Reader(char[] text, int end) {
+      this.text = text;
+      this.end = end;
+      if (end == 0) {
+        // 値が空の場合はTokenなしとする
+        this.length = 0;
+        return;
+      }
+      if (!readColumn() || !VERSION.contentEquals(this.column)) {
+        throw error("unsupported pre-analyzed format, expected [" + VERSION + "]");
+      }
+      this.length = readInt(false);
+      endLine();
+    }
+
+    /** 元の文字列の文字長 */
+    int length() {
+      return this.length;
+    }
+
+    /**
+     * 次のTokenを読み込む
+     *
+     * @return  false:Tokenの終わり
+     */
+    boolean next() {
+      if (this.pos >= this.end) {
+        return false;
+      }
+      this.line++;
+      readColumn();
+      if (this.term.length < this.column.length()) {
+        this.term = new char[this.column.length()];
+      }
+      this.column.getChars(0, this.column.length(), this.term, 0);
+      this.termLength = this.column.length();
+      this.startOffset = readInt(true);
+      this.endOffset = readInt(true);
+      this.positionIncrement = readInt(true);
+      this.positionLength = readInt(false);
+      this.hasFeature = this.separated;
+      if (this.hasFeature) {
+        this.posId = readInt(true);
+        this.stat = readInt(true);
+        this.cost = readLong(true);
+        this.wordCost = (short) readInt(true);
+        readColumn();
+        this.feature = this.column.toString();
+      } else {
+        this.feature = null;
+      }
+      endLine();
+      if (this.startOffset < 0 || this.endOffset < this.startOffset || this.positionIncrement < 0
+          || this.positionLength < 1) {
+        throw error("invalid offsets or positions");
+      }
+      return true;
+    }
+
+    /**
+     * 項目を読み込む
+     *
+     * @return  true:後続の項目あり/false:行末
+     */
+    private boolean readColumn() {
+      this.column.setLength(0);
+      while (this.pos < this.end) {
+        char ch = this.text[this.pos++];
+        if (ch == '\t') {
+          return true;
+        } else if (ch == '\n') {
+          this.pos--;
+          return false;
+        } else if (ch == '\\' && this.pos < this.end) {
+          char escaped = this.text[this.pos++];
+          switch (escaped) {
+            case 't':
+              this.column.append('\t');
+              break;
+            case 'n':
+              this.column.append('\n');
+              break;
+            case 'r':
+              this.column.append('\r');
+              break;
+            default:
+              this.column.append(escaped);
+          }
+        } else {
+          this.column.append(ch);
+        }
+      }
+      return false;
+    }
+
+    private int readInt(boolean more) {
+      long value = readLong(more);
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+        throw error("number out of range");
+      }
+      return (int) value;
+    }
+
+    /**
+     * 数値の項目を読み込む
+     *
+     * @param more  true:後続の項目が必要
+     */
+    private long readLong(boolean more) {
+      boolean negative = this.pos < this.end && this.text[this.pos] == '-';
+      if (negative) {
+        this.pos++;
+      }
+      long value = 0;
+      int digits = 0;
+      while (this.pos < this.end && this.text[this.pos] >= '0' && this.text[this.pos] <= '9') {
+        if (digits++ >= 18) {
+          throw error("number out of range");
+        }
+        value = value * 10 + (this.text[this.pos++] - '0');
+      }
+      if (digits == 0) {
+        throw error("number expected");
+      }
+      this.separated = this.pos < this.end && this.text[this.pos] == '\t';
+      if (this.separated) {
+        this.pos++;
+      } else if (more) {
+        throw error("missing columns");
+      }
+      return negative ? -value : value;
+    }
+
+    private void endLine() {
+      if (this.pos < this.end) {
+        if (this.text[this.pos] != '\n') {
+          throw error("unexpected column");
+        }
+        this.pos++;
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at line " + this.line);
+    }
+  }
+}
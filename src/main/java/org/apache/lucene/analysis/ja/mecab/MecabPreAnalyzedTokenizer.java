@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttribute;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+
+/**
+ * 解析済みTokenのTokenizer
+ *
+ * <p>{@link MecabPreAnalyzedFormat}の文字列表現からTokenを作成する。Mecabは使用しない。
+ * 形態素情報を含む場合は{@link MecabFeatureAttribute}を設定する為、
+ * mecab_baseform, mecab_part_of_speech, mecab_readingform等のFilterを適用できる。
+ * offsetは解析元の文字列の位置となる。
+ */
+public final class MecabPreAnalyzedTokenizer extends Tokenizer {
+
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+  private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+  private final PositionLengthAttribute posLengthAtt = addAttribute(PositionLengthAttribute.class);
+  private final MecabFeatureAttribute featureAtt = addAttribute(MecabFeatureAttribute.class);
+
+  /** 入力のバッファ(文書間で再利用する) */
+  private char[] buffer = new char[1024];
+  private MecabPreAnalyzedFormat.Reader reader;
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    if (this.reader == null) {
+      this.reader = new MecabPreAnalyzedFormat.Reader(this.buffer, readInput());
+    }
+    if (!this.reader.next()) {
+      return false;
+    }
+    clearAttributes();
+    MecabPreAnalyzedFormat.Reader token = this.reader;
+    termAtt.copyBuffer(token.term, 0, token.termLength);
+    offsetAtt.setOffset(correctOffset(token.startOffset), correctOffset(token.endOffset));
+    posIncAtt.setPositionIncrement(token.positionIncrement);
+    posLengthAtt.setPositionLength(token.positionLength);
+    if (token.hasFeature) {
+      featureAtt.setFeature(token.posId, token.stat, token.cost, token.wordCost, token.feature);
+    }
+    return true;
+  }
+
+  /**
+   * 入力を全て読み込む
+   *
+   * @return  入力の文字長
+   */
+  private int readInput() throws IOException {
+    int length = 0;
+    while (true) {
+      if (length == this.buffer.length) {
+        this.buffer = ArrayUtil.grow(this.buffer, length + 1);
+      }
+      int read = this.input.read(this.buffer, length, this.buffer.length - length);
+      if (read == -1) {
+        return length;
+      }
+      length += read;
+    }
+  }
+
+  @Override
+  public void end() throws IOException {
+    super.end();
+    int length = this.reader == null ? 0 : correctOffset(this.reader.length());
+    offsetAtt.setOffset(length, length);
+  }
+
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    this.reader = null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    this.reader = null;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttribute;
+import org.apache.lucene.analysis.ja.util.ToStringUtil;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.IOException;
+
+/**
+ * 表層形を読みに置き換えるFilter
+ *
+ * <p>{@link org.apache.lucene.analysis.ja.JapaneseReadingFormFilter}と同等の処理を、
+ * {@link MecabFeatureAttribute}の素性情報から直接行う。
+ *
+ * @author matsu
+ */
+public final class MecabReadingFormFilter extends TokenFilter {
+
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final MecabFeatureAttribute featureAtt = addAttribute(MecabFeatureAttribute.class);
+
+  /** ローマ字に変換するか */
+  private final boolean useRomaji;
+  /** ローマ字変換用バッファ */
+  private final StringBuilder buffer = new StringBuilder();
+
+  /**
+   * コンストラクタ
+   *
+   * @param input 入力
+   * @param useRomaji ローマ字に変換するか
+   */
+  public MecabReadingFormFilter(TokenStream input, boolean useRomaji) {
+    super(input);
+    this.useRomaji = useRomaji;
+  }
+
+  /**
+   * コンストラクタ
+   *
+   * @param input 入力
+   */
+  public MecabReadingFormFilter(TokenStream input) {
+    this(input, false);
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    if (!input.incrementToken()) {
+      return false;
+    }
+    int column = this.featureAtt.getReadingColumn();
+    if (this.useRomaji) {
+      this.buffer.setLength(0);
+      if (column < 0) {
+        // 読みが無い場合は表層形を変換
+        this.buffer.append(this.termAtt);
+      } else {
+        this.buffer.append(this.featureAtt.getFeatureBuffer(),
+            this.featureAtt.getFeatureOffset(column), this.featureAtt.getFeatureLength(column));
+      }
+      ToStringUtil.getRomanization(this.termAtt.setEmpty(), this.buffer);
+    } else if (column >= 0) {
+      this.termAtt.copyBuffer(this.featureAtt.getFeatureBuffer(),
+          this.featureAtt.getFeatureOffset(column), this.featureAtt.getFeatureLength(column));
+    }
+    return true;
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.ja.mecab.dict.MecabFeatureLayout;
+
+/**
+ * 入力の文字種による振り分け
+ *
+ * <p>かな・漢字・全角文字等の日本語の範囲はMecabで解析し、
+ * 英字・数字・記号の範囲はMecabを使用せずに文字種の連続で分割する。
+ * 日本語の文字に空白を挟まずに隣接する数字・記号("3月", "第1回"等)は日本語の範囲に含める。
+ */
+final class MecabScriptRouter {
+
+  /** 文字種 */
+  enum Script {
+    /** かな・漢字・全角文字等(Mecabで解析) */
+    JAPANESE,
+    /** 英字等 */
+    LETTER,
+    /** 数字 */
+    DIGIT,
+    /** 記号 */
+    SYMBOL,
+    /** 空白 */
+    SPACE;
+  }
+
+  /** 文字種毎の形態素情報の取得に使用する文字列 */
+  static final String LETTER_SAMPLE = "qzxw";
+  static final String DIGIT_SAMPLE = "9876";
+  static final String SYMBOL_SAMPLE = "$";
+
+  private MecabScriptRouter() {
+  }
+
+  /**
+   * 文字種の判定
+   *
+   * @param ch  文字
+   * @return  文字種
+   */
+  static Script of(char ch) {
+    if (Character.isWhitespace(ch)) {
+      return Script.SPACE;
+    }
+    if (isJapanese(ch)) {
+      return Script.JAPANESE;
+    }
+    if (Character.isDigit(ch)) {
+      return Script.DIGIT;
+    }
+    switch (Character.getType(ch)) {
+      case Character.NON_SPACING_MARK:
+      case Character.COMBINING_SPACING_MARK:
+      case Character.ENCLOSING_MARK:
+        // 結合文字は前の文字と同じ範囲とする
+        return Script.LETTER;
+      default:
+        return Character.isLetter(ch) ? Script.LETTER : Script.SYMBOL;
+    }
+  }
+
+  /**
+   * Mecabで解析する文字か
+   *
+   * <p>サロゲートペア(CJK統合漢字拡張B等)はMecabで解析する。
+   */
+  private static boolean isJapanese(char ch) {
+    return (ch >= 0x2E80 && ch <= 0x2FDF)     // CJK部首
+        || (ch >= 0x3000 && ch <= 0x33FF)     // CJK記号・かな・囲みCJK・CJK互換
+        || (ch >= 0x3400 && ch <= 0x4DBF)     // CJK統合漢字拡張A
+        || (ch >= 0x4E00 && ch <= 0x9FFF)     // CJK統合漢字
+        || (ch >= 0xD800 && ch <= 0xDFFF)     // サロゲート
+        || (ch >= 0xF900 && ch <= 0xFAFF)     // CJK互換漢字
+        || (ch >= 0xFE30 && ch <= 0xFE4F)     // CJK互換形
+        || (ch >= 0xFF00 && ch <= 0xFFEF);    // 全角・半角形
+  }
+
+  /** 日本語の範囲に含める文字(数字・記号) */
+  private static boolean isAttachable(char ch) {
+    Script script = of(ch);
+    return script == Script.DIGIT || script == Script.SYMBOL;
+  }
+
+  /** 数字・記号の連続の終了位置 */
+  private static int attachableEnd(char[] text, int begin, int end) {
+    int pos = begin;
+    while (pos < end && isAttachable(text[pos])) {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * 日本語の範囲の終了位置
+   *
+   * @param text  入力文字列
+   * @param begin 開始位置
+   * @param end   終了位置
+   * @return  日本語の範囲の終了位置(開始位置が日本語の範囲でない場合はbegin)
+   */
+  static int japaneseEnd(char[] text, int begin, int end) {
+    int pos = attachableEnd(text, begin, end);
+    if (pos == end || of(text[pos]) != Script.JAPANESE) {
+      return begin;
+    }
+    while (true) {
+      while (pos < end && of(text[pos]) == Script.JAPANESE) {
+        pos++;
+      }
+      int next = attachableEnd(text, pos, end);
+      if (next == pos) {
+        return pos;
+      }
+      pos = next;
+      if (pos == end || of(text[pos]) != Script.JAPANESE) {
+        // 末尾の数字・記号
+        return pos;
+      }
+    }
+  }
+
+  /**
+   * 日本語以外の範囲の終了位置
+   *
+   * @param text  入力文字列
+   * @param begin 開始位置(日本語の範囲の開始位置でない事)
+   * @param end   終了位置
+   * @return  次の日本語の範囲の開始位置
+   */
+  static int otherEnd(char[] text, int begin, int end) {
+    int pos = begin;
+    while (pos < end) {
+      char ch = text[pos];
+      if (of(ch) == Script.JAPANESE) {
+        break;
+      }
+      if (isAttachable(ch)) {
+        int next = attachableEnd(text, pos, end);
+        if (next < end && of(text[next]) == Script.JAPANESE) {
+          break;
+        }
+        pos = next;
+      } else {
+        pos++;
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * 同じ文字種が連続する範囲の終了位置(記号は1文字毎)
+   *
+   * @param text  入力文字列
+   * @param begin 開始位置
+   * @param end   終了位置
+   * @return  終了位置
+   */
+  static int tokenEnd(char[] text, int begin, int end) {
+    Script script = of(text[begin]);
+    if (script == Script.SYMBOL) {
+      return begin + 1;
+    }
+    int pos = begin + 1;
+    while (pos < end && of(text[pos]) == script) {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * 文字種毎の形態素情報
+   */
+  static final class Morpheme {
+    final int posid;
+    final long cost;
+    final short wcost;
+    final String feature;
+
+    Morpheme(int posid, long cost, short wcost, String feature) {
+      this.posid = posid;
+      this.cost = cost;
+      this.wcost = wcost;
+      this.feature = stripForms(feature);
+    }
+  }
+
+  /**
+   * 素性情報から原形・読み・発音を除く(品詞のみとする)
+   *
+   * @param feature 素性情報
+   * @return  原形・読み・発音の項目を"*"とした素性情報
+   */
+  static String stripForms(String feature) {
+    if (feature.indexOf('"') >= 0) {
+      // クォートを含む場合はそのまま使用する
+      return feature;
+    }
+    String[] columns = feature.split(",", -1);
+    MecabFeatureLayout layout = MecabFeatureLayout.of(columns.length);
+    int[] forms = {layout.getBaseForm(), layout.getReading(), layout.getPronunciation()};
+    for (int column : forms) {
+      if (column < columns.length) {
+        columns[column] = "*";
+      }
+    }
+    return String.join(",", columns);
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Mecabに渡す解析対象文字列
+ *
+ * <p>SWIG版と同じ結果になるよう、JNIと同じModified UTF-8のbyte列に変換し、
+ * byte位置から文字位置への変換表を保持する。
+ */
+final class MecabSentence {
+
+  /** 解析対象文字列 */
+  private String text = "";
+  /** byte列(Modified UTF-8) */
+  private byte[] bytes = new byte[0];
+  /** byte長 */
+  private int length = 0;
+  /** byte位置から文字位置への変換 */
+  private int[] charOffsets = new int[1];
+
+  /**
+   * 文字列を変換する
+   *
+   * @param text  解析対象文字列
+   */
+  void set(String text) {
+    this.text = text;
+    int chars = text.length();
+    if (this.bytes.length < chars * 3) {
+      this.bytes = new byte[chars * 3];
+      this.charOffsets = new int[chars * 3 + 1];
+    }
+    int pos = 0;
+    for (int i = 0; i < chars; i++) {
+      char ch = text.charAt(i);
+      this.charOffsets[pos] = i;
+      if (ch != 0 && ch < 0x80) {
+        this.bytes[pos++] = (byte) ch;
+      } else if (ch < 0x800) {
+        this.bytes[pos++] = (byte) (0xc0 | (ch >> 6));
+        this.charOffsets[pos] = i;
+        this.bytes[pos++] = (byte) (0x80 | (ch & 0x3f));
+      } else {
+        this.bytes[pos++] = (byte) (0xe0 | (ch >> 12));
+        this.charOffsets[pos] = i;
+        this.bytes[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+        this.charOffsets[pos] = i;
+        this.bytes[pos++] = (byte) (0x80 | (ch & 0x3f));
+      }
+    }
+    this.charOffsets[pos] = chars;
+    this.length = pos;
+  }
+
+  /** byte列(先頭から{@link #length()}byteが有効) */
+  byte[] bytes() {
+    return this.bytes;
+  }
+
+  /** byte長 */
+  int length() {
+    return this.length;
+  }
+
+  /**
+   * byte位置を文字位置に変換する(文末を超える位置は文末とする)
+   */
+  int charOffset(int bytePos) {
+    return this.charOffsets[Math.min(bytePos, this.length)];
+  }
+
+  /**
+   * byte範囲の文字列
+   *
+   * @param begin 開始位置(byte)
+   * @param length  byte長
+   * @return  文字列
+   */
+  String substring(int begin, int length) {
+    return this.text.substring(charOffset(begin), charOffset(begin + length));
+  }
+
+  /**
+   * byte範囲の文字数
+   */
+  int charLength(int begin, int length) {
+    return charOffset(begin + length) - charOffset(begin);
+  }
+
+  /** 変換用の領域の使用量 */
+  long ramBytesUsed() {
+    return RamUsageEstimator.sizeOf(this.bytes) + RamUsageEstimator.sizeOf(this.charOffsets);
+  }
+
+  /**
+   * 文字列のbyte長(Modified UTF-8)
+   *
+   * @param text  文字列
+   * @param begin 開始位置
+   * @param end   終了位置
+   * @return  byte長
+   */
+  static int byteLength(CharSequence text, int begin, int end) {
+    int length = 0;
+    for (int i = begin; i < end; i++) {
+      char ch = text.charAt(i);
+      if (ch != 0 && ch < 0x80) {
+        length += 1;
+      } else if (ch < 0x800) {
+        length += 2;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
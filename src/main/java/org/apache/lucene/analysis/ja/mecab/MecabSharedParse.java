@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.ja.mecab.dict.MecabWorkDictionary;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Tokenizer間での解析結果の共有
+ *
+ * <p>multi-fieldsやcopy_toで同じ文字列を複数のfieldとして解析する場合に、
+ * スレッド毎に最後の解析結果を1件のみ保持し、Mecabの解析を1回とする(異なる解析設定の解析で上書きする)。
+ * 同じスレッドで入力文字列(文字長・ハッシュ値・内容)と解析設定(辞書の版を含む)が一致する場合のみ解析結果を使用する。
+ * 各fieldのFilterは共有した解析結果のTokenに対して個別に適用される。
+ * 保持する解析結果の使用量は{@link MecabMemory#snapshot()}に含める。
+ */
+final class MecabSharedParse implements Accountable {
+
+  /** 解析結果を保持する入力の最大文字数(超える場合はスレッドにバッファを保持しない) */
+  static final int MAX_CHARS = 1 << 16;
+
+  private static final long BASE_BYTES = RamUsageEstimator.shallowSizeOfInstance(MecabSharedParse.class);
+  private static final long STRING_BYTES = RamUsageEstimator.shallowSizeOfInstance(String.class)
+      + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+
+  /** スレッド毎の最後の解析結果 */
+  private static final ThreadLocal<MecabSharedParse> RESULTS = ThreadLocal.withInitial(() -> {
+    MecabSharedParse shared = new MecabSharedParse();
+    MecabMemory.registerSharedParse(shared);
+    return shared;
+  });
+
+  /** 解析設定(解析結果が無い場合はnull) */
+  private String key = null;
+
+  /** 入力文字列(正規化前) */
+  private char[] input = new char[0];
+  /** 入力文字列の文字長(解析結果が無い場合は-1) */
+  private int inputLength = -1;
+  /** 入力文字列のハッシュ値 */
+  private int inputHash = 0;
+
+  /** 形態素の数 */
+  private int size = 0;
+  private int[] offsets = new int[0];
+  private int[] lengths = new int[0];
+  private int[] posids = new int[0];
+  private int[] stats = new int[0];
+  private long[] costs = new long[0];
+  private short[] wcosts = new short[0];
+  private String[] features = new String[0];
+  private int[] positionLengths = new int[0];
+  /** 素性情報の使用量(見積もり) */
+  private long featureBytes = 0;
+
+  private MecabSharedParse() {
+  }
+
+  /**
+   * 現在のスレッドの解析結果を取得する
+   *
+   * <p>解析設定が異なる場合は保持している解析結果を破棄する。
+   *
+   * @param key 解析設定
+   * @return  解析結果
+   */
+  static MecabSharedParse get(String key) {
+    MecabSharedParse shared = RESULTS.get();
+    if (!key.equals(shared.key)) {
+      shared.invalidate();
+      shared.key = key;
+    }
+    return shared;
+  }
+
+  /**
+   * 入力文字列のハッシュ値
+   */
+  static int hash(char[] text, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + text[i];
+    }
+    return hash;
+  }
+
+  /**
+   * 入力文字列が解析結果と一致するか
+   *
+   * @param text  入力文字列
+   * @param length  入力文字列の文字長
+   * @param hash  入力文字列のハッシュ値
+   */
+  boolean matches(char[] text, int length, int hash) {
+    if (this.inputLength != length || this.inputHash != hash) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (this.input[i] != text[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 解析結果を保持する
+   *
+   * @param text  入力文字列(正規化前)
+   * @param length  入力文字列の文字長
+   * @param hash  入力文字列のハッシュ値
+   * @param dictionary  解析結果のwork辞書
+   * @param positionLengths 単語ID毎の位置の長さ
+   */
+  void store(char[] text, int length, int hash, MecabWorkDictionary dictionary, int[] positionLengths) {
+    if (length > MAX_CHARS) {
+      return;
+    }
+    this.input = ArrayUtil.grow(this.input, length);
+    System.arraycopy(text, 0, this.input, 0, length);
+    this.inputLength = length;
+    this.inputHash = hash;
+    int size = dictionary.size();
+    if (this.offsets.length < size) {
+      int capacity = ArrayUtil.oversize(size, Integer.BYTES);
+      this.offsets = new int[capacity];
+      this.lengths = new int[capacity];
+      this.posids = new int[capacity];
+      this.stats = new int[capacity];
+      this.costs = new long[capacity];
+      this.wcosts = new short[capacity];
+      this.features = new String[capacity];
+      this.positionLengths = new int[capacity];
+    }
+    long featureBytes = 0;
+    for (int id = 0; id < size; id++) {
+      this.offsets[id] = dictionary.getOffset(id);
+      this.lengths[id] = dictionary.getLength(id);
+      this.posids[id] = dictionary.getPosId(id);
+      this.stats[id] = dictionary.getStat(id);
+      this.costs[id] = dictionary.getCost(id);
+      this.wcosts[id] = (short) dictionary.getWordCost(id);
+      this.features[id] = dictionary.getFeature(id);
+      this.positionLengths[id] = positionLengths[id];
+      if (this.features[id] != null) {
+        featureBytes += RamUsageEstimator.alignObjectSize(STRING_BYTES + (long) Character.BYTES * this.features[id].length());
+      }
+    }
+    // 以前の解析結果の素性情報を参照しない
+    for (int id = size; id < this.size; id++) {
+      this.features[id] = null;
+    }
+    this.size = size;
+    this.featureBytes = featureBytes;
+  }
+
+  /**
+   * 解析結果を破棄する(解析に失敗した場合・解析設定が異なる場合)
+   */
+  void invalidate() {
+    this.inputLength = -1;
+    for (int id = 0; id < this.size; id++) {
+      this.features[id] = null;
+    }
+    this.size = 0;
+    this.featureBytes = 0;
+  }
+
+  /**
+   * 保持している解析結果の使用量(他のスレッドから参照する見積もりの為、同期しない)
+   */
+  @Override
+  public long ramBytesUsed() {
+    return BASE_BYTES + RamUsageEstimator.sizeOf(this.input)
+        + RamUsageEstimator.sizeOf(this.offsets) + RamUsageEstimator.sizeOf(this.lengths)
+        + RamUsageEstimator.sizeOf(this.posids) + RamUsageEstimator.sizeOf(this.stats)
+        + RamUsageEstimator.sizeOf(this.costs) + RamUsageEstimator.sizeOf(this.wcosts)
+        + RamUsageEstimator.shallowSizeOf(this.features) + this.featureBytes
+        + RamUsageEstimator.sizeOf(this.positionLengths);
+  }
+
+  /** 形態素の数 */
+  int size() {
+    return this.size;
+  }
+
+  int getOffset(int id) {
+    return this.offsets[id];
+  }
+
+  int getLength(int id) {
+    return this.lengths[id];
+  }
+
+  int getPosId(int id) {
+    return this.posids[id];
+  }
+
+  int getStat(int id) {
+    return this.stats[id];
+  }
+
+  long getCost(int id) {
+    return this.costs[id];
+  }
+
+  short getWordCost(int id) {
+    return this.wcosts[id];
+  }
+
+  String getFeature(int id) {
+    return this.features[id];
+  }
+
+  int getPositionLength(int id) {
+    return this.positionLengths[id];
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Locale;
+
+/**
+ * 解析の遅い文書のログ(slow log)
+ *
+ * <p>1文書の解析時間(入力の読み込みからTokenの作成まで、及び素性情報の解析)が閾値以上の場合に、
+ * 解析の内訳と入力のハッシュ値(及び先頭の文字列)をロガー{@value #LOGGER_NAME}にWARNで出力する。
+ * 閾値は負の値で無効とし、無効な場合は解析時間を計測しない。
+ */
+public final class MecabSlowLog {
+
+  /** ロガー名 */
+  public static final String LOGGER_NAME = "index.analysis.mecab.slowlog";
+
+  static final Logger LOGGER = LogManager.getLogger(LOGGER_NAME);
+
+  /** 閾値(ns。負の値は無効) */
+  private static volatile long thresholdNanos = -1;
+  /** 出力する入力の先頭の文字数 */
+  private static volatile int sourceChars = 0;
+
+  private MecabSlowLog() {
+  }
+
+  /**
+   * 閾値を設定する
+   *
+   * @param threshold 閾値(ns。負の値は無効)
+   * @param source  出力する入力の先頭の文字数(0は出力しない)
+   */
+  public static void configure(long threshold, int source) {
+    if (source < 0) {
+      throw new IllegalArgumentException("source must be >= 0: " + source);
+    }
+    thresholdNanos = threshold;
+    sourceChars = source;
+  }
+
+  /** slow logが有効か */
+  static boolean isEnabled() {
+    return thresholdNanos >= 0;
+  }
+
+  /**
+   * 閾値以上か
+   *
+   * @param nanos 解析時間(ns)
+   */
+  static boolean isSlow(long nanos) {
+    long threshold = thresholdNanos;
+    return threshold >= 0 && nanos >= threshold;
+  }
+
+  /**
+   * 入力の先頭の文字列(改行・タブは空白に置き換える)
+   *
+   * @param text  入力文字列
+   * @param length  入力の文字長
+   * @return  出力しない場合はnull
+   */
+  static String source(char[] text, int length) {
+    int max = sourceChars;
+    if (max == 0) {
+      return null;
+    }
+    int end = Math.min(max, length);
+    if (end > 0 && end < length && Character.isHighSurrogate(text[end - 1])) {
+      end--;
+    }
+    StringBuilder source = new StringBuilder(end);
+    for (int i = 0; i < end; i++) {
+      char ch = text[i];
+      source.append(ch == '\n' || ch == '\r' || ch == '\t' ? ' ' : ch);
+    }
+    return source.toString();
+  }
+
+  /**
+   * 時間(ns)をミリ秒の文字列にする
+   */
+  static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.1fms", nanos / 1_000_000.0);
+  }
+}
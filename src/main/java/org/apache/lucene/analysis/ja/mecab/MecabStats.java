@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mecab解析のnode単位の統計情報
+ */
+public final class MecabStats {
+
+  /** 文字数上限を超えた範囲の数 */
+  public static final LongAdder LATTICE_LIMIT_FALLBACKS = new LongAdder();
+  /** 分割候補数上限を超えた形態素の数 */
+  public static final LongAdder CANDIDATE_LIMIT_FALLBACKS = new LongAdder();
+  /** 解析時間上限を超えた文書の数 */
+  public static final LongAdder TIME_LIMIT_FALLBACKS = new LongAdder();
+  /** メモリ上限を超えた範囲の数 */
+  public static final LongAdder MEMORY_LIMIT_TRIPS = new LongAdder();
+  /** 文字種による振り分けでMecabを使用せずに処理した文字数 */
+  public static final LongAdder SCRIPT_ROUTED_CHARS = new LongAdder();
+  /** 他のTokenizerの解析結果を共有し、Mecabの解析を行わなかった文書の数 */
+  public static final LongAdder SHARED_PARSE_HITS = new LongAdder();
+  /** 解析結果の共有が有効で、共有できる解析結果が無かった文書の数 */
+  public static final LongAdder SHARED_PARSE_MISSES = new LongAdder();
+  /** Tokenizerで除外した品詞の形態素の数 */
+  public static final LongAdder STOP_TAG_REMOVALS = new LongAdder();
+  /** n-bestのToken graphに含めた分割の数 */
+  public static final LongAdder NBEST_SEGMENTATIONS = new LongAdder();
+  /** n-bestの探索回数上限・解析時間上限により探索を打ち切った範囲の数 */
+  public static final LongAdder NBEST_SEARCH_LIMITS = new LongAdder();
+  /** 解析時間がslow logの閾値以上の文書の数 */
+  public static final LongAdder SLOW_ANALYSES = new LongAdder();
+
+  private MecabStats() {
+  }
+
+  /**
+   * 統計情報の取得
+   *
+   * @return 統計名と値
+   */
+  public static Map<String, Long> snapshot() {
+    Map<String, Long> stats = new TreeMap<>();
+    stats.put("lattice_limit_fallbacks", LATTICE_LIMIT_FALLBACKS.sum());
+    stats.put("candidate_limit_fallbacks", CANDIDATE_LIMIT_FALLBACKS.sum());
+    stats.put("time_limit_fallbacks", TIME_LIMIT_FALLBACKS.sum());
+    stats.put("memory_limit_trips", MEMORY_LIMIT_TRIPS.sum());
+    stats.put("script_routed_chars", SCRIPT_ROUTED_CHARS.sum());
+    stats.put("shared_parse_hits", SHARED_PARSE_HITS.sum());
+    stats.put("shared_parse_misses", SHARED_PARSE_MISSES.sum());
+    stats.put("stop_tag_removals", STOP_TAG_REMOVALS.sum());
+    stats.put("nbest_segmentations", NBEST_SEGMENTATIONS.sum());
+    stats.put("nbest_search_limits", NBEST_SEARCH_LIMITS.sum());
+    stats.put("slow_analyses", SLOW_ANALYSES.sum());
+    return stats;
+  }
+}
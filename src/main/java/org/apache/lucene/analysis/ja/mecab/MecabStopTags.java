@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.ja.mecab.dict.MecabFeatureLayout;
+import org.apache.lucene.analysis.ja.mecab.dict.MecabWorkDictionary;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tokenizerで除外する品詞
+ *
+ * <p>品詞ID毎に判定結果と判定に使用した品詞(素性情報の先頭の項目)を保持し、
+ * 同じ品詞IDで品詞が一致する形態素は素性情報を解析せずに判定する。
+ * 品詞IDの定義(pos-id.def)は複数の品詞を同じ品詞IDに割り当てられる為、品詞が異なる場合は判定し直す。
+ * 品詞IDが0以下(品詞IDの定義に無い品詞)の形態素は毎回素性情報から判定する。
+ * Tokenizer毎に作成し、スレッド間で共有しない。
+ */
+final class MecabStopTags {
+
+  /** 未判定 */
+  private static final byte UNKNOWN = 0;
+  /** 出力する */
+  private static final byte KEEP = 1;
+  /** 除外する */
+  private static final byte STOP = 2;
+
+  /** 除外する品詞(品詞細分類を"-"で連結) */
+  private final Set<String> tags;
+  /** 品詞ID毎の判定結果 */
+  private byte[] states = new byte[256];
+  /** 品詞ID毎の判定に使用した素性情報の品詞の項目(区切りの","を含む) */
+  private String[] poses = new String[256];
+  /** 品詞ID毎の判定に使用した素性情報の項目数 */
+  private int[] sizes = new int[256];
+
+  /**
+   * コンストラクタ
+   *
+   * @param tags  除外する品詞
+   */
+  MecabStopTags(Set<String> tags) {
+    this.tags = new TreeSet<>(tags);
+  }
+
+  /**
+   * 形態素が除外する品詞か
+   *
+   * @param posid 品詞ID
+   * @param feature 素性情報(代替処理で作成したTokenはnull)
+   * @return  true:除外する
+   * @throws IOException  素性情報の解析例外
+   */
+  boolean isStopped(int posid, String feature) throws IOException {
+    if (feature == null) {
+      return false;
+    }
+    if (posid > 0 && posid < this.states.length && this.states[posid] != UNKNOWN
+        && feature.startsWith(this.poses[posid]) && size(feature) == this.sizes[posid]) {
+      return this.states[posid] == STOP;
+    }
+    boolean stopped = this.tags.contains(MecabWorkDictionary.partOfSpeech(feature));
+    int size = size(feature);
+    if (posid > 0 && size > 0) {
+      if (posid >= this.states.length) {
+        int length = ArrayUtil.oversize(posid + 1, 1);
+        this.states = Arrays.copyOf(this.states, length);
+        this.poses = Arrays.copyOf(this.poses, length);
+        this.sizes = Arrays.copyOf(this.sizes, length);
+      }
+      int end = 0;
+      for (int i = MecabFeatureLayout.of(size).getPartOfSpeechSize(); i > 0; i--) {
+        int comma = feature.indexOf(',', end);
+        if (comma < 0) {
+          end = feature.length();
+          break;
+        }
+        end = comma + 1;
+      }
+      this.states[posid] = stopped ? STOP : KEEP;
+      this.poses[posid] = feature.substring(0, end);
+      this.sizes[posid] = size;
+    }
+    return stopped;
+  }
+
+  /**
+   * 素性情報の項目数
+   *
+   * @return  項目数(引用符を含み、項目の区切りを判定できない場合は-1)
+   */
+  private static int size(String feature) {
+    int size = 1;
+    for (int i = 0; i < feature.length(); i++) {
+      char c = feature.charAt(i);
+      if (c == ',') {
+        size++;
+      } else if (c == '"') {
+        return -1;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * 解析設定の識別に使用する文字列
+   */
+  @Override
+  public String toString() {
+    return String.join(",", this.tags);
+  }
+}
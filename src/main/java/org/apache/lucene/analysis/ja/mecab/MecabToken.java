@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab;
+
+import org.apache.lucene.analysis.ja.JapaneseTokenizer.Type;
+import org.apache.lucene.analysis.ja.Token;
+import org.apache.lucene.analysis.ja.mecab.dict.MecabWorkDictionary;
+
+/**
+ * Mecabの形態素情報を参照するToken
+ *
+ * <p>kuromoji互換のtokenattributesは{@link MecabWorkDictionary}経由で単語IDの形態素情報を参照する。
+ * 単語IDはwork辞書の登録順の番号の為、Tokenizerは単語ID毎に1つ作成し文書間で再利用する。
+ * 表層形・位置はtokenattributesが参照しない為、保持しない。
+ */
+final class MecabToken extends Token {
+
+  private static final char[] EMPTY = new char[0];
+
+  MecabToken(int wordId, MecabWorkDictionary dictionary) {
+    super(wordId, EMPTY, 0, 0, Type.KNOWN, wordId, dictionary);
+  }
+}
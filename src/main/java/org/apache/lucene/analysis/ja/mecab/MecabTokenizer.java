@@ -17,14 +17,13 @@
 
 package org.apache.lucene.analysis.ja.mecab;
 
-import com.github.boukefalos.jlibloader.Native;
-
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.ja.JapaneseTokenizer.Mode;
-import org.apache.lucene.analysis.ja.JapaneseTokenizer.Type;
-import org.apache.lucene.analysis.ja.Token;
 import org.apache.lucene.analysis.ja.dict.CharacterDefinition;
 import org.apache.lucene.analysis.ja.mecab.dict.MecabWorkDictionary;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttribute;
 import org.apache.lucene.analysis.ja.tokenattributes.BaseFormAttribute;
 import org.apache.lucene.analysis.ja.tokenattributes.InflectionAttribute;
 import org.apache.lucene.analysis.ja.tokenattributes.PartOfSpeechAttribute;
@@ -33,67 +32,67 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
-import org.apache.lucene.analysis.util.RollingCharBuffer;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.AttributeFactory;
-import org.chasen.mecab.Lattice;
-import org.chasen.mecab.MeCabConstants;
-import org.chasen.mecab.Model;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.chasen.mecab.Node;
-import org.chasen.mecab.Path;
-import org.chasen.mecab.Tagger;
 
 import java.io.IOException;
-import java.security.AccessController;
-import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * Mecabによるliucene用tokenizer
  * 
  * @author matsu
  */
-public final class MecabTokenizer extends Tokenizer {
-
-    /** shared libraryの読み込み */
-/*  static {
-        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
-          try {
-            System.loadLibrary("MeCab");
-          } catch (UnsatisfiedLinkError e) {
-            throw new UnsatisfiedLinkError(
-                "Cannot load the native code.\n"
-                    + "Make sure your LD_LIBRARY_PATH contains MeCab.so path.\n" + e);
-          }
-          return null;
-        });
-      }*/
-    
-   static {
-     AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
-       try {
-           Native.load("org.chasen.mecab", "MeCab");
-         } catch (UnsatisfiedLinkError e) {
-           throw new UnsatisfiedLinkError(
-               "Cannot load the native code.\n"
-                   + "Make sure your LD_LIBRARY_PATH contains MeCab.so path.\n" + e);
-         }
-       return null;
-     });
-   }
-
-  private static final boolean VERBOSE = false;
+public final class MecabTokenizer extends Tokenizer implements Accountable {
+
+  /**
+   * 形態素解析の実行エンジン
+   */
+  public enum Engine {
+    /** Mecab(shared library) */
+    NATIVE,
+    /** Java実装(Mecabのコンパイル済み辞書を直接読み込む) */
+    JAVA
+  }
+
+  private static final Logger logger = LogManager.getLogger(MecabTokenizer.class);
 
   /** SEARCHモード用 漢字単語の判定長 */
   private static final int SEARCH_MODE_KANJI_LENGTH = 2;
   /** SEARCHモード用 漢字以外単語の判定長 */
   private static final int SEARCH_MODE_OTHER_LENGTH = 7; 
 
+  /**
+   * 解析結果の出力フォーマット
+   * (ID, 開始位置(byte), 終了位置(byte), 品詞ID, 形態素種別, 単語コスト, 累積コスト, 素性情報)
+   */
+  private static final String NODE_FORMAT = "%pi\\t%ps\\t%pe\\t%h\\t%s\\t%c\\t%pc\\t%H\\n";
+  /** 出力フォーマットの数値項目数 */
+  private static final int NODE_FORMAT_NUMERIC_FIELDS = 7;
+
+  /** PositionLengthの位置を進める(PositionIncrementが1)指定 */
+  private static final int POSITION_START = 1 << 30;
+
+  /** n-bestのToken graphで取得する分割数の上限の最大値 */
+  public static final int MAX_NBEST_SIZE = 32;
+
+  /** メモリ上限超過時に、これ以下の文字数の範囲は分割せずに文字bigramとする */
+  private static final int MIN_CHUNK_CHARS = 64;
+
+  private static final long BASE_BYTES = RamUsageEstimator.shallowSizeOfInstance(MecabTokenizer.class);
+  private static final long TOKEN_BYTES = RamUsageEstimator.shallowSizeOfInstance(MecabToken.class);
+
 
-  /** Mecabインスタンス */
-  private Model model = null;
-  private Tagger tagger = null;
-  private Lattice lattice = null;
+  /** 形態素解析の実行エンジン */
+  private final MecabLattice<?, ?> lattice;
 
   /** 表層形 */
   private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
@@ -111,15 +110,41 @@ public final class MecabTokenizer extends Tokenizer {
   private final ReadingAttribute readingAtt = addAttribute(ReadingAttribute.class);
   /** 活用型/活用形 */
   private final InflectionAttribute inflectionAtt = addAttribute(InflectionAttribute.class);
+  /** Mecabの形態素情報 */
+  private final MecabFeatureAttribute featureAtt = addAttribute(MecabFeatureAttribute.class);
 
-  /** 入力バッファ */
-  private final RollingCharBuffer buffer = new RollingCharBuffer();
+  /** 入力バッファ(文書毎に一括で読み込む) */
+  private char[] readBuffer = new char[1024];
+  /** 入力の正規化 */
+  private MecabNormalization normalization = MecabNormalization.NONE;
+  /** 正規化した入力と元の位置 */
+  private final MecabNormalization.Output normalized = new MecabNormalization.Output();
+  /** 解析中の文書を正規化したか */
+  private boolean normalizedInput = false;
   
   /** Mecab形態素結果取得用辞書 */
   private final MecabWorkDictionary dictionary = new MecabWorkDictionary() ;
   
-  /** 形態素結果保存用リスト */
-  private final List<Token> pending = new ArrayList<>();
+  /** 解析中の文書(入力バッファまたは正規化した入力) */
+  private char[] text = null;
+  /** 単語ID毎のToken(work辞書の単語IDは登録順の番号の為、文書間で再利用する) */
+  private MecabToken[] tokens = new MecabToken[64];
+  /** 作成したTokenの数 */
+  private int createdTokens = 0;
+  /**
+   * 単語ID毎のPositionLength(SEARCHモードで分割した複合語のみ。それ以外は0)。
+   * n-bestのToken graphで位置の最初の形態素の位置の長さが2以上の場合は{@link #POSITION_START}を加える。
+   * 除外する品詞の形態素は負の値(-(PositionLength + 1))とし、Tokenを出力しない
+   */
+  private int[] positionLengths = new int[64];
+  /** 除外する品詞(除外しない場合はnull) */
+  private MecabStopTags stopTags = null;
+  /** 複数の分割のToken graph(出力しない場合はnull) */
+  private MecabNBest nbest = null;
+  /** 出力せずに除外した形態素の位置の数(最後のTokenの後はend()で出力する) */
+  private int skippedPositions = 0;
+  /** 次に出力する単語ID(work辞書の登録数まで出力する) */
+  private int nextToken = 0;
 
   /** Character category data(漢字判定に使用) */
   private final CharacterDefinition characterDefinition = CharacterDefinition.getInstance(); ;
@@ -130,6 +155,69 @@ public final class MecabTokenizer extends Tokenizer {
   private final boolean extendedMode;
   /** 句読点の扱い */
   private final boolean discardPunctuation;
+
+  /** 書式化した解析結果を1回の呼び出しで取得する */
+  private boolean formattedParse = false;
+  /** 日本語の範囲のみMecabで解析する */
+  private boolean scriptRouting = false;
+  /** 振り分けたTokenの形態素情報(英字, 数字, 記号。最初に使用する時にMecabで取得する) */
+  private MecabScriptRouter.Morpheme[] scriptMorphemes = null;
+
+  /** 複合語の分割結果のキャッシュ(辞書毎の区分。NORMALモードはnull) */
+  private final MecabDecompositionCache.Partition decompositions;
+
+  /** 処理量の上限 */
+  private MecabLimits limits = MecabLimits.UNLIMITED;
+  /** 解析の打ち切り時刻({@link System#nanoTime()}) */
+  private long deadline = Long.MAX_VALUE;
+  /** 上限超過により代替処理を行った範囲の数 */
+  private int degradedSpans = 0;
+  /** 最後に代替処理を行った理由 */
+  private String degradedReason = null;
+  /** 辞書・実行エンジンの識別名 */
+  private final String modelKey;
+  /** 辞書ファイルの版 */
+  private final long dictionaryVersion;
+  /** 同じ入力・同じ解析設定のTokenizer間で解析結果を共有する */
+  private boolean sharedParse = true;
+  /** 解析結果を共有する解析設定(設定の変更時に再作成する) */
+  private String sharedKey = null;
+  /** 解析設定(辞書の版を除く。設定の変更時に再作成する) */
+  private String analysisKey = null;
+  /** 文単位の解析結果の永続キャッシュを使用する */
+  private boolean analysisCache = true;
+  /** 永続キャッシュから読み込んだ形態素の登録 */
+  private final MecabAnalysisCache.Sink cacheSink =
+      (offset, length, posid, stat, cost, wcost, feature, positionLength) -> {
+        int id = addWord(this.text, offset, length, posid, stat, cost, wcost, feature);
+        this.positionLengths[id] = positionLength;
+      };
+  /** 使用量を計上する所有者(index名) */
+  private String memoryOwner = null;
+  /** 解析中のfield名(不明な場合はnull。slow logに出力する) */
+  private String fieldName = null;
+  /** 処理毎の時間を計測する(Flight Recorderの記録中またはslow logが有効な場合) */
+  private boolean timing = false;
+  /** 解析の開始時刻(reset()の開始時) */
+  private long resetStarted = 0;
+  /** 解析したlatticeの数 */
+  private int latticeCount = 0;
+  /** 解析したlatticeの最大文字数 */
+  private int maxLatticeChars = 0;
+  /** Flight Recorderのイベント(記録中の文書のみ。記録していない場合はnull) */
+  private Object flightEvent = null;
+  /** 解析中の文書の入力の文字長 */
+  private int inputLength = 0;
+  /** 入力の読み込み時間(ns。計測する場合のみ) */
+  private long readNanos = 0;
+  /** mecabの解析時間(ns) */
+  private long parseNanos = 0;
+  /** SEARCH/EXTENDEDモードの分割時間(ns) */
+  private long decompositionNanos = 0;
+  /** 解析の終了時刻(reset()の終了時) */
+  private long parsedAt = 0;
+  /** 解析の詳細の記録(診断用。記録しない場合はnull) */
+  private MecabExplain explain = null;
   
   
   /**
@@ -152,6 +240,20 @@ public final class MecabTokenizer extends Tokenizer {
 //    this(DEFAULT_TOKEN_ATTRIBUTE_FACTORY, dicdir, userdic, discardPunctuation, Mode.EXTENDED);
 //    this(DEFAULT_TOKEN_ATTRIBUTE_FACTORY, "/var/lib/mecab/dic/ipadic-utf8", this.discartPunctuation, Mode.SEARCH);
   }
+
+  /**
+   * コンストラクタ
+   * 
+   * @param dicdir 辞書のpathを指定
+   * @param userdic ユーザ辞書ファイルを指定(dicファイル)
+   * @param discardPunctuation  句読点の取扱い。true:句読点は除外
+   * @param mode  mode tokenization mode.
+   * @param engine  形態素解析の実行エンジン
+   */
+  public MecabTokenizer( String dicdir, String userdic, boolean discardPunctuation, Mode mode, Engine engine ) {
+    this(DEFAULT_TOKEN_ATTRIBUTE_FACTORY, dicdir, userdic, discardPunctuation, mode, engine);
+  }
+
   /**
    * コンストラクタ
    * 
@@ -162,27 +264,41 @@ public final class MecabTokenizer extends Tokenizer {
    * @param mode  mode tokenization mode.
    */
   public MecabTokenizer(AttributeFactory factor, String dicdir, String userdic, boolean discardPunctuation, Mode mode) {
+    this(factor, dicdir, userdic, discardPunctuation, mode, Engine.NATIVE);
+  }
+
+  /**
+   * コンストラクタ
+   * 
+   * @param factor  the AttributeFactory to use
+   * @param dicdir 辞書のpathを指定
+   * @param userdic ユーザ辞書ファイルを指定(dicファイル)
+   * @param discardPunctuation  句読点の取扱い。true:句読点は除外
+   * @param mode  mode tokenization mode.
+   * @param engine  形態素解析の実行エンジン
+   */
+  public MecabTokenizer(AttributeFactory factor, String dicdir, String userdic, boolean discardPunctuation, Mode mode,
+      Engine engine) {
     super(factor);
 
-    // Node出力フォーマットを「素性 (品詞, 活用, 読み) 等を CSV で表現したもの」を指定
-    String arg = "--node-format=%H ";
+    String modelKey = engine.name().toLowerCase(Locale.ROOT) + " dicdir=" + dicdir + " userdic=" + userdic;
+    this.modelKey = modelKey;
+    if (engine == Engine.JAVA) {
+      // Mecabの辞書を直接読み込む
+      MecabJavaModel model = MecabJavaModel.acquire(dicdir, userdic);
+      this.lattice = new MecabJavaLattice(model);
+      this.dictionaryVersion = model.version;
+      MecabMemory.registerModel(modelKey, () -> MecabJavaModel.loadedBytes(dicdir, userdic));
+    } else {
+      String arg = nativeArg(dicdir, userdic);
 
-    // 辞書のpathを指定する場合
-    if (dicdir != null) {
-      arg = arg + " --dicdir=" + dicdir;
-    }
-    // ユーザ辞書のfileを指定する場合(full path)
-    if (userdic != null) {
-      arg = arg + " -userdic=" + userdic;
+      // mecab Model作成(辞書ファイルが更新されている場合は新しい版のModelを作成する)
+      this.dictionaryVersion = MecabJavaModel.dictionaryVersion(dicdir, userdic);
+      this.lattice = new MecabNativeLattice(arg, this.dictionaryVersion);
+      MecabMemory.registerModel(modelKey, () -> MecabJavaModel.dictionaryBytes(dicdir, userdic));
     }
+    MecabMemory.register(this, null);
 
-    // mecab Model作成
-    this.model = new Model(arg);
-    this.tagger = this.model.createTagger();
-
-    // 入力のリセット
-    this.buffer.reset(this.input);
-    
     // 動作モード指定
     switch(mode){
       // 複合語で構成された単語を細かく分割
@@ -203,44 +319,368 @@ public final class MecabTokenizer extends Tokenizer {
     }
     // 句読点
     this.discardPunctuation = discardPunctuation;
+    // 複合語の分割結果のキャッシュ・解析結果の共有(辞書ファイルが更新された場合は破棄する)
+    this.decompositions = this.searchMode
+        ? MecabDecompositionCache.partition(modelKey, this.dictionaryVersion) : null;
+
+
+  }
+
+  /**
+   * Mecab(shared library)の起動引数
+   *
+   * @param dicdir 辞書のpath
+   * @param userdic ユーザ辞書ファイル
+   */
+  private static String nativeArg(String dicdir, String userdic) {
+    // Node出力フォーマットを「ID, 位置, 品詞ID, コスト, 素性 (品詞, 活用, 読み) 等」を指定
+    String arg = "--node-format=" + NODE_FORMAT + " --unk-format=" + NODE_FORMAT + " --eos-format=EOS\\n";
+
+    // 辞書のpathを指定する場合
+    if (dicdir != null) {
+      arg = arg + " --dicdir=" + dicdir;
+    }
+    // ユーザ辞書のfileを指定する場合(full path)
+    if (userdic != null) {
+      arg = arg + " -userdic=" + userdic;
+    }
+    return arg;
+  }
+
+  /**
+   * Mecab(shared library)のModelの参照を取得する(Tokenizerの作成毎のModelの読み込みを避ける為)
+   *
+   * @param owner 参照を保持するオブジェクト(解放されずにGCされた場合は参照を解放する)
+   * @param dicdir 辞書のpath
+   * @param userdic ユーザ辞書ファイル
+   * @return  参照の解放用のOwner
+   */
+  static MecabHandles.Owner retainModel(Object owner, String dicdir, String userdic) {
+    MecabHandles.Handle handle = MecabNativeLattice.retainModel(nativeArg(dicdir, userdic),
+        MecabJavaModel.dictionaryVersion(dicdir, userdic));
+    return MecabHandles.own(owner, handle);
+  }
+
+  /**
+   * 処理量の上限を設定する
+   *
+   * @param limits 処理量の上限
+   */
+  public void setLimits(MecabLimits limits) {
+    this.limits = limits == null ? MecabLimits.UNLIMITED : limits;
+    this.sharedKey = null;
+    this.analysisKey = null;
+  }
+
+  /**
+   * 解析結果の取得方法を設定する
+   *
+   * @param formattedParse  true:書式化した解析結果を1回の呼び出しで取得/false:Node毎に取得
+   */
+  public void setFormattedParse(boolean formattedParse) {
+    this.formattedParse = formattedParse;
+    this.sharedKey = null;
+    this.analysisKey = null;
+  }
+
+  /**
+   * 文字種による振り分けを設定する
+   *
+   * <p>有効な場合、英字・数字・記号の範囲はMecabを使用せずに文字種の連続で分割する。
+   * 品詞等の形態素情報は文字種毎に同じ値となる。
+   *
+   * @param scriptRouting  true:日本語の範囲のみMecabで解析する/false:全てMecabで解析する
+   */
+  public void setScriptRouting(boolean scriptRouting) {
+    this.scriptRouting = scriptRouting;
+    this.sharedKey = null;
+    this.analysisKey = null;
+  }
+
+  /**
+   * 入力の正規化を設定する
+   *
+   * <p>CharFilter({@code mecab_iteration_mark}等)を使用せず、入力の読み込み時に正規化する。
+   *
+   * @param normalization 入力の正規化
+   */
+  public void setNormalization(MecabNormalization normalization) {
+    this.normalization = normalization == null ? MecabNormalization.NONE : normalization;
+    this.sharedKey = null;
+    this.analysisKey = null;
+  }
+
+  /**
+   * 解析結果の共有を設定する
+   *
+   * <p>有効な場合、同じスレッドで直前に同じ解析設定(辞書とその版, mode, 句読点, 上限, 文字種による振り分け, 正規化)の
+   * Tokenizerが同じ入力文字列を解析していれば、Mecabの解析を行わずにその解析結果を使用する。
+   * multi-fieldsやcopy_toで同じ文字列を複数のfieldとして解析する場合に、
+   * 各fieldのanalyzerで同じ設定のTokenizerを使用すると、Mecabの解析は1回となる。
+   *
+   * @param sharedParse  true:解析結果を共有する(デフォルト)/false:Tokenizer毎に解析する
+   * @see MecabSharedParse
+   */
+  public void setSharedParse(boolean sharedParse) {
+    this.sharedParse = sharedParse;
+  }
+
+  /**
+   * 文単位の解析結果の永続キャッシュの使用を設定する
+   *
+   * <p>nodeでキャッシュが有効({@link MecabAnalysisCache#configure})な場合、入力を文毎に解析し、
+   * 解析済みの文はMecabを使用せずにキャッシュの解析結果を使用する。
+   *
+   * @param analysisCache  true:キャッシュを使用する(デフォルト)/false:使用しない
+   */
+  public void setAnalysisCache(boolean analysisCache) {
+    this.analysisCache = analysisCache;
+    this.sharedKey = null;
+    this.analysisKey = null;
+  }
+
+  /**
+   * 除外する品詞を設定する
+   *
+   * <p>{@link MecabPartOfSpeechStopFilter}と同じ結果(除外した形態素の位置はPositionIncrementに加算)を、
+   * latticeの走査中に品詞IDで判定し、除外する形態素の素性情報の取得とTokenの作成を行わずに出力する。
+   *
+   * @param stopTags  除外する品詞(品詞細分類を"-"で連結。nullまたは空の場合は除外しない)
+   */
+  public void setStopTags(Set<String> stopTags) {
+    this.stopTags = stopTags == null || stopTags.isEmpty() ? null : new MecabStopTags(stopTags);
+    this.sharedKey = null;
+    this.analysisKey = null;
+  }
+
+  /**
+   * 複数の分割のToken graphを設定する
+   *
+   * <p>有効な場合、latticeの連結コストからコストの小さい順に分割(形態素の区切り位置)の異なる経路を
+   * 最大{@code size}件取得し、全ての分割の形態素を1つのToken graph(PositionLengthを持つToken)として出力する。
+   * SEARCH/EXTENDEDモードの複合語の分割は行わない。
+   * 索引時はFlattenGraphFilter、検索時はgraph query(phrase, synonym等)で使用する。
+   *
+   * @param size  取得する分割数の上限(1以下の場合は最適解のみ。{@link #MAX_NBEST_SIZE}まで)
+   * @param costMargin  最適解のコストとの差の上限(0は無制限)
+   * @see MecabNBest
+   */
+  public void setNBest(int size, int costMargin) {
+    this.nbest = size <= 1 ? null : new MecabNBest(size, costMargin);
+    this.sharedKey = null;
+    this.analysisKey = null;
+  }
+
+  /**
+   * 解析結果を共有する解析設定(辞書の版を含む)
+   */
+  private String sharedKey() {
+    String key = this.sharedKey;
+    if (key == null) {
+      key = analysisKey() + " version=" + this.dictionaryVersion;
+      this.sharedKey = key;
+    }
+    return key;
+  }
+
+  /**
+   * 解析設定(辞書の版を除く)
+   */
+  private String analysisKey() {
+    String key = this.analysisKey;
+    if (key == null) {
+      key = this.modelKey
+          + " search=" + this.searchMode + " extended=" + this.extendedMode
+          + " discardPunctuation=" + this.discardPunctuation
+          + " formattedParse=" + this.formattedParse
+          + " scriptRouting=" + this.scriptRouting
+          + " sentences=" + (this.analysisCache && MecabAnalysisCache.isEnabled())
+          + " normalization=" + this.normalization.isNormalizeKanji() + "," + this.normalization.isNormalizeKana()
+          + "," + this.normalization.isNfkc() + "," + this.normalization.isWidth()
+          + " stopTags=" + (this.stopTags == null ? "" : this.stopTags)
+          + " nbest=" + (this.nbest == null ? "" : this.nbest)
+          + " " + this.limits;
+      this.analysisKey = key;
+    }
+    return key;
+  }
+
+  /**
+   * 使用量を計上する所有者を設定する
+   *
+   * @param owner 所有者(index名)
+   * @see MecabMemory#snapshot()
+   */
+  public void setMemoryOwner(String owner) {
+    this.memoryOwner = owner;
+    MecabMemory.register(this, owner);
+  }
 
+  /**
+   * 解析の詳細を記録する
+   *
+   * <p>記録中は書式化した解析結果の取得・複合語の分割結果のキャッシュを使用しない。
+   *
+   * @param explain 記録先(nullの場合は記録しない)
+   */
+  public void setExplain(MecabExplain explain) {
+    this.explain = explain;
+  }
 
+  /**
+   * 解析するfield名を設定する(slow logに出力する)
+   *
+   * @param fieldName field名
+   */
+  void setFieldName(String fieldName) {
+    this.fieldName = fieldName;
+  }
+
+  /**
+   * 使用量の見積もり(解析結果、work辞書及びlattice。辞書は含まない)
+   */
+  @Override
+  public long ramBytesUsed() {
+    // 入力文字列は未出力のTokenが参照する
+    return BASE_BYTES + RamUsageEstimator.sizeOf(this.readBuffer)
+        + (this.normalizedInput ? RamUsageEstimator.sizeOf(this.normalized.text) + RamUsageEstimator.sizeOf(this.normalized.offsets) : 0)
+        + RamUsageEstimator.shallowSizeOf(this.tokens) + this.createdTokens * TOKEN_BYTES
+        + RamUsageEstimator.sizeOf(this.positionLengths)
+        + this.dictionary.ramBytesUsed() + this.lattice.ramBytesUsed();
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    List<Accountable> resources = new ArrayList<>();
+    resources.add(Accountables.namedAccountable("lattice", this.lattice));
+    resources.add(Accountables.namedAccountable("work dictionary", this.dictionary));
+    return resources;
   }
 
   @Override
   public void close() throws IOException {
     super.close();
     // Mecab後始末
-    try {
-      if (this.lattice != null) {
-        this.lattice.clear();
-      }
-    } finally {
-      this.lattice = null;
-    }
+    this.lattice.clear();
     // Mecab用work辞書クリア
     this.dictionary.clear();
-    this.buffer.reset(this.input);
+    this.nextToken = 0;
   }
   
+  /**
+   * nativeリソース(Mecabのmodel, tagger, lattice)を解放する
+   *
+   * <p>{@link #close()}は文書毎に呼び出され、Tokenizerは再利用される為、nativeリソースは解放しない。
+   * 本メソッドの呼び出し以降、Tokenizerは使用できない(他のスレッドで解析中の場合は解析の終了後に解放する)。
+   * 呼び出されずにGCされた場合は{@link MecabHandles}が解放する。
+   */
+  public void release() {
+    this.lattice.close();
+  }
+
   @Override
   public void reset() throws IOException {
     super.reset();
     // Mecab後始末
-    try {
-      if (this.lattice != null) {
-        this.lattice.clear();
-        this.lattice.delete();;
-      }
-    } finally {
-      this.lattice = null;
-    }
+    this.lattice.clear();
     // Mecab用work辞書クリア
     this.dictionary.clear();
-    this.buffer.reset(this.input);
+    this.nextToken = 0;
+    this.skippedPositions = 0;
+
+    // Flight Recorderの記録中、slow logが有効な場合、解析の詳細の記録中のみ処理毎の時間を計測する
+    this.flightEvent = MecabFlightRecorder.begin();
+    this.timing = this.flightEvent != null || this.explain != null || MecabSlowLog.isEnabled();
+    this.dictionary.setFeatureTiming(this.timing);
+    this.readNanos = 0;
+    this.parseNanos = 0;
+    this.decompositionNanos = 0;
+    this.latticeCount = 0;
+    this.maxLatticeChars = 0;
+    this.resetStarted = clock();
+    if (this.explain != null) {
+      this.explain.start();
+    }
 
     // 形態素処理
     this.parse();
+    this.parsedAt = clock();
+  }
+
+  @Override
+  public void end() throws IOException {
+    super.end();
+    // 最後のTokenの後に除外した形態素の位置
+    posIncAtt.setPositionIncrement(this.skippedPositions);
+    this.skippedPositions = 0;
+    if (!this.timing) {
+      return;
+    }
+    this.timing = false;
+    long now = System.nanoTime();
+    long features = this.dictionary.getFeatureNanos();
+    if (this.flightEvent != null) {
+      long downstream = Math.max(0, now - this.parsedAt - features);
+      MecabFlightRecorder.commit(this.flightEvent, this.memoryOwner, modeName(), this.inputLength,
+          this.dictionary.size(), this.readNanos, this.parseNanos, this.decompositionNanos, features, downstream);
+      this.flightEvent = null;
+    }
+    long took = this.parsedAt - this.resetStarted + features;
+    if (this.explain != null) {
+      this.explain.finish(this.readNanos, this.parseNanos, this.decompositionNanos, features, took);
+    }
+    if (MecabSlowLog.isSlow(took)) {
+      slowLog(took, features);
+    }
+  }
+
+  /**
+   * 解析の遅い文書をログに出力する
+   *
+   * @param took  解析時間(ns)
+   * @param features  素性情報の解析時間(ns)
+   */
+  private void slowLog(long took, long features) {
+    MecabStats.SLOW_ANALYSES.increment();
+    StringBuilder message = new StringBuilder();
+    message.append('[').append(this.memoryOwner == null ? "" : this.memoryOwner).append(']');
+    if (this.fieldName != null) {
+      message.append(" field[").append(this.fieldName).append(']');
+    }
+    message.append(" took[").append(MecabSlowLog.millis(took)).append(']')
+        .append(", mode[").append(modeName()).append(']')
+        .append(", input_length[").append(this.inputLength).append(']')
+        .append(", tokens[").append(this.dictionary.size()).append(']')
+        .append(", lattices[").append(this.latticeCount).append(']')
+        .append(", max_lattice_chars[").append(this.maxLatticeChars).append(']')
+        .append(", read[").append(MecabSlowLog.millis(this.readNanos)).append(']')
+        .append(", parse[").append(MecabSlowLog.millis(this.parseNanos)).append(']')
+        .append(", decomposition[").append(MecabSlowLog.millis(this.decompositionNanos)).append(']')
+        .append(", features[").append(MecabSlowLog.millis(features)).append(']');
+    if (this.degradedReason != null) {
+      message.append(", degraded[").append(this.degradedReason).append(']');
+    }
+    message.append(", hash[").append(String.format(Locale.ROOT, "%016x",
+        MecabAnalysisCache.hash(this.readBuffer, 0, this.inputLength))).append(']');
+    String source = MecabSlowLog.source(this.readBuffer, this.inputLength);
+    if (source != null) {
+      message.append(", source[").append(source).append(']');
+    }
+    MecabSlowLog.LOGGER.warn(message);
+  }
+
+  /**
+   * 処理時間の計測用の時刻
+   *
+   * @return  {@link System#nanoTime()}(計測しない場合は0)
+   */
+  private long clock() {
+    return this.timing ? System.nanoTime() : 0;
+  }
+
+  /** 動作モード名 */
+  private String modeName() {
+    return this.extendedMode ? "extended" : this.searchMode ? "search" : "normal";
   }
   
   
@@ -248,45 +688,99 @@ public final class MecabTokenizer extends Tokenizer {
   private int min_cost = Integer.MAX_VALUE ;
   
   /** 探索結果形態素リスト */
-  private List<Node> search_list = null ;
+  private List<?> search_list = null ;
+
+  /** 探索した分割候補の数 */
+  private int search_count = 0 ;
+
+  /** 上限超過による探索打ち切り */
+  private boolean search_aborted = false ;
+
+  /** 対象文字長を超える候補の探索(結果が後続の文字列に依存する為、キャッシュしない) */
+  private boolean search_overshoot = false ;
+
+  /**
+   * 分割候補の探索上限の判定
+   *
+   * @return  true:探索打ち切り/false:探索継続
+   */
+  private boolean isSearchAborted() {
+    if (this.search_aborted) {
+      return true;
+    }
+    int max = this.limits.getMaxDecompositionCandidates();
+    if (max > 0 && ++this.search_count > max) {
+      this.search_aborted = true;
+      MecabStats.CANDIDATE_LIMIT_FALLBACKS.increment();
+      degrade("decomposition candidates exceeded " + max);
+    } else if (isOverDeadline()) {
+      this.search_aborted = true;
+    }
+    return this.search_aborted;
+  }
+
+  /**
+   * 解析時間上限の判定
+   *
+   * @return  true:上限超過/false:上限以内
+   */
+  private boolean isOverDeadline() {
+    if (this.deadline == Long.MAX_VALUE || System.nanoTime() - this.deadline < 0) {
+      return false;
+    }
+    if (this.degradedReason == null || !this.degradedReason.startsWith("analysis time")) {
+      MecabStats.TIME_LIMIT_FALLBACKS.increment();
+      degrade("analysis time exceeded " + this.limits.getMaxAnalysisMillis() + "ms");
+    }
+    return true;
+  }
+
+  /**
+   * 代替処理の記録
+   *
+   * @param reason 理由
+   */
+  private void degrade(String reason) {
+    this.degradedSpans++;
+    this.degradedReason = reason;
+  }
   
   /**
    * 形態素に対して連結するものを探索する
    * 
+   * @param lattice 解析結果
    * @param other 探索する対象Node
    * @param nodes 候補リスト
    * @param cost  ここまでの算出コスト
    * @param len   ここまでの連結文字長
    * @param node_len  対象文字長
    */
-  public void SearchNextMorpheme( Node other, List<Node> nodes, int cost, int len, int node_len) {
+  private <N, P> void SearchNextMorpheme( MecabLattice<N, P> lattice, N other, List<N> nodes, int cost, int len, int node_len) {
     // 右への連結を取得
-    Path rpath = other.getRpath() ;
+    P rpath = lattice.rpath(other) ;
     do {
       // 候補リスト
-      List<Node> next_nodes = new ArrayList<Node>(nodes) ;
+      List<N> next_nodes = new ArrayList<N>(nodes) ;
       // 左形態素のコスト＋連結コスト
-      int pcost = cost + rpath.getCost();
+      int pcost = cost + lattice.pathCost(rpath);
       
       // 右形態素を取得
-      Node rnext = rpath.getRnode() ;
+      N rnext = lattice.rnode(rpath) ;
       do{
-        if (rnext.getStat() == MeCabConstants.MECAB_BOS_NODE || 
-            rnext.getStat() == MeCabConstants.MECAB_EOS_NODE) {
+        if (lattice.stat(rnext) == MecabLattice.BOS_NODE || 
+            lattice.stat(rnext) == MecabLattice.EOS_NODE) {
           continue;
         }
-        int rnext_len = rnext.getSurface().length() ;
+        // 探索上限を超えた場合、探索を打ち切る
+        if (isSearchAborted()) {
+          return;
+        }
+        int rnext_len = lattice.surfaceLength(rnext) ;
         int check_len = len + rnext_len ;
         // ここまでのコスト＋単語コスト
-        int ncost = pcost + rnext.getWcost();
-        if (VERBOSE) {
-          System.out.println("\tNEXT\t" 
-              + rnext.getId() + "\t" 
-              + rpath.getCost() + "\t"
-              + rnext.getCost() + "\t" 
-              + (ncost) + "\t" 
-              + rnext.getSurface() 
-              + "\t" + rnext.getFeature());
+        int ncost = pcost + lattice.wcost(rnext);
+        if (this.explain != null) {
+          this.explain.candidate(lattice, rnext, nodes.size() + 1, lattice.pathCost(rpath), ncost);
         }
         // 探索対象文字長未満の場合
         if ( check_len < node_len ) {
@@ -294,72 +788,75 @@ public final class MecabTokenizer extends Tokenizer {
           next_nodes.add( rnext ) ;
           
           // 形態素に対して連結するものを探索する
-          SearchNextMorpheme(rnext, next_nodes, ncost, check_len, node_len ) ;
+          SearchNextMorpheme(lattice, rnext, next_nodes, ncost, check_len, node_len ) ;
         }
         // 探索対象文字長以上の場合
         else
         {
           // 探索を終了する
+          if ( check_len > node_len ) {
+            this.search_overshoot = true ;
+          }
           // ここまでのコストが最小か判定
           if( this.min_cost > ncost ) {
             // 最小の場合、最小値更新
             this.min_cost = ncost ;
             // 候補リストの保存
-            this.search_list = new ArrayList<Node>(nodes) ;
-            this.search_list.add(rnext) ;
+            List<N> list = new ArrayList<N>(nodes) ;
+            list.add(rnext) ;
+            this.search_list = list ;
             
-            if (VERBOSE) {
-              System.out.println("\t!!!!!!!\t" + min_cost + "\t" + rpath.getCost() + "\t" +rnext.getCost() );
+            if (this.explain != null) {
+              this.explain.minimum();
             }
           }
         }
       // 次の形態素を取得
-      } while( (rnext = rnext.getNext()) != null );
+      } while( (rnext = lattice.next(rnext)) != null );
 
     // 次の右への連結を取得
-    } while( (rpath = rpath.getRnext()) != null) ;
+    } while( (rpath = lattice.rnext(rpath)) != null) ;
   }
 
   
   /**
    * 未知語に対して最小コストの1gramの形態素を探索する
    * 
+   * @param lattice 解析結果
    * @param other 探索する対象Node
    * @param nodes 候補リスト
    * @param cost  ここまでの算出コスト
    * @param len   ここまでの連結文字長
    * @param node_len  対象文字長
    */
-  public void UnknownNextMorpheme( Node other, List<Node> nodes, int cost, int len, int node_len) {
+  private <N, P> void UnknownNextMorpheme( MecabLattice<N, P> lattice, N other, List<N> nodes, int cost, int len, int node_len) {
     // 右への連結を取得
-    Path rpath = other.getRpath() ;
+    P rpath = lattice.rpath(other) ;
     do {
       // 候補リスト
-      List<Node> next_nodes = new ArrayList<Node>(nodes) ;
+      List<N> next_nodes = new ArrayList<N>(nodes) ;
       // 左形態素のコスト＋連結コスト
-      int pcost = cost + rpath.getCost();
+      int pcost = cost + lattice.pathCost(rpath);
       
       // 右形態素を取得
-      Node rnext = rpath.getRnode() ;
+      N rnext = lattice.rnode(rpath) ;
       do{
-        if (rnext.getStat() == MeCabConstants.MECAB_BOS_NODE || 
-            rnext.getStat() == MeCabConstants.MECAB_EOS_NODE ||
-            rnext.getSurface().length() != 1) {
+        if (lattice.stat(rnext) == MecabLattice.BOS_NODE || 
+            lattice.stat(rnext) == MecabLattice.EOS_NODE ||
+            lattice.surfaceLength(rnext) != 1) {
           continue;
         }
-        int rnext_len = rnext.getSurface().length() ;
+        // 探索上限を超えた場合、探索を打ち切る
+        if (isSearchAborted()) {
+          return;
+        }
+        int rnext_len = lattice.surfaceLength(rnext) ;
         int check_len = len + rnext_len ;
         // ここまでのコスト＋単語コスト
-        int ncost = pcost + rnext.getWcost();
+        int ncost = pcost + lattice.wcost(rnext);
         
-        if (VERBOSE) {
-          System.out.println("\tNEXT\t" 
-              + rnext.getId() + "\t" 
-              + rpath.getCost() + "\t"
-              + rnext.getCost() + "\t" 
-              + (ncost) + "\t" 
-              + rnext.getSurface() 
-              + "\t" + rnext.getFeature());
+        if (this.explain != null) {
+          this.explain.candidate(lattice, rnext, nodes.size() + 1, lattice.pathCost(rpath), ncost);
         }
         
         // 探索対象文字長未満の場合
@@ -368,49 +865,139 @@ public final class MecabTokenizer extends Tokenizer {
           next_nodes.add( rnext ) ;
           
           // 形態素に対して連結するものを探索する
-          UnknownNextMorpheme(rnext, next_nodes, ncost, check_len, node_len ) ;
+          UnknownNextMorpheme(lattice, rnext, next_nodes, ncost, check_len, node_len ) ;
         }
         // 探索対象文字長以上の場合
         else
         {
           // 探索を終了する
+          if ( check_len > node_len ) {
+            this.search_overshoot = true ;
+          }
           // ここまでのコストが最小か判定
           if( this.min_cost > ncost ) {
             // 最小の場合、最小値更新
             this.min_cost = ncost ;
             // 候補リストの保存
-            this.search_list = new ArrayList<Node>(nodes) ;
-            this.search_list.add(rnext) ;
+            List<N> list = new ArrayList<N>(nodes) ;
+            list.add(rnext) ;
+            this.search_list = list ;
             
-            if (VERBOSE) {
-              System.out.println("\t!!!!!!!\t" + min_cost + "\t" + rpath.getCost() + "\t" +rnext.getCost() );
+            if (this.explain != null) {
+              this.explain.minimum();
             }
           }
         }
       // 次の形態素を取得
-      } while( (rnext = rnext.getNext()) != null );
+      } while( (rnext = lattice.next(rnext)) != null );
 
     // 次の右への連結を取得
-    } while( (rpath = rpath.getRnext()) != null) ;
+    } while( (rpath = lattice.rnext(rpath)) != null) ;
+  }
+
+  /**
+   * キャッシュの分割結果に一致するNodeをlatticeから取得する
+   *
+   * <p>探索と同じ順序で、対象Nodeと同じ開始位置の形態素から右への連結を辿る。
+   *
+   * @param lattice 解析結果
+   * @param node  対象Node
+   * @param decomposition キャッシュの分割結果
+   * @return  分割のNodeのList(分割されない場合は空)。一致するNodeがない場合はnull
+   */
+  private static <N, P> List<N> resolveDecomposition(MecabLattice<N, P> lattice, N node,
+      MecabDecompositionCache.Decomposition decomposition) {
+    List<N> nodes = new ArrayList<N>(decomposition.size());
+    if (decomposition.size() == 0) {
+      return nodes;
+    }
+    N found = null;
+    for (N other = lattice.bnext(node); other != null; other = lattice.bnext(other)) {
+      if (matches(lattice, other, decomposition, 0)) {
+        found = other;
+        break;
+      }
+    }
+    for (int i = 1; found != null && i < decomposition.size(); i++) {
+      nodes.add(found);
+      N prev = found;
+      found = null;
+      search:
+      for (P rpath = lattice.rpath(prev); rpath != null; rpath = lattice.rnext(rpath)) {
+        for (N rnext = lattice.rnode(rpath); rnext != null; rnext = lattice.next(rnext)) {
+          if (matches(lattice, rnext, decomposition, i)) {
+            found = rnext;
+            break search;
+          }
+        }
+      }
+    }
+    if (found == null) {
+      return null;
+    }
+    nodes.add(found);
+    return nodes;
+  }
+
+  /**
+   * Nodeがキャッシュの分割結果の形態素と一致するか
+   */
+  private static <N, P> boolean matches(MecabLattice<N, P> lattice, N node,
+      MecabDecompositionCache.Decomposition decomposition, int index) {
+    int stat = lattice.stat(node);
+    return stat != MecabLattice.BOS_NODE && stat != MecabLattice.EOS_NODE
+        && lattice.surfaceLength(node) == decomposition.lengths[index]
+        && lattice.posid(node) == decomposition.posids[index]
+        && lattice.wcost(node) == decomposition.wcosts[index]
+        && lattice.feature(node).equals(decomposition.features[index]);
+  }
+
+  /**
+   * 探索結果をキャッシュの分割結果に変換する
+   *
+   * @param lattice 解析結果
+   * @param nodes 探索結果(分割されない場合はnull)
+   * @return  分割結果
+   */
+  private static <N, P> MecabDecompositionCache.Decomposition toDecomposition(MecabLattice<N, P> lattice,
+      List<?> nodes) {
+    if (nodes == null) {
+      return MecabDecompositionCache.NONE;
+    }
+    @SuppressWarnings("unchecked")
+    List<N> list = (List<N>) nodes;
+    int size = list.size();
+    int[] lengths = new int[size];
+    int[] posids = new int[size];
+    short[] wcosts = new short[size];
+    String[] features = new String[size];
+    for (int i = 0; i < size; i++) {
+      N node = list.get(i);
+      lengths[i] = lattice.surfaceLength(node);
+      posids[i] = lattice.posid(node);
+      wcosts[i] = lattice.wcost(node);
+      features[i] = lattice.feature(node);
+    }
+    return new MecabDecompositionCache.Decomposition(lengths, posids, wcosts, features);
   }
 
   /**
    * 漢字３文字以上若しくは、８文字以上の単語かの判定
    * 
-   * @param surface 判定文字列
+   * @param text  入力文字列
+   * @param offset  判定文字列の開始位置
+   * @param length  判定文字列の長さ
    * @return  true:対象文字列/false:それ以外
    */
-  private boolean isSearchTarget(String surface ) {
+  private boolean isSearchTarget(char[] text, int offset, int length) {
     boolean ret = false ;
     // 文字列が３文字以上の場合
-    if (surface.length() > SEARCH_MODE_KANJI_LENGTH) {
+    if (length > SEARCH_MODE_KANJI_LENGTH) {
       boolean allKanji = true;
       
-      char[] chars = surface.toCharArray();
-      
       // 漢字かどうか判定する
-      for (int pos = 0; pos < chars.length; pos++) {
-        if (!this.characterDefinition.isKanji( chars[pos]) ) {
+      for (int pos = offset; pos < offset + length; pos++) {
+        if (!this.characterDefinition.isKanji( text[pos]) ) {
           allKanji = false;
           break;
         }
@@ -419,7 +1006,7 @@ public final class MecabTokenizer extends Tokenizer {
       if (allKanji) {
         ret = true ;
       // 漢字以外の文字の場合で且つ、８文字以上の場合
-      } else if ( surface.length() > SEARCH_MODE_OTHER_LENGTH) {
+      } else if ( length > SEARCH_MODE_OTHER_LENGTH) {
         ret = true ;
       }
     }
@@ -429,261 +1016,905 @@ public final class MecabTokenizer extends Tokenizer {
   
   /**
    * Mecabによる形態素処理
-   * 
+   *
    * @throws IOException  mecab実行例外発生
    */
   void parse() throws IOException {
 
-    try {
-      if (this.lattice != null) {
-        this.lattice.clear();
-        this.lattice.delete();
+    // 入力を一括で読み込む
+    long started = clock();
+    int length = 0;
+    for (int read; (read = this.input.read(this.readBuffer, length, this.readBuffer.length - length)) != -1;) {
+      length += read;
+      if (length == this.readBuffer.length) {
+        this.readBuffer = ArrayUtil.grow(this.readBuffer, length + 1);
       }
+    }
+    this.readNanos += clock() - started;
+    this.inputLength = length;
+    // 同じスレッドで同じ入力を解析済みの場合は解析結果を使用する
+    MecabSharedParse shared = this.sharedParse ? MecabSharedParse.get(sharedKey()) : null;
+    int inputLength = length;
+    int inputHash = shared != null ? MecabSharedParse.hash(this.readBuffer, length) : 0;
+    boolean reuse = shared != null && shared.matches(this.readBuffer, length, inputHash);
+
+    // Tokenは出力までバッファを参照する(次の文書の読み込みまで再利用しない)
+    char[] text;
+    this.normalizedInput = this.normalization.isEnabled();
+    if (this.normalizedInput) {
+      // 反復記号の展開・NFKC等の正規化(offsetは元の位置に補正する)
+      this.normalization.normalize(this.readBuffer, length, this.normalized);
+      text = this.normalized.text;
+      length = this.normalized.length;
+    } else {
+      text = this.readBuffer;
+    }
+    this.text = text;
+
+    this.deadline = this.limits.deadline(System.nanoTime());
+    this.degradedSpans = 0;
+    this.degradedReason = null;
+
+    if (reuse) {
+      for (int i = 0; i < shared.size(); i++) {
+        int id = addWord(text, shared.getOffset(i), shared.getLength(i), shared.getPosId(i), shared.getStat(i),
+            shared.getCost(i), shared.getWordCost(i), shared.getFeature(i));
+        this.positionLengths[id] = shared.getPositionLength(i);
+      }
+      MecabStats.SHARED_PARSE_HITS.increment();
+      return;
+    }
+    if (shared != null) {
+      MecabStats.SHARED_PARSE_MISSES.increment();
+      // 解析に失敗した場合に以前の解析結果を使用しない
+      shared.invalidate();
+    }
+
+    if (this.scriptRouting) {
+      // 日本語の範囲のみMecabで解析する
+      int begin = 0;
+      while (begin < length) {
+        int end = MecabScriptRouter.japaneseEnd(text, begin, length);
+        if (end > begin) {
+          analyzeText(text, begin, end);
+        } else {
+          end = MecabScriptRouter.otherEnd(text, begin, length);
+          addScriptTokens(text, begin, end);
+        }
+        begin = end;
+      }
+    } else {
+      analyzeText(text, 0, length);
+    }
+
+    // 文書毎に出力される為DEBUGとする(件数は統計情報に計上する)
+    if (this.degradedSpans > 0) {
+      logger.debug("mecab analysis degraded to {} for {} span(s) of {} chars input: {}",
+          this.limits.getFallback(), this.degradedSpans, length, this.degradedReason);
+    }
+    if (shared != null) {
+      shared.store(this.readBuffer, inputLength, inputHash, this.dictionary, this.positionLengths);
+    }
+  }
+
+  /**
+   * 指定範囲を解析する
+   *
+   * <p>永続キャッシュが有効な場合は文毎に解析し、解析済みの文はキャッシュの解析結果を使用する。
+   * 代替処理を行った文・解析時間上限を超えた以降の文はキャッシュしない。
+   *
+   * @param text  入力文字列
+   * @param textBegin 開始位置
+   * @param textEnd   終了位置
+   * @throws IOException  mecab実行例外発生
+   */
+  private void analyzeText(char[] text, int textBegin, int textEnd) throws IOException {
+    MecabAnalysisCache.Store cache = this.analysisCache && MecabAnalysisCache.isEnabled()
+        ? MecabAnalysisCache.store(analysisKey(), this.dictionaryVersion) : null;
+    if (cache == null) {
+      parseText(text, textBegin, textEnd);
+      return;
+    }
+    int begin = textBegin;
+    while (begin < textEnd) {
+      int end = MecabAnalysisCache.sentenceEnd(text, begin, textEnd);
+      if (end - begin < MecabAnalysisCache.MIN_SENTENCE_CHARS) {
+        parseText(text, begin, end);
+      } else if (!cache.replay(text, begin, end, this.cacheSink)) {
+        int fromId = this.dictionary.size();
+        int degraded = this.degradedSpans;
+        parseText(text, begin, end);
+        boolean overDeadline = this.deadline != Long.MAX_VALUE && System.nanoTime() - this.deadline >= 0;
+        if (this.degradedSpans == degraded && !overDeadline) {
+          cache.put(text, begin, end, this.dictionary, fromId, this.positionLengths);
+        }
+      }
+      begin = end;
+    }
+  }
+
+  /**
+   * 指定範囲を文字数上限毎に区切って解析する
+   *
+   * @param text  入力文字列
+   * @param textBegin 開始位置
+   * @param textEnd   終了位置
+   * @throws IOException  mecab実行例外発生
+   */
+  private void parseText(char[] text, int textBegin, int textEnd) throws IOException {
+    int maxChars = this.limits.getMaxLatticeChars();
+    if (maxChars <= 0 || textEnd - textBegin <= maxChars) {
+      parseSpan(text, textBegin, textEnd, isDecomposed());
+    } else {
+      // 文字数上限を超える場合、句読点・空白の直後で区切って解析する
+      int begin = textBegin;
+      while (begin < textEnd) {
+        int end = Math.min(begin + maxChars, textEnd);
+        // サロゲートペアを分割しない
+        if (end < textEnd && Character.isLowSurrogate(text[end]) && Character.isHighSurrogate(text[end - 1])) {
+          end = end - 1 > begin ? end - 1 : end + 1;
+        }
+        if (end < textEnd) {
+          int brk = end;
+          while (brk > begin && !isPunctuation(text[brk - 1])) {
+            brk--;
+          }
+          if (brk > begin) {
+            end = brk;
+          } else {
+            // 区切りがない範囲は代替処理を行う
+            MecabStats.LATTICE_LIMIT_FALLBACKS.increment();
+            degrade("no break within " + maxChars + " chars");
+            parseFallback(text, begin, end);
+            begin = end;
+            continue;
+          }
+        }
+        // 解析時間上限を超えた以降の範囲は代替処理を行う
+        if (isOverDeadline()) {
+          parseFallback(text, begin, end);
+        } else {
+          parseSpan(text, begin, end, isDecomposed());
+        }
+        begin = end;
+      }
+    }
+  }
+
+  /**
+   * 最適解の形態素の分割(SEARCH/EXTENDEDモードの分割またはn-bestのToken graph)を行うか
+   */
+  private boolean isDecomposed() {
+    return this.searchMode || this.nbest != null;
+  }
+
+  /**
+   * 日本語以外の範囲のTokenを作成する(Mecabを使用しない)
+   *
+   * @param text  入力文字列
+   * @param begin 開始位置
+   * @param end   終了位置
+   * @throws IOException  素性情報の解析例外
+   */
+  private void addScriptTokens(char[] text, int begin, int end) throws IOException {
+    MecabStats.SCRIPT_ROUTED_CHARS.add(end - begin);
+    int pos = begin;
+    while (pos < end) {
+      int tokenEnd = MecabScriptRouter.tokenEnd(text, pos, end);
+      MecabScriptRouter.Morpheme morpheme = scriptMorpheme(MecabScriptRouter.of(text[pos]));
+      if (morpheme != null && isEmitted(text, pos, tokenEnd - pos)) {
+        if (this.stopTags != null && this.stopTags.isStopped(morpheme.posid, morpheme.feature)) {
+          addStopped(text, pos, tokenEnd - pos, 0);
+        } else {
+          addWord(text, pos, tokenEnd - pos,
+              morpheme.posid, MecabLattice.UNK_NODE, morpheme.cost, morpheme.wcost, morpheme.feature);
+        }
+      }
+      pos = tokenEnd;
+    }
+  }
+
+  /**
+   * 文字種毎の形態素情報
+   *
+   * @param script  文字種
+   * @return  形態素情報(空白はnull)
+   * @throws IOException  mecab実行例外発生
+   */
+  private MecabScriptRouter.Morpheme scriptMorpheme(MecabScriptRouter.Script script) throws IOException {
+    if (this.scriptMorphemes == null) {
+      // 文字種毎の代表的な文字列をMecabで解析した結果を使用する
+      this.scriptMorphemes = new MecabScriptRouter.Morpheme[] {
+          probe(this.lattice, MecabScriptRouter.LETTER_SAMPLE),
+          probe(this.lattice, MecabScriptRouter.DIGIT_SAMPLE),
+          probe(this.lattice, MecabScriptRouter.SYMBOL_SAMPLE)};
+    }
+    switch (script) {
+      case LETTER:
+        return this.scriptMorphemes[0];
+      case DIGIT:
+        return this.scriptMorphemes[1];
+      case SYMBOL:
+        return this.scriptMorphemes[2];
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * 文字列の最初の形態素の情報を取得する
+   */
+  private static <N, P> MecabScriptRouter.Morpheme probe(MecabLattice<N, P> lattice, String sample)
+      throws IOException {
+    try {
+      lattice.parse(sample, false);
+      N node = lattice.next(lattice.bosNode());
+      return new MecabScriptRouter.Morpheme(lattice.posid(node), lattice.cost(node), lattice.wcost(node),
+          lattice.feature(node));
     } finally {
-      this.lattice = this.model.createLattice();
+      lattice.clear();
     }
+  }
 
-    StringBuilder strbuilder = new StringBuilder();
+  /**
+   * 上限を超えた範囲の代替処理
+   *
+   * @param text  入力文字列
+   * @param begin 開始位置
+   * @param end   終了位置
+   * @throws IOException  mecab実行例外発生
+   */
+  private void parseFallback(char[] text, int begin, int end) throws IOException {
+    if (this.limits.getFallback() == MecabLimits.Fallback.BIGRAM) {
+      addBigrams(text, begin, end);
+    } else {
+      parseSpan(text, begin, end, false);
+    }
+  }
 
-    int inputOff = 0;
-    int c = 0;
-    // 入力バッファから取り出し、文字列に変換する
-    while ((c = this.buffer.get(inputOff)) != -1) {
-      strbuilder.append((char) c);
-      inputOff++;
-      this.buffer.freeBefore(inputOff);
+  /**
+   * Mecabを使用せず、文字bigram(サロゲートペアは1文字)のTokenを作成する
+   *
+   * @param text  入力文字列
+   * @param begin 開始位置
+   * @param end   終了位置
+   */
+  private void addBigrams(char[] text, int begin, int end) {
+    int runStart = begin;
+    for (int i = begin; i <= end; i++) {
+      // 空白(及び句読点除外時の句読点)で区切る
+      if (i < end && !Character.isWhitespace(text[i])
+          && (!this.discardPunctuation || !isPunctuation(text[i]))) {
+        continue;
+      }
+      int first = runStart;
+      int second = first < i ? first + Character.charCount(Character.codePointAt(text, first, i)) : i;
+      if (first < i && second == i) {
+        addFallbackToken(text, first, i - first);
+      } else {
+        while (second < i) {
+          int next = second + Character.charCount(Character.codePointAt(text, second, i));
+          addFallbackToken(text, first, next - first);
+          first = second;
+          second = next;
+        }
+      }
+      runStart = i + 1;
     }
-    String str = strbuilder.toString();
-    
-    // SEARCHモードの場合
-    if (this.searchMode ) {
-      // MecabをNbestで形態素する
-      this.lattice.add_request_type(MeCabConstants.MECAB_NBEST);
+  }
+
+  /**
+   * 代替処理のTokenを作成する(形態素情報なし)
+   *
+   * @param text  入力文字列
+   * @param offset  開始位置
+   * @param length  長さ
+   */
+  private void addFallbackToken(char[] text, int offset, int length) {
+    addWord(text, offset, length, 0, MecabLattice.UNK_NODE, 0, (short) 0, null);
+  }
+
+  /**
+   * 指定範囲のMecabによる形態素処理
+   *
+   * @param text  入力文字列
+   * @param spanBegin 開始位置
+   * @param spanEnd   終了位置
+   * @param search  SEARCHモード/EXTENDEDモードの分割(またはn-bestのToken graph)を行うか
+   * @throws IOException  mecab実行例外発生
+   */
+  private void parseSpan(char[] text, int spanBegin, int spanEnd, boolean search) throws IOException {
+    // latticeの使用量を予約する
+    long projected = MecabLattice.estimateBytes(utf8Length(text, spanBegin, spanEnd));
+    if (!MecabMemory.reserve(projected)) {
+      MecabStats.MEMORY_LIMIT_TRIPS.increment();
+      if (MecabMemory.getAction() == MecabMemory.Action.REJECT) {
+        throw new IOException("mecab memory limit exceeded: lattice for " + (spanEnd - spanBegin)
+            + " chars needs about " + projected + " bytes, limit is " + MecabMemory.getLimit() + " bytes");
+      }
+      parseChunked(text, spanBegin, spanEnd, search);
+      return;
+    }
+    try {
+      parseLattice(text, spanBegin, spanEnd, search);
+    } finally {
+      MecabMemory.release(projected);
     }
-    // 形態素対象文字列の設定
-    this.lattice.set_sentence(str);
+  }
 
-    // 形態素実行
-    if (!this.tagger.parse(this.lattice)) {
-      throw new IOException(this.lattice.what());
+  /**
+   * メモリ上限を超える範囲を分割して解析する
+   *
+   * @param text  入力文字列
+   * @param begin 開始位置
+   * @param end   終了位置
+   * @param search  SEARCHモード/EXTENDEDモードの分割(またはn-bestのToken graph)を行うか
+   * @throws IOException  mecab実行例外発生
+   */
+  private void parseChunked(char[] text, int begin, int end, boolean search) throws IOException {
+    if (end - begin <= MIN_CHUNK_CHARS) {
+      // 分割できない範囲はMecabを使用しない
+      degrade("memory limit exceeded for " + (end - begin) + " chars");
+      addBigrams(text, begin, end);
+      return;
     }
+    // 中央より前の句読点・空白の直後で区切る(ない場合は中央)
+    int mid = begin + (end - begin) / 2;
+    int brk = mid;
+    while (brk > begin && !isPunctuation(text[brk - 1])) {
+      brk--;
+    }
+    if (brk == begin) {
+      brk = Character.isLowSurrogate(text[mid]) ? mid + 1 : mid;
+    }
+    parseSpan(text, begin, brk, search);
+    parseSpan(text, brk, end, search);
+  }
 
-    int start = 0;
-    int end = 0;
+  /**
+   * 指定範囲をlatticeで解析し、Tokenを作成する
+   *
+   * @param text  入力文字列
+   * @param spanBegin 開始位置
+   * @param spanEnd   終了位置
+   * @param search  SEARCHモード/EXTENDEDモードの分割(またはn-bestのToken graph)を行うか
+   * @throws IOException  mecab実行例外発生
+   */
+  private void parseLattice(char[] text, int spanBegin, int spanEnd, boolean search) throws IOException {
+    // EXTENDEDモードはSEARCHモードの場合のみ
+    boolean extended = search && this.extendedMode;
+    // n-bestのToken graphは複合語の分割に代えて行う
+    boolean graph = search && this.nbest != null;
+
+    // 解析の詳細の記録中はlatticeの参照回数を計数する
+    MecabLattice<?, ?> lattice = this.lattice;
+    if (this.explain != null) {
+      lattice = this.explain.wrap(this.lattice);
+      this.explain.lattice(text, spanBegin, spanEnd);
+    }
+
+    // 同時実行数の上限(latticeの参照を終えるまで)
+    boolean limited = MecabConcurrency.acquire();
+    try {
+      // 形態素実行(SEARCHモード, n-bestの場合はNbest)
+      long started = clock();
+      lattice.parse(new String(text, spanBegin, spanEnd - spanBegin), search);
+      this.parseNanos += clock() - started;
+      this.latticeCount++;
+      this.maxLatticeChars = Math.max(this.maxLatticeChars, spanEnd - spanBegin);
+
+      // 書式化した解析結果はnative版のみ(解析の詳細の記録中は使用しない)
+      if (graph) {
+        addGraphTokens(lattice, text, spanBegin);
+      } else if (this.formattedParse && this.explain == null && lattice instanceof MecabNativeLattice) {
+        addFormattedTokens((MecabNativeLattice) lattice, text, spanBegin, search, extended);
+      } else {
+        addLatticeTokens(lattice, text, spanBegin, search, extended);
+      }
+    } finally {
+      // Mecabの後処理
+      lattice.clear();
+      if (limited) {
+        MecabConcurrency.release();
+      }
+    }
+  }
 
-    Node node = null;
-    start = 0;
-    end = 0;
+  /**
+   * 最適解のNodeからTokenを作成する
+   *
+   * @param lattice 解析結果
+   * @param text  入力文字列
+   * @param spanBegin 解析範囲の開始位置
+   * @param search  SEARCHモードの分割を行うか
+   * @param extended  EXTENDEDモードの分割を行うか
+   * @throws IOException  mecab実行例外発生
+   */
+  private <N, P> void addLatticeTokens(MecabLattice<N, P> lattice, char[] text, int spanBegin,
+      boolean search, boolean extended) throws IOException {
+    int start = spanBegin;
     // 形態素を取得
-    for (node = this.lattice.bos_node(); node != null; node = node.getNext()) {
+    for (N node = lattice.bosNode(); node != null; node = lattice.next(node)) {
       // BOS,EOSの場合、無視
-      if (node.getStat() == MeCabConstants.MECAB_BOS_NODE || 
-          node.getStat() == MeCabConstants.MECAB_EOS_NODE) {
+      if (lattice.stat(node) == MecabLattice.BOS_NODE || 
+          lattice.stat(node) == MecabLattice.EOS_NODE) {
         continue;
       }
+      start = addNodeTokens(lattice, text, start, node, search, extended);
+    }
+  }
 
-      this.min_cost = Integer.MAX_VALUE;
-      this.search_list = null;
+  /**
+   * 複数の分割の形態素からToken graphのTokenを作成する
+   *
+   * @param lattice 解析結果(Nbest)
+   * @param text  入力文字列
+   * @param spanBegin 解析範囲の開始位置
+   * @throws IOException  mecab実行例外発生
+   */
+  private <N, P> void addGraphTokens(MecabLattice<N, P> lattice, char[] text, int spanBegin) throws IOException {
+    int position = -1;
+    for (MecabNBest.Segment<N> segment
+        : this.nbest.segments(lattice, spanBegin, (offset, length) -> isEmitted(text, offset, length),
+            this::isOverDeadline)) {
+      N node = segment.node;
+      if (this.explain != null) {
+        this.explain.bestNode(lattice, node, segment.offset, segment.length);
+      }
+      // 位置の最初の形態素のみ位置を進める
+      int positionLength;
+      if (segment.position != position) {
+        position = segment.position;
+        positionLength = segment.positionLength == 1 ? 0 : POSITION_START | segment.positionLength;
+      } else {
+        positionLength = segment.positionLength;
+      }
+      String feature = lattice.feature(node);
+      if (this.stopTags != null && this.stopTags.isStopped(lattice.posid(node), feature)) {
+        addStopped(text, segment.offset, segment.length, positionLength);
+      } else {
+        int id = addWord(text, segment.offset, segment.length,
+            lattice.posid(node),
+            lattice.stat(node),
+            lattice.cost(node),
+            lattice.wcost(node),
+            feature);
+        this.positionLengths[id] = positionLength;
+      }
+    }
+  }
 
-      String surface = node.getSurface();
-      
+  /**
+   * 形態素(最適解のNode)からTokenを作成する
+   *
+   * @param lattice 解析結果
+   * @param text  入力文字列
+   * @param start 前の形態素の終了位置
+   * @param node  対象Node
+   * @param search  SEARCHモードの分割を行うか
+   * @param extended  EXTENDEDモードの分割を行うか
+   * @return  次の形態素の文字位置
+   * @throws IOException  mecab実行例外発生
+   */
+  private <N, P> int addNodeTokens(MecabLattice<N, P> lattice, char[] text, int start, N node,
+      boolean search, boolean extended) throws IOException {
+    int end = start;
+
+    this.min_cost = Integer.MAX_VALUE;
+    this.search_list = null;
+    this.search_count = 0;
+    this.search_aborted = false;
+    this.search_overshoot = false;
+
+    // 表層形は入力文字列から参照する
+    int begin = start + (lattice.rlength(node) - lattice.length(node));
+    int node_len = lattice.surfaceLength(node);
+    if (this.explain != null) {
+      this.explain.bestNode(lattice, node, begin, node_len);
+    }
+    
+    // 未知語の場合で且つ、EXTENDEDモードの場合、未知語を1-gramに分割
+    boolean unknown = lattice.stat(node) == MecabLattice.UNK_NODE && extended;
+    // 漢字３文字以上若しくは、８文字以上の単語の場合、SEARCHモードとして分割
+    boolean target = unknown || (search && isSearchTarget(text, begin, node_len) && !isOverDeadline());
+
+    // 分割結果のキャッシュがある場合は探索しない
+    long searchStarted = target ? clock() : 0;
+    boolean cached = false;
+    String surface = target && this.decompositions != null && this.explain == null
+        ? new String(text, begin, node_len) : null;
+    if (surface != null) {
+      MecabDecompositionCache.Decomposition decomposition = this.decompositions.get(unknown, surface);
+      if (decomposition != null) {
+        List<N> nodes = resolveDecomposition(lattice, node, decomposition);
+        if (nodes != null) {
+          this.search_list = nodes.isEmpty() ? null : nodes;
+          cached = true;
+        } else {
+          // latticeに存在しない場合(辞書の更新等)は探索する
+          this.decompositions.invalidate(unknown, surface);
+        }
+      }
+    }
+
+    if (target && this.explain != null) {
+      this.explain.startDecomposition(new String(text, begin, node_len), begin, unknown);
+    }
+
+    if (!target || cached) {
+      // 探索しない
+    }
+    else if( unknown ) {
+      // 未知語を1-gramに分割
       
-      // 未知語の場合で且つ、EXTENDEDモードの場合
-      if( node.getStat() == MeCabConstants.MECAB_UNK_NODE && extendedMode ) {
-        // 未知語を1-gramに分割
-        
-        int node_len = surface.length();
-        Node other = node;
-        // 対象単語と同じ開始位置で始まる形態素を取得
-        while ((other = other.getBnext()) != null) {
-          int other_len = other.getSurface().length();
-          if( other_len != 1) {
-            continue;
-          }
-          int len = other_len;
-          
-          // 形態素候補のList
-          List<Node> nodes = new ArrayList<Node>();
-          nodes.add(other);
-          // 未知語に対して最小コストの1gramの形態素を探索する
-          UnknownNextMorpheme(other, nodes, other.getWcost(), len, node_len);
+      N other = node;
+      // 対象単語と同じ開始位置で始まる形態素を取得
+      while ((other = lattice.bnext(other)) != null) {
+        int other_len = lattice.surfaceLength(other);
+        if( other_len != 1) {
+          continue;
         }
+        int len = other_len;
         
+        // 形態素候補のList
+        List<N> nodes = new ArrayList<N>();
+        nodes.add(other);
+        // 未知語に対して最小コストの1gramの形態素を探索する
+        UnknownNextMorpheme(lattice, other, nodes, lattice.wcost(other), len, node_len);
       }
-      /**
-       * 漢字３文字以上若しくは、８文字以上の単語の場合、      
-       * SEARCHモードとして次に連結コストの高い形態素を追加する
-       */
-      else if (isSearchTarget(surface) && this.searchMode ) {
-
-        int node_len = surface.length();
-        Node other = node;
-        // 対象単語と同じ開始位置で始まる形態素を取得
-        while ((other = other.getBnext()) != null) {
-          int other_len = other.getSurface().length();
-          if( other_len >= node_len) {
-            continue;
-          }
+      
+    }
+    /**
+     * 漢字３文字以上若しくは、８文字以上の単語の場合、      
+     * SEARCHモードとして次に連結コストの高い形態素を追加する
+     */
+    else {
 
-          int len = other_len;
-          
-          // 形態素候補のList
-          List<Node> nodes = new ArrayList<Node>();
-          nodes.add(other);
-          // 形態素に対して連結するものを探索する
-          SearchNextMorpheme(other, nodes, other.getWcost(), len, node_len);
+      N other = node;
+      // 対象単語と同じ開始位置で始まる形態素を取得
+      while ((other = lattice.bnext(other)) != null) {
+        int other_len = lattice.surfaceLength(other);
+        if( other_len >= node_len) {
+          continue;
         }
+
+        int len = other_len;
+        
+        // 形態素候補のList
+        List<N> nodes = new ArrayList<N>();
+        nodes.add(other);
+        // 形態素に対して連結するものを探索する
+        SearchNextMorpheme(lattice, other, nodes, lattice.wcost(other), len, node_len);
       }
+    }
 
-      Token token = null;
-      // SEARCH対象、形態素がある場合
-      if (this.search_list != null) {
-        for (int i = 0; i < this.search_list.size(); i++) {
-          Node search_node = this.search_list.get(i);
-
-          start = start + (search_node.getRlength() - search_node.getLength());
-          end = start + search_node.getSurface().length();
-
-          // 辞書に対象情報設定
-          this.dictionary.add(
-              (int) search_node.getId(), 
-              search_node.getSurface(), 
-              search_node.getPosid(), 
-              search_node.getCost(), 
-              search_node.getWcost(), 
-              search_node.getFeature());
-          if (VERBOSE) {
-            System.out.println("\t" 
-                + search_node.getId() + "\t" 
-                + search_node.getCost() + "\t" 
-                + search_node.getWcost() + "\t" 
-                + search_node.getSurface() + "\t"
-                + search_node.getFeature());
-          }
-          if ( surface.length() > 1 ||
-              ( search_node.getSurface().length() == 1 &&
-              (!this.discardPunctuation || !isPunctuation(search_node.getSurface().toCharArray()[0])))) {
+    // 探索上限を超えた場合、NORMALモードとして扱う
+    if (this.search_aborted) {
+      this.search_list = null;
+    } else if (surface != null && !cached && !this.search_overshoot) {
+      // 探索結果をキャッシュに登録
+      this.decompositions.put(unknown, surface, toDecomposition(lattice, this.search_list));
+    }
+    if (target) {
+      this.decompositionNanos += clock() - searchStarted;
+      if (this.explain != null) {
+        @SuppressWarnings("unchecked")
+        List<N> chosen = (List<N>) this.search_list;
+        this.explain.endDecomposition(lattice, chosen, this.min_cost, this.search_aborted, this.search_overshoot);
+      }
+    }
+
+    // SEARCH対象、形態素がある場合
+    if (this.search_list != null) {
+      @SuppressWarnings("unchecked")
+      List<N> searchNodes = (List<N>) this.search_list;
+      for (int i = 0; i < searchNodes.size(); i++) {
+        N search_node = searchNodes.get(i);
+        int search_len = lattice.surfaceLength(search_node);
 
+        start = start + (lattice.rlength(search_node) - lattice.length(search_node));
+        end = start + search_len;
+
+        if ( node_len > 1 || isEmitted(text, start, search_len) ) {
+          String feature = lattice.feature(search_node);
+          if (this.stopTags != null && this.stopTags.isStopped(lattice.posid(search_node), feature)) {
+            addStopped(text, start, search_len, 0);
+          } else {
             // Tokenの作成
-            token = new Token(
-                (int) search_node.getId(), 
-                str.toCharArray(), 
-                start, 
-                search_node.getSurface().length(), 
-                Type.KNOWN, 
-                start,
-                this.dictionary);
-            // Tokenの保持
-            this.pending.add(token);
+            addWord(text, start, search_len,
+                lattice.posid(search_node),
+                lattice.stat(search_node),
+                lattice.cost(search_node),
+                lattice.wcost(search_node),
+                feature);
           }
+        }
 
-          if (i == 0) {
-
-            start = start + (node.getRlength() - node.getLength());
-
-            // 辞書に対象情報設定
-            this.dictionary.add(
-                (int) node.getId(), 
-                surface, 
-                node.getPosid(), 
-                node.getCost(), 
-                node.getWcost(),
-                node.getFeature());
-
-            if (VERBOSE) {
-              System.out.println("\t" 
-                  + node.getId() + "\t" 
-                  + node.getCost() + "\t" 
-                  + node.getWcost() + "\t"
-                  + node.getSurface() + "\t" 
-                  + node.getFeature());
-            }
-            
-            if ( surface.length() > 1 ||
-                (surface.length() == 1 &&
-                (!this.discardPunctuation || !isPunctuation(surface.toCharArray()[0])))) {
-            
+        if (i == 0) {
+
+          start = start + (lattice.rlength(node) - lattice.length(node));
+
+          if ( isEmitted(text, start, node_len) ) {
+          
+            String feature = lattice.feature(node);
+            if (this.stopTags != null && this.stopTags.isStopped(lattice.posid(node), feature)) {
+              addStopped(text, start, node_len, searchNodes.size());
+            } else {
               // Tokenの作成
-              token = new Token(
-                  (int) node.getId(), 
-                  str.toCharArray(), 
-                  start, 
-                  surface.length(), 
-                  Type.KNOWN, 
-                  start,
-                  this.dictionary);
+              int id = addWord(text, start, node_len,
+                  lattice.posid(node),
+                  lattice.stat(node),
+                  lattice.cost(node),
+                  lattice.wcost(node),
+                  feature);
               // SERCHモードで探索した形態素の分割数を格納
-              token.setPositionLength(this.search_list.size());
-              
-              // Tokenの保持
-              this.pending.add(token);
+              this.positionLengths[id] = searchNodes.size();
             }
           }
-          // 次の形態素の文字位置更新
-          start = end;
         }
-      // SEARCH対象、形態素がない場合
+        // 次の形態素の文字位置更新
+        start = end;
+      }
+    // SEARCH対象、形態素がない場合
+    } else {
+      start = begin;
+      end = start + node_len;
+
+      String feature = lattice.feature(node);
+      if (this.stopTags != null && isEmitted(text, start, node_len)
+          && this.stopTags.isStopped(lattice.posid(node), feature)) {
+        addStopped(text, start, node_len, 0);
       } else {
-        start = start + (node.getRlength() - node.getLength());
-        end = start + node.getSurface().length();
-
-        // 辞書に対象情報設定
-        this.dictionary.add(
-            (int) node.getId(), 
-            surface, 
-            node.getPosid(), 
-            node.getCost(), 
-            node.getWcost(),
-            node.getFeature());
-
-        if (VERBOSE) {
-          System.out.println("\t" 
-              + node.getId() + "\t" 
-              + node.getCost() + "\t" 
-              + node.getWcost() + "\t"
-              + node.getSurface() + "\t" 
-              + node.getFeature());
-        }
+        addToken(text, start, node_len, lattice.posid(node), 
+            lattice.stat(node), lattice.cost(node), lattice.wcost(node), feature);
+      }
 
-        if ( surface.length() > 1 ||
-            (surface.length() == 1 &&
-            (!this.discardPunctuation || !isPunctuation(surface.toCharArray()[0])))) {
-  
-          // Tokenの作成
-          token = new Token(
-              (int) node.getId(), 
-              str.toCharArray(), 
-              start, 
-              surface.length(), 
-              Type.KNOWN, 
-              start,
-              this.dictionary);
-          // Tokenの保持
-          this.pending.add(token);
+      // 次の形態素の文字位置更新
+      start = end;
+    }
+    return start;
+  }
+
+  /**
+   * 書式化した解析結果からTokenを作成する
+   *
+   * <p>解析結果を{@link MecabNativeLattice#format()}の1回の呼び出しで取得し、
+   * Node毎のnative呼び出しを行わない。
+   * SEARCH/EXTENDEDモードの分割対象の形態素のみ、latticeのNodeを参照する。
+   *
+   * @param lattice 解析結果
+   * @param text  入力文字列
+   * @param spanBegin 解析範囲の開始位置
+   * @param search  SEARCHモードの分割を行うか
+   * @param extended  EXTENDEDモードの分割を行うか
+   * @throws IOException  mecab実行例外発生
+   */
+  private void addFormattedTokens(MecabNativeLattice lattice, char[] text, int spanBegin,
+      boolean search, boolean extended) throws IOException {
+    String result = lattice.format();
+
+    // byte位置から文字位置への変換用
+    int charPos = spanBegin;
+    int bytePos = 0;
+    // 前の形態素の終了位置
+    int start = spanBegin;
+    // 前の形態素の終了位置(byte。latticeのNodeは前の空白を含む位置から始まる)
+    int prevByteEnd = 0;
+
+    long[] fields = new long[NODE_FORMAT_NUMERIC_FIELDS];
+    int lineBegin = 0;
+    while (lineBegin < result.length()) {
+      int lineEnd = result.indexOf('\n', lineBegin);
+      if (lineEnd < 0) {
+        lineEnd = result.length();
+      }
+      // 数値項目の取得(EOS行は対象外)
+      int pos = lineBegin;
+      int field = 0;
+      for (; field < fields.length; field++) {
+        int tab = result.indexOf('\t', pos);
+        if (tab < 0 || tab > lineEnd) {
+          break;
         }
-        
-        // 次の形態素の文字位置更新
-        start = end;
+        fields[field] = parseLong(result, pos, tab);
+        pos = tab + 1;
+      }
+      if (field < fields.length) {
+        lineBegin = lineEnd + 1;
+        continue;
       }
+      long id = fields[0];
+      int byteBegin = (int) fields[1];
+      int byteEnd = (int) fields[2];
+      int stat = (int) fields[4];
+      String feature = result.substring(pos, lineEnd);
 
+      // byte位置を文字位置に変換
+      while (bytePos < byteBegin) {
+        bytePos += utf8Length(text[charPos++]);
+      }
+      int charBegin = charPos;
+      while (bytePos < byteEnd) {
+        bytePos += utf8Length(text[charPos++]);
+      }
+      int charEnd = charPos;
+
+      Node node = null;
+      if ((stat == MecabLattice.UNK_NODE && extended) || (search && isSearchTarget(text, charBegin, charEnd - charBegin))) {
+        // 分割対象の場合のみ、latticeからNodeを取得
+        node = findBestNode(lattice, prevByteEnd, id);
+      }
+      if (node != null) {
+        start = addNodeTokens(lattice, text, start, node, search, extended);
+      } else {
+        if (this.stopTags != null && isEmitted(text, charBegin, charEnd - charBegin)
+            && this.stopTags.isStopped((int) fields[3], feature)) {
+          addStopped(text, charBegin, charEnd - charBegin, 0);
+        } else {
+          addToken(text, charBegin, charEnd - charBegin, (int) fields[3], stat, fields[6], (short) fields[5], feature);
+        }
+        start = charEnd;
+      }
+      prevByteEnd = byteEnd;
+      lineBegin = lineEnd + 1;
     }
+  }
 
-    // Mecabの後処理
-    try {
-      if (this.lattice != null) {
-        this.lattice.clear();
-        this.lattice.delete();
+  /**
+   * 開始位置とIDから最適解のNodeを取得する
+   *
+   * <p>latticeのNodeは表層形の前の空白を含む位置(前の形態素の終了位置)から始まる。
+   *
+   * @param lattice 解析結果
+   * @param byteBegin 開始位置(byte。前の空白を含む)
+   * @param id  NodeのID
+   * @return  Node。見つからない場合はnull
+   */
+  private static Node findBestNode(MecabNativeLattice lattice, int byteBegin, long id) {
+    for (Node node = lattice.beginNodes(byteBegin); node != null; node = node.getBnext()) {
+      if (node.getId() == id) {
+        return node;
       }
-    } finally {
-      this.lattice = null;
     }
+    return null;
+  }
+
+  /**
+   * 形態素のTokenを作成する(句読点の除外時、1文字の句読点は作成しない)
+   *
+   * @param text  入力文字列
+   * @param offset  開始位置
+   * @param length  長さ
+   * @param posid 品詞ID
+   * @param stat  形態素種別
+   * @param cost  累積コスト
+   * @param wcost 単語コスト
+   * @param feature 素性情報
+   */
+  private void addToken(char[] text, int offset, int length,
+      int posid, int stat, long cost, short wcost, String feature) {
+    if (isEmitted(text, offset, length)) {
+      addWord(text, offset, length, posid, stat, cost, wcost, feature);
+    }
+  }
+
+  /**
+   * 出力する形態素か
+   *
+   * @return  false:句読点の除外時の1文字の句読点
+   */
+  private boolean isEmitted(char[] text, int offset, int length) {
+    return length > 1 ||
+        (length == 1 &&
+        (!this.discardPunctuation || !isPunctuation(text[offset])));
+  }
+
+  /**
+   * 形態素をwork辞書に登録する(出力するTokenとなる)
+   *
+   * @param text  入力文字列
+   * @param offset  開始位置
+   * @param length  長さ
+   * @param posid 品詞ID
+   * @param stat  形態素種別
+   * @param cost  累積コスト
+   * @param wcost 単語コスト
+   * @param feature 素性情報(代替処理の場合はnull)
+   * @return  単語ID
+   */
+  private int addWord(char[] text, int offset, int length,
+      int posid, int stat, long cost, short wcost, String feature) {
+    // 辞書に対象情報設定
+    int id = this.dictionary.add(text, offset, length, posid, stat, cost, wcost, feature);
+    if (id >= this.positionLengths.length) {
+      this.positionLengths = ArrayUtil.grow(this.positionLengths, id + 1);
+    }
+    this.positionLengths[id] = 0;
+    return id;
+  }
+
+  /**
+   * 除外する品詞の形態素をwork辞書に登録する(Tokenを出力せず、位置のみ後続のTokenに加算する)
+   *
+   * @param text  入力文字列
+   * @param offset  開始位置
+   * @param length  長さ
+   * @param positionLength  SEARCHモードで分割した複合語の分割数(それ以外は0。n-bestのToken graphは位置の指定を含む)
+   */
+  private void addStopped(char[] text, int offset, int length, int positionLength) {
+    int id = addWord(text, offset, length, 0, MecabLattice.NOR_NODE, 0, (short) 0, null);
+    this.positionLengths[id] = -positionLength - 1;
+    MecabStats.STOP_TAG_REMOVALS.increment();
+  }
+
+  /**
+   * 単語IDのToken(文書間で再利用する)
+   */
+  private MecabToken token(int id) {
+    if (id >= this.tokens.length) {
+      this.tokens = ArrayUtil.grow(this.tokens, id + 1);
+    }
+    MecabToken token = this.tokens[id];
+    if (token == null) {
+      token = new MecabToken(id, this.dictionary);
+      this.tokens[id] = token;
+      this.createdTokens++;
+    }
+    return token;
+  }
+
+  /**
+   * 文字のbyte長
+   *
+   * <p>Mecabへの文字列はJNIのModified UTF-8で渡される為、
+   * サロゲートペアは1文字毎に3byte、NUL文字は2byteとなる。
+   */
+  private static int utf8Length(char ch) {
+    if (ch != 0 && ch < 0x80) {
+      return 1;
+    } else if (ch < 0x800) {
+      return 2;
+    }
+    return 3;
+  }
+
+  /**
+   * 文字列の指定範囲のbyte長
+   */
+  private static int utf8Length(char[] text, int begin, int end) {
+    int length = 0;
+    for (int i = begin; i < end; i++) {
+      length += utf8Length(text[i]);
+    }
+    return length;
+  }
+
+  /**
+   * 文字列の指定範囲を数値に変換する
+   */
+  private static long parseLong(String str, int begin, int end) {
+    boolean negative = false;
+    int pos = begin;
+    if (pos < end && str.charAt(pos) == '-') {
+      negative = true;
+      pos++;
+    }
+    long value = 0;
+    for (; pos < end; pos++) {
+      value = value * 10 + (str.charAt(pos) - '0');
+    }
+    return negative ? -value : value;
   }
 
   @Override
   public boolean incrementToken() throws IOException {
     boolean ret = false ;
+    // 除外する品詞の形態素は位置のみ加算する(分割元の複合語は位置が増えない)
+    while (this.nextToken < this.dictionary.size() && this.positionLengths[this.nextToken] < 0) {
+      this.skippedPositions += positionIncrement(-this.positionLengths[this.nextToken++] - 1);
+    }
     // 形態素結果があるか？
-    if ( pending.size() == 0 ){
+    if ( this.nextToken >= this.dictionary.size() ){
       ret = false;
     }
     else
@@ -692,34 +1923,52 @@ public final class MecabTokenizer extends Tokenizer {
       clearAttributes();
       
       // 形態素結果からToken取得
-      final Token token = pending.remove(0);
+      final int id = this.nextToken++;
+      final MecabToken token = token(id);
   
       // tokenattributesの設定
 
-      int offset = token.getOffset();
-      int length = token.getLength() ;
+      int offset = this.dictionary.getOffset(id);
+      int length = this.dictionary.getLength(id);
       
-      termAtt.copyBuffer(token.getSurfaceForm(), offset, length);
-      offsetAtt.setOffset(correctOffset(offset), correctOffset(offset+length));
+      termAtt.copyBuffer(this.text, offset, length);
+      offsetAtt.setOffset(correctOffset(inputOffset(offset)), correctOffset(inputOffset(offset+length)));
       basicFormAtt.setToken(token);
       posAtt.setToken(token);
       readingAtt.setToken(token);
       inflectionAtt.setToken(token);
+      featureAtt.setFeature(this.dictionary.getPosId(id), this.dictionary.getStat(id), this.dictionary.getCost(id),
+          (short) this.dictionary.getWordCost(id), this.dictionary.getFeature(id));
       
-      int poslen = token.getPositionLength() ;
-      if( poslen > 0 ) {
-        posIncAtt.setPositionIncrement(0);
-        posLengthAtt.setPositionLength(poslen);
-      }
-      else {
-        posIncAtt.setPositionIncrement(1);
-        posLengthAtt.setPositionLength(1);
+      int poslen = this.positionLengths[id] ;
+      posIncAtt.setPositionIncrement(positionIncrement(poslen));
+      posLengthAtt.setPositionLength(poslen == 0 ? 1 : poslen & ~POSITION_START);
+      if (this.skippedPositions > 0) {
+        posIncAtt.setPositionIncrement(posIncAtt.getPositionIncrement() + this.skippedPositions);
+        this.skippedPositions = 0;
       }
       ret = true;
     }
     return ret ;
   }
   
+  /**
+   * 単語ID毎のPositionLengthの値のPositionIncrement
+   *
+   * @param poslen  PositionLengthの値(0以上)
+   * @return  1:位置を進める(分割元の複合語以外, n-bestの位置の最初の形態素)/0:前のTokenと同じ位置
+   */
+  private static int positionIncrement(int poslen) {
+    return poslen == 0 || (poslen & POSITION_START) != 0 ? 1 : 0;
+  }
+
+  /**
+   * 正規化した入力の位置を元の入力の位置に変換する
+   */
+  private int inputOffset(int offset) {
+    return this.normalizedInput ? this.normalized.offset(offset) : offset;
+  }
+
   /**
    * 句読点判定
    * @see org.apache.lucene.analysis.ja.JapaneseTokenizer
@@ -24,7 +24,18 @@ import org.apache.lucene.analysis.util.ResourceLoaderAware;
 import org.apache.lucene.analysis.util.TokenizerFactory;
 import org.apache.lucene.util.AttributeFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
 import java.util.Map;
 
@@ -37,11 +48,18 @@ import java.util.Map;
  *       mode="NORMAL"
  *       userDictionary="user.dic"
  *       discardPunctuation="true"
+ *       nbestSize="1"
+ *       nbestCost="0"
  *     /&gt;
  *     &lt;filter class="org.apache.lucene.analysis.ja.JapaneseBaseFormFilterFactory"/&gt;
  *   &lt;/analyzer&gt;
  * &lt;/fieldType&gt;
  * </pre>
+ *
+ * <p>userDictionaryはファイルのpathで無い場合、{@link ResourceLoader}のリソース(Solrのconfディレクトリ等)として読み込み、
+ * 内容のハッシュ値を名前とするファイルに展開する(mecabはファイルのpathでのみユーザ辞書を読み込む為)。
+ * 展開先はJVM毎に作成する所有者のみ参照できる一時ディレクトリとし、展開済みのファイルは内容のハッシュ値を確認して使用する。
+ * 辞書は{@link #inform(ResourceLoader)}で読み込み、同じ辞書の指定はcore, fieldを跨いでModelを共有する。
  */
 public class MecabTokenizerFactory extends TokenizerFactory implements ResourceLoaderAware {
   private static final String MODE = "mode";
@@ -52,11 +70,25 @@ public class MecabTokenizerFactory extends TokenizerFactory implements ResourceL
 
   private static final String DISCARD_PUNCTUATION = "discardPunctuation";
 
+  private static final String NBEST_SIZE = "nbestSize";
+
+  private static final String NBEST_COST = "nbestCost";
+
+  /** リソースから展開したユーザ辞書の保存先の接頭辞 */
+  private static final String USER_DICT_DIR = "mecab-userdic";
+  /** リソースから展開したユーザ辞書の保存先(JVM毎に作成する) */
+  private static Path userDictionaryDir = null;
 
   private final Mode mode;
   private final boolean discardPunctuation;
   private final String userDictionaryPath;
   private final String dictionaryPath;
+  private final int nbestSize;
+  private final int nbestCost;
+  /** ユーザ辞書のファイルのpath(inform前は指定値) */
+  private volatile String userDictionaryFile;
+  /** Modelの参照(create()毎の読み込みを避ける。factoryがGCされた場合は解放する) */
+  private volatile MecabHandles.Owner model;
 
   /** 
    * Creates a new MecabTokenizerFactory 
@@ -69,6 +101,13 @@ public class MecabTokenizerFactory extends TokenizerFactory implements ResourceL
     userDictionaryPath = args.remove(USER_DICT_PATH);
     discardPunctuation = getBoolean(args, DISCARD_PUNCTUATION, true);
     dictionaryPath  = args.remove(DICT_PATH);
+    nbestSize = getInt(args, NBEST_SIZE, 1);
+    nbestCost = getInt(args, NBEST_COST, 0);
+    if (nbestSize < 1 || nbestSize > MecabTokenizer.MAX_NBEST_SIZE || nbestCost < 0) {
+      throw new IllegalArgumentException(NBEST_SIZE + " must be >= 1 and <= " + MecabTokenizer.MAX_NBEST_SIZE
+          + " and " + NBEST_COST + " must be >= 0: " + nbestSize + ", " + nbestCost);
+    }
+    userDictionaryFile = userDictionaryPath;
 
     if (!args.isEmpty()) {
       throw new IllegalArgumentException("Unknown parameters: " + args);
@@ -77,11 +116,96 @@ public class MecabTokenizerFactory extends TokenizerFactory implements ResourceL
   
   @Override
   public void inform(ResourceLoader loader) throws IOException {
+    if (userDictionaryPath != null) {
+      userDictionaryFile = resolveUserDictionary(loader, userDictionaryPath);
+    }
+    // 辞書の読み込み(辞書の誤りは起動時に検出する)
+    MecabHandles.Owner previous = model;
+    model = MecabTokenizer.retainModel(this, dictionaryPath, userDictionaryFile);
+    if (previous != null) {
+      previous.close();
+    }
+  }
+
+  /**
+   * ユーザ辞書のファイルのpathを取得する
+   *
+   * @param loader  リソースの読み込み
+   * @param name  userDictionaryの指定値
+   * @return  ファイルのpath
+   * @throws IOException  リソースの読み込みの例外
+   */
+  static String resolveUserDictionary(ResourceLoader loader, String name) throws IOException {
+    Path path = Paths.get(name);
+    if (Files.isRegularFile(path)) {
+      return path.toAbsolutePath().toString();
+    }
+    byte[] bytes;
+    try (InputStream in = loader.openResource(name)) {
+      bytes = readAll(in);
+    }
+    Path dir = userDictionaryDir();
+    String hash = sha256(bytes);
+    Path file = dir.resolve(hash + ".dic");
+    if (!Files.isRegularFile(file) || !hash.equals(sha256(Files.readAllBytes(file)))) {
+      // 他のcoreが読み込み中のファイルを書き換えない様に一時ファイルから移動する
+      Path temp = Files.createTempFile(dir, "userdic", ".tmp");
+      try {
+        Files.write(temp, bytes);
+        try {
+          Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+    return file.toString();
+  }
+
+  /**
+   * ユーザ辞書の展開先(無い場合は所有者のみ参照できる一時ディレクトリを作成する)
+   */
+  private static synchronized Path userDictionaryDir() throws IOException {
+    if (userDictionaryDir == null || !Files.isDirectory(userDictionaryDir)) {
+      Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
+      if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+        userDictionaryDir = Files.createTempDirectory(tmp, USER_DICT_DIR,
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+      } else {
+        userDictionaryDir = Files.createTempDirectory(tmp, USER_DICT_DIR);
+      }
+    }
+    return userDictionaryDir;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private static String sha256(byte[] bytes) {
+    try {
+      StringBuilder hex = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+        hex.append(String.format(Locale.ROOT, "%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
   }
 
   @Override
   public MecabTokenizer create(AttributeFactory factory) {
-    MecabTokenizer t = new MecabTokenizer(factory, dictionaryPath, userDictionaryPath, discardPunctuation, mode);
+    MecabTokenizer t = new MecabTokenizer(factory, dictionaryPath, userDictionaryFile, discardPunctuation, mode);
+    t.setNBest(nbestSize, nbestCost);
 
     return t;
   }
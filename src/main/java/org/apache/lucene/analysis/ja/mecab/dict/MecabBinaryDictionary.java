@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab.dict;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mecabのコンパイル済み辞書(sys.dic, unk.dic, ユーザ辞書)
+ *
+ * <p>ファイルをメモリマップし、Double-Arrayによる検索と形態素情報の参照を行う。
+ * 辞書の形式はMecab 0.996のdictionary.cppに準拠する。
+ *
+ * @author matsu
+ */
+public final class MecabBinaryDictionary {
+
+  /** 辞書ファイルのマジックID */
+  private static final int DICTIONARY_MAGIC_ID = 0xef718f77;
+  /** 辞書ファイルのバージョン */
+  private static final int DIC_VERSION = 102;
+  /** ヘッダサイズ(uint32 x 10 + 文字コード 32byte) */
+  private static final int HEADER_SIZE = 4 * 10 + 32;
+  /** Double-Arrayの要素サイズ(base, check) */
+  private static final int UNIT_SIZE = 8;
+  /** 形態素情報のサイズ(lcAttr, rcAttr, posid, wcost, feature, compound) */
+  private static final int TOKEN_SIZE = 16;
+
+  /** 辞書の種別(0:システム辞書/1:ユーザ辞書/2:未知語辞書) */
+  private final int type;
+  /** 登録語数 */
+  private final int lexsize;
+  /** 左文脈IDのサイズ */
+  private final int lsize;
+  /** 右文脈IDのサイズ */
+  private final int rsize;
+  /** 辞書の文字コード */
+  private final String charset;
+
+  /** Double-Array */
+  private final ByteBuffer da;
+  /** Double-Arrayの要素数 */
+  private final int daUnits;
+  /** 形態素情報 */
+  private final ByteBuffer tokens;
+  /** 素性情報 */
+  private final ByteBuffer features;
+  /** 復号した素性情報(形態素情報毎。最初の参照時に作成し、以降の解析では文字列を作成しない) */
+  private final String[] featureCache;
+  /** 復号した素性情報の文字数 */
+  private final LongAdder featureCacheChars = new LongAdder();
+
+  /**
+   * コンストラクタ
+   *
+   * @param buffer 辞書ファイルの内容
+   * @throws IOException  辞書の形式不正
+   */
+  MecabBinaryDictionary(ByteBuffer buffer) throws IOException {
+    ByteBuffer buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int size = buf.remaining();
+    if (size < HEADER_SIZE) {
+      throw new IOException("dictionary file is broken: too short");
+    }
+    int base = buf.position();
+    int magic = buf.getInt(base);
+    if ((magic ^ DICTIONARY_MAGIC_ID) != size) {
+      throw new IOException("dictionary file is broken: invalid magic");
+    }
+    int version = buf.getInt(base + 4);
+    if (version != DIC_VERSION) {
+      throw new IOException("incompatible dictionary version: " + version);
+    }
+    this.type = buf.getInt(base + 8);
+    this.lexsize = buf.getInt(base + 12);
+    this.lsize = buf.getInt(base + 16);
+    this.rsize = buf.getInt(base + 20);
+    int dsize = buf.getInt(base + 24);
+    int tsize = buf.getInt(base + 28);
+    int fsize = buf.getInt(base + 32);
+    if ((long) HEADER_SIZE + dsize + tsize + fsize > size) {
+      throw new IOException("dictionary file is broken: invalid size");
+    }
+
+    byte[] name = new byte[32];
+    for (int i = 0; i < name.length; i++) {
+      name[i] = buf.get(base + 40 + i);
+    }
+    this.charset = cString(name, 0, name.length);
+
+    this.da = slice(buf, base + HEADER_SIZE, dsize);
+    this.daUnits = dsize / UNIT_SIZE;
+    this.tokens = slice(buf, base + HEADER_SIZE + dsize, tsize);
+    this.features = slice(buf, base + HEADER_SIZE + dsize + tsize, fsize);
+    this.featureCache = new String[tsize / TOKEN_SIZE];
+  }
+
+  /**
+   * 辞書ファイルを開く
+   *
+   * @param path 辞書ファイル
+   * @return  辞書
+   * @throws IOException  読み込み例外
+   */
+  public static MecabBinaryDictionary open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new MecabBinaryDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } catch (IOException e) {
+      throw new IOException("failed to open mecab dictionary [" + path + "]: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * 辞書の文字コードがUTF-8かの判定
+   *
+   * @return  true:UTF-8/false:それ以外
+   */
+  public boolean isUtf8() {
+    String cs = this.charset.toLowerCase(Locale.ROOT);
+    return "utf-8".equals(cs) || "utf8".equals(cs);
+  }
+
+  public String getCharset() {
+    return this.charset;
+  }
+
+  public int getType() {
+    return this.type;
+  }
+
+  public int getLexsize() {
+    return this.lexsize;
+  }
+
+  public int getLsize() {
+    return this.lsize;
+  }
+
+  public int getRsize() {
+    return this.rsize;
+  }
+
+  /**
+   * 前方一致検索
+   *
+   * <p>結果は{@code results[2 * i]}に検索値、{@code results[2 * i + 1]}に一致したbyte長を格納する。
+   * 検索値は{@link #tokenIndex(int)}, {@link #tokenSize(int)}で形態素情報に変換する。
+   *
+   * @param key 検索文字列(Mecabに渡すbyte列)
+   * @param offset  開始位置
+   * @param length  検索対象のbyte長
+   * @param results 検索結果
+   * @param maxResults  格納する最大件数
+   * @return  格納した件数
+   */
+  public int commonPrefixSearch(byte[] key, int offset, int length, int[] results, int maxResults) {
+    int num = 0;
+    int b = base(0);
+    int p;
+    int n;
+    for (int i = 0; i < length; i++) {
+      p = b;
+      if (p < 0 || p >= this.daUnits) {
+        return num;
+      }
+      n = base(p);
+      if (b == check(p) && n < 0) {
+        if (num < maxResults) {
+          results[2 * num] = -n - 1;
+          results[2 * num + 1] = i;
+          num++;
+        }
+      }
+      p = b + (key[offset + i] & 0xff) + 1;
+      if (p >= 0 && p < this.daUnits && b == check(p)) {
+        b = base(p);
+      } else {
+        return num;
+      }
+    }
+    p = b;
+    if (p >= 0 && p < this.daUnits) {
+      n = base(p);
+      if (b == check(p) && n < 0 && num < maxResults) {
+        results[2 * num] = -n - 1;
+        results[2 * num + 1] = length;
+        num++;
+      }
+    }
+    return num;
+  }
+
+  /**
+   * 完全一致検索
+   *
+   * @param key 検索文字列
+   * @return  検索値。一致しない場合は-1
+   */
+  public int exactMatchSearch(byte[] key) {
+    int b = base(0);
+    int p;
+    for (int i = 0; i < key.length; i++) {
+      p = b + (key[i] & 0xff) + 1;
+      if (p >= 0 && p < this.daUnits && b == check(p)) {
+        b = base(p);
+      } else {
+        return -1;
+      }
+    }
+    p = b;
+    if (p >= 0 && p < this.daUnits) {
+      int n = base(p);
+      if (b == check(p) && n < 0) {
+        return -n - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * 検索値から形態素情報の開始位置を取得する
+   */
+  public static int tokenIndex(int value) {
+    return value >>> 8;
+  }
+
+  /**
+   * 検索値から形態素情報の件数を取得する
+   */
+  public static int tokenSize(int value) {
+    return value & 0xff;
+  }
+
+  /** 左文脈ID */
+  public int lcAttr(int token) {
+    return this.tokens.getShort(token * TOKEN_SIZE) & 0xffff;
+  }
+
+  /** 右文脈ID */
+  public int rcAttr(int token) {
+    return this.tokens.getShort(token * TOKEN_SIZE + 2) & 0xffff;
+  }
+
+  /** 品詞ID */
+  public int posid(int token) {
+    return this.tokens.getShort(token * TOKEN_SIZE + 4) & 0xffff;
+  }
+
+  /** 単語生起コスト */
+  public short wcost(int token) {
+    return this.tokens.getShort(token * TOKEN_SIZE + 6);
+  }
+
+  /**
+   * 素性情報
+   *
+   * @param token 形態素情報の位置
+   * @return  素性情報(CSV)
+   */
+  public String feature(int token) {
+    // 複数スレッドで同じ値を作成する場合があるが、結果は同じ
+    String cached = this.featureCache[token];
+    if (cached != null) {
+      return cached;
+    }
+    int start = this.tokens.getInt(token * TOKEN_SIZE + 8);
+    int end = start;
+    int limit = this.features.limit();
+    while (end < limit && this.features.get(end) != 0) {
+      end++;
+    }
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = this.features.get(start + i);
+    }
+    String feature = new String(bytes, StandardCharsets.UTF_8);
+    this.featureCache[token] = feature;
+    this.featureCacheChars.add(feature.length());
+    return feature;
+  }
+
+  /**
+   * 復号した素性情報の使用量の見積もり(heap)
+   */
+  public long featureCacheBytes() {
+    return RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+        + (long) this.featureCache.length * RamUsageEstimator.NUM_BYTES_OBJECT_REF
+        + 2 * this.featureCacheChars.sum();
+  }
+
+  private int base(int unit) {
+    return this.da.getInt(unit * UNIT_SIZE);
+  }
+
+  private int check(int unit) {
+    return this.da.getInt(unit * UNIT_SIZE + 4);
+  }
+
+  /**
+   * 指定範囲のbufferを切り出す
+   */
+  static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+    ByteBuffer dup = buf.duplicate();
+    dup.position(offset);
+    dup.limit(offset + length);
+    return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * NUL終端の文字列を取得する
+   */
+  static String cString(byte[] bytes, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && bytes[end] != 0) {
+      end++;
+    }
+    return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+  }
+}
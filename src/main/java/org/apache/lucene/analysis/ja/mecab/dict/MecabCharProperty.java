@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab.dict;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Mecabの文字種定義(char.bin)
+ *
+ * <p>文字種情報はMecabのCharInfoと同じbit配置のintで扱う。
+ * (type:18bit, default_type:8bit, length:4bit, group:1bit, invoke:1bit)
+ *
+ * @author matsu
+ */
+public final class MecabCharProperty {
+
+  /** 文字種情報の件数(UCS2) */
+  private static final int MAP_SIZE = 0xffff;
+  /** 文字種名のサイズ */
+  private static final int NAME_SIZE = 32;
+
+  /** 文字種名 */
+  private final String[] names;
+  /** 文字種情報 */
+  private final ByteBuffer map;
+
+  /**
+   * コンストラクタ
+   *
+   * @param buffer  char.binの内容
+   * @throws IOException  形式不正
+   */
+  MecabCharProperty(ByteBuffer buffer) throws IOException {
+    ByteBuffer buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int base = buf.position();
+    if (buf.remaining() < 4) {
+      throw new IOException("char property file is broken: too short");
+    }
+    int csize = buf.getInt(base);
+    if (csize < 0 || 4L + (long) NAME_SIZE * csize + 4L * MAP_SIZE != buf.remaining()) {
+      throw new IOException("char property file is broken: invalid size");
+    }
+    this.names = new String[csize];
+    byte[] name = new byte[NAME_SIZE];
+    for (int i = 0; i < csize; i++) {
+      for (int j = 0; j < NAME_SIZE; j++) {
+        name[j] = buf.get(base + 4 + NAME_SIZE * i + j);
+      }
+      this.names[i] = MecabBinaryDictionary.cString(name, 0, NAME_SIZE);
+    }
+    this.map = MecabBinaryDictionary.slice(buf, base + 4 + NAME_SIZE * csize, 4 * MAP_SIZE);
+  }
+
+  /**
+   * char.binを開く
+   *
+   * @param path  char.bin
+   * @return  文字種定義
+   * @throws IOException  読み込み例外
+   */
+  public static MecabCharProperty open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new MecabCharProperty(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } catch (IOException e) {
+      throw new IOException("failed to open mecab char property [" + path + "]: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * 文字種の数
+   */
+  public int size() {
+    return this.names.length;
+  }
+
+  /**
+   * 文字種名
+   *
+   * @param type  文字種番号
+   * @return  文字種名
+   */
+  public String name(int type) {
+    return this.names[type];
+  }
+
+  /**
+   * 文字種番号
+   *
+   * @param name  文字種名
+   * @return  文字種番号。定義されていない場合は-1
+   */
+  public int id(String name) {
+    for (int i = 0; i < this.names.length; i++) {
+      if (this.names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * 文字の文字種情報
+   *
+   * @param ucs2  文字(UCS2)
+   * @return  文字種情報
+   */
+  public int charInfo(int ucs2) {
+    if (ucs2 < 0 || ucs2 >= MAP_SIZE) {
+      return 0;
+    }
+    return this.map.getInt(ucs2 * 4);
+  }
+
+  /** 文字種(bit集合) */
+  public static int type(int info) {
+    return info & 0x3ffff;
+  }
+
+  /** 未知語の既定の文字種 */
+  public static int defaultType(int info) {
+    return (info >>> 18) & 0xff;
+  }
+
+  /** 未知語の文字数 */
+  public static int length(int info) {
+    return (info >>> 26) & 0xf;
+  }
+
+  /** 同じ文字種をまとめるか */
+  public static boolean group(int info) {
+    return ((info >>> 30) & 1) != 0;
+  }
+
+  /** 辞書にある場合も未知語処理を行うか */
+  public static boolean invoke(int info) {
+    return (info >>> 31) != 0;
+  }
+
+  /** 同じ文字種を含むか */
+  public static boolean isKindOf(int info1, int info2) {
+    return (type(info1) & type(info2)) != 0;
+  }
+}
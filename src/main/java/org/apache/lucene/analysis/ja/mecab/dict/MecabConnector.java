@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab.dict;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Mecabの連接コスト表(matrix.bin)
+ *
+ * @author matsu
+ */
+public final class MecabConnector {
+
+  /** 左文脈IDのサイズ */
+  private final int lsize;
+  /** 右文脈IDのサイズ */
+  private final int rsize;
+  /** 連接コスト */
+  private final ByteBuffer matrix;
+
+  /**
+   * コンストラクタ
+   *
+   * @param buffer  matrix.binの内容
+   * @throws IOException  形式不正
+   */
+  MecabConnector(ByteBuffer buffer) throws IOException {
+    ByteBuffer buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int base = buf.position();
+    if (buf.remaining() < 4) {
+      throw new IOException("matrix file is broken: too short");
+    }
+    this.lsize = buf.getShort(base) & 0xffff;
+    this.rsize = buf.getShort(base + 2) & 0xffff;
+    if ((2L + (long) this.lsize * this.rsize) * 2 != buf.remaining()) {
+      throw new IOException("matrix file is broken: invalid size");
+    }
+    this.matrix = MecabBinaryDictionary.slice(buf, base + 4, this.lsize * this.rsize * 2);
+  }
+
+  /**
+   * matrix.binを開く
+   *
+   * @param path  matrix.bin
+   * @return  連接コスト表
+   * @throws IOException  読み込み例外
+   */
+  public static MecabConnector open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new MecabConnector(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } catch (IOException e) {
+      throw new IOException("failed to open mecab matrix [" + path + "]: " + e.getMessage(), e);
+    }
+  }
+
+  public int getLsize() {
+    return this.lsize;
+  }
+
+  public int getRsize() {
+    return this.rsize;
+  }
+
+  /**
+   * 連接コスト
+   *
+   * @param rcAttr  左形態素の右文脈ID
+   * @param lcAttr  右形態素の左文脈ID
+   * @return  連接コスト
+   */
+  public int cost(int rcAttr, int lcAttr) {
+    return this.matrix.getShort((rcAttr + this.lsize * lcAttr) * 2);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab.dict;
+
+/**
+ * 辞書の種類毎の素性情報の項目位置
+ *
+ * <pre>
+ * juman 11
+ * 表層形,左文脈ID,右文脈ID,コスト,品詞,品詞細分類1,活用型,活用形,原形,読み,表記
+ * ipadic 13
+ * 表層形,左文脈ID,右文脈ID,コスト,品詞,品詞細分類1,品詞細分類2,品詞細分類3,活用形,活用型,原形,読み,発音
+ * unidic 21
+ * 表層形,左文脈ID,右文脈ID,コスト,品詞,品詞細分類1,品詞細分類2,品詞細分類3,活用型,活用形,語彙素読み,語彙素(語彙素表記 +
+ *   語彙素細分類),書字形出現形,発音形出現形,書字形基本形,発音形基本形,語種,語頭変化型,語頭変化形,語末変化型,語末変化形
+ * </pre>
+ *
+ * @author matsu
+ */
+public enum MecabFeatureLayout {
+  /** Juman */
+  JUMAN(2, 4, 5, 5, 2, 3),
+  /** ipadic */
+  IPADIC(4, 6, 7, 8, 5, 4),
+  /** unidic */
+  UNIDIC(4, 10, 6, 11, 4, 5);
+
+  /** 品詞の項目数 */
+  private final int partOfSpeechSize;
+  /** 原形 */
+  private final int baseForm;
+  /** 読み */
+  private final int reading;
+  /** 発音 */
+  private final int pronunciation;
+  /** 活用型 */
+  private final int inflectionType;
+  /** 活用形 */
+  private final int inflectionForm;
+
+  MecabFeatureLayout(int partOfSpeechSize, int baseForm, int reading, int pronunciation,
+      int inflectionType, int inflectionForm) {
+    this.partOfSpeechSize = partOfSpeechSize;
+    this.baseForm = baseForm;
+    this.reading = reading;
+    this.pronunciation = pronunciation;
+    this.inflectionType = inflectionType;
+    this.inflectionForm = inflectionForm;
+  }
+
+  /**
+   * 素性情報の数から辞書の種類を判定する
+   *
+   * @param size  素性情報の数
+   * @return  辞書種別
+   */
+  public static MecabFeatureLayout of(int size) {
+    if (size < 9) {
+      return JUMAN;
+    } else if (size < 17) {
+      return IPADIC;
+    }
+    return UNIDIC;
+  }
+
+  /** 品詞の項目数(先頭から) */
+  public int getPartOfSpeechSize() {
+    return this.partOfSpeechSize;
+  }
+
+  /** 原形の項目位置 */
+  public int getBaseForm() {
+    return this.baseForm;
+  }
+
+  /** 読みの項目位置 */
+  public int getReading() {
+    return this.reading;
+  }
+
+  /** 発音の項目位置 */
+  public int getPronunciation() {
+    return this.pronunciation;
+  }
+
+  /** 活用型の項目位置 */
+  public int getInflectionType() {
+    return this.inflectionType;
+  }
+
+  /** 活用形の項目位置 */
+  public int getInflectionForm() {
+    return this.inflectionForm;
+  }
+}
@@ -18,8 +18,12 @@
 package org.apache.lucene.analysis.ja.mecab.dict;
 
 import org.apache.lucene.analysis.ja.dict.Dictionary;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -27,114 +31,188 @@ import java.util.List;
 /**
  * Mecabの形態素結果をFilterにてtokenattributesにて参照する為の辞書
  * 
+ * <p>単語IDは登録順の番号とし、形態素情報は文書間で再利用する(定常状態では登録時にオブジェクトを作成しない)。
+ * 素性情報は参照された時点で解析する。
+ * 
  * @author matsu
  */
-public class MecabWorkDictionary implements Dictionary {
+public class MecabWorkDictionary implements Dictionary, Accountable {
     
-  HashMap<Integer, WorkDict> map = null ;
-  HashMap<String, List<WorkDict>> index = null ;
-  enum DicType {
-    // Juman
-    JUMAN,
-    // ipadic
-    IPADIC,
-    // unidic
-    UNIDOC,
-  }
+  /** 1件あたりの使用量(WorkDict) */
+  private static final long ENTRY_BYTES = RamUsageEstimator.shallowSizeOfInstance(WorkDict.class);
+
+  /** 形態素情報(単語ID順。文書間で再利用する) */
+  private WorkDict[] entries = new WorkDict[64];
+  /** 登録数 */
+  private int size = 0;
+  /** 作成した形態素情報の数 */
+  private int created = 0;
+  /** 表層形による索引(checkDictの呼び出し時に作成する) */
+  private HashMap<String, List<WorkDict>> index = null ;
+  /** 素性情報の文字数 */
+  private long featureChars = 0;
+  /** 素性情報の解析時間を計測する */
+  private boolean featureTiming = false;
+  /** 素性情報の解析時間(ns。{@link #clear()}まで) */
+  private long featureNanos = 0;
   
   /**
    * Mecab辞書の素性情報
    */
   class WorkDict {
-    WorkDict(
-        int id, 
-        String surface,
-        int posid,
-        long cost,
-        short wcost, 
-        List<String> features) {
-      this.id = id ;
-      this.surface = surface;
-      this.posid = posid;
-      this.cost = cost;
-      this.wcost = wcost;
-      this.features = new ArrayList<String>();
-      this.features.addAll(features);
-    }
-
     // 単語ID
     int id ;
-    // 表層形
-    String surface ;
+    // 入力文字列
+    char[] text ;
+    // 表層形の開始位置
+    int offset ;
+    // 表層形の長さ
+    int length ;
     // 形態素 ID
     int posid ;
+    // 形態素種別
+    int stat ;
     // 累積コスト
     long cost ;
     // 単語生起コスト
     short wcost ;
     
-    // 素性情報
+    // 素性情報(CSV。代替処理で作成したTokenはnull)
+    String feature ;
+    // 素性情報(未解析の場合はnull)
     List<String> features ;
-    
+
+    /** 表層形 */
+    String surface() {
+      return new String(this.text, this.offset, this.length);
+    }
+
+    /**
+     * 素性情報の取得(初回参照時に解析する)
+     */
+    List<String> features() {
+      if (this.features == null) {
+        long started = featureTiming ? System.nanoTime() : 0;
+        try {
+          this.features = parse(this.feature);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        if (featureTiming) {
+          featureNanos += System.nanoTime() - started;
+        }
+      }
+      return this.features;
+    }
   }
  
   /**
    * コンストラクタ
    */
   public MecabWorkDictionary() {
-    this.map = new HashMap<Integer, WorkDict>() ;
-    this.index = new HashMap<String, List<WorkDict>>() ;
   }
   
   /**
    * 辞書に追加
-   */
-  
-  /**
-   * 辞書に追加
-   * @param id  単語ID
-   * @param surface 表層形
+   *
+   * <p>入力文字列は{@link #clear()}まで参照する。
+   *
+   * @param text  入力文字列
+   * @param offset  表層形の開始位置
+   * @param length  表層形の長さ
    * @param posid 品詞ID
-   * @param cost  連結コスト
+   * @param stat  形態素種別
+   * @param cost  累積コスト
    * @param wcost 単語コスト
-   * @param feature 素性情報
-   * @throws IOException  例外
+   * @param feature 素性情報(代替処理で作成したTokenはnull)
+   * @return  単語ID
    */
-  public void add( 
-      int id,
-      String surface,
+  public int add(
+      char[] text,
+      int offset,
+      int length,
       int posid,
+      int stat,
       long cost,
       short wcost, 
-      String feature ) throws IOException {
-    
-    // feautureの解析
-    CSVTokenizer csv = new CSVTokenizer(feature);
-    List<String> features = new ArrayList<String>();
-    while (csv.hasMoreElement()) {
-      features.add(csv.nextElement());
+      String feature ) {
+    if (this.size == this.entries.length) {
+      this.entries = ArrayUtil.grow(this.entries, this.size + 1);
     }
-    WorkDict dic = new WorkDict(id, surface, posid, cost, wcost, features);
-    
-    this.map.put(id, dic);
-    
-    List<WorkDict> list = null ;
-    if( (list = this.index.get(surface)) == null ) {
-      list = new ArrayList<WorkDict>() ;
-    }
-    boolean add = true;
-    for( int i = 0 ; i < list.size() ; i++ ) {
-      if( list.get(i).features.toString().equals(features.toString()) ) {
-        add = false ;
-        break ;
-      }
+    WorkDict dic = this.entries[this.size];
+    if (dic == null) {
+      dic = new WorkDict();
+      this.entries[this.size] = dic;
+      this.created++;
     }
-    if( add ) {
-      list.add(dic);
+    dic.id = this.size;
+    dic.text = text;
+    dic.offset = offset;
+    dic.length = length;
+    dic.posid = posid;
+    dic.stat = stat;
+    dic.cost = cost;
+    dic.wcost = wcost;
+    dic.feature = feature;
+    dic.features = null;
+    if (feature != null) {
+      this.featureChars += feature.length();
     }
-    this.index.put(surface, list) ;
-    
+    this.index = null;
+    return this.size++;
+  }
+
+  /**
+   * 素性情報の解析時間の計測を設定する
+   *
+   * @param featureTiming true:計測する
+   */
+  public void setFeatureTiming(boolean featureTiming) {
+    this.featureTiming = featureTiming;
+  }
+
+  /**
+   * 素性情報の解析時間(ns)
+   */
+  public long getFeatureNanos() {
+    return this.featureNanos;
+  }
+
+  /** 登録数 */
+  public int size() {
+    return this.size;
+  }
+
+  /** 表層形の開始位置 */
+  public int getOffset(int wordId) {
+    return this.entries[wordId].offset;
+  }
+
+  /** 表層形の長さ */
+  public int getLength(int wordId) {
+    return this.entries[wordId].length;
+  }
+
+  /** 品詞ID */
+  public int getPosId(int wordId) {
+    return this.entries[wordId].posid;
   }
+
+  /** 形態素種別 */
+  public int getStat(int wordId) {
+    return this.entries[wordId].stat;
+  }
+
+  /** 累積コスト */
+  public long getCost(int wordId) {
+    return this.entries[wordId].cost;
+  }
+
+  /** 素性情報(CSV) */
+  public String getFeature(int wordId) {
+    return this.entries[wordId].feature;
+  }
+
   /**
    * 表層形と素性情報から辞書を検索する
    * @param surface 表層形
@@ -146,28 +224,99 @@ public class MecabWorkDictionary implements Dictionary {
     WorkDict dict = null ;
     List<WorkDict> list = null ;
     
-    CSVTokenizer csv = new CSVTokenizer(feature);
-    List<String> features = new ArrayList<String>();
-    while (csv.hasMoreElement()) {
-      features.add(csv.nextElement());
-    }
+    List<String> features = parse(feature);
 
-    if( (list = this.index.get(surface)) == null ) {
+    if( (list = index().get(surface)) == null ) {
       list = new ArrayList<WorkDict>() ;
     }
     for( int i = 0 ; i < list.size() ; i++ ) {
-      if( list.get(i).features.toString().equals(features.toString())  ) {
+      if( list.get(i).features().equals(features)  ) {
         dict = list.get(i) ;
         break ;
       }
     }
     return dict ;
   }
+
+  /**
+   * 表層形による索引(素性情報が同じ形態素は最初に登録したもののみ)
+   */
+  private HashMap<String, List<WorkDict>> index() {
+    if (this.index != null) {
+      return this.index;
+    }
+    this.index = new HashMap<String, List<WorkDict>>() ;
+    for (int i = 0; i < this.size; i++) {
+      WorkDict dic = this.entries[i];
+      if (dic.feature == null) {
+        continue;
+      }
+      List<WorkDict> list = this.index.computeIfAbsent(dic.surface(), k -> new ArrayList<WorkDict>());
+      boolean add = true;
+      for( int j = 0 ; j < list.size() ; j++ ) {
+        if( list.get(j).feature.equals(dic.feature) ) {
+          add = false ;
+          break ;
+        }
+      }
+      if( add ) {
+        list.add(dic);
+      }
+    }
+    return this.index;
+  }
   
+  /**
+   * 素性情報(CSV)の解析
+   * @param feature 素性情報
+   * @return  項目のリスト
+   * @throws IOException  feature が null
+   */
+  private static List<String> parse( String feature ) throws IOException {
+    CSVTokenizer csv = new CSVTokenizer(feature);
+    List<String> features = new ArrayList<String>();
+    while (csv.hasMoreElement()) {
+      features.add(csv.nextElement());
+    }
+    return features;
+  }
   
+  
+  /**
+   * 登録した形態素情報を破棄する(オブジェクトは再利用する)
+   */
   public void clear() {
-    this.map.clear();
-    this.index.clear();
+    for (int i = 0; i < this.size; i++) {
+      WorkDict dic = this.entries[i];
+      dic.text = null;
+      dic.feature = null;
+      dic.features = null;
+    }
+    this.size = 0;
+    this.index = null;
+    this.featureChars = 0;
+    this.featureNanos = 0;
+  }
+
+  /**
+   * 使用量の見積もり(再利用の為に保持する形態素情報を含む。素性情報の解析結果を除く)
+   */
+  @Override
+  public long ramBytesUsed() {
+    return RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) this.entries.length * RamUsageEstimator.NUM_BYTES_OBJECT_REF
+        + this.created * ENTRY_BYTES + 2L * this.featureChars;
+  }
+
+  /**
+   * 単語IDの形態素情報
+   *
+   * @return  形態素情報(登録されていない単語、代替処理で作成したTokenはnull)
+   */
+  private WorkDict entry(int wordId) {
+    if (wordId < 0 || wordId >= this.size || this.entries[wordId].feature == null) {
+      return null;
+    }
+    return this.entries[wordId];
   }
 
 
@@ -185,7 +334,7 @@ public class MecabWorkDictionary implements Dictionary {
 
   @Override
   public int getWordCost(int wordId) {
-    WorkDict work = this.map.get(wordId) ;
+    WorkDict work = entry(wordId) ;
     int cost = 0 ;
     if( work != null){
       cost = (int)work.wcost;
@@ -193,33 +342,6 @@ public class MecabWorkDictionary implements Dictionary {
     return cost;
   }
 
-  /**
-   * 素性情報の数から辞書の種類を判定する
-   * @param dic 辞書要素
-   * @return  辞書種別
-   */
-  private DicType getDicType( WorkDict dic ) {
-    // juman 11 
-    // 表層形,左文脈ID,右文脈ID,コスト,品詞,品詞細分類1,活用型,活用形,原形,読み,表記 
-    // ipadic 13
-    // 表層形,左文脈ID,右文脈ID,コスト,品詞,品詞細分類1,品詞細分類2,品詞細分類3,活用形,活用型,原形,読み,発音 
-    // unidic 21
-    // 表層形,左文脈ID,右文脈ID,コスト,品詞,品詞細分類1,品詞細分類2,品詞細分類3,活用型,活用形,語彙素読み,語彙素(語彙素表記 +
-    //   語彙素細分類),書字形出現形,発音形出現形,書字形基本形,発音形基本形,語種,語頭変化型,語頭変化形,語末変化型,語末変化形
-
-    int f_size = dic.features.size() ;
-    if (f_size < 9 ){
-      // juman
-      return DicType.JUMAN ;
-    } else if( f_size < 17 ) {
-      // ipadic
-      return DicType.IPADIC ;
-    } else {
-      // unidic
-      return DicType.UNIDOC ;
-    }
-  }
-
   /**
    * 品詞の取得
    * 
@@ -228,34 +350,38 @@ public class MecabWorkDictionary implements Dictionary {
   @Override
   public String getPartOfSpeech(int wordId) {
     
-    WorkDict work = this.map.get(wordId) ;
-    String type = new String( "" );
-    if( getDicType(work) == DicType.JUMAN ) {
-      if( work != null){
-        for( int i = 0 ; i < 2 ; i++ ) {
-          String pos = work.features.get(i);
-          if ( !"*".equals( pos ) ) {
-            if( i > 0 ) {
-              type += "-";
-            }
-            type += pos;
-          }
-        }
-      }
-    } else {
-      if( work != null){
-        for( int i = 0 ; i < 4 ; i++ ) {
-          String pos = work.features.get(i);
-          if ( !"*".equals( pos ) ) {
-            if( i > 0 ) {
-              type += "-";
-            }
-            type += pos;
-          }
+    WorkDict work = entry(wordId) ;
+    // 辞書に登録されていない単語(代替処理で作成したToken等)
+    if (work == null) {
+      return null;
+    }
+    return partOfSpeech(work.features());
+  }
+
+  /**
+   * 素性情報の文字列から品詞を取得する
+   *
+   * @param feature 素性情報
+   * @return  品詞(品詞細分類を"-"で連結。"*"の項目は除く)
+   * @throws IOException  素性情報の解析例外
+   */
+  public static String partOfSpeech(String feature) throws IOException {
+    return partOfSpeech(parse(feature));
+  }
+
+  private static String partOfSpeech(List<String> features) {
+    int size = Math.min(MecabFeatureLayout.of(features.size()).getPartOfSpeechSize(), features.size());
+    StringBuilder type = new StringBuilder();
+    for( int i = 0 ; i < size ; i++ ) {
+      String pos = features.get(i);
+      if ( !"*".equals( pos ) ) {
+        if( i > 0 ) {
+          type.append('-');
         }
+        type.append(pos);
       }
     }
-    return type;
+    return type.toString();
   }
   
   /**
@@ -263,23 +389,12 @@ public class MecabWorkDictionary implements Dictionary {
    */
   @Override
   public String getReading(int wordId, char[] surface, int off, int len) {
-    WorkDict work = this.map.get(wordId) ;
-    //logger.debug(work.features);
-    int index = 7 ;
-    switch(getDicType(work)){
-      case JUMAN :
-        index = 5 ;
-        break ;
-      case IPADIC :
-        index = 7 ;
-        break ;
-      case UNIDOC :
-        index = 6 ;
-        break ;
-      default:
-        break ;
+    WorkDict work = entry(wordId) ;
+    if (work == null) {
+      return null;
     }
-    return work.features.get(index);
+    List<String> features = work.features();
+    return features.get(MecabFeatureLayout.of(features.size()).getReading());
   }
 
 
@@ -288,23 +403,12 @@ public class MecabWorkDictionary implements Dictionary {
    */
   @Override
   public String getBaseForm(int wordId, char[] surface, int off, int len) {
-    WorkDict work = this.map.get(wordId) ;
-    //logger.debug(work.features);
-    int index = 6 ;
-    switch(getDicType(work)){
-      case JUMAN :
-        index = 4 ;
-        break ;
-      case IPADIC :
-        index = 6 ;
-        break ;
-      case UNIDOC :
-        index = 10 ;
-        break ;
-      default:
-        break ;
+    WorkDict work = entry(wordId) ;
+    if (work == null) {
+      return null;
     }
-    return work.features.get(index);
+    List<String> features = work.features();
+    return features.get(MecabFeatureLayout.of(features.size()).getBaseForm());
   }
 
 
@@ -313,23 +417,12 @@ public class MecabWorkDictionary implements Dictionary {
    */
   @Override
   public String getPronunciation(int wordId, char[] surface, int off, int len) {
-    WorkDict work = this.map.get(wordId) ;
-    //logger.debug(work.features);
-    int index = 8 ;
-    switch(getDicType(work)){
-      case JUMAN :
-        index = 5 ;
-        break ;
-      case IPADIC :
-        index = 8 ;
-        break ;
-      case UNIDOC :
-        index = 11 ;
-        break ;
-      default:
-        break ;
+    WorkDict work = entry(wordId) ;
+    if (work == null) {
+      return null;
     }
-    return work.features.get(index);
+    List<String> features = work.features();
+    return features.get(MecabFeatureLayout.of(features.size()).getPronunciation());
   }
 
   /**
@@ -337,23 +430,12 @@ public class MecabWorkDictionary implements Dictionary {
    */
   @Override
   public String getInflectionType(int wordId) {
-    WorkDict work = this.map.get(wordId) ;
-    //logger.debug(work.features);
-    int index = 5 ;
-    switch(getDicType(work)){
-      case JUMAN :
-        index = 2 ;
-        break ;
-      case IPADIC :
-        index = 5 ;
-        break ;
-      case UNIDOC :
-        index = 4 ;
-        break ;
-      default:
-        break ;
+    WorkDict work = entry(wordId) ;
+    if (work == null) {
+      return null;
     }
-    return work.features.get(index);
+    List<String> features = work.features();
+    return features.get(MecabFeatureLayout.of(features.size()).getInflectionType());
   }
 
 
@@ -362,22 +444,12 @@ public class MecabWorkDictionary implements Dictionary {
    */
   @Override
   public String getInflectionForm(int wordId) {
-    WorkDict work = this.map.get(wordId) ;
-    int index = 4 ;
-    switch(getDicType(work)){
-      case JUMAN :
-        index = 3 ;
-        break ;
-      case IPADIC :
-        index = 4 ;
-        break ;
-      case UNIDOC :
-        index = 5 ;
-        break ;
-      default:
-        break ;
+    WorkDict work = entry(wordId) ;
+    if (work == null) {
+      return null;
     }
-    return work.features.get(index);
+    List<String> features = work.features();
+    return features.get(MecabFeatureLayout.of(features.size()).getInflectionForm());
   }
   
   /**
@@ -385,7 +457,7 @@ public class MecabWorkDictionary implements Dictionary {
    * 
    * @author matsu
    */
-  class CSVTokenizer {
+  static class CSVTokenizer {
     /** CSVの1レコード（１行）データ */
     private String source = null;
 
@@ -450,7 +522,7 @@ public class MecabWorkDictionary implements Dictionary {
      */
     public String nextElement() {
       int i = 0;
-      StringBuffer buffer = new StringBuffer();
+      StringBuilder buffer = new StringBuilder();
       boolean data = false;
 
       for (i = 0; (i + this.currentPotision) < this.maxPotiosion; i++) {
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab.tokenattributes;
+
+import org.apache.lucene.util.Attribute;
+
+/**
+ * Mecabの形態素情報(品詞ID, 形態素種別, コスト, 素性情報)
+ *
+ * <p>kuromojiの{@link org.apache.lucene.analysis.ja.dict.Dictionary}を経由せず、
+ * 形態素毎の素性情報を項目単位で参照する。
+ * 値が"*"の項目及び存在しない項目は、各項目の取得メソッドでnullを返す。
+ *
+ * @author matsu
+ */
+public interface MecabFeatureAttribute extends Attribute {
+
+  /** 品詞ID */
+  int getPosId();
+
+  /** 形態素種別(0:通常, 1:未知語, 2:文頭, 3:文末) */
+  int getStat();
+
+  /** 累積コスト */
+  long getCost();
+
+  /** 単語生起コスト */
+  short getWordCost();
+
+  /** 素性情報(CSV)。形態素情報が無い場合はnull */
+  String getFeature();
+
+  /** 素性情報の項目数 */
+  int getFeatureSize();
+
+  /**
+   * 素性情報の項目
+   *
+   * @param column  項目位置
+   * @return  項目の値(存在しない場合はnull)
+   */
+  String getFeature(int column);
+
+  /**
+   * 素性情報の項目の内容を格納したバッファ
+   *
+   * <p>各項目は{@link #getFeatureOffset(int)}, {@link #getFeatureLength(int)}の範囲となる。
+   */
+  char[] getFeatureBuffer();
+
+  /** 素性情報の項目の開始位置 */
+  int getFeatureOffset(int column);
+
+  /** 素性情報の項目の長さ */
+  int getFeatureLength(int column);
+
+  /**
+   * 原形の項目位置
+   *
+   * @return  項目位置(値が無い場合は-1)
+   */
+  int getBaseFormColumn();
+
+  /**
+   * 読みの項目位置
+   *
+   * @return  項目位置(値が無い場合は-1)
+   */
+  int getReadingColumn();
+
+  /** 品詞(品詞細分類を"-"で連結) */
+  String getPartOfSpeech();
+
+  /**
+   * 品詞(品詞細分類を"-"で連結)を格納したバッファ
+   *
+   * <p>内容は先頭から{@link #getPartOfSpeechLength()}の範囲となる。
+   * {@link #getPartOfSpeech()}と異なり文字列を作成しない。
+   */
+  char[] getPartOfSpeechBuffer();
+
+  /** 品詞の長さ(形態素情報が無い場合は-1) */
+  int getPartOfSpeechLength();
+
+  /** 原形 */
+  String getBaseForm();
+
+  /** 読み */
+  String getReading();
+
+  /** 発音 */
+  String getPronunciation();
+
+  /** 活用型 */
+  String getInflectionType();
+
+  /** 活用形 */
+  String getInflectionForm();
+
+  /**
+   * 形態素情報の設定
+   *
+   * @param posid 品詞ID
+   * @param stat  形態素種別
+   * @param cost  累積コスト
+   * @param wcost 単語生起コスト
+   * @param feature 素性情報(CSV)
+   */
+  void setFeature(int posid, int stat, long cost, short wcost, String feature);
+}
@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.analysis.ja.mecab.tokenattributes;
+
+import org.apache.lucene.analysis.ja.mecab.dict.MecabFeatureLayout;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.AttributeImpl;
+import org.apache.lucene.util.AttributeReflector;
+
+/**
+ * {@link MecabFeatureAttribute}の実装
+ *
+ * <p>素性情報は最初に項目が参照された時点で1度だけ解析し、
+ * 全項目を1つのバッファに連続して格納する(項目毎の文字列は作成しない)。
+ * バッファはインスタンス毎に再利用する。
+ *
+ * @author matsu
+ */
+public class MecabFeatureAttributeImpl extends AttributeImpl implements MecabFeatureAttribute {
+
+  private int posid = 0;
+  private int stat = 0;
+  private long cost = 0;
+  private short wcost = 0;
+  private String feature = null;
+
+  /** 素性情報を解析済みか */
+  private boolean parsed = false;
+  /** 項目の内容(CSVのクォートは除去済み) */
+  private char[] buffer = new char[64];
+  /** 項目の終了位置(項目cは ends[c-1] から ends[c] まで) */
+  private int[] ends = new int[16];
+  /** 項目数 */
+  private int size = 0;
+  /** 辞書種別 */
+  private MecabFeatureLayout layout = null;
+  /** 品詞(品詞細分類を"-"で連結) */
+  private char[] partOfSpeech = new char[32];
+  /** 品詞の長さ(未作成の場合は-2) */
+  private int partOfSpeechLength = -2;
+
+  @Override
+  public int getPosId() {
+    return this.posid;
+  }
+
+  @Override
+  public int getStat() {
+    return this.stat;
+  }
+
+  @Override
+  public long getCost() {
+    return this.cost;
+  }
+
+  @Override
+  public short getWordCost() {
+    return this.wcost;
+  }
+
+  @Override
+  public String getFeature() {
+    return this.feature;
+  }
+
+  @Override
+  public int getFeatureSize() {
+    parse();
+    return this.size;
+  }
+
+  @Override
+  public String getFeature(int column) {
+    parse();
+    if (column < 0 || column >= this.size) {
+      return null;
+    }
+    return new String(this.buffer, getFeatureOffset(column), getFeatureLength(column));
+  }
+
+  @Override
+  public char[] getFeatureBuffer() {
+    parse();
+    return this.buffer;
+  }
+
+  @Override
+  public int getFeatureOffset(int column) {
+    parse();
+    return column == 0 ? 0 : this.ends[column - 1];
+  }
+
+  @Override
+  public int getFeatureLength(int column) {
+    parse();
+    return this.ends[column] - getFeatureOffset(column);
+  }
+
+  @Override
+  public int getBaseFormColumn() {
+    parse();
+    return this.layout == null ? -1 : valueColumn(this.layout.getBaseForm());
+  }
+
+  @Override
+  public int getReadingColumn() {
+    parse();
+    return this.layout == null ? -1 : valueColumn(this.layout.getReading());
+  }
+
+  @Override
+  public String getPartOfSpeech() {
+    int length = getPartOfSpeechLength();
+    return length < 0 ? null : new String(this.partOfSpeech, 0, length);
+  }
+
+  @Override
+  public char[] getPartOfSpeechBuffer() {
+    getPartOfSpeechLength();
+    return this.partOfSpeech;
+  }
+
+  @Override
+  public int getPartOfSpeechLength() {
+    if (this.partOfSpeechLength != -2) {
+      return this.partOfSpeechLength;
+    }
+    parse();
+    if (this.layout == null) {
+      this.partOfSpeechLength = -1;
+      return -1;
+    }
+    // MecabWorkDictionaryと同じ形式とする
+    int posSize = Math.min(this.layout.getPartOfSpeechSize(), this.size);
+    int length = 0;
+    for (int i = 0; i < posSize; i++) {
+      if (!isAsterisk(i)) {
+        int columnLength = getFeatureLength(i);
+        this.partOfSpeech = ArrayUtil.grow(this.partOfSpeech, length + columnLength + 1);
+        if (i > 0) {
+          this.partOfSpeech[length++] = '-';
+        }
+        System.arraycopy(this.buffer, getFeatureOffset(i), this.partOfSpeech, length, columnLength);
+        length += columnLength;
+      }
+    }
+    this.partOfSpeechLength = length;
+    return length;
+  }
+
+  @Override
+  public String getBaseForm() {
+    return getBaseFormColumn() < 0 ? null : getFeature(getBaseFormColumn());
+  }
+
+  @Override
+  public String getReading() {
+    return getReadingColumn() < 0 ? null : getFeature(getReadingColumn());
+  }
+
+  @Override
+  public String getPronunciation() {
+    parse();
+    return this.layout == null ? null : value(this.layout.getPronunciation());
+  }
+
+  @Override
+  public String getInflectionType() {
+    parse();
+    return this.layout == null ? null : value(this.layout.getInflectionType());
+  }
+
+  @Override
+  public String getInflectionForm() {
+    parse();
+    return this.layout == null ? null : value(this.layout.getInflectionForm());
+  }
+
+  @Override
+  public void setFeature(int posid, int stat, long cost, short wcost, String feature) {
+    this.posid = posid;
+    this.stat = stat;
+    this.cost = cost;
+    this.wcost = wcost;
+    this.feature = feature;
+    this.parsed = false;
+    this.partOfSpeechLength = -2;
+  }
+
+  /**
+   * 値のある項目位置
+   *
+   * @return  項目位置(存在しない項目、"*"の場合は-1)
+   */
+  private int valueColumn(int column) {
+    return column < this.size && !isAsterisk(column) ? column : -1;
+  }
+
+  /**
+   * 項目の値
+   *
+   * @return  値(存在しない項目、"*"の場合はnull)
+   */
+  private String value(int column) {
+    return valueColumn(column) < 0 ? null : getFeature(column);
+  }
+
+  private boolean isAsterisk(int column) {
+    return getFeatureLength(column) == 1 && this.buffer[getFeatureOffset(column)] == '*';
+  }
+
+  /**
+   * 素性情報(CSV)の解析
+   *
+   * <p>MecabWorkDictionaryのCSV解析と同じ規則(ダブルクォートによる囲み、
+   * ダブルクォート2つによるエスケープ)で項目に分割する。
+   */
+  private void parse() {
+    if (this.parsed) {
+      return;
+    }
+    this.parsed = true;
+    this.size = 0;
+    this.layout = null;
+    if (this.feature == null) {
+      return;
+    }
+    String source = this.feature;
+    int max = source.length();
+    if (this.buffer.length < max) {
+      this.buffer = new char[ArrayUtil.oversize(max, Character.BYTES)];
+    }
+    int length = 0;
+    int pos = 0;
+    while (pos < max) {
+      boolean data = false;
+      while (pos < max) {
+        char ch = source.charAt(pos);
+        if (!data && ch == ',') {
+          pos++;
+          break;
+        } else if (ch == '\"') {
+          if (pos + 1 < max && source.charAt(pos + 1) == '\"') {
+            // ダブルクォーテーションが２回続く場合は１つにする
+            this.buffer[length++] = ch;
+            pos += 2;
+            continue;
+          }
+          data = !data;
+        } else {
+          this.buffer[length++] = ch;
+        }
+        pos++;
+      }
+      if (this.size == this.ends.length) {
+        this.ends = ArrayUtil.grow(this.ends, this.size + 1);
+      }
+      this.ends[this.size++] = length;
+    }
+    this.layout = MecabFeatureLayout.of(this.size);
+  }
+
+  @Override
+  public void clear() {
+    setFeature(0, 0, 0, (short) 0, null);
+  }
+
+  @Override
+  public void copyTo(AttributeImpl target) {
+    MecabFeatureAttribute t = (MecabFeatureAttribute) target;
+    t.setFeature(this.posid, this.stat, this.cost, this.wcost, this.feature);
+  }
+
+  @Override
+  public MecabFeatureAttributeImpl clone() {
+    MecabFeatureAttributeImpl t = (MecabFeatureAttributeImpl) super.clone();
+    // バッファは共有しない
+    t.buffer = this.buffer.clone();
+    t.ends = this.ends.clone();
+    t.partOfSpeech = this.partOfSpeech.clone();
+    return t;
+  }
+
+  @Override
+  public void reflectWith(AttributeReflector reflector) {
+    reflector.reflect(MecabFeatureAttribute.class, "posId", this.posid);
+    reflector.reflect(MecabFeatureAttribute.class, "stat", this.stat);
+    reflector.reflect(MecabFeatureAttribute.class, "cost", this.cost);
+    reflector.reflect(MecabFeatureAttribute.class, "wordCost", this.wcost);
+    reflector.reflect(MecabFeatureAttribute.class, "feature", this.feature);
+  }
+}
@@ -24,6 +24,7 @@ import org.apache.lucene.analysis.ja.JapaneseAnalyzer;
 import org.apache.lucene.analysis.ja.JapaneseTokenizer;
 import org.apache.lucene.analysis.ja.dict.UserDictionary;
 import org.apache.lucene.analysis.ja.mecab.MecabAnalyzer;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.IndexSettings;
@@ -34,23 +35,106 @@ import java.util.Set;
  */
 public class MecabAnalyzerProvider extends AbstractIndexAnalyzerProvider<MecabAnalyzer> {
 
+    private static final String FUSED_FILTER_OPTION = "fused_filter";
+
+    /** node内で共有するanalyzerの使用量を計上する所有者 */
+    static final String SHARED_MEMORY_OWNER = "_shared";
+
+    /** 既定の設定のanalyzer(node内の全indexで共有する。未作成の場合はnull) */
+    private static MecabAnalyzer sharedAnalyzer = null;
+
     private final MecabAnalyzer analyzer;
 
     public MecabAnalyzerProvider(IndexSettings indexSettings, Environment env, String name, Settings settings) {
         super(indexSettings, name, settings);
+        analyzer = createAnalyzer(env, settings);
+        analyzer.setMemoryOwner(index().getName());
+    }
+
+    /**
+     * {@code mecab} analyzerのproviderを作成する
+     *
+     * <p>既定の設定(typeのみ、またはindexで宣言せずに参照する{@code mecab})の場合は、
+     * node内で共有するanalyzerを返す(indexのclose時には解放しない)。
+     *
+     * @param indexSettings indexの設定
+     * @param env 環境
+     * @param name  analyzer名
+     * @param settings  analyzerの設定
+     * @return  provider
+     */
+    public static AnalyzerProvider<MecabAnalyzer> create(IndexSettings indexSettings, Environment env, String name,
+            Settings settings) {
+        if (isDefault(settings)) {
+            return new SharedAnalyzerProvider(name, sharedAnalyzer(env));
+        }
+        return new MecabAnalyzerProvider(indexSettings, env, name, settings);
+    }
+
+    /**
+     * 既定の設定か(type, index.version.created以外の設定が無い)
+     */
+    static boolean isDefault(Settings settings) {
+        for (String key : settings.getAsMap().keySet()) {
+            if ("type".equals(key) == false && IndexMetaData.SETTING_VERSION_CREATED.equals(key) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * node内で共有するanalyzerを取得する(無い場合は作成する)
+     */
+    private static synchronized MecabAnalyzer sharedAnalyzer(Environment env) {
+        if (sharedAnalyzer == null) {
+            MecabAnalyzer created = createAnalyzer(env, Settings.EMPTY);
+            created.setMemoryOwner(SHARED_MEMORY_OWNER);
+            sharedAnalyzer = created;
+        }
+        return sharedAnalyzer;
+    }
+
+    /**
+     * node内で共有するanalyzerを解放する(nodeの停止時)
+     */
+    public static synchronized void closeSharedAnalyzer() {
+        if (sharedAnalyzer != null) {
+            sharedAnalyzer.close();
+            sharedAnalyzer = null;
+        }
+    }
+
+    /**
+     * 設定から{@code mecab} analyzerを作成する
+     *
+     * @param env 環境(stopwords_path等の参照に使用)
+     * @param settings  analyzerの設定
+     * @return  analyzer
+     */
+    public static MecabAnalyzer createAnalyzer(Environment env, Settings settings) {
         final Set<?> stopWords = Analysis.parseStopWords(env, settings, JapaneseAnalyzer.getDefaultStopSet());
         final JapaneseTokenizer.Mode mode = MecabTokenizerFactory.getMode(settings);
         final boolean discardPunctuation = MecabTokenizerFactory.getDiscartPunctuation(settings);
 
-        final String dictionaryPath = MecabTokenizerFactory.getDictionaryPath(settings);
-        final String userDictionaryFile = MecabTokenizerFactory.getUserDictionaryFile(settings) ;
-        analyzer = new MecabAnalyzer(
+        final String dictionaryPath = MecabTokenizerFactory.getDictionaryPath(env, settings);
+        final String userDictionaryFile = MecabTokenizerFactory.getUserDictionaryFile(env, settings) ;
+        MecabAnalyzer analyzer = new MecabAnalyzer(
                 dictionaryPath, 
                 userDictionaryFile, 
                 discardPunctuation, 
                 mode, 
                 CharArraySet.copy(stopWords), 
-                JapaneseAnalyzer.getDefaultStopTags());
+                JapaneseAnalyzer.getDefaultStopTags(),
+                MecabTokenizerFactory.getLimits(settings));
+        analyzer.setFormattedParse(MecabTokenizerFactory.getFormattedParse(settings));
+        analyzer.setScriptRouting(MecabTokenizerFactory.getScriptRouting(settings));
+        analyzer.setNormalization(MecabTokenizerFactory.getNormalization(settings));
+        analyzer.setSharedParse(MecabTokenizerFactory.getSharedParse(settings));
+        analyzer.setAnalysisCache(MecabTokenizerFactory.getAnalysisCache(settings));
+        analyzer.setEngine(MecabTokenizerFactory.getEngine(settings));
+        analyzer.setFusedFilter(settings.getAsBoolean(FUSED_FILTER_OPTION, false));
+        return analyzer;
     }
 
     @Override
@@ -58,5 +142,34 @@ public class MecabAnalyzerProvider extends AbstractIndexAnalyzerProvider<MecabAn
         return this.analyzer;
     }
 
+    /**
+     * node内で共有するanalyzerのprovider(scopeがINDEXで無い為、indexのclose時に解放しない)
+     */
+    static final class SharedAnalyzerProvider implements AnalyzerProvider<MecabAnalyzer> {
+
+        private final String name;
+        private final MecabAnalyzer analyzer;
+
+        SharedAnalyzerProvider(String name, MecabAnalyzer analyzer) {
+            this.name = name;
+            this.analyzer = analyzer;
+        }
+
+        @Override
+        public String name() {
+            return this.name;
+        }
+
+        @Override
+        public AnalyzerScope scope() {
+            return AnalyzerScope.INDICES;
+        }
+
+        @Override
+        public MecabAnalyzer get() {
+            return this.analyzer;
+        }
+    }
+
 
 }
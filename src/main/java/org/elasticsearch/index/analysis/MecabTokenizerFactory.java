@@ -22,30 +22,71 @@ package org.elasticsearch.index.analysis;
 import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.ja.JapaneseTokenizer;
 import org.apache.lucene.analysis.ja.JapaneseTokenizer.Mode;
+import org.apache.lucene.analysis.ja.mecab.MecabLimits;
+import org.apache.lucene.analysis.ja.mecab.MecabNormalization;
 import org.apache.lucene.analysis.ja.mecab.MecabTokenizer;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.IndexSettings;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public class MecabTokenizerFactory extends AbstractTokenizerFactory {
 
   private static final String USER_DICT_OPTION = "user_dictionary";
   private static final String DICT_OPTION = "dictionary_path";
   private static final String MODE_OPTION = "mode";
   private static final String DISCARD_PUNCTUATION_OPTION = "discard_punctuation";
+  private static final String MAX_LATTICE_CHARS_OPTION = "max_lattice_chars";
+  private static final String MAX_DECOMPOSE_CANDIDATES_OPTION = "max_decompose_candidates";
+  private static final String MAX_ANALYSIS_TIME_OPTION = "max_analysis_time";
+  private static final String LIMIT_FALLBACK_OPTION = "limit_fallback";
+  private static final String FORMATTED_PARSE_OPTION = "formatted_parse";
+  private static final String ENGINE_OPTION = "engine";
+  private static final String SCRIPT_ROUTING_OPTION = "script_routing";
+  private static final String NORMALIZE_OPTION = "normalize";
+  private static final String SHARED_PARSE_OPTION = "shared_parse";
+  private static final String ANALYSIS_CACHE_OPTION = "analysis_cache";
+  private static final String STOP_TAGS_OPTION = "stoptags";
+  private static final String NBEST_SIZE_OPTION = "nbest_size";
+  private static final String NBEST_COST_OPTION = "nbest_cost";
 
   private final Mode mode;
   private final String dictionaryPath;
   private final String userDictionaryFile;
   private boolean discartPunctuation;
+  private final MecabLimits limits;
+  private final boolean formattedParse;
+  private final MecabTokenizer.Engine engine;
+  private final boolean scriptRouting;
+  private final MecabNormalization normalization;
+  private final boolean sharedParse;
+  private final boolean analysisCache;
+  private final Set<String> stopTags;
+  private final int nbestSize;
+  private final int nbestCost;
 
 
   public MecabTokenizerFactory(IndexSettings indexSettings, Environment env, String name, Settings settings) {
         super(indexSettings, name, settings);
         this.mode = getMode( settings );
-        this.dictionaryPath = getDictionaryPath( settings );
-        this.userDictionaryFile = getUserDictionaryFile( settings ) ;
+        this.dictionaryPath = getDictionaryPath( env, settings );
+        this.userDictionaryFile = getUserDictionaryFile( env, settings ) ;
         this.discartPunctuation = getDiscartPunctuation( settings );
+        this.limits = getLimits( settings );
+        this.formattedParse = getFormattedParse( settings );
+        this.engine = getEngine( settings );
+        this.scriptRouting = getScriptRouting( settings );
+        this.normalization = getNormalization( settings );
+        this.sharedParse = getSharedParse( settings );
+        this.analysisCache = getAnalysisCache( settings );
+        this.stopTags = getStopTags( env, settings );
+        this.nbestSize = getNBestSize( settings );
+        this.nbestCost = getNBestCost( settings );
 
     }
 
@@ -53,12 +94,45 @@ public class MecabTokenizerFactory extends AbstractTokenizerFactory {
     return settings.getAsBoolean(DISCARD_PUNCTUATION_OPTION, true);
   }
   
-  public static String getDictionaryPath( Settings settings ) {
-    return settings.get(DICT_OPTION, null);
+  /**
+   * 辞書のディレクトリ(相対パスはelasticsearchの設定ディレクトリから)
+   *
+   * @param env 環境(nullの場合は指定値のまま)
+   * @param settings  tokenizerの設定
+   * @return  辞書のディレクトリ(指定が無い場合はnull)
+   */
+  public static String getDictionaryPath( Environment env, Settings settings ) {
+    return resolveConfigFiles(env, settings.get(DICT_OPTION, null));
+  }
+
+  /**
+   * ユーザ辞書ファイル(カンマ区切りで複数指定可。相対パスはelasticsearchの設定ディレクトリから)
+   *
+   * @param env 環境(nullの場合は指定値のまま)
+   * @param settings  tokenizerの設定
+   * @return  ユーザ辞書ファイル(指定が無い場合はnull)
+   */
+  public static String getUserDictionaryFile( Environment env, Settings settings ) {
+    return resolveConfigFiles(env, settings.get(USER_DICT_OPTION, null));
   }
 
-  public static String getUserDictionaryFile( Settings settings ) {
-    return settings.get(USER_DICT_OPTION, null);
+  /**
+   * カンマ区切りのpathの相対パスを設定ディレクトリから解決する
+   */
+  private static String resolveConfigFiles(Environment env, String paths) {
+    if (env == null || paths == null) {
+      return paths;
+    }
+    StringBuilder resolved = new StringBuilder();
+    for (String path : paths.split(",")) {
+      if (resolved.length() > 0) {
+        resolved.append(',');
+      }
+      if (path.trim().isEmpty() == false) {
+        resolved.append(env.configFile().resolve(path.trim()).toAbsolutePath().normalize());
+      }
+    }
+    return resolved.toString();
   }
 
   public static JapaneseTokenizer.Mode getMode(Settings settings) {
@@ -76,13 +150,154 @@ public class MecabTokenizerFactory extends AbstractTokenizerFactory {
     return mode;
   }
 
+  public static MecabLimits getLimits(Settings settings) {
+    int maxLatticeChars = settings.getAsInt(MAX_LATTICE_CHARS_OPTION, 0);
+    int maxDecomposeCandidates = settings.getAsInt(MAX_DECOMPOSE_CANDIDATES_OPTION, 0);
+    TimeValue maxAnalysisTime = settings.getAsTime(MAX_ANALYSIS_TIME_OPTION, TimeValue.timeValueMillis(0));
+    MecabLimits.Fallback fallback = MecabLimits.Fallback.NORMAL;
+    String fallbackSetting = settings.get(LIMIT_FALLBACK_OPTION, null);
+    if (fallbackSetting != null) {
+      if ("bigram".equalsIgnoreCase(fallbackSetting)) {
+        fallback = MecabLimits.Fallback.BIGRAM;
+      } else if (!"normal".equalsIgnoreCase(fallbackSetting)) {
+        throw new IllegalArgumentException("unknown " + LIMIT_FALLBACK_OPTION + " [" + fallbackSetting
+            + "], must be one of [normal, bigram]");
+      }
+    }
+    return new MecabLimits(maxLatticeChars, maxDecomposeCandidates, maxAnalysisTime.millis(), fallback);
+  }
+
+  public static boolean getFormattedParse(Settings settings) {
+    return settings.getAsBoolean(FORMATTED_PARSE_OPTION, false);
+  }
+
+  public static boolean getScriptRouting(Settings settings) {
+    return settings.getAsBoolean(SCRIPT_ROUTING_OPTION, false);
+  }
+
+  public static boolean getSharedParse(Settings settings) {
+    return settings.getAsBoolean(SHARED_PARSE_OPTION, true);
+  }
+
+  public static boolean getAnalysisCache(Settings settings) {
+    return settings.getAsBoolean(ANALYSIS_CACHE_OPTION, true);
+  }
+
+  /**
+   * 除外する品詞({@code stoptags}または{@code stoptags_path}。{@code mecab_part_of_speech}と同じ形式)
+   *
+   * @param env 環境(stoptags_pathの参照に使用。nullの場合はstoptagsのみ)
+   * @param settings  tokenizerの設定
+   * @return  除外する品詞(指定が無い場合は空)
+   */
+  public static Set<String> getStopTags(Environment env, Settings settings) {
+    List<String> tags;
+    if (env == null) {
+      if (settings.get(STOP_TAGS_OPTION + "_path") != null) {
+        throw new IllegalArgumentException("[" + STOP_TAGS_OPTION + "_path] is not supported here, use ["
+            + STOP_TAGS_OPTION + "]");
+      }
+      tags = Arrays.asList(settings.getAsArray(STOP_TAGS_OPTION));
+    } else {
+      tags = Analysis.getWordList(env, settings, STOP_TAGS_OPTION);
+    }
+    return tags == null ? new HashSet<>() : new HashSet<>(tags);
+  }
+
+  /**
+   * n-bestのToken graphで取得する分割数の上限(1は最適解のみ)
+   */
+  public static int getNBestSize(Settings settings) {
+    int size = settings.getAsInt(NBEST_SIZE_OPTION, 1);
+    if (size < 1 || size > MecabTokenizer.MAX_NBEST_SIZE) {
+      throw new IllegalArgumentException("[" + NBEST_SIZE_OPTION + "] must be >= 1 and <= "
+          + MecabTokenizer.MAX_NBEST_SIZE + ": " + size);
+    }
+    return size;
+  }
+
+  /**
+   * n-bestのToken graphで最適解のコストとの差の上限(0は無制限)
+   */
+  public static int getNBestCost(Settings settings) {
+    int cost = settings.getAsInt(NBEST_COST_OPTION, 0);
+    if (cost < 0) {
+      throw new IllegalArgumentException("[" + NBEST_COST_OPTION + "] must be >= 0: " + cost);
+    }
+    return cost;
+  }
+
+  public static MecabNormalization getNormalization(Settings settings) {
+    boolean iterationMark = false;
+    boolean nfkc = false;
+    boolean width = false;
+    for (String value : settings.getAsArray(NORMALIZE_OPTION)) {
+      if ("iteration_mark".equalsIgnoreCase(value)) {
+        iterationMark = true;
+      } else if ("nfkc".equalsIgnoreCase(value)) {
+        nfkc = true;
+      } else if ("width".equalsIgnoreCase(value)) {
+        width = true;
+      } else {
+        throw new IllegalArgumentException("unknown " + NORMALIZE_OPTION + " [" + value
+            + "], must be one of [iteration_mark, nfkc, width]");
+      }
+    }
+    return new MecabNormalization(iterationMark, iterationMark, nfkc, width);
+  }
+
+  public static MecabTokenizer.Engine getEngine(Settings settings) {
+    String engineSetting = settings.get(ENGINE_OPTION, null);
+    if (engineSetting == null || "native".equalsIgnoreCase(engineSetting)) {
+      return MecabTokenizer.Engine.NATIVE;
+    } else if ("java".equalsIgnoreCase(engineSetting)) {
+      return MecabTokenizer.Engine.JAVA;
+    }
+    throw new IllegalArgumentException("unknown " + ENGINE_OPTION + " [" + engineSetting
+        + "], must be one of [native, java]");
+  }
+
+  /**
+   * 設定から{@code mecab_tokenizer}を作成する
+   *
+   * @param settings  tokenizerの設定
+   * @return  tokenizer
+   */
+  public static MecabTokenizer createTokenizer(Settings settings) {
+    MecabTokenizer t = new MecabTokenizer(
+                          getDictionaryPath(null, settings),
+                          getUserDictionaryFile(null, settings),
+                          getDiscartPunctuation(settings),
+                          getMode(settings),
+                          getEngine(settings));
+    t.setLimits(getLimits(settings));
+    t.setFormattedParse(getFormattedParse(settings));
+    t.setScriptRouting(getScriptRouting(settings));
+    t.setNormalization(getNormalization(settings));
+    t.setSharedParse(getSharedParse(settings));
+    t.setAnalysisCache(getAnalysisCache(settings));
+    t.setStopTags(getStopTags(null, settings));
+    t.setNBest(getNBestSize(settings), getNBestCost(settings));
+    return t;
+  }
+
   @Override
   public Tokenizer create() {
     MecabTokenizer t = new MecabTokenizer( 
                           this.dictionaryPath, 
                           this.userDictionaryFile, 
                           this.discartPunctuation, 
-                          this.mode );
+                          this.mode,
+                          this.engine );
+    t.setLimits(this.limits);
+    t.setFormattedParse(this.formattedParse);
+    t.setScriptRouting(this.scriptRouting);
+    t.setNormalization(this.normalization);
+    t.setSharedParse(this.sharedParse);
+    t.setAnalysisCache(this.analysisCache);
+    t.setStopTags(this.stopTags);
+    t.setNBest(this.nbestSize, this.nbestCost);
+    t.setMemoryOwner(index().getName());
 
     return t;
   }
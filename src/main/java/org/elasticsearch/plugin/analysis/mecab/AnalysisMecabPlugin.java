@@ -20,6 +20,26 @@
 package org.elasticsearch.plugin.analysis.mecab;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.ja.mecab.MecabAnalysisCache;
+import org.apache.lucene.analysis.ja.mecab.MecabConcurrency;
+import org.apache.lucene.analysis.ja.mecab.MecabDecompositionCache;
+import org.apache.lucene.analysis.ja.mecab.MecabHandles;
+import org.apache.lucene.analysis.ja.mecab.MecabMemory;
+import org.apache.lucene.analysis.ja.mecab.MecabSlowLog;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.analysis.AnalyzerProvider;
 import org.elasticsearch.index.analysis.CharFilterFactory;
 import org.elasticsearch.index.analysis.MecabAnalyzerProvider;
@@ -28,20 +48,150 @@ import org.elasticsearch.index.analysis.MecabIterationMarkCharFilterFactory;
 import org.elasticsearch.index.analysis.MecabKatakanaStemmerFactory;
 import org.elasticsearch.index.analysis.MecabNumberFilterFactory;
 import org.elasticsearch.index.analysis.MecabPartOfSpeechFilterFactory;
+import org.elasticsearch.index.analysis.MecabPreAnalyzedTokenizerFactory;
 import org.elasticsearch.index.analysis.MecabReadingFormFilterFactory;
 import org.elasticsearch.index.analysis.MecabTokenizerFactory;
 import org.elasticsearch.index.analysis.TokenFilterFactory;
 import org.elasticsearch.index.analysis.TokenizerFactory;
 import org.elasticsearch.indices.analysis.AnalysisModule.AnalysisProvider;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.AnalysisPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import static java.util.Collections.singletonMap;
 
-public class AnalysisMecabPlugin extends Plugin implements AnalysisPlugin {
+public class AnalysisMecabPlugin extends Plugin implements AnalysisPlugin, ActionPlugin, IngestPlugin {
+
+    /** node全体のlatticeの使用量の見積もりの上限(0は無制限) */
+    public static final Setting<ByteSizeValue> BREAKER_LIMIT_SETTING =
+            Setting.byteSizeSetting("mecab.breaker.limit", new ByteSizeValue(0), Property.Dynamic, Property.NodeScope);
+    /** 上限を超えた場合の処理(chunk / reject) */
+    public static final Setting<MecabMemory.Action> BREAKER_ACTION_SETTING =
+            new Setting<>("mecab.breaker.action", "chunk", AnalysisMecabPlugin::parseBreakerAction,
+                    Property.Dynamic, Property.NodeScope);
+    /** nativeオブジェクトの作成時のスタックトレースを記録し、解放されずにGCされた場合にログに出力する */
+    public static final Setting<Boolean> LEAK_DETECTION_SETTING =
+            Setting.boolSetting("mecab.native.leak_detection", false, Property.Dynamic, Property.NodeScope);
+    /** SEARCH/EXTENDEDモードの複合語の分割結果のキャッシュの上限件数(0はキャッシュしない) */
+    public static final Setting<Integer> DECOMPOSITION_CACHE_SIZE_SETTING =
+            Setting.intSetting("mecab.decomposition_cache.size", MecabDecompositionCache.DEFAULT_MAX_ENTRIES, 0,
+                    Property.Dynamic, Property.NodeScope);
+
+    /** 文単位の解析結果の永続キャッシュのディレクトリ(空の場合はキャッシュしない。path.data内のみ。相対パスは最初のpath.dataから) */
+    public static final Setting<String> ANALYSIS_CACHE_PATH_SETTING =
+            Setting.simpleString("mecab.analysis_cache.path", Property.NodeScope);
+    /** 文単位の解析結果の永続キャッシュのファイル(解析設定毎)の上限サイズ */
+    public static final Setting<ByteSizeValue> ANALYSIS_CACHE_MAX_SIZE_SETTING =
+            Setting.byteSizeSetting("mecab.analysis_cache.max_size", new ByteSizeValue(MecabAnalysisCache.DEFAULT_MAX_BYTES),
+                    Property.NodeScope);
+
+    /** 解析時間がこの値以上の文書をslow logに出力する(負の値は出力しない) */
+    public static final Setting<TimeValue> SLOWLOG_THRESHOLD_SETTING =
+            Setting.timeSetting("mecab.slowlog.threshold", TimeValue.MINUS_ONE, TimeValue.MINUS_ONE,
+                    Property.Dynamic, Property.NodeScope);
+    /** slow logに出力する入力の先頭の文字数(0は出力しない) */
+    public static final Setting<Integer> SLOWLOG_SOURCE_SETTING =
+            Setting.intSetting("mecab.slowlog.source", 0, 0, Property.Dynamic, Property.NodeScope);
+
+    /** node全体のMecab解析の同時実行数の上限(0は無制限) */
+    public static final Setting<Integer> CONCURRENCY_SIZE_SETTING =
+            Setting.intSetting("mecab.concurrency.size", 0, 0, Property.Dynamic, Property.NodeScope);
+    /** 同時実行数の上限を超えて待機する解析の上限(-1は無制限) */
+    public static final Setting<Integer> CONCURRENCY_QUEUE_SIZE_SETTING =
+            Setting.intSetting("mecab.concurrency.queue_size", -1, -1, Property.Dynamic, Property.NodeScope);
+
+    /** ingest processorのfactory(終了時にanalyzerを解放する) */
+    private volatile MecabAnalyzeProcessor.Factory processorFactory = null;
+
+    public AnalysisMecabPlugin() {
+        this(Settings.EMPTY);
+    }
+
+    public AnalysisMecabPlugin(Settings settings) {
+        MecabMemory.configure(BREAKER_LIMIT_SETTING.get(settings).getBytes(), BREAKER_ACTION_SETTING.get(settings));
+        MecabHandles.setLeakDetection(LEAK_DETECTION_SETTING.get(settings));
+        MecabDecompositionCache.setMaxEntries(DECOMPOSITION_CACHE_SIZE_SETTING.get(settings));
+        MecabSlowLog.configure(SLOWLOG_THRESHOLD_SETTING.get(settings).nanos(), SLOWLOG_SOURCE_SETTING.get(settings));
+        MecabConcurrency.configure(CONCURRENCY_SIZE_SETTING.get(settings), CONCURRENCY_QUEUE_SIZE_SETTING.get(settings));
+        String cachePath = ANALYSIS_CACHE_PATH_SETTING.get(settings);
+        if (cachePath.isEmpty() == false) {
+            MecabAnalysisCache.configure(resolveAnalysisCachePath(new Environment(settings), cachePath),
+                    ANALYSIS_CACHE_MAX_SIZE_SETTING.get(settings).getBytes());
+        }
+    }
+
+    /**
+     * 永続キャッシュのディレクトリを解決する
+     *
+     * <p>キャッシュは古い版のファイルを削除する為、elasticsearchが書き込み・削除を許可しているpath.data内のディレクトリに限る。
+     *
+     * @param env 環境
+     * @param cachePath {@code mecab.analysis_cache.path}の設定値
+     * @return  ディレクトリ
+     * @throws IllegalArgumentException path.data内のディレクトリではない
+     */
+    public static Path resolveAnalysisCachePath(Environment env, String cachePath) {
+        Path[] dataFiles = env.dataFiles();
+        Path resolved = dataFiles[0].toAbsolutePath().resolve(cachePath).normalize();
+        for (Path data : dataFiles) {
+            Path root = data.toAbsolutePath().normalize();
+            if (resolved.startsWith(root) && resolved.equals(root) == false) {
+                return resolved;
+            }
+        }
+        throw new IllegalArgumentException("[" + ANALYSIS_CACHE_PATH_SETTING.getKey() + "] must be a directory under "
+                + "path.data " + Arrays.toString(dataFiles) + ": " + cachePath);
+    }
+
+    private static MecabMemory.Action parseBreakerAction(String value) {
+        if ("chunk".equalsIgnoreCase(value)) {
+            return MecabMemory.Action.CHUNK;
+        } else if ("reject".equalsIgnoreCase(value)) {
+            return MecabMemory.Action.REJECT;
+        }
+        throw new IllegalArgumentException("Unknown value [" + value + "] for [mecab.breaker.action], must be chunk or reject");
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(BREAKER_LIMIT_SETTING, BREAKER_ACTION_SETTING, LEAK_DETECTION_SETTING,
+                DECOMPOSITION_CACHE_SIZE_SETTING, ANALYSIS_CACHE_PATH_SETTING, ANALYSIS_CACHE_MAX_SIZE_SETTING,
+                SLOWLOG_THRESHOLD_SETTING, SLOWLOG_SOURCE_SETTING, CONCURRENCY_SIZE_SETTING, CONCURRENCY_QUEUE_SIZE_SETTING);
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+            ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+            NamedXContentRegistry xContentRegistry) {
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(BREAKER_LIMIT_SETTING, BREAKER_ACTION_SETTING,
+                (limit, action) -> MecabMemory.configure(limit.getBytes(), action));
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(LEAK_DETECTION_SETTING,
+                MecabHandles::setLeakDetection);
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(DECOMPOSITION_CACHE_SIZE_SETTING,
+                MecabDecompositionCache::setMaxEntries);
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(SLOWLOG_THRESHOLD_SETTING, SLOWLOG_SOURCE_SETTING,
+                (threshold, source) -> MecabSlowLog.configure(threshold.nanos(), source));
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(CONCURRENCY_SIZE_SETTING,
+                CONCURRENCY_QUEUE_SIZE_SETTING, MecabConcurrency::configure);
+        return Collections.emptyList();
+    }
     @Override
     public Map<String, AnalysisProvider<CharFilterFactory>> getCharFilters() {
         return singletonMap("mecab_iteration_mark", MecabIterationMarkCharFilterFactory::new);
@@ -62,12 +212,40 @@ public class AnalysisMecabPlugin extends Plugin implements AnalysisPlugin {
 
     @Override
     public Map<String, AnalysisProvider<TokenizerFactory>> getTokenizers() {
-        return singletonMap("mecab_tokenizer", MecabTokenizerFactory::new);
+        Map<String, AnalysisProvider<TokenizerFactory>> extra = new HashMap<>();
+        extra.put("mecab_tokenizer", MecabTokenizerFactory::new);
+        extra.put("mecab_preanalyzed", MecabPreAnalyzedTokenizerFactory::new);
+        return extra;
     }
 
     @Override
     public Map<String, AnalysisProvider<AnalyzerProvider<? extends Analyzer>>> getAnalyzers() {
-        return singletonMap("mecab", MecabAnalyzerProvider::new);
+        return singletonMap("mecab", MecabAnalyzerProvider::create);
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+            IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+            IndexNameExpressionResolver indexNameExpressionResolver, Supplier<DiscoveryNodes> nodesInCluster) {
+        return Arrays.asList(new RestMecabStatsAction(settings, restController),
+                new RestMecabExplainAction(settings, restController));
+    }
+
+    @Override
+    public void close() throws IOException {
+        MecabAnalyzeProcessor.Factory factory = processorFactory;
+        if (factory != null) {
+            factory.close();
+        }
+        MecabAnalyzerProvider.closeSharedAnalyzer();
+        MecabAnalysisCache.close();
+    }
+
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        MecabAnalyzeProcessor.Factory factory = new MecabAnalyzeProcessor.Factory(parameters.env);
+        processorFactory = factory;
+        return singletonMap(MecabAnalyzeProcessor.TYPE, factory);
     }
     
 }
@@ -0,0 +1,210 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.plugin.analysis.mecab;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.ja.mecab.MecabAnalyzer;
+import org.apache.lucene.analysis.ja.mecab.MecabPreAnalyzedFormat;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.analysis.MecabAnalyzerProvider;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.ingest.ConfigurationUtils.newConfigurationException;
+import static org.elasticsearch.ingest.ConfigurationUtils.readBooleanProperty;
+import static org.elasticsearch.ingest.ConfigurationUtils.readOptionalMap;
+import static org.elasticsearch.ingest.ConfigurationUtils.readStringProperty;
+
+/**
+ * ingest nodeでMecabの解析を行い、解析済みTokenを文書のfieldに格納するprocessor
+ *
+ * <p>格納した値は{@code mecab_preanalyzed} tokenizerでMecabを使用せずにindexできる。
+ * 形式は{@link MecabPreAnalyzedFormat}を参照。
+ */
+public final class MecabAnalyzeProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "mecab";
+
+    /** processorのanalyzerの使用量を計上する所有者 */
+    static final String MEMORY_OWNER = "_ingest";
+
+    private final String field;
+    private final String targetField;
+    private final boolean features;
+    private final boolean ignoreMissing;
+    private final MecabAnalyzer analyzer;
+
+    MecabAnalyzeProcessor(String tag, String field, String targetField, boolean features, boolean ignoreMissing,
+            MecabAnalyzer analyzer) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.features = features;
+        this.ignoreMissing = ignoreMissing;
+        this.analyzer = analyzer;
+    }
+
+    String getField() {
+        return field;
+    }
+
+    String getTargetField() {
+        return targetField;
+    }
+
+    @Override
+    public void execute(IngestDocument document) throws Exception {
+        Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+        if (value == null) {
+            if (ignoreMissing) {
+                return;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot be analyzed.");
+        }
+        if (value instanceof List) {
+            List<String> values = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                // nullの要素は解析しない
+                if (element != null) {
+                    values.add(analyze(element.toString()));
+                }
+            }
+            document.setFieldValue(targetField, values);
+        } else {
+            document.setFieldValue(targetField, analyze(value.toString()));
+        }
+    }
+
+    /**
+     * 解析を行い、解析済みTokenの文字列表現を返す
+     *
+     * @param text  解析する文字列
+     * @return  解析済みTokenの文字列表現
+     */
+    String analyze(String text) throws IOException {
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            stream.reset();
+            String encoded = MecabPreAnalyzedFormat.encode(stream, text.length(), features);
+            stream.end();
+            return encoded;
+        }
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory, Closeable {
+
+        /** 保持するanalyzerの上限(設定の異なるprocessorの数) */
+        static final int MAX_ANALYZERS = 16;
+
+        private final Environment env;
+        /**
+         * 設定毎のanalyzer(pipelineの再作成時に再利用する)
+         *
+         * <p>上限を超えた場合は最も長く使用されていない設定を除く。除いたanalyzerは作成済みのprocessorが
+         * 使用している場合がある為closeせず、GCによりnativeリソースを解放する({@link org.apache.lucene.analysis.ja.mecab.MecabHandles})。
+         */
+        private final Map<Settings, MecabAnalyzer> analyzers = new LinkedHashMap<Settings, MecabAnalyzer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Settings, MecabAnalyzer> eldest) {
+                return size() > MAX_ANALYZERS;
+            }
+        };
+
+        public Factory(Environment env) {
+            this.env = env;
+        }
+
+        @Override
+        public MecabAnalyzeProcessor create(Map<String, Processor.Factory> registry, String tag,
+                Map<String, Object> config) throws Exception {
+            String field = readStringProperty(TYPE, tag, config, "field");
+            String targetField = readStringProperty(TYPE, tag, config, "target_field", field + "_tokens");
+            boolean features = readBooleanProperty(TYPE, tag, config, "features", false);
+            boolean ignoreMissing = readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+            Map<String, Object> analyzerConfig = readOptionalMap(TYPE, tag, config, "analyzer");
+            MecabAnalyzer analyzer;
+            try {
+                Settings analyzerSettings = toSettings(analyzerConfig);
+                synchronized (analyzers) {
+                    analyzer = analyzers.computeIfAbsent(analyzerSettings, settings -> {
+                        MecabAnalyzer created = MecabAnalyzerProvider.createAnalyzer(env, settings);
+                        created.setMemoryOwner(MEMORY_OWNER);
+                        return created;
+                    });
+                }
+            } catch (IllegalArgumentException e) {
+                throw newConfigurationException(TYPE, tag, "analyzer", e);
+            }
+            return new MecabAnalyzeProcessor(tag, field, targetField, features, ignoreMissing, analyzer);
+        }
+
+        /**
+         * 保持しているanalyzerのnativeリソースを解放する(pluginの終了時)
+         */
+        @Override
+        public void close() {
+            synchronized (analyzers) {
+                for (MecabAnalyzer analyzer : analyzers.values()) {
+                    analyzer.close();
+                }
+                analyzers.clear();
+            }
+        }
+
+        /**
+         * processorの{@code analyzer}の設定を{@code mecab} analyzerの設定に変換する
+         */
+        static Settings toSettings(Map<String, Object> config) {
+            Settings.Builder builder = Settings.builder();
+            if (config == null) {
+                return builder.build();
+            }
+            for (Map.Entry<String, Object> entry : config.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof List) {
+                    List<?> list = (List<?>) value;
+                    String[] values = new String[list.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = String.valueOf(list.get(i));
+                    }
+                    builder.putArray(entry.getKey(), values);
+                } else if (value instanceof Map) {
+                    throw new IllegalArgumentException("[" + entry.getKey() + "] must not be an object");
+                } else {
+                    builder.put(entry.getKey(), String.valueOf(value));
+                }
+            }
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.plugin.analysis.mecab;
+
+import org.apache.lucene.analysis.ja.mecab.MecabExplain;
+import org.apache.lucene.analysis.ja.mecab.MecabTokenizer;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttribute;
+import org.apache.lucene.analysis.ja.tokenattributes.PartOfSpeechAttribute;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.analysis.MecabTokenizerFactory;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * リクエストを受けたnodeで文字列を解析し、解析の詳細(lattice, 最適解, 分割候補, 処理毎の時間)を返す
+ *
+ * <p>チューニング用の診断APIであり、解析結果の共有・永続キャッシュ・分割結果のキャッシュは使用しない。
+ * 解析はnetwork threadではなく{@code search} thread poolで行う(同時実行数の上限では検索時の解析として扱う)。
+ * 辞書・実行エンジンはnodeで読み込み済みのもの以外を読み込ませない為、既定の辞書・実行エンジンのみとする。
+ */
+public class RestMecabExplainAction extends BaseRestHandler {
+
+    /** 解析する文字列の最大文字数 */
+    public static final int MAX_TEXT_CHARS = 10000;
+
+    /** nativeリソースの使用量を計上する所有者 */
+    static final String MEMORY_OWNER = "_explain";
+
+    /** {@code nbest_size}の上限 */
+    public static final int MAX_NBEST_SIZE = 10;
+
+    /** 指定できない{@code tokenizer}の設定(辞書・実行エンジン) */
+    private static final String[] REJECTED_SETTINGS = {"dictionary_path", "user_dictionary", "engine"};
+
+    public RestMecabExplainAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(GET, "/_mecab/explain", this);
+        controller.registerHandler(POST, "/_mecab/explain", this);
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        if (request.hasContent() == false) {
+            throw new IllegalArgumentException("request body is required");
+        }
+        Map<String, Object> body;
+        try (XContentParser parser = request.contentParser()) {
+            body = parser.map();
+        }
+        Object text = null;
+        Object tokenizer = null;
+        for (Map.Entry<String, Object> entry : body.entrySet()) {
+            if ("text".equals(entry.getKey())) {
+                text = entry.getValue();
+            } else if ("tokenizer".equals(entry.getKey())) {
+                tokenizer = entry.getValue();
+            } else {
+                throw new IllegalArgumentException("unknown field [" + entry.getKey() + "], must be one of [text, tokenizer]");
+            }
+        }
+        if (text instanceof String == false) {
+            throw new IllegalArgumentException("[text] is required and must be a string");
+        }
+        if (tokenizer != null && tokenizer instanceof Map == false) {
+            throw new IllegalArgumentException("[tokenizer] must be an object");
+        }
+        String source = (String) text;
+        if (source.length() > MAX_TEXT_CHARS) {
+            throw new IllegalArgumentException("[text] must not exceed " + MAX_TEXT_CHARS + " chars: " + source.length());
+        }
+        @SuppressWarnings("unchecked")
+        Settings tokenizerSettings = MecabAnalyzeProcessor.Factory.toSettings((Map<String, Object>) tokenizer);
+        validate(tokenizerSettings);
+        return channel -> client.threadPool().executor(ThreadPool.Names.SEARCH).execute(new AbstractRunnable() {
+            @Override
+            protected void doRun() throws Exception {
+                XContentBuilder builder = channel.newBuilder();
+                builder.startObject();
+                builder.field("node", Node.NODE_NAME_SETTING.get(settings));
+                MecabExplain explain = explain(source, tokenizerSettings, builder);
+                for (Map.Entry<String, Object> entry : explain.toMap().entrySet()) {
+                    builder.field(entry.getKey(), entry.getValue());
+                }
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                try {
+                    channel.sendResponse(new BytesRestResponse(channel, e));
+                } catch (IOException inner) {
+                    inner.addSuppressed(e);
+                    logger.warn("failed to send mecab explain failure response", inner);
+                }
+            }
+        });
+    }
+
+    /**
+     * {@code tokenizer}の設定を検証する
+     *
+     * @param tokenizerSettings {@code mecab_tokenizer}の設定
+     * @throws IllegalArgumentException 辞書・実行エンジンの指定、{@code nbest_size}が上限を超える
+     */
+    public static void validate(Settings tokenizerSettings) {
+        for (String key : REJECTED_SETTINGS) {
+            if (tokenizerSettings.get(key) != null) {
+                throw new IllegalArgumentException("[tokenizer." + key + "] is not supported, "
+                        + "explain uses the default dictionary and engine of the node");
+            }
+        }
+        int nbestSize = MecabTokenizerFactory.getNBestSize(tokenizerSettings);
+        if (nbestSize > MAX_NBEST_SIZE) {
+            throw new IllegalArgumentException("[tokenizer.nbest_size] must be <= " + MAX_NBEST_SIZE + ": " + nbestSize);
+        }
+    }
+
+    /**
+     * 文字列を解析し、Tokenを出力する
+     *
+     * @param source  解析する文字列
+     * @param tokenizerSettings {@code mecab_tokenizer}の設定
+     * @param builder Tokenの出力先
+     * @return  解析の詳細
+     */
+    static MecabExplain explain(String source, Settings tokenizerSettings, XContentBuilder builder) throws IOException {
+        MecabExplain explain = new MecabExplain();
+        MecabTokenizer tokenizer = MecabTokenizerFactory.createTokenizer(tokenizerSettings);
+        try {
+            tokenizer.setSharedParse(false);
+            tokenizer.setAnalysisCache(false);
+            tokenizer.setMemoryOwner(MEMORY_OWNER);
+            tokenizer.setExplain(explain);
+            CharTermAttribute termAtt = tokenizer.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offsetAtt = tokenizer.addAttribute(OffsetAttribute.class);
+            PositionIncrementAttribute posIncAtt = tokenizer.addAttribute(PositionIncrementAttribute.class);
+            PositionLengthAttribute posLengthAtt = tokenizer.addAttribute(PositionLengthAttribute.class);
+            PartOfSpeechAttribute posAtt = tokenizer.addAttribute(PartOfSpeechAttribute.class);
+            MecabFeatureAttribute featureAtt = tokenizer.addAttribute(MecabFeatureAttribute.class);
+            tokenizer.setReader(new StringReader(source));
+            tokenizer.reset();
+            builder.startArray("tokens");
+            int position = -1;
+            while (tokenizer.incrementToken()) {
+                position += posIncAtt.getPositionIncrement();
+                builder.startObject();
+                builder.field("token", termAtt.toString());
+                builder.field("start_offset", offsetAtt.startOffset());
+                builder.field("end_offset", offsetAtt.endOffset());
+                builder.field("position", position);
+                builder.field("position_length", posLengthAtt.getPositionLength());
+                builder.field("part_of_speech", posAtt.getPartOfSpeech());
+                builder.field("posid", featureAtt.getPosId());
+                builder.field("cost", featureAtt.getCost());
+                builder.field("word_cost", featureAtt.getWordCost());
+                builder.endObject();
+            }
+            builder.endArray();
+            tokenizer.end();
+            tokenizer.close();
+        } finally {
+            tokenizer.release();
+        }
+        return explain;
+    }
+}
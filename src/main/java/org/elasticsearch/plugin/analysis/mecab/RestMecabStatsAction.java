@@ -0,0 +1,73 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.plugin.analysis.mecab;
+
+import org.apache.lucene.analysis.ja.mecab.MecabAnalysisCache;
+import org.apache.lucene.analysis.ja.mecab.MecabConcurrency;
+import org.apache.lucene.analysis.ja.mecab.MecabDecompositionCache;
+import org.apache.lucene.analysis.ja.mecab.MecabHandles;
+import org.apache.lucene.analysis.ja.mecab.MecabMemory;
+import org.apache.lucene.analysis.ja.mecab.MecabStats;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * リクエストを受けたnodeのMecab解析の統計情報を返す
+ */
+public class RestMecabStatsAction extends BaseRestHandler {
+
+    public RestMecabStatsAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(GET, "/_mecab/stats", this);
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        return channel -> {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("node", Node.NODE_NAME_SETTING.get(settings));
+            builder.startObject("stats");
+            for (Map.Entry<String, Long> entry : MecabStats.snapshot().entrySet()) {
+                builder.field(entry.getKey(), entry.getValue());
+            }
+            builder.endObject();
+            builder.field("memory", MecabMemory.snapshot());
+            builder.field("native", MecabHandles.snapshot());
+            builder.field("concurrency", MecabConcurrency.snapshot());
+            builder.field("decomposition_cache", MecabDecompositionCache.snapshot());
+            builder.field("analysis_cache", MecabAnalysisCache.snapshot());
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.ja.mecab.MecabAnalyzer;
+import org.apache.lucene.analysis.ja.mecab.MecabTokenizer;
+import org.elasticsearch.common.SuppressForbidden;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.test.IndexSettingsModule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * mecab analyzerのベンチマーク(単体テストでは実行しない)
+ *
+ * <p>{@code gradle benchmark}で実行し、結果を標準出力に出力する。
+ * 引数で実行する項目を指定する(省略時は全て)。
+ * <ul>
+ *   <li>scaling: 共有したanalyzer・TokenizerFactoryを1～CPU数×2のスレッドで使用し、
+ *   スレッド数毎のスループット(tokens/s)を出力する。解析結果は単一スレッドの結果と比較する
+ *   <li>fused: 6段のfilterと{@link MecabAnalyzer#setFusedFilter(boolean)}の1段のfilterの
+ *   Tokenあたりの処理時間(ns)を出力する。解析結果は両者で比較する
+ *   <li>allocation: 定常状態のTokenあたりの割り当て量(byte)を出力する。
+ *   {@code MecabAnalysisTests.testSteadyStateAllocation}の上限はこの値から決める
+ * </ul>
+ */
+public final class MecabAnalysisBenchmark {
+
+    /** スレッド毎の解析の繰り返し数 */
+    private static final int SCALING_ROUNDS = 20;
+    /** filterの比較の計測前の繰り返し数 */
+    private static final int FUSED_WARMUP_ROUNDS = 200;
+    /** filterの比較の計測する繰り返し数 */
+    private static final int FUSED_ROUNDS = 1000;
+
+    private MecabAnalysisBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> targets = args.length == 0 ? Arrays.asList("scaling", "fused", "allocation") : Arrays.asList(args);
+        for (String target : targets) {
+            switch (target) {
+                case "scaling":
+                    scaling();
+                    break;
+                case "fused":
+                    fused();
+                    break;
+                case "allocation":
+                    print("allocation: %d bytes/token", MecabAnalysisTests.allocatedBytesPerToken(MecabAnalysisTests.ALLOCATION_SOURCE));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown benchmark [" + target
+                        + "], must be one of [scaling, fused, allocation]");
+            }
+        }
+    }
+
+    /**
+     * スレッド数(1～CPU数×2)毎のスループット
+     */
+    private static void scaling() throws Exception {
+        Environment env = new Environment(Settings.builder()
+                .put(Environment.PATH_HOME_SETTING.getKey(), System.getProperty("java.io.tmpdir"))
+                .build());
+        TokenizerFactory factory = new MecabTokenizerFactory(
+                IndexSettingsModule.newIndexSettings("benchmark", Settings.EMPTY), env, "mecab_tokenizer", Settings.EMPTY);
+        MecabAnalyzer analyzer = new MecabAnalyzer();
+        try {
+            List<List<String>> expectedTokenizer = new ArrayList<>();
+            List<List<String>> expectedAnalyzer = new ArrayList<>();
+            MecabTokenizer baseline = (MecabTokenizer) factory.create();
+            try {
+                for (String source : MecabAnalysisTests.CORPUS) {
+                    expectedTokenizer.add(MecabAnalysisTests.tokenDetails(baseline, source));
+                    expectedAnalyzer.add(MecabAnalysisTests.analyzedTokens(analyzer, source));
+                }
+            } finally {
+                baseline.release();
+            }
+            int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+            List<Integer> threadCounts = new ArrayList<>();
+            for (int threads = 1; threads < maxThreads; threads *= 2) {
+                threadCounts.add(threads);
+            }
+            threadCounts.add(maxThreads);
+            for (int threads : threadCounts) {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Throwable> failures = new CopyOnWriteArrayList<>();
+                AtomicLong tokens = new AtomicLong();
+                List<Thread> workers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    // スレッド毎に異なる順序で解析する
+                    int first = t % MecabAnalysisTests.CORPUS.length;
+                    Thread worker = new Thread(() -> {
+                        MecabTokenizer tokenizer = (MecabTokenizer) factory.create();
+                        try {
+                            start.await();
+                            for (int round = 0; round < SCALING_ROUNDS; round++) {
+                                for (int i = 0; i < MecabAnalysisTests.CORPUS.length; i++) {
+                                    int doc = (first + i) % MecabAnalysisTests.CORPUS.length;
+                                    String source = MecabAnalysisTests.CORPUS[doc];
+                                    List<String> details = MecabAnalysisTests.tokenDetails(tokenizer, source);
+                                    List<String> analyzed = MecabAnalysisTests.analyzedTokens(analyzer, source);
+                                    if (details.equals(expectedTokenizer.get(doc)) == false
+                                            || analyzed.equals(expectedAnalyzer.get(doc)) == false) {
+                                        throw new AssertionError("differs from the single-threaded result: " + source);
+                                    }
+                                    tokens.addAndGet(details.size() + analyzed.size());
+                                }
+                            }
+                        } catch (Throwable e) {
+                            failures.add(e);
+                        } finally {
+                            tokenizer.release();
+                        }
+                    }, "mecab-benchmark-" + t);
+                    worker.start();
+                    workers.add(worker);
+                }
+                long begin = System.nanoTime();
+                start.countDown();
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                long elapsed = Math.max(1, System.nanoTime() - begin);
+                if (failures.isEmpty() == false) {
+                    AssertionError error = new AssertionError(threads + " threads: " + failures.size() + " failures");
+                    failures.forEach(error::addSuppressed);
+                    throw error;
+                }
+                print("scaling: %d threads: %d tokens/s", threads, tokens.get() * 1_000_000_000L / elapsed);
+            }
+        } finally {
+            analyzer.close();
+        }
+    }
+
+    /**
+     * 6段のfilterと1段のfilterのTokenあたりの処理時間
+     */
+    private static void fused() throws Exception {
+        MecabAnalyzer chained = new MecabAnalyzer();
+        MecabAnalyzer fused = new MecabAnalyzer();
+        fused.setFusedFilter(true);
+        // 後に解析する側のみが解析結果の共有を使用しないように、両者とも共有しない
+        chained.setSharedParse(false);
+        fused.setSharedParse(false);
+        try {
+            for (String source : MecabAnalysisTests.CORPUS) {
+                if (MecabAnalysisTests.analyzedTokens(fused, source)
+                        .equals(MecabAnalysisTests.analyzedTokens(chained, source)) == false) {
+                    throw new AssertionError("fused filter differs from the filter chain: " + source);
+                }
+            }
+            for (int round = 0; round < FUSED_WARMUP_ROUNDS; round++) {
+                consumeCorpus(chained);
+                consumeCorpus(fused);
+            }
+            // 交互に計測し、JITやGCの影響を両者に分散させる
+            long tokens = 0;
+            long chainedNanos = 0;
+            long fusedNanos = 0;
+            for (int round = 0; round < FUSED_ROUNDS; round++) {
+                long start = System.nanoTime();
+                tokens += consumeCorpus(chained);
+                chainedNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                consumeCorpus(fused);
+                fusedNanos += System.nanoTime() - start;
+            }
+            tokens = Math.max(1, tokens);
+            print("fused: chained %d ns/token, fused %d ns/token", chainedNanos / tokens, fusedNanos / tokens);
+        } finally {
+            chained.close();
+            fused.close();
+        }
+    }
+
+    private static long consumeCorpus(MecabAnalyzer analyzer) throws IOException {
+        long tokens = 0;
+        for (String source : MecabAnalysisTests.CORPUS) {
+            tokens += MecabAnalysisTests.consumeTokens(analyzer, source);
+        }
+        return tokens;
+    }
+
+    @SuppressForbidden(reason = "benchmark results are written to stdout")
+    private static void print(String format, Object... args) {
+        System.out.println(String.format(Locale.ROOT, format, args));
+    }
+}
@@ -19,41 +19,117 @@
 
 package org.elasticsearch.index.analysis;
 
+import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.FlattenGraphFilter;
 import org.apache.lucene.analysis.ja.JapaneseAnalyzer;
+import org.apache.lucene.analysis.ja.JapaneseIterationMarkCharFilter;
 import org.apache.lucene.analysis.ja.JapaneseTokenizer;
+import org.apache.lucene.analysis.ja.mecab.MecabAnalysisCache;
 import org.apache.lucene.analysis.ja.mecab.MecabAnalyzer;
+import org.apache.lucene.analysis.ja.mecab.MecabConcurrency;
+import org.apache.lucene.analysis.ja.mecab.MecabDecompositionCache;
+import org.apache.lucene.analysis.ja.mecab.MecabExplain;
+import org.apache.lucene.analysis.ja.mecab.MecabHandles;
+import org.apache.lucene.analysis.ja.mecab.MecabLimits;
+import org.apache.lucene.analysis.ja.mecab.MecabMemory;
+import org.apache.lucene.analysis.ja.mecab.MecabNormalization;
+import org.apache.lucene.analysis.ja.mecab.MecabPartOfSpeechStopFilter;
+import org.apache.lucene.analysis.ja.mecab.MecabPreAnalyzedTokenizer;
+import org.apache.lucene.analysis.ja.mecab.MecabSlowLog;
+import org.apache.lucene.analysis.ja.mecab.MecabStats;
 import org.apache.lucene.analysis.ja.mecab.MecabTokenizer;
 import org.apache.lucene.analysis.ja.mecab.dict.MecabWorkDictionary;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttribute;
+import org.apache.lucene.analysis.ja.mecab.tokenattributes.MecabFeatureAttributeImpl;
+import org.apache.lucene.analysis.ja.tokenattributes.BaseFormAttribute;
+import org.apache.lucene.analysis.ja.tokenattributes.PartOfSpeechAttribute;
+import org.apache.lucene.analysis.ja.tokenattributes.ReadingAttribute;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
 import org.elasticsearch.Version;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.Index;
+import org.elasticsearch.ingest.IngestDocument;
 import org.elasticsearch.plugin.analysis.mecab.AnalysisMecabPlugin;
+import org.elasticsearch.plugin.analysis.mecab.MecabAnalyzeProcessor;
+import org.elasticsearch.plugin.analysis.mecab.RestMecabExplainAction;
 import org.elasticsearch.test.ESTestCase;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.startsWith;
 
 /**
  */
 public class MecabAnalysisTests extends ESTestCase {
     private static final Logger logger = Loggers.getLogger(MecabAnalysisTests.class);
 
+    /**
+     * 定常状態(Tokenizerの再利用時)のTokenあたりの割り当て量の上限(byte)
+     *
+     * <p>Tokenizer及びFilterはTokenあたりの割り当てを行わない。
+     * 残るのはmecab(shared library)のbindingがNode毎に作成するNodeのwrapper・素性情報・表層形の文字列
+     * (1Nodeあたり約230byte)と、文書毎の割り当てのみとなる。
+     * 通常モード・除外なしでは1Nodeが1Tokenとなる為、2倍の増加を検出できるよう約1.4倍とする。
+     * 実測値は{@link MecabAnalysisBenchmark}のallocationで確認する。
+     */
+    private static final long MAX_ALLOCATED_BYTES_PER_TOKEN = 320;
+
+    /** 割り当て量の計測に使用する文書 */
+    static final String ALLOCATION_SOURCE = "情報処理技術者試験の会場は東京都庁舎です。明後日パーティーに行く予定がある。"
+            + "図書館で資料をコピーしました。今夜はロバート先生と話した。";
+
+    /** 並行解析の検証・ベンチマークに使用する文書 */
+    static final String[] CORPUS = new String[]{
+        "情報処理技術者試験の会場は東京都庁舎です。",
+        "明後日パーティーに行く予定がある。図書館で資料をコピーしました。",
+        "今夜はロバート先生と話した",
+        "本日十万二千五百円のワインを買った",
+        "時々、ゝゞヽヾ々の様な反復記号を使う。",
+        "ＡＢＣ１２３とabc123、ｶﾀｶﾅとカタカナ。",
+        "関西国際空港から羽田空港までの所要時間を調べる",
+        "http://example.com/index.html 型番XJ-9000の在庫を確認してください。",
+        "",
+        "吾輩は猫である。名前はまだ無い。どこで生れたかとんと見当がつかぬ。"
+    };
+
     public void testDefaultsMecabAnalysis() throws IOException {
         TestAnalysis analysis = createTestAnalysis();
 
@@ -91,6 +167,28 @@ public class MecabAnalysisTests extends ESTestCase {
 
     }
 
+    public void testSharedAnalyzer() throws IOException {
+        TestAnalysis first = createTestAnalysis();
+        TestAnalysis second = createTestAnalysis();
+        NamedAnalyzer analyzer = first.indexAnalyzers.get("mecab");
+        assertThat(analyzer.scope(), equalTo(AnalyzerScope.INDICES));
+        assertSame(analyzer.analyzer(), second.indexAnalyzers.get("mecab").analyzer());
+
+        // indexのclose後も他のindexで使用できる
+        first.indexAnalyzers.close();
+        String source = "私は制限スピードを超える。";
+        MecabAnalyzer expected = new MecabAnalyzer();
+        try {
+            MecabAnalyzer shared = (MecabAnalyzer) second.indexAnalyzers.get("mecab").analyzer();
+            assertThat(analyzedTokens(shared, source), equalTo(analyzedTokens(expected, source)));
+        } finally {
+            expected.close();
+        }
+
+        assertTrue(MecabAnalyzerProvider.isDefault(Settings.builder().put("type", "mecab").build()));
+        assertFalse(MecabAnalyzerProvider.isDefault(Settings.builder().put("type", "mecab").put("mode", "search").build()));
+    }
+
     public void testBaseFormFilterFactory() throws IOException {
         TestAnalysis analysis = createTestAnalysis();
         TokenFilterFactory tokenFilter = analysis.tokenFilter.get("mecab_pos");
@@ -290,6 +388,859 @@ public class MecabAnalysisTests extends ESTestCase {
 //
 //    }
 
+    public void testLatticeLimitBigramFallback() throws IOException {
+        String source = "あいうえおか。";
+        String[] expected = new String[]{"あい", "いう", "うえ", "えお", "おか"};
+        long before = MecabStats.LATTICE_LIMIT_FALLBACKS.sum();
+        MecabTokenizer tokenizer = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        tokenizer.setLimits(new MecabLimits(6, 0, 0, MecabLimits.Fallback.BIGRAM));
+        tokenizer.setReader(new StringReader(source));
+        assertSimpleTSOutput(tokenizer, expected);
+        assertThat(MecabStats.LATTICE_LIMIT_FALLBACKS.sum(), greaterThan(before));
+
+        // 文字数上限の区切り・bigramはサロゲートペアを分割しない
+        String surrogates = "𠮷𠮷𠮷𠮷𠮷𠮷𠮷𠮷";
+        tokenizer.setLimits(new MecabLimits(5, 0, 0, MecabLimits.Fallback.BIGRAM));
+        for (String detail : tokenDetails(tokenizer, surrogates)) {
+            String term = detail.substring(0, detail.indexOf('/'));
+            assertThat(detail, term.codePoints()
+                    .filter(cp -> cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE).count(), equalTo(0L));
+        }
+        assertThat(MecabStats.LATTICE_LIMIT_FALLBACKS.sum(), greaterThan(before + 1));
+    }
+
+    public void testFormattedParse() throws IOException {
+        String[] sources = new String[]{
+                "JR新宿駅の近くにビールを飲みに行こうか",
+                "明後日パーティーに行く予定がある。図書館で資料をコピーしました。",
+                "関西国際空港　 𠮷野家で ｶﾀｶﾅ と english words"};
+        for (JapaneseTokenizer.Mode mode : JapaneseTokenizer.Mode.values()) {
+            for (String source : sources) {
+                MecabTokenizer expected = new MecabTokenizer(null, null, true, mode);
+                MecabTokenizer actual = new MecabTokenizer(null, null, true, mode);
+                actual.setFormattedParse(true);
+                assertThat(mode + ": " + source, tokenDetails(actual, source), equalTo(tokenDetails(expected, source)));
+            }
+        }
+
+        // 空白の後の複合語・未知語もlatticeと同じく分割する
+        String spaced = "東京 情報処理技術者試験　東京都庁舎  ｱｲｳｴｵｶｷｸｹｺ";
+        for (JapaneseTokenizer.Mode mode : new JapaneseTokenizer.Mode[]{
+                JapaneseTokenizer.Mode.SEARCH, JapaneseTokenizer.Mode.EXTENDED}) {
+            MecabTokenizer expected = new MecabTokenizer(null, null, true, mode);
+            MecabTokenizer actual = new MecabTokenizer(null, null, true, mode);
+            actual.setFormattedParse(true);
+            List<String> details = tokenDetails(expected, spaced);
+            assertThat(mode + ": " + spaced, details, hasItem(startsWith("情報/")));
+            assertThat(mode + ": " + spaced, tokenDetails(actual, spaced), equalTo(details));
+        }
+    }
+
+    public void testJavaEngine() throws IOException {
+        String[] sources = new String[]{
+                "JR新宿駅の近くにビールを飲みに行こうか",
+                "明後日パーティーに行く予定がある。図書館で資料をコピーしました。",
+                "関西国際空港　 𠮷野家で ｶﾀｶﾅ と english words  "};
+        for (JapaneseTokenizer.Mode mode : JapaneseTokenizer.Mode.values()) {
+            for (String source : sources) {
+                MecabTokenizer expected = new MecabTokenizer(null, null, true, mode);
+                MecabTokenizer actual = new MecabTokenizer(null, null, true, mode, MecabTokenizer.Engine.JAVA);
+                assertThat(mode + ": " + source, tokenDetails(actual, source), equalTo(tokenDetails(expected, source)));
+            }
+        }
+
+        // 同じ辞書・同じ版の辞書は共有する
+        MecabTokenizer first = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH, MecabTokenizer.Engine.JAVA);
+        long live = MecabHandles.live(MecabHandles.Kind.DICTIONARY);
+        assertThat(live, greaterThan(0L));
+        MecabTokenizer second = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH, MecabTokenizer.Engine.JAVA);
+        assertThat(MecabHandles.live(MecabHandles.Kind.DICTIONARY), equalTo(live));
+        first.release();
+        second.release();
+    }
+
+    public void testScriptRouting() throws IOException {
+        String source = "JR新宿駅の近くで iPhone 15 を3月に買った version 2.0";
+        long before = MecabStats.SCRIPT_ROUTED_CHARS.sum();
+        MecabTokenizer expected = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        MecabTokenizer actual = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        actual.setScriptRouting(true);
+        List<String> expectedTerms = new ArrayList<>();
+        for (String detail : tokenDetails(expected, source)) {
+            expectedTerms.add(detail.substring(0, detail.lastIndexOf('/')));
+        }
+        List<String> actualTerms = new ArrayList<>();
+        for (String detail : tokenDetails(actual, source)) {
+            actualTerms.add(detail.substring(0, detail.lastIndexOf('/')));
+        }
+        // 品詞以外は同じ結果となる
+        assertThat(actualTerms, equalTo(expectedTerms));
+        assertThat(MecabStats.SCRIPT_ROUTED_CHARS.sum(), greaterThan(before));
+    }
+
+    public void testNormalization() throws IOException {
+        String source = "時々こゝろの学校でｶﾞｯｺｳのＡＢＣを見たゞ。";
+        // 反復記号の展開はCharFilterと同じ結果(offsetを含む)となる
+        MecabTokenizer expected = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        MecabTokenizer actual = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        actual.setNormalization(new MecabNormalization(true, true, false, false));
+        assertThat(tokenDetails(actual, source),
+                equalTo(tokenDetails(expected, new JapaneseIterationMarkCharFilter(new StringReader(source)))));
+
+        // 全角半角の変換後もoffsetは元の入力の位置となる
+        Tokenizer tokenizer = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        ((MecabTokenizer) tokenizer).setNormalization(new MecabNormalization(true, true, true, false));
+        tokenizer.setReader(new StringReader(source));
+        CharTermAttribute termAtt = tokenizer.getAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAtt = tokenizer.getAttribute(OffsetAttribute.class);
+        List<String> terms = new ArrayList<>();
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+            terms.add(termAtt.toString());
+            assertThat(offsetAtt.endOffset(), lessThanOrEqualTo(source.length()));
+            assertThat(offsetAtt.startOffset(), lessThanOrEqualTo(offsetAtt.endOffset()));
+            if ("ABC".contentEquals(termAtt)) {
+                assertThat(source.substring(offsetAtt.startOffset(), offsetAtt.endOffset()), equalTo("ＡＢＣ"));
+            }
+        }
+        tokenizer.end();
+        tokenizer.close();
+        assertThat(terms.contains("ABC"), equalTo(true));
+        assertThat(String.join("", terms).indexOf('ｶ'), equalTo(-1));
+    }
+
+    public void testFeatureAttribute() throws IOException {
+        String source = "今夜はロバート先生と話した";
+        Tokenizer tokenizer = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        tokenizer.setReader(new StringReader(source));
+        MecabFeatureAttribute featureAtt = tokenizer.getAttribute(MecabFeatureAttribute.class);
+        PartOfSpeechAttribute posAtt = tokenizer.getAttribute(PartOfSpeechAttribute.class);
+        BaseFormAttribute baseFormAtt = tokenizer.getAttribute(BaseFormAttribute.class);
+        ReadingAttribute readingAtt = tokenizer.getAttribute(ReadingAttribute.class);
+        tokenizer.reset();
+        int count = 0;
+        while (tokenizer.incrementToken()) {
+            // kuromoji互換のtokenattributesと同じ値となる
+            assertThat(featureAtt.getPartOfSpeech(), equalTo(posAtt.getPartOfSpeech()));
+            assertThat(featureAtt.getBaseForm(), equalTo(baseFormAtt.getBaseForm()));
+            assertThat(featureAtt.getReading(), equalTo(readingAtt.getReading()));
+            assertThat(featureAtt.getFeatureSize(), greaterThan(0));
+            count++;
+        }
+        tokenizer.end();
+        tokenizer.close();
+        assertThat(count, equalTo(7));
+
+        // クォートを含む素性情報
+        MecabFeatureAttributeImpl att = new MecabFeatureAttributeImpl();
+        att.setFeature(10, 1, 100, (short) 5, "名詞,\"a,b\",\"c\"\"d\",*,*,*,基本,ヨミ,ハツオン");
+        assertThat(att.getFeatureSize(), equalTo(9));
+        assertThat(att.getFeature(1), equalTo("a,b"));
+        assertThat(att.getFeature(2), equalTo("c\"d"));
+        assertThat(att.getPartOfSpeech(), equalTo("名詞-a,b-c\"d"));
+        assertThat(att.getBaseForm(), equalTo("基本"));
+        assertThat(att.getReading(), equalTo("ヨミ"));
+        assertThat(att.getInflectionForm(), equalTo(null));
+        assertThat(att.getFeature(9), equalTo(null));
+        att.clear();
+        assertThat(att.getPartOfSpeech(), equalTo(null));
+    }
+
+    public void testFusedFilter() throws IOException {
+        String[] sources = new String[]{
+                "JR新宿駅の近くにビールを飲みに行こうか",
+                "明後日パーティーに行く予定がある。図書館で資料をコピーしました。",
+                "ｺﾝﾋﾟｭｰﾀｰで ＡＢＣ と The Quick Brown Fox を検索する"};
+        MecabAnalyzer chained = new MecabAnalyzer();
+        MecabAnalyzer fused = new MecabAnalyzer();
+        fused.setFusedFilter(true);
+        try {
+            for (String source : sources) {
+                assertThat(source, analyzedTokens(fused, source), equalTo(analyzedTokens(chained, source)));
+            }
+        } finally {
+            chained.close();
+            fused.close();
+        }
+    }
+
+    public void testMemoryAccounting() throws IOException {
+        String source = "明後日パーティーに行く予定がある。図書館で資料をコピーしました。";
+        MecabAnalyzer analyzer = new MecabAnalyzer();
+        analyzer.setMemoryOwner("test");
+        try {
+            List<String> expected = analyzedTokens(analyzer, source);
+            assertThat(analyzer.ramBytesUsed(), greaterThan(0L));
+            assertThat(MecabMemory.snapshot().get("indices").toString(), containsString("test="));
+
+            // 上限を超える場合は拒否する
+            long before = MecabStats.MEMORY_LIMIT_TRIPS.sum();
+            MecabMemory.configure(1, MecabMemory.Action.REJECT);
+            expectThrows(IOException.class, () -> analyzedTokens(analyzer, source));
+            assertThat(MecabStats.MEMORY_LIMIT_TRIPS.sum(), greaterThan(before));
+
+            // 分割できない範囲は文字bigramとなる
+            MecabMemory.configure(1, MecabMemory.Action.CHUNK);
+            MecabTokenizer tokenizer = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+            tokenizer.setReader(new StringReader("あいうえお"));
+            assertSimpleTSOutput(tokenizer, new String[]{"あい", "いう", "うえ", "えお"});
+
+            // 上限内であれば結果は変わらない
+            MecabMemory.configure(1L << 30, MecabMemory.Action.REJECT);
+            assertThat(analyzedTokens(analyzer, source), equalTo(expected));
+            assertThat(MecabMemory.snapshot().get("reserved_in_bytes"), equalTo(0L));
+        } finally {
+            MecabMemory.configure(0, MecabMemory.Action.CHUNK);
+            analyzer.close();
+        }
+    }
+
+    public void testNativeLifecycle() throws IOException {
+        MecabHandles.snapshot();
+        long before = MecabHandles.live(MecabHandles.Kind.TAGGER);
+        MecabAnalyzer analyzer = new MecabAnalyzer();
+        analyzedTokens(analyzer, "今夜はロバート先生と話した");
+        assertThat(MecabHandles.live(MecabHandles.Kind.TAGGER), greaterThan(0L));
+        analyzer.close();
+        // 他のテストのGCされたTokenizerが解放される場合がある為、増加していない事のみ確認する
+        assertThat(MecabHandles.live(MecabHandles.Kind.TAGGER), lessThanOrEqualTo(before));
+
+        // 解放後は使用できない(2回目の解放は何もしない)
+        MecabTokenizer tokenizer = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        tokenizer.release();
+        tokenizer.release();
+        tokenizer.setReader(new StringReader("今夜"));
+        expectThrows(IllegalStateException.class, tokenizer::reset);
+    }
+
+    public void testDecompositionCache() throws IOException {
+        String source = "情報処理技術者試験の会場は東京都庁舎。情報処理技術者試験に合格した。";
+        MecabTokenizer tokenizer = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        try {
+            MecabDecompositionCache.setMaxEntries(0);
+            List<String> expected = tokenDetails(tokenizer, source);
+
+            // キャッシュの分割結果から作成したTokenは探索した場合と同じとなる
+            MecabDecompositionCache.setMaxEntries(MecabDecompositionCache.DEFAULT_MAX_ENTRIES);
+            MecabDecompositionCache.clear();
+            assertThat(tokenDetails(tokenizer, source), equalTo(expected));
+            long hits = (Long) MecabDecompositionCache.snapshot().get("hits");
+            assertThat((Long) MecabDecompositionCache.snapshot().get("entries"), greaterThan(0L));
+            assertThat(tokenDetails(tokenizer, source), equalTo(expected));
+            assertThat((Long) MecabDecompositionCache.snapshot().get("hits"), greaterThan(hits));
+        } finally {
+            MecabDecompositionCache.setMaxEntries(MecabDecompositionCache.DEFAULT_MAX_ENTRIES);
+            tokenizer.release();
+        }
+    }
+
+    public void testSharedParse() throws IOException {
+        String source = "情報処理技術者試験の会場は東京都庁舎です。今夜はロバート先生と話した";
+        MecabTokenizer surface = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        MecabTokenizer reading = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        MecabTokenizer normal = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.NORMAL);
+        MecabTokenizer unshared = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        unshared.setSharedParse(false);
+        try {
+            List<String> expected = tokenDetails(surface, source);
+            long hits = MecabStats.SHARED_PARSE_HITS.sum();
+            long misses = MecabStats.SHARED_PARSE_MISSES.sum();
+            // 同じ解析設定・同じ入力は解析結果を共有する
+            assertThat(tokenDetails(reading, source), equalTo(expected));
+            assertThat(MecabStats.SHARED_PARSE_HITS.sum(), equalTo(hits + 1));
+            // 解析設定が異なる場合は共有しない
+            assertThat(tokenDetails(normal, source).size(), lessThanOrEqualTo(expected.size()));
+            assertThat(MecabStats.SHARED_PARSE_HITS.sum(), equalTo(hits + 1));
+            assertThat(MecabStats.SHARED_PARSE_MISSES.sum(), equalTo(misses + 1));
+            // スレッド毎に1件のみ保持する為、異なる解析設定の解析で上書きされる
+            assertThat(tokenDetails(reading, source), equalTo(expected));
+            assertThat(MecabStats.SHARED_PARSE_HITS.sum(), equalTo(hits + 1));
+            assertThat(MecabStats.SHARED_PARSE_MISSES.sum(), equalTo(misses + 2));
+            assertThat((Long) MecabMemory.snapshot().get("shared_parse_in_bytes"), greaterThan(0L));
+            // 入力が異なる場合は共有しない
+            String other = "今夜はロバート先生と話した";
+            assertThat(tokenDetails(reading, other), equalTo(tokenDetails(unshared, other)));
+            assertThat(MecabStats.SHARED_PARSE_HITS.sum(), equalTo(hits + 1));
+            assertThat(MecabStats.SHARED_PARSE_MISSES.sum(), equalTo(misses + 3));
+        } finally {
+            surface.release();
+            reading.release();
+            normal.release();
+            unshared.release();
+        }
+    }
+
+    public void testAnalysisCache() throws IOException {
+        String source = "情報処理技術者試験の会場は東京都庁舎です。明後日パーティーに行く予定がある。\n今夜はロバート先生と話した";
+        MecabTokenizer direct = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        direct.setAnalysisCache(false);
+        List<String> expected = tokenDetails(direct, source);
+        direct.release();
+        MecabAnalysisCache.configure(createTempDir(), MecabAnalysisCache.DEFAULT_MAX_BYTES);
+        MecabTokenizer first = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        MecabTokenizer second = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        first.setSharedParse(false);
+        second.setSharedParse(false);
+        try {
+            // 文毎に解析して保存する
+            assertThat(tokenDetails(first, source), equalTo(expected));
+            long hits = (Long) MecabAnalysisCache.snapshot().get("hits");
+            assertThat(MecabAnalysisCache.snapshot().get("entries"), equalTo(3L));
+            // 保存した解析結果からTokenを作成する
+            assertThat(tokenDetails(second, source), equalTo(expected));
+            assertThat(MecabAnalysisCache.snapshot().get("hits"), equalTo(hits + 3));
+            assertThat(MecabAnalysisCache.snapshot().get("entries"), equalTo(3L));
+        } finally {
+            first.release();
+            second.release();
+            MecabAnalysisCache.configure(null, MecabAnalysisCache.DEFAULT_MAX_BYTES);
+        }
+    }
+
+    public void testAnalysisCachePath() throws IOException {
+        Path data = createTempDir();
+        Environment env = new Environment(Settings.builder()
+                .put(Environment.PATH_HOME_SETTING.getKey(), createTempDir().toString())
+                .put(Environment.PATH_DATA_SETTING.getKey(), data.toString())
+                .build());
+        // 相対パスはpath.dataから
+        assertThat(AnalysisMecabPlugin.resolveAnalysisCachePath(env, "mecab_cache"),
+                equalTo(data.toAbsolutePath().resolve("mecab_cache").normalize()));
+        assertThat(AnalysisMecabPlugin.resolveAnalysisCachePath(env, data.resolve("a/b").toString()),
+                equalTo(data.toAbsolutePath().resolve("a/b").normalize()));
+        // path.data外・path.data自体は指定できない
+        for (String path : new String[] {"../outside", createTempDir().toString(), ".", "mecab/../.."}) {
+            expectThrows(IllegalArgumentException.class, () -> AnalysisMecabPlugin.resolveAnalysisCachePath(env, path));
+        }
+    }
+
+    /**
+     * 共有したanalyzer・TokenizerFactoryを複数のスレッドで使用し、単一スレッドと同じ結果となることを検証する
+     *
+     * <p>スレッド数は2～CPU数×2から無作為に選択する。
+     * スレッド数毎のスループットは{@link MecabAnalysisBenchmark}で計測する。
+     */
+    public void testConcurrentAnalysis() throws Exception {
+        TestAnalysis analysis = createTestAnalysis();
+        TokenizerFactory factory = analysis.tokenizer.get("mecab_tokenizer");
+        MecabAnalyzer analyzer = new MecabAnalyzer();
+        try {
+            List<List<String>> expectedTokenizer = new ArrayList<>();
+            List<List<String>> expectedAnalyzer = new ArrayList<>();
+            MecabTokenizer baseline = (MecabTokenizer) factory.create();
+            try {
+                for (String source : CORPUS) {
+                    expectedTokenizer.add(tokenDetails(baseline, source));
+                    expectedAnalyzer.add(analyzedTokens(analyzer, source));
+                }
+            } finally {
+                baseline.release();
+            }
+            int threads = randomIntBetween(2, Math.max(2, Runtime.getRuntime().availableProcessors() * 2));
+            int rounds = 5;
+            CountDownLatch start = new CountDownLatch(1);
+            List<Throwable> failures = new CopyOnWriteArrayList<>();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                // スレッド毎に異なる順序で解析する
+                int first = randomInt(CORPUS.length - 1);
+                Thread worker = new Thread(() -> {
+                    MecabTokenizer tokenizer = (MecabTokenizer) factory.create();
+                    try {
+                        start.await();
+                        for (int round = 0; round < rounds; round++) {
+                            for (int i = 0; i < CORPUS.length; i++) {
+                                int doc = (first + i) % CORPUS.length;
+                                assertThat(tokenDetails(tokenizer, CORPUS[doc]), equalTo(expectedTokenizer.get(doc)));
+                                assertThat(analyzedTokens(analyzer, CORPUS[doc]), equalTo(expectedAnalyzer.get(doc)));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    } finally {
+                        tokenizer.release();
+                    }
+                }, "mecab-concurrent-" + t);
+                worker.start();
+                workers.add(worker);
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            if (failures.isEmpty() == false) {
+                AssertionError error = new AssertionError(threads + " threads: " + failures.size() + " failures");
+                failures.forEach(error::addSuppressed);
+                throw error;
+            }
+        } finally {
+            analyzer.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testConcurrencyLimit() throws Exception {
+        MecabAnalyzer analyzer = new MecabAnalyzer();
+        try {
+            List<List<String>> expected = new ArrayList<>();
+            for (String source : CORPUS) {
+                expected.add(analyzedTokens(analyzer, source));
+            }
+            MecabConcurrency.configure(1, -1);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Throwable> failures = new CopyOnWriteArrayList<>();
+            List<Thread> workers = new ArrayList<>();
+            // thread pool名で検索時・索引時の解析を判定する
+            for (String name : new String[] {"elasticsearch[test][search][T#1]", "elasticsearch[test][bulk][T#1]",
+                    "elasticsearch[test][search][T#2]", "elasticsearch[test][bulk][T#2]"}) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < CORPUS.length; i++) {
+                            assertThat(analyzedTokens(analyzer, CORPUS[i]), equalTo(expected.get(i)));
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }, name);
+                worker.start();
+                workers.add(worker);
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertTrue(failures.toString(), failures.isEmpty());
+            Map<String, Object> stats = MecabConcurrency.snapshot();
+            assertThat(stats.get("active"), equalTo(0));
+            Map<String, Map<String, Object>> lanes = (Map<String, Map<String, Object>>) stats.get("lanes");
+            for (String lane : new String[] {"search", "index"}) {
+                assertThat(lanes.get(lane).get("queue"), equalTo(0));
+                assertThat((Long) lanes.get(lane).get("total"), greaterThanOrEqualTo((long) CORPUS.length * 2));
+                assertThat((Long) lanes.get(lane).get("rejected"), equalTo(0L));
+            }
+        } finally {
+            MecabConcurrency.configure(0, -1);
+            analyzer.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testConcurrencyLanePriority() throws Exception {
+        MecabConcurrency.configure(1, -1);
+        List<Thread> workers = new ArrayList<>();
+        boolean held = false;
+        try {
+            // 実行中の解析を1件とし、以降の解析を待機させる
+            held = MecabConcurrency.acquire();
+            assertTrue(held);
+            List<String> order = new CopyOnWriteArrayList<>();
+            List<Throwable> failures = new CopyOnWriteArrayList<>();
+            String[][] arrivals = {{"elasticsearch[test][bulk][T#1]", "index"}, {"elasticsearch[test][bulk][T#2]", "index"},
+                    {"elasticsearch[test][search][T#1]", "search"}, {"elasticsearch[test][search][T#2]", "search"}};
+            int[] queued = new int[2];
+            for (String[] arrival : arrivals) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        if (MecabConcurrency.acquire()) {
+                            order.add(Thread.currentThread().getName());
+                            MecabConcurrency.release();
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }, arrival[0]);
+                worker.start();
+                workers.add(worker);
+                // 到着順を確定させる為、待機を確認してから次のスレッドを開始する
+                int expectedQueue = ++queued["search".equals(arrival[1]) ? 0 : 1];
+                assertBusy(() -> {
+                    Map<String, Map<String, Object>> lanes =
+                            (Map<String, Map<String, Object>>) MecabConcurrency.snapshot().get("lanes");
+                    assertThat(lanes.get(arrival[1]).get("queue"), equalTo(expectedQueue));
+                });
+            }
+            held = false;
+            MecabConcurrency.release();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertTrue(failures.toString(), failures.isEmpty());
+            // 検索時の解析を索引時の解析より先に実行し、同じ種別の中では到着順とする
+            assertThat(order, equalTo(Arrays.asList(arrivals[2][0], arrivals[3][0], arrivals[0][0], arrivals[1][0])));
+        } finally {
+            if (held) {
+                MecabConcurrency.release();
+            }
+            MecabConcurrency.configure(0, -1);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+    }
+
+    public void testTokenizerStopTags() throws IOException {
+        Set<String> stopTags = JapaneseAnalyzer.getDefaultStopTags();
+        long removals = MecabStats.STOP_TAG_REMOVALS.sum();
+        for (JapaneseTokenizer.Mode mode : JapaneseTokenizer.Mode.values()) {
+            MecabTokenizer filtered = new MecabTokenizer(null, null, true, mode);
+            MecabTokenizer stopped = new MecabTokenizer(null, null, true, mode);
+            stopped.setStopTags(stopTags);
+            try {
+                // mecab_part_of_speechと同じToken・位置(除外した形態素の位置は後続のTokenに加算)となる
+                for (String source : CORPUS) {
+                    filtered.setReader(new StringReader(source));
+                    List<String> expected = tokenDetails(new MecabPartOfSpeechStopFilter(filtered, stopTags));
+                    assertThat(mode + ": " + source, tokenDetails(stopped, source), equalTo(expected));
+                }
+            } finally {
+                filtered.release();
+                stopped.release();
+            }
+        }
+        assertThat(MecabStats.STOP_TAG_REMOVALS.sum(), greaterThan(removals));
+    }
+
+    public void testNBestTokenGraph() throws IOException {
+        long segmentations = MecabStats.NBEST_SEGMENTATIONS.sum();
+        MecabTokenizer normal = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.NORMAL);
+        MecabTokenizer graph = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.NORMAL);
+        graph.setNBest(3, 0);
+        try {
+            for (String source : CORPUS) {
+                // 最適解の分割はToken graphの1つの経路となる(位置 + PositionLength = 次の形態素の位置)
+                Map<String, int[]> graphPositions = positions(graph, source);
+                int[] previous = null;
+                for (Map.Entry<String, int[]> entry : positions(normal, source).entrySet()) {
+                    int[] position = graphPositions.get(entry.getKey());
+                    assertNotNull(source + ": " + entry.getKey(), position);
+                    if (previous != null) {
+                        assertThat(source + ": " + entry.getKey(), position[0], equalTo(previous[0] + previous[1]));
+                    }
+                    previous = position;
+                }
+                assertThat(source, graphPositions.size(), greaterThanOrEqualTo(positions(normal, source).size()));
+                // 索引時はFlattenGraphFilterで平坦化できる
+                graph.setReader(new StringReader(source));
+                assertFalse(tokenDetails(new FlattenGraphFilter(graph)).isEmpty());
+            }
+            // 長い入力でも探索回数は上限まで
+            StringBuilder longSource = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                longSource.append("すもももももももものうち");
+            }
+            graph.setNBest(MecabTokenizer.MAX_NBEST_SIZE, 0);
+            assertFalse(positions(graph, longSource.toString()).isEmpty());
+        } finally {
+            normal.release();
+            graph.release();
+        }
+        assertThat(MecabStats.NBEST_SEGMENTATIONS.sum(), greaterThan(segmentations + CORPUS.length));
+
+        // 取得する分割数は上限まで
+        expectThrows(IllegalArgumentException.class, () -> normal.setNBest(MecabTokenizer.MAX_NBEST_SIZE + 1, 0));
+        expectThrows(IllegalArgumentException.class, () -> MecabTokenizerFactory.getNBestSize(
+                Settings.builder().put("nbest_size", MecabTokenizer.MAX_NBEST_SIZE + 1).build()));
+        assertThat(MecabTokenizerFactory.getNBestSize(
+                Settings.builder().put("nbest_size", MecabTokenizer.MAX_NBEST_SIZE).build()), equalTo(MecabTokenizer.MAX_NBEST_SIZE));
+    }
+
+    public void testSlowLog() throws IOException {
+        List<String> messages = new CopyOnWriteArrayList<>();
+        Appender appender = new AbstractAppender("mecab_slowlog_test", null, null) {
+            @Override
+            public void append(LogEvent event) {
+                messages.add(event.getMessage().getFormattedMessage());
+            }
+        };
+        appender.start();
+        Logger slowLogger = LogManager.getLogger(MecabSlowLog.LOGGER_NAME);
+        Loggers.addAppender(slowLogger, appender);
+        MecabAnalyzer analyzer = new MecabAnalyzer();
+        String source = "情報処理技術者試験の会場は東京都庁舎です。\n今夜はロバート先生と話した";
+        try {
+            // 閾値未満は出力しない
+            MecabSlowLog.configure(TimeUnit.HOURS.toNanos(1), 0);
+            consumeTokens(analyzer, source);
+            assertTrue(messages.isEmpty());
+            long slow = MecabStats.SLOW_ANALYSES.sum();
+            MecabSlowLog.configure(0, 10);
+            consumeTokens(analyzer, source);
+            assertThat(MecabStats.SLOW_ANALYSES.sum(), equalTo(slow + 1));
+            assertThat(messages.size(), equalTo(1));
+            String message = messages.get(0);
+            assertThat(message, containsString("field[field]"));
+            assertThat(message, containsString("mode[search]"));
+            assertThat(message, containsString("input_length[" + source.length() + "]"));
+            assertThat(message, containsString("source[情報処理技術者試験の]"));
+        } finally {
+            MecabSlowLog.configure(-1, 0);
+            Loggers.removeAppender(slowLogger, appender);
+            analyzer.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testExplain() throws IOException {
+        String source = "情報処理技術者試験の会場は東京都庁舎です";
+        MecabTokenizer plain = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        MecabTokenizer explained = new MecabTokenizer(null, null, true, JapaneseTokenizer.Mode.SEARCH);
+        plain.setSharedParse(false);
+        explained.setSharedParse(false);
+        MecabExplain explain = new MecabExplain();
+        explained.setExplain(explain);
+        try {
+            // 記録中も解析結果は同じ
+            assertThat(tokenDetails(explained, source), equalTo(tokenDetails(plain, source)));
+            Map<String, Object> result = explain.toMap();
+            assertThat((Long) result.get("lattice_calls"), greaterThan(0L));
+            assertThat((Long) ((Map<String, Object>) result.get("timings")).get("total_nanos"), greaterThan(0L));
+            List<Map<String, Object>> lattices = (List<Map<String, Object>>) result.get("lattices");
+            assertThat(lattices.size(), equalTo(1));
+            // 最適解は入力全体を覆う
+            StringBuilder path = new StringBuilder();
+            for (Map<String, Object> node : (List<Map<String, Object>>) lattices.get(0).get("best_path")) {
+                assertThat(node.get("start_offset"), equalTo(path.length()));
+                path.append(node.get("surface"));
+            }
+            assertThat(path.toString(), equalTo(source));
+            // 分割対象の形態素は候補と選択した分割を記録する
+            List<Map<String, Object>> decompositions = (List<Map<String, Object>>) lattices.get(0).get("decompositions");
+            assertThat(decompositions.size(), greaterThan(0));
+            for (Map<String, Object> decomposition : decompositions) {
+                assertThat(((List<?>) decomposition.get("candidates")).size(), greaterThan(0));
+                List<String> chosen = (List<String>) decomposition.get("chosen");
+                if (chosen.isEmpty() == false) {
+                    assertTrue(String.join("", chosen).startsWith((String) decomposition.get("surface")));
+                }
+            }
+        } finally {
+            plain.release();
+            explained.release();
+        }
+        // REST APIでは辞書・実行エンジンを指定できず、nbest_sizeは上限まで
+        RestMecabExplainAction.validate(Settings.builder().put("mode", "search").put("nbest_size", 3).build());
+        for (String key : new String[] {"dictionary_path", "user_dictionary", "engine"}) {
+            expectThrows(IllegalArgumentException.class,
+                    () -> RestMecabExplainAction.validate(Settings.builder().put(key, "java").build()));
+        }
+        expectThrows(IllegalArgumentException.class, () -> RestMecabExplainAction.validate(
+                Settings.builder().put("nbest_size", RestMecabExplainAction.MAX_NBEST_SIZE + 1).build()));
+    }
+
+    public void testSteadyStateAllocation() throws IOException {
+        long allocated = allocatedBytesPerToken(ALLOCATION_SOURCE);
+        assumeTrue("thread allocated memory is not supported", allocated >= 0);
+        assertThat("allocated bytes per token", allocated, lessThanOrEqualTo(MAX_ALLOCATED_BYTES_PER_TOKEN));
+    }
+
+    /**
+     * 定常状態のTokenあたりの割り当て量(byte)
+     *
+     * <p>通常モード・句読点/品詞/stopwordの除外なしのanalyzerで計測し、mecabのNodeとTokenを1対1とする。
+     *
+     * @param source  文書
+     * @return  割り当て量(計測できないJVMでは-1)
+     */
+    static long allocatedBytesPerToken(String source) throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if ((bean instanceof com.sun.management.ThreadMXBean) == false
+                || ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled() == false) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        MecabAnalyzer analyzer = new MecabAnalyzer(null, null, false, JapaneseTokenizer.Mode.NORMAL,
+                CharArraySet.EMPTY_SET, Collections.emptySet());
+        // 同じ文書の解析結果の共有・キャッシュではなく、mecabによる解析の割り当て量を計測する
+        analyzer.setSharedParse(false);
+        analyzer.setAnalysisCache(false);
+        try {
+            // 再利用するバッファ・Tokenを作成する
+            for (int i = 0; i < 100; i++) {
+                consumeTokens(analyzer, source);
+            }
+            long tokens = 0;
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < 500; i++) {
+                tokens += consumeTokens(analyzer, source);
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            assertThat(tokens, greaterThan(0L));
+            return allocated / tokens;
+        } finally {
+            analyzer.close();
+        }
+    }
+
+    public void testIngestProcessor() throws Exception {
+        TestAnalysis analysis = createTestAnalysis();
+        TokenizerFactory tokenizerFactory = analysis.tokenizer.get("mecab_preanalyzed");
+        assertThat(tokenizerFactory, instanceOf(MecabPreAnalyzedTokenizerFactory.class));
+
+        Settings nodeSettings = Settings.builder().put(Environment.PATH_HOME_SETTING.getKey(), createTempDir()).build();
+        MecabAnalyzeProcessor.Factory factory = new MecabAnalyzeProcessor.Factory(new Environment(nodeSettings));
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "body");
+        config.put("features", true);
+        config.put("analyzer", Collections.singletonMap("mode", "search"));
+        MecabAnalyzeProcessor processor = factory.create(null, "tag", config);
+        assertThat(config.isEmpty(), equalTo(true));
+
+        String source = "情報処理技術者試験の会場は東京都庁舎です。今夜はロバート先生と話した";
+        Map<String, Object> document = new HashMap<>();
+        document.put("body", source);
+        IngestDocument ingestDocument = new IngestDocument(document, new HashMap<>());
+        processor.execute(ingestDocument);
+        String encoded = ingestDocument.getFieldValue("body_tokens", String.class);
+
+        // mecabを使用せずに同じTokenとなる
+        MecabAnalyzer analyzer = new MecabAnalyzer();
+        try {
+            List<String> expected = analyzedTokens(analyzer, source);
+            Tokenizer tokenizer = tokenizerFactory.create();
+            tokenizer.setReader(new StringReader(encoded));
+            CharTermAttribute termAtt = tokenizer.getAttribute(CharTermAttribute.class);
+            OffsetAttribute offsetAtt = tokenizer.getAttribute(OffsetAttribute.class);
+            PositionIncrementAttribute posIncAtt = tokenizer.getAttribute(PositionIncrementAttribute.class);
+            MecabFeatureAttribute featureAtt = tokenizer.getAttribute(MecabFeatureAttribute.class);
+            List<String> actual = new ArrayList<>();
+            tokenizer.reset();
+            while (tokenizer.incrementToken()) {
+                assertThat(featureAtt.getFeature(), notNullValue());
+                actual.add(termAtt + "/" + offsetAtt.startOffset() + "-" + offsetAtt.endOffset()
+                        + "/" + posIncAtt.getPositionIncrement());
+            }
+            tokenizer.end();
+            actual.add("end/" + offsetAtt.endOffset() + "/" + posIncAtt.getPositionIncrement());
+            tokenizer.close();
+            assertThat(actual, equalTo(expected));
+        } finally {
+            analyzer.close();
+        }
+
+        // 同じ設定のprocessorはanalyzerを共有する
+        Map<String, Object> other = new HashMap<>();
+        other.put("field", "title");
+        other.put("analyzer", Collections.singletonMap("mode", "search"));
+        assertThat(factory.create(null, "other", other).getType(), equalTo(MecabAnalyzeProcessor.TYPE));
+
+        // 配列のnullの要素は解析しない
+        Map<String, Object> listDocument = new HashMap<>();
+        listDocument.put("body", Arrays.asList("今夜", null, "先生"));
+        IngestDocument listIngestDocument = new IngestDocument(listDocument, new HashMap<>());
+        processor.execute(listIngestDocument);
+        assertThat(listIngestDocument.getFieldValue("body_tokens", List.class).size(), equalTo(2));
+        factory.close();
+    }
+
+    public void testPreAnalyzedFormat() throws IOException {
+        Tokenizer tokenizer = new MecabPreAnalyzedTokenizer();
+        // 項目の区切り・改行を含む表層形、形態素情報の省略
+        String encoded = "mecab1\t9\na\\tb\t0\t3\t1\t1\nc\\\\d\t4\t7\t1\t2\t10\t0\t0\t5\t名詞,一般,*\n";
+        tokenizer.setReader(new StringReader(encoded));
+        CharTermAttribute termAtt = tokenizer.getAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAtt = tokenizer.getAttribute(OffsetAttribute.class);
+        PositionLengthAttribute posLenAtt = tokenizer.getAttribute(PositionLengthAttribute.class);
+        MecabFeatureAttribute featureAtt = tokenizer.getAttribute(MecabFeatureAttribute.class);
+        tokenizer.reset();
+        assertThat(tokenizer.incrementToken(), equalTo(true));
+        assertThat(termAtt.toString(), equalTo("a\tb"));
+        assertThat(featureAtt.getFeature(), equalTo(null));
+        assertThat(tokenizer.incrementToken(), equalTo(true));
+        assertThat(termAtt.toString(), equalTo("c\\d"));
+        assertThat(offsetAtt.startOffset(), equalTo(4));
+        assertThat(posLenAtt.getPositionLength(), equalTo(2));
+        assertThat(featureAtt.getPosId(), equalTo(10));
+        assertThat(featureAtt.getPartOfSpeech(), equalTo("名詞-一般"));
+        assertThat(tokenizer.incrementToken(), equalTo(false));
+        tokenizer.end();
+        assertThat(offsetAtt.endOffset(), equalTo(9));
+        tokenizer.close();
+
+        tokenizer.setReader(new StringReader("{\"tokens\":[]}"));
+        tokenizer.reset();
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, tokenizer::incrementToken);
+        assertThat(e.getMessage(), containsString("unsupported pre-analyzed format"));
+        tokenizer.close();
+    }
+
+    static long consumeTokens(MecabAnalyzer analyzer, String source) throws IOException {
+        long count = 0;
+        try (TokenStream stream = analyzer.tokenStream("field", source)) {
+            stream.reset();
+            while (stream.incrementToken()) {
+                count++;
+            }
+            stream.end();
+        }
+        return count;
+    }
+
+    static List<String> analyzedTokens(MecabAnalyzer analyzer, String source) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream("field", source)) {
+            CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offsetAtt = stream.addAttribute(OffsetAttribute.class);
+            PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(termAtt + "/" + offsetAtt.startOffset() + "-" + offsetAtt.endOffset()
+                        + "/" + posIncAtt.getPositionIncrement());
+            }
+            stream.end();
+            tokens.add("end/" + offsetAtt.endOffset() + "/" + posIncAtt.getPositionIncrement());
+        }
+        return tokens;
+    }
+
+    /** offset("開始-終了")毎の位置とPositionLength(出力順) */
+    private static Map<String, int[]> positions(Tokenizer tokenizer, String source) throws IOException {
+        OffsetAttribute offsetAtt = tokenizer.getAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute posIncAtt = tokenizer.getAttribute(PositionIncrementAttribute.class);
+        PositionLengthAttribute posLenAtt = tokenizer.getAttribute(PositionLengthAttribute.class);
+        Map<String, int[]> positions = new LinkedHashMap<>();
+        int position = -1;
+        tokenizer.setReader(new StringReader(source));
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+            position += posIncAtt.getPositionIncrement();
+            assertThat(posLenAtt.getPositionLength(), greaterThanOrEqualTo(1));
+            positions.put(offsetAtt.startOffset() + "-" + offsetAtt.endOffset(),
+                    new int[] {position, posLenAtt.getPositionLength()});
+        }
+        tokenizer.end();
+        tokenizer.close();
+        return positions;
+    }
+
+    static List<String> tokenDetails(Tokenizer tokenizer, String source) throws IOException {
+        return tokenDetails(tokenizer, new StringReader(source));
+    }
+
+    private static List<String> tokenDetails(Tokenizer tokenizer, Reader reader) throws IOException {
+        tokenizer.setReader(reader);
+        return tokenDetails(tokenizer);
+    }
+
+    private static List<String> tokenDetails(TokenStream stream) throws IOException {
+        CharTermAttribute termAtt = stream.getAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAtt = stream.getAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute posIncAtt = stream.getAttribute(PositionIncrementAttribute.class);
+        PositionLengthAttribute posLenAtt = stream.getAttribute(PositionLengthAttribute.class);
+        PartOfSpeechAttribute posAtt = stream.getAttribute(PartOfSpeechAttribute.class);
+        List<String> details = new ArrayList<>();
+        stream.reset();
+        while (stream.incrementToken()) {
+            details.add(termAtt + "/" + offsetAtt.startOffset() + "-" + offsetAtt.endOffset()
+                    + "/" + posIncAtt.getPositionIncrement() + "/" + posLenAtt.getPositionLength()
+                    + "/" + posAtt.getPartOfSpeech());
+        }
+        stream.end();
+        stream.close();
+        return details;
+    }
+
     public void testNumberFilterFactory() throws Exception {
         TestAnalysis analysis = createTestAnalysis();
         TokenFilterFactory tokenFilter = analysis.tokenFilter.get("mecab_number");